@@ -0,0 +1,115 @@
+package simbryo.dynamics.tissue.cellprop.operators.bench;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import simbryo.dynamics.tissue.TissueDynamics;
+import simbryo.dynamics.tissue.cellprop.CellProperty;
+import simbryo.dynamics.tissue.cellprop.operators.impl.StrogatzWaveOperator;
+import simbryo.particles.neighborhood.bench.NeighborhoodGridBenchmarks;
+
+/**
+ * Strogatz wave operator benchmarks: applies the operator once to all cells of
+ * a 3D tissue with random oscillator phases. The default event hook is used,
+ * so no cell divides.
+ *
+ * @author royer
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StrogatzWaveOperatorBenchmarks
+{
+  /**
+   * Number of cells
+   */
+  @Param(
+  { "1000", "10000", "100000" })
+  public int mNumberOfParticles;
+
+  /**
+   * Grid size along each dimension
+   */
+  @Param(
+  { "16", "32" })
+  public int mGridSize;
+
+  /**
+   * Whether range-safe operators are applied in parallel
+   */
+  @Param(
+  { "false", "true" })
+  public boolean mParallelOperators;
+
+  private TissueDynamics mTissueDynamics;
+  private CellProperty mCellProperty;
+  private StrogatzWaveOperator mStrogatzWaveOperator;
+
+  /**
+   * Creates the tissue, cell property and operator.
+   */
+  @Setup
+  public void setup()
+  {
+    final float lRadius =
+                        NeighborhoodGridBenchmarks.getRadiusForVolumeFraction(mNumberOfParticles,
+                                                                              0.3f);
+    final int lMaxParticlesPerCell =
+                                   NeighborhoodGridBenchmarks.getMaxParticlesPerCell(mNumberOfParticles,
+                                                                                     mGridSize,
+                                                                                     lRadius);
+
+    mTissueDynamics = new TissueDynamics(0.00008f,
+                                         0.9f,
+                                         lMaxParticlesPerCell,
+                                         mGridSize,
+                                         mGridSize,
+                                         mGridSize);
+
+    SplittableRandom lRandom = new SplittableRandom(1);
+    for (int i = 0; i < mNumberOfParticles; i++)
+    {
+      int lId =
+              mTissueDynamics.addParticle((float) lRandom.nextDouble(),
+                                          (float) lRandom.nextDouble(),
+                                          (float) lRandom.nextDouble());
+      mTissueDynamics.setRadius(lId, lRadius);
+      mTissueDynamics.setTargetRadius(lId, lRadius);
+    }
+    mTissueDynamics.updateNeighborhoodGrid();
+    mTissueDynamics.setParallelOperators(mParallelOperators);
+
+    mCellProperty = new CellProperty(mTissueDynamics);
+    for (int i = 0; i < mNumberOfParticles; i++)
+      mCellProperty.set(i, (float) lRandom.nextDouble());
+
+    mStrogatzWaveOperator = new StrogatzWaveOperator(0.001f,
+                                                     0.01f,
+                                                     0.1f);
+  }
+
+  /**
+   * Applies the operator to all cells.
+   */
+  @Benchmark
+  public void applyOperator()
+  {
+    mTissueDynamics.applyOperator(mStrogatzWaveOperator, mCellProperty);
+  }
+
+}
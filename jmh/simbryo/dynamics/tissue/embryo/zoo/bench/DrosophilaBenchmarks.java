@@ -0,0 +1,119 @@
+package simbryo.dynamics.tissue.embryo.zoo.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import simbryo.dynamics.tissue.embryo.zoo.Drosophila;
+
+/**
+ * Drosophila benchmarks: runs 100 full simulation steps of a Drosophila embryo
+ * developed up to a given number of cells. The embryo is created with a fixed
+ * seed, and the developed embryo is kept in serialized form and restored before
+ * each invocation so that every measured invocation starts from the same
+ * state, across runs and versions.
+ *
+ * @author royer
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DrosophilaBenchmarks
+{
+  private static final int cMaxNumberOfDevelopmentSteps = 100000;
+  private static final long cSeed = 42;
+
+  /**
+   * Number of cells the embryo is developed to before measuring.
+   */
+  @Param(
+  { "256", "1024", "4096" })
+  public int mNumberOfParticles;
+
+  /**
+   * Grid size along each dimension
+   */
+  @Param(
+  { "16", "32" })
+  public int mGridSize;
+
+  private byte[] mDevelopedEmbryo;
+  private Drosophila mDrosophila;
+
+  /**
+   * Develops the embryo up to the requested number of cells.
+   *
+   * @throws IOException
+   *           if the embryo cannot be serialized
+   */
+  @Setup(Level.Trial)
+  public void develop() throws IOException
+  {
+    Drosophila lDrosophila = new Drosophila(cSeed,
+                                            64,
+                                            mGridSize,
+                                            mGridSize,
+                                            mGridSize);
+
+    for (int i = 0; i < cMaxNumberOfDevelopmentSteps
+                    && lDrosophila.getNumberOfParticles() < mNumberOfParticles; i +=
+                                                                                    100)
+      lDrosophila.simulationSteps(100);
+
+    ByteArrayOutputStream lByteArrayOutputStream =
+                                                  new ByteArrayOutputStream();
+    try (ObjectOutputStream lObjectOutputStream =
+                                                new ObjectOutputStream(lByteArrayOutputStream))
+    {
+      lObjectOutputStream.writeObject(lDrosophila);
+    }
+    mDevelopedEmbryo = lByteArrayOutputStream.toByteArray();
+  }
+
+  /**
+   * Restores the developed embryo.
+   *
+   * @throws IOException
+   *           if the embryo cannot be deserialized
+   * @throws ClassNotFoundException
+   *           if the embryo cannot be deserialized
+   */
+  @Setup(Level.Invocation)
+  public void restore() throws IOException, ClassNotFoundException
+  {
+    try (ObjectInputStream lObjectInputStream =
+                                              new ObjectInputStream(new ByteArrayInputStream(mDevelopedEmbryo)))
+    {
+      mDrosophila = (Drosophila) lObjectInputStream.readObject();
+    }
+  }
+
+  /**
+   * Runs 100 simulation steps.
+   */
+  @Benchmark
+  public void simulationSteps()
+  {
+    mDrosophila.simulationSteps(100);
+  }
+
+}
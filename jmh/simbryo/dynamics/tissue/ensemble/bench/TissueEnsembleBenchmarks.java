@@ -0,0 +1,152 @@
+package simbryo.dynamics.tissue.ensemble.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import simbryo.dynamics.tissue.embryo.zoo.Organoid;
+import simbryo.dynamics.tissue.ensemble.TissueEnsemble;
+
+/**
+ * Tissue ensemble benchmarks: runs 100 simulation steps of each of N seeded
+ * organoids, either one after the other on the benchmark thread (N independent
+ * single runs) or as an ensemble on a pool of a given number of workers. Each
+ * member owns its particle arrays, grid and neighbor lists, the ensemble pays
+ * off if it keeps the per-core throughput of independent runs: the ensemble
+ * score multiplied by min(members, workers) should match the independent runs
+ * score, on a machine with at least that many cores.
+ *
+ * The developed members are kept in serialized form and restored before each
+ * invocation so that every measured invocation starts from the same state.
+ *
+ * @author royer
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TissueEnsembleBenchmarks
+{
+  private static final int cNumberOfDevelopmentSteps = 1000;
+  private static final int cNumberOfSteps = 100;
+
+  /**
+   * Number of members
+   */
+  @Param(
+  { "1", "4", "16" })
+  public int mNumberOfMembers;
+
+  /**
+   * Number of workers of the ensemble pool
+   */
+  @Param(
+  { "1", "4" })
+  public int mNumberOfWorkers;
+
+  private byte[][] mDevelopedMembers;
+  private ArrayList<Organoid> mMembers;
+  private TissueEnsemble<Organoid> mEnsemble;
+  private ForkJoinPool mPool;
+
+  /**
+   * Develops the members, each with its own seed.
+   *
+   * @throws IOException
+   *           if a member cannot be serialized
+   */
+  @Setup(Level.Trial)
+  public void develop() throws IOException
+  {
+    mDevelopedMembers = new byte[mNumberOfMembers][];
+    for (int i = 0; i < mNumberOfMembers; i++)
+    {
+      Organoid lOrganoid = new Organoid((long) i, 16, 16, 16);
+      lOrganoid.simulationSteps(cNumberOfDevelopmentSteps);
+
+      ByteArrayOutputStream lByteArrayOutputStream =
+                                                    new ByteArrayOutputStream();
+      try (ObjectOutputStream lObjectOutputStream =
+                                                  new ObjectOutputStream(lByteArrayOutputStream))
+      {
+        lObjectOutputStream.writeObject(lOrganoid);
+      }
+      mDevelopedMembers[i] = lByteArrayOutputStream.toByteArray();
+    }
+
+    mPool = new ForkJoinPool(mNumberOfWorkers);
+  }
+
+  /**
+   * Restores the developed members.
+   *
+   * @throws IOException
+   *           if a member cannot be deserialized
+   * @throws ClassNotFoundException
+   *           if a member cannot be deserialized
+   */
+  @Setup(Level.Invocation)
+  public void restore() throws IOException, ClassNotFoundException
+  {
+    mMembers = new ArrayList<>(mNumberOfMembers);
+    for (byte[] lDevelopedMember : mDevelopedMembers)
+      try (ObjectInputStream lObjectInputStream =
+                                                new ObjectInputStream(new ByteArrayInputStream(lDevelopedMember)))
+      {
+        mMembers.add((Organoid) lObjectInputStream.readObject());
+      }
+
+    mEnsemble = new TissueEnsemble<>(mMembers);
+    mEnsemble.setPool(mPool);
+  }
+
+  /**
+   * Shuts down the ensemble pool.
+   */
+  @TearDown(Level.Trial)
+  public void shutdown()
+  {
+    mPool.shutdown();
+  }
+
+  /**
+   * Runs 100 simulation steps of each member, one member after the other.
+   */
+  @Benchmark
+  public void independentRuns()
+  {
+    for (Organoid lOrganoid : mMembers)
+      lOrganoid.simulationSteps(cNumberOfSteps);
+  }
+
+  /**
+   * Runs 100 simulation steps of each member as an ensemble.
+   */
+  @Benchmark
+  public void ensemble()
+  {
+    mEnsemble.simulationSteps(cNumberOfSteps);
+  }
+
+}
@@ -0,0 +1,126 @@
+package simbryo.particles.bench;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import simbryo.particles.ParticleSystem;
+
+/**
+ * Per-particle sweep benchmarks: integration, constant forces, Brownian motion
+ * and bounds enforcement over all particles of a 3D particle system, with the
+ * vectorized kernels and with the reference loops nested over particles and
+ * coordinates.
+ *
+ * @author royer
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParticleSweepBenchmarks
+{
+  /**
+   * Sweep
+   */
+  @Param(
+  { "euler",
+    "trapezoidal",
+    "force",
+    "brownian",
+    "bounds",
+    "eulerbounds" })
+  public String mSweep;
+
+  /**
+   * Number of particles
+   */
+  @Param(
+  { "10000", "100000" })
+  public int mNumberOfParticles;
+
+  /**
+   * Vectorized kernels or reference loops
+   */
+  @Param(
+  { "false", "true" })
+  public boolean mVectorizedKernels;
+
+  private ParticleSystem mParticleSystem;
+
+  /**
+   * Creates the particle system.
+   */
+  @Setup
+  public void setup()
+  {
+    mParticleSystem = new ParticleSystem(64,
+                                         mNumberOfParticles,
+                                         16,
+                                         16,
+                                         16);
+    mParticleSystem.setSeed(1);
+    mParticleSystem.setVectorizedKernels(mVectorizedKernels);
+
+    // tiny zero-mean velocities so that particles barely move during the
+    // benchmark and only a few of them touch the bounds:
+    SplittableRandom lRandom = new SplittableRandom(1);
+    for (int i = 0; i < mNumberOfParticles; i++)
+    {
+      int lId =
+              mParticleSystem.addParticle((float) lRandom.nextDouble(),
+                                          (float) lRandom.nextDouble(),
+                                          (float) lRandom.nextDouble());
+      mParticleSystem.setVelocity(lId,
+                                  (float) lRandom.nextDouble(-1e-7, 1e-7),
+                                  (float) lRandom.nextDouble(-1e-7, 1e-7),
+                                  (float) lRandom.nextDouble(-1e-7, 1e-7));
+      mParticleSystem.setRadius(lId, 0.001f);
+    }
+  }
+
+  /**
+   * Applies the sweep to all particles.
+   */
+  @Benchmark
+  public void sweep()
+  {
+    switch (mSweep)
+    {
+    case "euler":
+      mParticleSystem.intergrateEuler();
+      break;
+    case "trapezoidal":
+      mParticleSystem.intergrateTrapezoidal();
+      break;
+    case "force":
+      mParticleSystem.applyForce(1e-9f, -1e-9f, 0);
+      break;
+    case "brownian":
+      mParticleSystem.addBrownianMotion(1e-9f);
+      break;
+    case "bounds":
+      mParticleSystem.enforceBounds(0.9f);
+      break;
+    case "eulerbounds":
+      mParticleSystem.intergrateEulerAndEnforceBounds(0.9f, 1e-6f);
+      break;
+    default:
+      throw new IllegalArgumentException("Unknown sweep: " + mSweep);
+    }
+  }
+
+}
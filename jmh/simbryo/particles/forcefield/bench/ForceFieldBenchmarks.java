@@ -0,0 +1,156 @@
+package simbryo.particles.forcefield.bench;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import simbryo.particles.ParticleSystem;
+import simbryo.particles.forcefield.ForceFieldInterface;
+import simbryo.particles.forcefield.external.impl.CentriForceField;
+import simbryo.particles.forcefield.external.impl.CylindricalForceField;
+import simbryo.particles.forcefield.external.impl.IsoSurfaceForceField;
+import simbryo.particles.forcefield.external.impl.OneSidedIsoSurfaceForceField;
+import simbryo.particles.forcefield.interaction.impl.CohesionForceField;
+import simbryo.particles.forcefield.interaction.impl.CollisionForceField;
+import simbryo.particles.forcefield.interaction.impl.RepulsionForceField;
+import simbryo.particles.isosurf.impl.Sphere;
+import simbryo.particles.neighborhood.bench.NeighborhoodGridBenchmarks;
+
+/**
+ * Force field benchmarks: applies each force field implementation once to all
+ * particles of a 3D particle system. Particles are not moved, so that all
+ * invocations see the same configuration. The grid size only matters for
+ * interaction force fields.
+ *
+ * @author royer
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ForceFieldBenchmarks
+{
+  /**
+   * Force field implementation
+   */
+  @Param(
+  { "collision",
+    "cohesion",
+    "repulsion",
+    "centri",
+    "cylindrical",
+    "isosurface",
+    "onesidedisosurface" })
+  public String mForceField;
+
+  /**
+   * Number of particles
+   */
+  @Param(
+  { "1000", "10000", "100000" })
+  public int mNumberOfParticles;
+
+  /**
+   * Grid size along each dimension
+   */
+  @Param(
+  { "16", "32" })
+  public int mGridSize;
+
+  private ParticleSystem mParticleSystem;
+  private ForceFieldInterface mForceFieldInterface;
+
+  /**
+   * Creates the particle system and force field.
+   */
+  @Setup
+  public void setup()
+  {
+    final float lRadius =
+                        NeighborhoodGridBenchmarks.getRadiusForVolumeFraction(mNumberOfParticles,
+                                                                              0.3f);
+    final int lMaxParticlesPerCell =
+                                   NeighborhoodGridBenchmarks.getMaxParticlesPerCell(mNumberOfParticles,
+                                                                                     mGridSize,
+                                                                                     lRadius);
+
+    mParticleSystem = new ParticleSystem(lMaxParticlesPerCell,
+                                         mNumberOfParticles,
+                                         mGridSize,
+                                         mGridSize,
+                                         mGridSize);
+
+    SplittableRandom lRandom = new SplittableRandom(1);
+    for (int i = 0; i < mNumberOfParticles; i++)
+    {
+      int lId =
+              mParticleSystem.addParticle((float) lRandom.nextDouble(),
+                                          (float) lRandom.nextDouble(),
+                                          (float) lRandom.nextDouble());
+      mParticleSystem.setRadius(lId, lRadius);
+    }
+    mParticleSystem.updateNeighborhoodGrid();
+
+    mForceFieldInterface = createForceField(mForceField);
+  }
+
+  /**
+   * Applies the force field to all particles.
+   */
+  @Benchmark
+  public void applyForceField()
+  {
+    mForceFieldInterface.applyForceField(0,
+                                         mParticleSystem.getNumberOfParticles(),
+                                         null,
+                                         mParticleSystem);
+  }
+
+  private static ForceFieldInterface createForceField(String pForceField)
+  {
+    switch (pForceField)
+    {
+    case "collision":
+      return new CollisionForceField(0.0001f, 0.9f, false);
+    case "cohesion":
+      return new CohesionForceField(0.0001f, 0.9f);
+    case "repulsion":
+      return new RepulsionForceField(0.0001f, 8);
+    case "centri":
+      return new CentriForceField(0.0001f, 0.5f, 0.5f, 0.5f);
+    case "cylindrical":
+      return new CylindricalForceField(1, 0.0001f, 0.5f, 0.5f, 0.5f);
+    case "isosurface":
+      return new IsoSurfaceForceField(0.0001f,
+                                      new Sphere(0.4f,
+                                                 0.5f,
+                                                 0.5f,
+                                                 0.5f));
+    case "onesidedisosurface":
+      return new OneSidedIsoSurfaceForceField(true,
+                                              true,
+                                              0.0001f,
+                                              new Sphere(0.4f,
+                                                         0.5f,
+                                                         0.5f,
+                                                         0.5f));
+    default:
+      throw new IllegalArgumentException("Unknown force field: "
+                                         + pForceField);
+    }
+  }
+
+}
@@ -0,0 +1,250 @@
+package simbryo.particles.neighborhood.bench;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import simbryo.particles.neighborhood.CompactNeighborhoodGrid;
+import simbryo.particles.neighborhood.MultiLevelNeighborhoodGrid;
+import simbryo.particles.neighborhood.NeighborQuery;
+import simbryo.particles.neighborhood.NeighborhoodGrid;
+import simbryo.particles.neighborhood.NeighborhoodGridInterface;
+
+/**
+ * Neighborhood grid benchmarks: grid updates and neighbor queries for
+ * uniformly distributed 3D particles. Particle radii are chosen so that
+ * particles occupy about 30% of the unit cube, which is typical for tissues.
+ * Radii are either all equal or spread log-uniformly over a factor of 32, as
+ * for tissues mixing large early cells and small late cells.
+ *
+ * @author royer
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NeighborhoodGridBenchmarks
+{
+  private static final int cDimension = 3;
+
+  /**
+   * Number of particles
+   */
+  @Param(
+  { "1000", "10000", "100000" })
+  public int mNumberOfParticles;
+
+  /**
+   * Grid size along each dimension
+   */
+  @Param(
+  { "16", "32", "64" })
+  public int mGridSize;
+
+  /**
+   * Grid implementation: 'dense' for NeighborhoodGrid, 'incremental' for
+   * NeighborhoodGrid with incremental updates, 'compact' for
+   * CompactNeighborhoodGrid, 'multilevel' for MultiLevelNeighborhoodGrid.
+   */
+  @Param(
+  { "dense", "incremental", "compact", "multilevel" })
+  public String mGridType;
+
+  /**
+   * Radius distribution: 'uniform' for equal radii, 'heterogeneous' for radii
+   * spread log-uniformly over a factor of 32.
+   */
+  @Param(
+  { "uniform", "heterogeneous" })
+  public String mRadiusDistribution;
+
+  private float[] mPositions;
+  private float[] mRadii;
+  private NeighborhoodGridInterface mNeighborhoodGrid;
+  private NeighborQuery mNeighborQuery;
+  private float mDisplacementSign = 1;
+
+  /**
+   * Creates particles and grid, and fills the grid once.
+   */
+  @Setup
+  public void setup()
+  {
+    final float lRadius = getRadiusForVolumeFraction(mNumberOfParticles,
+                                                     0.3f);
+    final boolean lHeterogeneous =
+                                 "heterogeneous".equals(mRadiusDistribution);
+
+    SplittableRandom lRandom = new SplittableRandom(1);
+    mPositions = new float[cDimension * mNumberOfParticles];
+    mRadii = new float[mNumberOfParticles];
+    for (int i = 0; i < mNumberOfParticles; i++)
+    {
+      for (int d = 0; d < cDimension; d++)
+        mPositions[cDimension * i + d] = (float) lRandom.nextDouble();
+      mRadii[i] = lHeterogeneous ? lRadius
+                                   * (float) Math.pow(2,
+                                                      lRandom.nextDouble(-2,
+                                                                         3))
+                                 : lRadius;
+    }
+
+    final int lMaxParticlesPerCell =
+                                   getMaxParticlesPerCell(mNumberOfParticles,
+                                                          mGridSize,
+                                                          lHeterogeneous ? 8
+                                                                           * lRadius
+                                                                         : lRadius);
+    mNeighborhoodGrid = createGrid(mGridType,
+                                   lMaxParticlesPerCell,
+                                   mGridSize);
+    mNeighborhoodGrid.update(mPositions, mRadii, mNumberOfParticles);
+    mNeighborQuery = new NeighborQuery(mNeighborhoodGrid);
+  }
+
+  /**
+   * Rebuilds the grid from scratch.
+   */
+  @Benchmark
+  public void update()
+  {
+    mNeighborhoodGrid.update(mPositions, mRadii, mNumberOfParticles);
+  }
+
+  /**
+   * Moves all particles by a small fraction of a cell, back and forth, and
+   * updates the grid the way particle systems do: cleared and rebuilt, or
+   * updated incrementally.
+   */
+  @Benchmark
+  public void moveAndUpdate()
+  {
+    final float lDisplacement = mDisplacementSign * 0.01f / mGridSize;
+    final float[] lPositions = mPositions;
+    for (int i = 0; i < lPositions.length; i++)
+      lPositions[i] += lDisplacement;
+    mDisplacementSign = -mDisplacementSign;
+
+    if (!mNeighborhoodGrid.isIncremental())
+      mNeighborhoodGrid.clear();
+    mNeighborhoodGrid.update(mPositions, mRadii, mNumberOfParticles);
+  }
+
+  /**
+   * Enumerates the neighbors of every particle.
+   *
+   * @return total number of neighbors found
+   */
+  @Benchmark
+  public long getAllNeighborsForParticle()
+  {
+    final float[] lPositions = mPositions;
+    final float[] lRadii = mRadii;
+    final NeighborQuery lNeighborQuery = mNeighborQuery;
+
+    long lTotal = 0;
+    for (int id = 0; id < mNumberOfParticles; id++)
+      lTotal += lNeighborQuery.query(lPositions, id, lRadii[id]);
+    return lTotal;
+  }
+
+  /**
+   * Creates a 3D neighborhood grid of a given type.
+   *
+   * @param pGridType
+   *          'dense', 'incremental', 'compact' or 'multilevel'
+   * @param pMaxParticlesPerCell
+   *          max particles per cell
+   * @param pGridSize
+   *          grid size along each dimension
+   * @return neighborhood grid
+   */
+  public static NeighborhoodGridInterface createGrid(String pGridType,
+                                                     int pMaxParticlesPerCell,
+                                                     int pGridSize)
+  {
+    switch (pGridType)
+    {
+    case "dense":
+      return new NeighborhoodGrid(pMaxParticlesPerCell,
+                                  pGridSize,
+                                  pGridSize,
+                                  pGridSize);
+    case "incremental":
+      NeighborhoodGrid lNeighborhoodGrid =
+                                         new NeighborhoodGrid(pMaxParticlesPerCell,
+                                                              pGridSize,
+                                                              pGridSize,
+                                                              pGridSize);
+      lNeighborhoodGrid.setIncremental(true);
+      return lNeighborhoodGrid;
+    case "compact":
+      return new CompactNeighborhoodGrid(pMaxParticlesPerCell,
+                                         pGridSize,
+                                         pGridSize,
+                                         pGridSize);
+    case "multilevel":
+      return new MultiLevelNeighborhoodGrid(pMaxParticlesPerCell,
+                                            pGridSize,
+                                            pGridSize,
+                                            pGridSize);
+    default:
+      throw new IllegalArgumentException("Unknown grid type: "
+                                         + pGridType);
+    }
+  }
+
+  /**
+   * Returns the radius for which a given number of 3D particles fill a given
+   * fraction of the unit cube.
+   *
+   * @param pNumberOfParticles
+   *          number of particles
+   * @param pVolumeFraction
+   *          volume fraction
+   * @return particle radius
+   */
+  public static float getRadiusForVolumeFraction(int pNumberOfParticles,
+                                                 float pVolumeFraction)
+  {
+    return (float) Math.cbrt(3 * pVolumeFraction
+                             / (4 * Math.PI * pNumberOfParticles));
+  }
+
+  /**
+   * Returns a max number of particles per cell that comfortably accommodates
+   * uniformly distributed 3D particles of a given radius.
+   *
+   * @param pNumberOfParticles
+   *          number of particles
+   * @param pGridSize
+   *          grid size along each dimension
+   * @param pRadius
+   *          particle radius
+   * @return max number of particles per cell
+   */
+  public static int getMaxParticlesPerCell(int pNumberOfParticles,
+                                           int pGridSize,
+                                           float pRadius)
+  {
+    final double lCellsTouched = Math.pow(1 + 2 * pRadius * pGridSize,
+                                          3);
+    final double lAverage = lCellsTouched * pNumberOfParticles
+                            / Math.pow(pGridSize, 3);
+    return (int) (4 * Math.ceil(lAverage)) + 16;
+  }
+
+}
@@ -0,0 +1,87 @@
+package simbryo.util.mergeset.bench;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import simbryo.util.mergeset.FastArraySet;
+
+/**
+ * FastArraySet benchmarks: merges two sorted sets of particle ids, as done when
+ * collecting the contents of neighboring grid cells.
+ *
+ * @author royer
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FastArraySetBenchmarks
+{
+  /**
+   * Number of elements in each set
+   */
+  @Param(
+  { "16", "256", "4096" })
+  public int mSetSize;
+
+  /**
+   * Ids are drawn from [0, mSetSize*mIdRange[, the larger the range the fewer
+   * ids are shared between the two sets.
+   */
+  @Param(
+  { "2", "16" })
+  public int mIdRange;
+
+  private int[] mSetA, mSetB, mSetAuB;
+
+  /**
+   * Creates the two sets and the result array.
+   */
+  @Setup
+  public void setup()
+  {
+    SplittableRandom lRandom = new SplittableRandom(1);
+    mSetA = createSortedSet(lRandom, mSetSize, mSetSize * mIdRange);
+    mSetB = createSortedSet(lRandom, mSetSize, mSetSize * mIdRange);
+    mSetAuB = new int[2 * mSetSize];
+  }
+
+  /**
+   * Merges the two sets.
+   *
+   * @return size of union
+   */
+  @Benchmark
+  public int merge()
+  {
+    return FastArraySet.merge(mSetA, mSetB, mSetAuB);
+  }
+
+  private static int[] createSortedSet(SplittableRandom pRandom,
+                                       int pSize,
+                                       int pRange)
+  {
+    // Selection sampling gives strictly increasing ids without sorting:
+    int[] lSet = new int[pSize];
+    int lCount = 0;
+    for (int i = 0; i < pRange && lCount < pSize; i++)
+      if (pRandom.nextInt(pRange - i) < pSize - lCount)
+        lSet[lCount++] = i;
+    return lSet;
+  }
+
+}
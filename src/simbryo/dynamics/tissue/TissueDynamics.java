@@ -1,15 +1,28 @@
 package simbryo.dynamics.tissue;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 import simbryo.dynamics.tissue.cellprop.CellProperty;
 import simbryo.dynamics.tissue.cellprop.VectorCellProperty;
 import simbryo.dynamics.tissue.cellprop.operators.CellPropertyOperatorInterface;
+import simbryo.dynamics.tissue.stats.SimulationStatistics;
+import simbryo.dynamics.tissue.stats.TissueDynamicsStage;
+import simbryo.dynamics.tissue.trajectory.TrajectoryRecorder;
 import simbryo.particles.ParticleSystem;
+import simbryo.particles.forcefield.external.ExternalForceFieldInterface;
 import simbryo.particles.forcefield.interaction.impl.CollisionForceField;
+import simbryo.particles.neighborhood.VerletNeighborList;
 import simbryo.particles.viewer.ParticleViewerInterface;
 import simbryo.particles.viewer.three.ParticleViewer3D;
 import simbryo.util.DoubleBufferingFloatArray;
+import simbryo.util.checkpoint.CheckpointReader;
+import simbryo.util.checkpoint.CheckpointWriter;
+import simbryo.util.parallel.ParallelRange;
+import simbryo.util.random.CounterRandom;
 
 /**
  * Tissue dynamics extend from a particle system with standard dynamics
@@ -23,7 +36,9 @@ public class TissueDynamics extends ParticleSystem
 {
   private static final long serialVersionUID = 1L;
 
-  protected static final int cMaximumNumberOfCells = 100000;
+  // Upper bound only, storage grows on demand:
+  protected static final int cMaximumNumberOfCells = Integer.MAX_VALUE
+                                                     / 8;
   protected static final float V = 0.0001f;
   protected static final float Rt = 0.01f;
   protected static final float Rm = 0.005f;
@@ -35,10 +50,25 @@ public class TissueDynamics extends ParticleSystem
   protected static final float Ar = 0.05f;
   protected static final float Fb = 0.00001f;
 
+  protected static final float cVerletCutoffFactor = 1.5f;
+  protected static final float cVerletSkin = Rm;
+
   private final DoubleBufferingFloatArray mTargetRadii;
 
   protected final CollisionForceField mCollisionForceField;
 
+  private static final ExternalForceFieldInterface[] cNoExternalForceFields =
+                                                                          new ExternalForceFieldInterface[0];
+
+  private static final int cMinCellsPerOperatorChunk = 256;
+
+  private volatile boolean mFusedIntegration = true;
+  private volatile boolean mParallelOperators = false;
+  private volatile float mBrownianMotionIntensity = Fb;
+
+  private transient volatile SimulationStatistics mStatistics;
+  private transient volatile TrajectoryRecorder mTrajectoryRecorder;
+
   protected ArrayList<CellProperty> mCellPropertyList =
                                                       new ArrayList<>();
 
@@ -70,12 +100,14 @@ public class TissueDynamics extends ParticleSystem
           cMaximumNumberOfCells,
           pGridDimensions);
 
-    mTargetRadii =
-                 new DoubleBufferingFloatArray(cMaximumNumberOfCells);
+    mTargetRadii = new DoubleBufferingFloatArray(getCapacity());
 
     mCollisionForceField = new CollisionForceField(pCollisionForce,
                                                    pDrag,
                                                    false);
+
+    setVerletNeighborList(new VerletNeighborList(cVerletCutoffFactor,
+                                                 cVerletSkin));
   }
 
   /**
@@ -89,6 +121,172 @@ public class TissueDynamics extends ParticleSystem
     return mTimeStepIndex;
   }
 
+  /**
+   * Returns the collision force field used to prevent cells from overlapping.
+   * This can be used for example to switch on parallel computation of
+   * collisions.
+   * 
+   * @return collision force field
+   */
+  public CollisionForceField getCollisionForceField()
+  {
+    return mCollisionForceField;
+  }
+
+  /**
+   * Returns true if the per-particle updates of each simulation step are fused
+   * into as few passes over the particles as possible.
+   * 
+   * @return true if fused
+   */
+  public boolean isFusedIntegration()
+  {
+    return mFusedIntegration;
+  }
+
+  /**
+   * Sets whether the per-particle updates of each simulation step (external
+   * force fields, Brownian motion, radius relaxation, integration and bounds)
+   * should be fused into as few passes over the particles as possible. Both
+   * modes compute the same dynamics.
+   * 
+   * @param pFusedIntegration
+   *          true for fused integration
+   */
+  public void setFusedIntegration(boolean pFusedIntegration)
+  {
+    mFusedIntegration = pFusedIntegration;
+  }
+
+  /**
+   * Returns true if range-safe cell property operators are applied in
+   * parallel.
+   * 
+   * @return true if parallel
+   */
+  public boolean isParallelOperators()
+  {
+    return mParallelOperators;
+  }
+
+  /**
+   * Sets whether cell property operators that declare themselves range-safe
+   * should be applied in parallel over the common fork-join pool. The range of
+   * cell ids is cut into chunks that are processed concurrently, other
+   * operators are still applied on the caller thread.
+   * 
+   * @param pParallelOperators
+   *          true for parallel operators
+   */
+  public void setParallelOperators(boolean pParallelOperators)
+  {
+    mParallelOperators = pParallelOperators;
+  }
+
+  /**
+   * Returns the intensity of the Brownian motion applied at each step.
+   * 
+   * @return Brownian motion intensity
+   */
+  public float getBrownianMotionIntensity()
+  {
+    return mBrownianMotionIntensity;
+  }
+
+  /**
+   * Sets the intensity of the Brownian motion applied at each step.
+   * 
+   * @param pBrownianMotionIntensity
+   *          Brownian motion intensity
+   */
+  public void setBrownianMotionIntensity(float pBrownianMotionIntensity)
+  {
+    mBrownianMotionIntensity = pBrownianMotionIntensity;
+  }
+
+  /**
+   * Returns true if simulation statistics are collected.
+   * 
+   * @return true if statistics are collected
+   */
+  public boolean isStatisticsEnabled()
+  {
+    return mStatistics != null;
+  }
+
+  /**
+   * Sets whether simulation statistics (per-stage timings, neighborhood
+   * counters) should be collected. When disabled, the only cost is a null check
+   * per stage. Enabling statistics again starts from fresh statistics.
+   * 
+   * @param pStatisticsEnabled
+   *          true to collect statistics
+   */
+  public void setStatisticsEnabled(boolean pStatisticsEnabled)
+  {
+    if (pStatisticsEnabled == isStatisticsEnabled())
+      return;
+    mStatistics = pStatisticsEnabled ? new SimulationStatistics()
+                                     : null;
+  }
+
+  /**
+   * Returns the simulation statistics. Statistics can be exposed via JMX with
+   * SimulationStatistics.registerMBean(...).
+   * 
+   * @return simulation statistics, or null if statistics are not enabled.
+   */
+  public SimulationStatistics getStatistics()
+  {
+    return mStatistics;
+  }
+
+  /**
+   * Returns the trajectory recorder attached to this tissue.
+   * 
+   * @return trajectory recorder, or null if none is attached.
+   */
+  public TrajectoryRecorder getTrajectoryRecorder()
+  {
+    return mTrajectoryRecorder;
+  }
+
+  /**
+   * Attaches a trajectory recorder to this tissue. The recorder is notified at
+   * the end of each simulation step and records a frame every 'recording
+   * period' steps. Closing the recorder remains the responsibility of the
+   * caller.
+   * 
+   * @param pTrajectoryRecorder
+   *          trajectory recorder, or null to detach the current recorder.
+   */
+  public void setTrajectoryRecorder(TrajectoryRecorder pTrajectoryRecorder)
+  {
+    mTrajectoryRecorder = pTrajectoryRecorder;
+  }
+
+  /**
+   * Returns the external force fields that are applied to all particles at each
+   * simulation step, before Brownian motion and collisions. Derived classes can
+   * override this method to add their own external force fields.
+   * 
+   * @return external force fields
+   */
+  protected ExternalForceFieldInterface[] getExternalForceFields()
+  {
+    return cNoExternalForceFields;
+  }
+
+  /**
+   * Returns the target radii of all particles.
+   * 
+   * @return target radii double buffered array
+   */
+  public DoubleBufferingFloatArray getTargetRadii()
+  {
+    return mTargetRadii;
+  }
+
   /**
    * Sets the target radius for a given particle id.
    * 
@@ -120,7 +318,7 @@ public class TissueDynamics extends ParticleSystem
   {
     super.copyParticle(pSourceParticleId, pDestinationParticleId);
     mTargetRadii.getCurrentArray()[pDestinationParticleId] =
-                                                           mTargetRadii.getCurrentArray()[pDestinationParticleId];
+                                                           mTargetRadii.getCurrentArray()[pSourceParticleId];
   }
 
   @Override
@@ -128,6 +326,8 @@ public class TissueDynamics extends ParticleSystem
   {
     int lNewParticleId = super.cloneParticle(pSourceParticleId,
                                              pNoiseFactor);
+    if (lNewParticleId < 0)
+      return lNewParticleId;
     mTargetRadii.getCurrentArray()[lNewParticleId] =
                                                    mTargetRadii.getCurrentArray()[pSourceParticleId];
 
@@ -139,6 +339,97 @@ public class TissueDynamics extends ParticleSystem
     return lNewParticleId;
   }
 
+  @Override
+  protected void resizeParticleStorage(int pCapacity)
+  {
+    super.resizeParticleStorage(pCapacity);
+    mTargetRadii.resize(pCapacity);
+
+    for (CellProperty lCellProperty : mCellPropertyList)
+    {
+      lCellProperty.resize(pCapacity);
+    }
+  }
+
+  @Override
+  public void reorderParticles(int[] pNewToOld)
+  {
+    super.reorderParticles(pNewToOld);
+    mTargetRadii.permute(pNewToOld, getNumberOfParticles(), 1);
+
+    for (CellProperty lCellProperty : mCellPropertyList)
+    {
+      lCellProperty.permute(pNewToOld, getNumberOfParticles());
+    }
+  }
+
+  /**
+   * Writes the particles, target radii, time step index and all cell
+   * properties to a checkpoint. Only the live particles are written.
+   */
+  @Override
+  public void writeCheckpoint(CheckpointWriter pCheckpointWriter)
+  {
+    super.writeCheckpoint(pCheckpointWriter);
+    final int lNumberOfParticles = getNumberOfParticles();
+
+    pCheckpointWriter.writeLong(mTimeStepIndex);
+    mTargetRadii.writeCheckpoint(pCheckpointWriter, lNumberOfParticles);
+
+    pCheckpointWriter.writeInt(mCellPropertyList.size());
+    for (CellProperty lCellProperty : mCellPropertyList)
+    {
+      pCheckpointWriter.writeInt(lCellProperty.getDimension());
+      lCellProperty.getArray()
+                   .writeCheckpoint(pCheckpointWriter,
+                                    lNumberOfParticles
+                                                       * lCellProperty.getDimension());
+    }
+  }
+
+  /**
+   * Restores the tissue from a checkpoint. The tissue must have the same cell
+   * properties, in the same order, as the tissue that was checkpointed, which is
+   * the case when it is constructed the same way.
+   */
+  @Override
+  public void readCheckpoint(CheckpointReader pCheckpointReader) throws IOException
+  {
+    super.readCheckpoint(pCheckpointReader);
+    final int lNumberOfParticles = getNumberOfParticles();
+
+    mTimeStepIndex = pCheckpointReader.readLong();
+    mTargetRadii.readCheckpoint(pCheckpointReader, lNumberOfParticles);
+
+    final int lNumberOfCellProperties = pCheckpointReader.readInt();
+    if (lNumberOfCellProperties != mCellPropertyList.size())
+      throw new IOException("Checkpoint has " + lNumberOfCellProperties
+                            + " cell properties, tissue has "
+                            + mCellPropertyList.size());
+    for (CellProperty lCellProperty : mCellPropertyList)
+    {
+      final int lDimension = pCheckpointReader.readInt();
+      if (lDimension != lCellProperty.getDimension())
+        throw new IOException("Checkpoint cell property dimension "
+                              + lDimension
+                              + " does not match "
+                              + lCellProperty.getDimension());
+      lCellProperty.getArray()
+                   .readCheckpoint(pCheckpointReader,
+                                   lNumberOfParticles * lDimension);
+    }
+  }
+
+  /**
+   * Returns the cell properties of this tissue, in the order they were added.
+   * 
+   * @return unmodifiable list of cell properties
+   */
+  public List<CellProperty> getCellProperties()
+  {
+    return Collections.unmodifiableList(mCellPropertyList);
+  }
+
   /**
    * Adds a new 1D cell property to this tissue.
    * 
@@ -175,13 +466,48 @@ public class TissueDynamics extends ParticleSystem
   {
     for (int i = 0; i < pNumberOfSteps; i++)
     {
-      addBrownianMotion(Fb);
-      smoothToTargetRadius(Ar);
-      applyForceField(mCollisionForceField);
-      intergrateEuler();
-      enforceBounds(Db);
+      final ExternalForceFieldInterface[] lExternalForceFields =
+                                                              getExternalForceFields();
+      final float lBrownianMotionIntensity = mBrownianMotionIntensity;
+      final SimulationStatistics lStatistics = mStatistics;
+      long lTime = lStatistics == null ? 0 : System.nanoTime();
+
+      if (mFusedIntegration)
+      {
+        applyExternalForcesBrownianMotionAndRadiusRelaxation(lExternalForceFields,
+                                                             lBrownianMotionIntensity,
+                                                             Ar);
+        lTime = lap(lStatistics, TissueDynamicsStage.ExternalForces, lTime);
+        applyForceField(mCollisionForceField);
+        lTime = lap(lStatistics, TissueDynamicsStage.Collision, lTime);
+        intergrateEulerAndEnforceBounds(Db, 1e-6f);
+        lTime = lap(lStatistics, TissueDynamicsStage.Integration, lTime);
+      }
+      else
+      {
+        for (ExternalForceFieldInterface lExternalForceField : lExternalForceFields)
+          applyForceField(lExternalForceField);
+        addBrownianMotion(lBrownianMotionIntensity);
+        smoothToTargetRadius(Ar);
+        lTime = lap(lStatistics, TissueDynamicsStage.ExternalForces, lTime);
+        applyForceField(mCollisionForceField);
+        lTime = lap(lStatistics, TissueDynamicsStage.Collision, lTime);
+        intergrateEuler();
+        enforceBounds(Db);
+        lTime = lap(lStatistics, TissueDynamicsStage.Integration, lTime);
+      }
       updateNeighborhoodGrid();
+      lap(lStatistics, TissueDynamicsStage.Neighborhood, lTime);
+
+      if (lStatistics != null)
+        lStatistics.recordStep(getNeighborhoodGrid(),
+                               getVerletNeighborList(),
+                               getNumberOfParticles());
       mTimeStepIndex++;
+
+      final TrajectoryRecorder lTrajectoryRecorder = mTrajectoryRecorder;
+      if (lTrajectoryRecorder != null)
+        lTrajectoryRecorder.stepCompleted(this);
       // mSequence.step(pDeltaTime);
     }
 
@@ -190,6 +516,85 @@ public class TissueDynamics extends ParticleSystem
 
   }
 
+  /**
+   * Records the time elapsed for a stage if statistics are enabled.
+   * 
+   * @param pStatistics
+   *          statistics, or null if disabled
+   * @param pStage
+   *          stage
+   * @param pStartTime
+   *          stage start time in nanoseconds
+   * @return start time for the next stage
+   */
+  private static long lap(SimulationStatistics pStatistics,
+                          TissueDynamicsStage pStage,
+                          long pStartTime)
+  {
+    return pStatistics == null ? 0 : pStatistics.lap(pStage, pStartTime);
+  }
+
+  /**
+   * Applies external force fields, Brownian motion, and radius relaxation in a
+   * single pass over the particles. This is equivalent to applying each
+   * external force field in turn, then calling addBrownianMotion(...) and
+   * smoothToTargetRadius(...), but reads and writes each particle's velocity
+   * and radius only once.
+   * 
+   * @param pExternalForceFields
+   *          external force fields
+   * @param pBrownianMotionIntensity
+   *          intensity (force) of the brownian motion.
+   * @param pAlpha
+   *          exponential coefficient for radius relaxation.
+   */
+  private void applyExternalForcesBrownianMotionAndRadiusRelaxation(ExternalForceFieldInterface[] pExternalForceFields,
+                                                                    float pBrownianMotionIntensity,
+                                                                    float pAlpha)
+  {
+    final int lDimension = getDimension();
+    final float[] lPositions = mPositions.getCurrentArray();
+    final float[] lVelocitiesRead = mVelocities.getReadArray();
+    final float[] lVelocitiesWrite = mVelocities.getWriteArray();
+    final float[] lRadiiReadArray = mRadii.getReadArray();
+    final float[] lRadiiWriteArray = mRadii.getWriteArray();
+    final float[] lTargetRadiiArray = mTargetRadii.getCurrentArray();
+    final int lNumberOfParticles = getNumberOfParticles();
+    final int lNumberOfExternalForceFields = pExternalForceFields.length;
+
+    final long lRandomKey = nextRandomKey();
+
+    for (int id = 0, i = 0; id < lNumberOfParticles; id++, i +=
+                                                             lDimension)
+    {
+      for (int d = 0; d < lDimension; d++)
+        lVelocitiesWrite[i + d] = lVelocitiesRead[i + d];
+
+      for (int f = 0; f < lNumberOfExternalForceFields; f++)
+        pExternalForceFields[f].addForce(lDimension,
+                                         id,
+                                         lPositions,
+                                         lRadiiReadArray,
+                                         1,
+                                         lVelocitiesWrite);
+
+      for (int d = 0; d < lDimension; d++)
+        lVelocitiesWrite[i + d] =
+                                (float) (lVelocitiesWrite[i + d]
+                                         + pBrownianMotionIntensity
+                                           * CounterRandom.nextDouble(lRandomKey,
+                                                                      i + d,
+                                                                      -1,
+                                                                      1));
+
+      lRadiiWriteArray[id] = (1 - pAlpha) * lRadiiReadArray[id]
+                             + pAlpha * lTargetRadiiArray[id];
+    }
+
+    mVelocities.swap();
+    mRadii.swap();
+  }
+
   /**
    * Smoothly converges current particle radii to the target radii.
    * 
@@ -256,7 +661,12 @@ public class TissueDynamics extends ParticleSystem
 
   /**
    * Applies a single simulation step for an operator and a set of cell
-   * properties for a given range of cell ids.
+   * properties for a given range of cell ids. Operators hold on to array
+   * references while they run, and may add particles (e.g. cell division), so
+   * storage is grown beforehand to accomodate one new particle per particle in
+   * the range. If parallel operators are enabled and the operator is
+   * range-safe, the range is processed in chunks over the common fork-join
+   * pool.
    * 
    * @param pBeginId
    *          begin id
@@ -273,7 +683,35 @@ public class TissueDynamics extends ParticleSystem
                                               CellPropertyOperatorInterface<CP> pOperator,
                                               CP... pCellProperties)
   {
-    pOperator.apply(pBeginId, pEndId, this, pCellProperties);
+    ensureCapacity(getNumberOfParticles() + (pEndId - pBeginId));
+
+    final SimulationStatistics lStatistics = mStatistics;
+    final long lStartTime = lStatistics == null ? 0 : System.nanoTime();
+
+    if (mParallelOperators && pOperator.isRangeSafe())
+    {
+      ForkJoinPool lPool = ForkJoinPool.commonPool();
+      int lNumberOfChunks =
+                          ParallelRange.getNumberOfChunks(lPool,
+                                                          pEndId - pBeginId,
+                                                          cMinCellsPerOperatorChunk);
+      pOperator.prepare(pBeginId, pEndId, this, pCellProperties);
+      ParallelRange.forEach(lPool,
+                            pBeginId,
+                            pEndId,
+                            lNumberOfChunks,
+                            (c, b, e) -> pOperator.applyRange(b,
+                                                              e,
+                                                              this,
+                                                              pCellProperties));
+      pOperator.complete(pBeginId, pEndId, this, pCellProperties);
+    }
+    else
+      pOperator.apply(pBeginId, pEndId, this, pCellProperties);
+
+    if (lStatistics != null)
+      lStatistics.addOperatorTime(pOperator,
+                                  System.nanoTime() - lStartTime);
   }
 
 }
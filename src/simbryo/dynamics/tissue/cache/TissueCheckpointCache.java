@@ -0,0 +1,248 @@
+package simbryo.dynamics.tissue.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Supplier;
+
+import simbryo.dynamics.tissue.TissueDynamics;
+import simbryo.util.checkpoint.CheckpointCodec;
+import simbryo.util.checkpoint.CheckpointUtilities;
+
+/**
+ * Tissue checkpoint caches hand out tissues developed up to a given time step.
+ * While simulating, a checkpoint is saved every 'snapshot interval' time steps,
+ * so that a later request for any time step resumes from the nearest earlier
+ * snapshot instead of simulating from scratch. Snapshots live in a directory on
+ * disk and are shared across runs. When the total size of the snapshots exceeds
+ * the disk budget, the least recently used snapshots are deleted.
+ *
+ * @param <T>
+ *          tissue type
+ * @author royer
+ */
+public class TissueCheckpointCache<T extends TissueDynamics>
+{
+  private static final String cExtension = ".checkpoint";
+
+  private final File mDirectory;
+  private final String mName;
+  private final Supplier<T> mTissueFactory;
+  private final int mSnapshotInterval;
+  private final long mDiskBudgetInBytes;
+  private final CheckpointCodec mCheckpointCodec;
+
+  /**
+   * Creates a checkpoint cache.
+   *
+   * @param pDirectory
+   *          directory holding the snapshots
+   * @param pName
+   *          name of the cache, must identify the tissue type and its
+   *          construction parameters since snapshots of caches with the same
+   *          name in the same directory are shared
+   * @param pTissueFactory
+   *          factory creating tissues at time step zero
+   * @param pSnapshotInterval
+   *          number of time steps between two snapshots
+   * @param pDiskBudgetInBytes
+   *          maximal total size of the snapshots on disk
+   */
+  public TissueCheckpointCache(File pDirectory,
+                               String pName,
+                               Supplier<T> pTissueFactory,
+                               int pSnapshotInterval,
+                               long pDiskBudgetInBytes)
+  {
+    super();
+    if (pSnapshotInterval < 1)
+      throw new IllegalArgumentException("Snapshot interval must be at least 1");
+    mDirectory = pDirectory;
+    mName = pName;
+    mTissueFactory = pTissueFactory;
+    mSnapshotInterval = pSnapshotInterval;
+    mDiskBudgetInBytes = pDiskBudgetInBytes;
+    mCheckpointCodec = CheckpointCodec.Deflate;
+  }
+
+  /**
+   * Returns the number of time steps between two snapshots.
+   *
+   * @return snapshot interval
+   */
+  public int getSnapshotInterval()
+  {
+    return mSnapshotInterval;
+  }
+
+  /**
+   * Returns the disk budget in bytes.
+   *
+   * @return disk budget
+   */
+  public long getDiskBudget()
+  {
+    return mDiskBudgetInBytes;
+  }
+
+  /**
+   * Returns a tissue developed up to the given time step. The tissue is
+   * restored from the nearest snapshot at or before that time step, and then
+   * simulated forward, saving new snapshots along the way.
+   *
+   * @param pTimeStepIndex
+   *          time step index
+   * @return tissue at given time step
+   * @throws IOException
+   *           thrown if problem occurs while saving snapshots
+   */
+  public synchronized T getTissue(long pTimeStepIndex) throws IOException
+  {
+    T lTissue = restoreNearestSnapshot(pTimeStepIndex);
+
+    while (lTissue.getTimeStepIndex() < pTimeStepIndex)
+    {
+      final long lCurrentTimeStepIndex = lTissue.getTimeStepIndex();
+      final long lNextSnapshot = (lCurrentTimeStepIndex
+                                  / mSnapshotInterval + 1)
+                                 * mSnapshotInterval;
+      final long lNextStop = Math.min(lNextSnapshot, pTimeStepIndex);
+
+      lTissue.simulationSteps((int) (lNextStop - lCurrentTimeStepIndex));
+
+      if (lNextStop == lNextSnapshot)
+      {
+        File lSnapshotFile = getSnapshotFile(lNextSnapshot);
+        CheckpointUtilities.saveToFile(lTissue,
+                                       lSnapshotFile,
+                                       mCheckpointCodec);
+        evict(lSnapshotFile);
+      }
+    }
+
+    return lTissue;
+  }
+
+  /**
+   * Returns the time step indices of the snapshots currently on disk, in
+   * increasing order.
+   *
+   * @return snapshot time step indices
+   */
+  public synchronized List<Long> getSnapshotTimeStepIndices()
+  {
+    ArrayList<Long> lTimeStepIndices = new ArrayList<>();
+    for (File lFile : listSnapshotFiles())
+      lTimeStepIndices.add(parseTimeStepIndex(lFile));
+    lTimeStepIndices.sort(null);
+    return lTimeStepIndices;
+  }
+
+  /**
+   * Deletes all snapshots of this cache.
+   */
+  public synchronized void clear()
+  {
+    for (File lFile : listSnapshotFiles())
+      lFile.delete();
+  }
+
+  private T restoreNearestSnapshot(long pTimeStepIndex) throws IOException
+  {
+    List<Long> lTimeStepIndices = getSnapshotTimeStepIndices();
+    for (int i = lTimeStepIndices.size() - 1; i >= 0; i--)
+    {
+      final long lTimeStepIndex = lTimeStepIndices.get(i);
+      if (lTimeStepIndex > pTimeStepIndex)
+        continue;
+
+      File lSnapshotFile = getSnapshotFile(lTimeStepIndex);
+      T lTissue = mTissueFactory.get();
+      boolean lRestored;
+      try
+      {
+        lRestored = CheckpointUtilities.loadFromFile(lTissue,
+                                                     lSnapshotFile);
+      }
+      catch (IOException | RuntimeException e)
+      {
+        lRestored = false;
+      }
+
+      if (lRestored && lTissue.getTimeStepIndex() == lTimeStepIndex)
+      {
+        // last-modified time doubles as last access time for eviction:
+        lSnapshotFile.setLastModified(System.currentTimeMillis());
+        return lTissue;
+      }
+
+      // stale or corrupted snapshot:
+      lSnapshotFile.delete();
+    }
+    return mTissueFactory.get();
+  }
+
+  private void evict(File pNewestSnapshotFile)
+  {
+    List<File> lSnapshotFiles = listSnapshotFiles();
+    long lTotalSize = 0;
+    for (File lFile : lSnapshotFiles)
+      lTotalSize += lFile.length();
+
+    // file times have a coarse resolution, so the snapshot just written is
+    // kept explicitly rather than relying on the sort order:
+    lSnapshotFiles.remove(pNewestSnapshotFile);
+    lSnapshotFiles.sort(Comparator.comparingLong(File::lastModified));
+
+    for (int i = 0; i < lSnapshotFiles.size()
+                    && lTotalSize > mDiskBudgetInBytes; i++)
+    {
+      File lFile = lSnapshotFiles.get(i);
+      final long lLength = lFile.length();
+      if (lFile.delete())
+        lTotalSize -= lLength;
+    }
+  }
+
+  private File getSnapshotFile(long pTimeStepIndex)
+  {
+    return new File(mDirectory,
+                    mName + "-" + pTimeStepIndex + cExtension);
+  }
+
+  private List<File> listSnapshotFiles()
+  {
+    ArrayList<File> lSnapshotFiles = new ArrayList<>();
+    File[] lFiles = mDirectory.listFiles();
+    if (lFiles == null)
+      return lSnapshotFiles;
+    for (File lFile : lFiles)
+      if (parseTimeStepIndex(lFile) >= 0)
+        lSnapshotFiles.add(lFile);
+    return lSnapshotFiles;
+  }
+
+  private long parseTimeStepIndex(File pFile)
+  {
+    String lFileName = pFile.getName();
+    String lPrefix = mName + "-";
+    if (!lFileName.startsWith(lPrefix)
+        || !lFileName.endsWith(cExtension))
+      return -1;
+    String lTimeStepIndex =
+                          lFileName.substring(lPrefix.length(),
+                                              lFileName.length()
+                                                                  - cExtension.length());
+    try
+    {
+      return Long.parseLong(lTimeStepIndex);
+    }
+    catch (NumberFormatException e)
+    {
+      return -1;
+    }
+  }
+
+}
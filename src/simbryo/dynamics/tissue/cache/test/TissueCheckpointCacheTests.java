@@ -0,0 +1,92 @@
+package simbryo.dynamics.tissue.cache.test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import simbryo.dynamics.tissue.cache.TissueCheckpointCache;
+import simbryo.dynamics.tissue.embryo.zoo.Organoid;
+
+/**
+ * Tissue checkpoint cache tests
+ *
+ * @author royer
+ */
+public class TissueCheckpointCacheTests
+{
+
+  /**
+   * Tests that tissues resume from the nearest earlier snapshot, and that
+   * snapshots are evicted when the disk budget is exceeded.
+   * 
+   * @throws IOException
+   *           NA
+   */
+  @Test
+  public void testResumeAndEviction() throws IOException
+  {
+    File lDirectory =
+                    Files.createTempDirectory("TissueCheckpointCacheTests")
+                         .toFile();
+    lDirectory.deleteOnExit();
+
+    TissueCheckpointCache<Organoid> lCache =
+                                           new TissueCheckpointCache<>(lDirectory,
+                                                                       "Organoid",
+                                                                       () -> new Organoid(16,
+                                                                                          16,
+                                                                                          16),
+                                                                       100,
+                                                                       Long.MAX_VALUE);
+
+    Organoid lOrganoid = lCache.getTissue(1250);
+    assertEquals(1250, lOrganoid.getTimeStepIndex());
+    assertEquals(Arrays.asList(100L,
+                               200L,
+                               300L,
+                               400L,
+                               500L,
+                               600L,
+                               700L,
+                               800L,
+                               900L,
+                               1000L,
+                               1100L,
+                               1200L),
+                 lCache.getSnapshotTimeStepIndices());
+
+    // a slightly later time resumes from the 1200 snapshot, no new snapshot:
+    lOrganoid = lCache.getTissue(1290);
+    assertEquals(1290, lOrganoid.getTimeStepIndex());
+    assertEquals(12, lCache.getSnapshotTimeStepIndices().size());
+    assertTrue(lOrganoid.getNumberOfParticles() > 1);
+
+    // an earlier time resumes from an earlier snapshot:
+    lOrganoid = lCache.getTissue(450);
+    assertEquals(450, lOrganoid.getTimeStepIndex());
+
+    // a budget of zero only keeps the most recently used snapshot:
+    TissueCheckpointCache<Organoid> lSmallCache =
+                                                new TissueCheckpointCache<>(lDirectory,
+                                                                            "Organoid",
+                                                                            () -> new Organoid(16,
+                                                                                               16,
+                                                                                               16),
+                                                                            100,
+                                                                            0);
+    lOrganoid = lSmallCache.getTissue(1310);
+    assertEquals(1310, lOrganoid.getTimeStepIndex());
+    assertEquals(Arrays.asList(1300L),
+                 lSmallCache.getSnapshotTimeStepIndices());
+
+    lSmallCache.clear();
+    assertTrue(lSmallCache.getSnapshotTimeStepIndices().isEmpty());
+    lDirectory.delete();
+  }
+
+}
@@ -46,7 +46,17 @@ public class CellProperty implements Serializable
     mDimension = pDimension;
     mPropertyArray =
                    new DoubleBufferingFloatArray(getDimension()
-                                                 * mEmbryo.getMaxNumberOfParticles());
+                                                 * mEmbryo.getCapacity());
+  }
+
+  /**
+   * Returns the tissue dynamics this cell property belongs to.
+   * 
+   * @return tissue dynamics
+   */
+  public TissueDynamics getTissueDynamics()
+  {
+    return mEmbryo;
   }
 
   /**
@@ -59,6 +69,29 @@ public class CellProperty implements Serializable
     return mEmbryo.getMaxNumberOfParticles();
   }
 
+  /**
+   * Returns the number of particles for which values are currently allocated.
+   * 
+   * @return capacity in number of particles
+   */
+  public int getCapacity()
+  {
+    return mPropertyArray.getLength() / mDimension;
+  }
+
+  /**
+   * Resizes this cell property to a given capacity, existing values are
+   * preserved. This is called by the tissue whenever its particle storage
+   * grows.
+   * 
+   * @param pCapacity
+   *          new capacity in number of particles
+   */
+  public void resize(int pCapacity)
+  {
+    mPropertyArray.resize(pCapacity * mDimension);
+  }
+
   /**
    * Returns dimension of property.
    * 
@@ -135,11 +168,29 @@ public class CellProperty implements Serializable
    */
   public void copyValue(int pSourceParticleId, int pDestParticleId)
   {
+    final int lDimension = getDimension();
     float[] lMorphogenArray = mPropertyArray.getCurrentArray();
-    lMorphogenArray[getDimension()
-                    * pDestParticleId] =
-                                       lMorphogenArray[getDimension()
-                                                       * pSourceParticleId];
+    System.arraycopy(lMorphogenArray,
+                     lDimension * pSourceParticleId,
+                     lMorphogenArray,
+                     lDimension * pDestParticleId,
+                     lDimension);
+  }
+
+  /**
+   * Reorders the cell property values so that they follow a reordering of the
+   * particles of the tissue.
+   * 
+   * @param pNewToOld
+   *          permutation: new particle id to old particle id
+   * @param pNumberOfParticles
+   *          number of particles to permute
+   */
+  public void permute(int[] pNewToOld, int pNumberOfParticles)
+  {
+    mPropertyArray.permute(pNewToOld,
+                           pNumberOfParticles,
+                           getDimension());
   }
 
   /**
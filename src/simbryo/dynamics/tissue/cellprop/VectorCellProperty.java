@@ -3,6 +3,7 @@ package simbryo.dynamics.tissue.cellprop;
 import static java.lang.Math.sqrt;
 
 import simbryo.dynamics.tissue.TissueDynamics;
+import simbryo.util.random.CounterRandom;
 
 /**
  * Vector cell property. Multi-dimensional cell property with vector operations.
@@ -29,17 +30,27 @@ public class VectorCellProperty extends CellProperty
   }
 
   /**
-   * Initializes with random vectors.
+   * Initializes with random vectors, drawn from the random number generator of
+   * the tissue.
    */
   public void initializeRandom()
   {
     float[] lMorphogenArrayRead = mPropertyArray.getReadArray();
     float[] lMorphogenArrayWrite = mPropertyArray.getWriteArray();
+    final long lRandomKey = getTissueDynamics().nextRandomKey();
 
     for (int i = 0; i < lMorphogenArrayRead.length; i++)
     {
-      lMorphogenArrayRead[i] = (float) (Math.random() * 2 - 1);
-      lMorphogenArrayWrite[i] = (float) (Math.random() * 2 - 1);
+      lMorphogenArrayRead[i] =
+                             (float) CounterRandom.nextDouble(lRandomKey,
+                                                              2 * i,
+                                                              -1,
+                                                              1);
+      lMorphogenArrayWrite[i] =
+                              (float) CounterRandom.nextDouble(lRandomKey,
+                                                               2 * i + 1,
+                                                               -1,
+                                                               1);
     }
   }
 
@@ -72,11 +83,11 @@ public class VectorCellProperty extends CellProperty
   }
 
   /**
-   * Normalizes all vectors
+   * Normalizes all allocated vectors
    */
   public void normalize()
   {
-    normalize(0, getMaxNumberOfParticles());
+    normalize(0, getCapacity());
   }
 
   /**
@@ -0,0 +1,95 @@
+package simbryo.dynamics.tissue.cellprop.operators;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Cell event queues collect per-cell events (e.g. cell divisions) raised while
+ * an operator reads the tissue, so that the changes they entail (cloning cells,
+ * copying cell properties) can be applied afterwards in a single batch. Each
+ * event is a cell id and a value. Events can be added concurrently from several
+ * threads as long as each cell raises at most one event per pass, which is
+ * guaranteed by reserving a slot per cell of the pass.
+ *
+ * @author royer
+ */
+public class CellEventQueue
+{
+  private long[] mEvents = new long[0];
+  private final AtomicInteger mSize = new AtomicInteger();
+
+  /**
+   * Clears the queue and makes room for a pass over the given number of cells.
+   *
+   * @param pNumberOfCells
+   *          number of cells that may raise an event
+   */
+  public void clear(int pNumberOfCells)
+  {
+    if (mEvents.length < pNumberOfCells)
+      mEvents = new long[Math.max(pNumberOfCells,
+                                  (3 * mEvents.length) / 2)];
+    mSize.set(0);
+  }
+
+  /**
+   * Adds an event. This method is thread-safe.
+   *
+   * @param pId
+   *          cell id
+   * @param pValue
+   *          event value
+   */
+  public void add(int pId, float pValue)
+  {
+    // ids are non-negative, so sorting the packed events sorts them by id:
+    mEvents[mSize.getAndIncrement()] =
+                                     ((long) pId << 32)
+                                       | (Float.floatToRawIntBits(pValue)
+                                          & 0xFFFFFFFFL);
+  }
+
+  /**
+   * Returns the number of events in the queue.
+   *
+   * @return number of events
+   */
+  public int size()
+  {
+    return mSize.get();
+  }
+
+  /**
+   * Sorts the events by increasing cell id, so that they are processed in the
+   * same order as a sequential pass would have raised them.
+   */
+  public void sort()
+  {
+    Arrays.sort(mEvents, 0, size());
+  }
+
+  /**
+   * Returns the cell id of a given event.
+   *
+   * @param pIndex
+   *          event index
+   * @return cell id
+   */
+  public int getId(int pIndex)
+  {
+    return (int) (mEvents[pIndex] >>> 32);
+  }
+
+  /**
+   * Returns the value of a given event.
+   *
+   * @param pIndex
+   *          event index
+   * @return event value
+   */
+  public float getValue(int pIndex)
+  {
+    return Float.intBitsToFloat((int) mEvents[pIndex]);
+  }
+
+}
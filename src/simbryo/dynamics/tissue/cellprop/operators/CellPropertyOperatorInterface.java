@@ -8,6 +8,13 @@ import simbryo.dynamics.tissue.cellprop.CellProperty;
 /**
  * Cell property operators can modify the values of a set of properties over
  * time.
+ * 
+ * Operators that declare themselves range-safe can be applied in parallel: the
+ * range of cell ids is cut into chunks, prepare(...) is called once, then
+ * applyRange(...) is called concurrently for each chunk, and finally
+ * complete(...) is called once. applyRange(...) must only read the tissue and
+ * only write the values of the cells within its chunk, any scratch state must
+ * be per worker thread.
  *
  * @author royer
  * @param <CP>
@@ -25,9 +32,91 @@ public interface CellPropertyOperatorInterface<CP extends CellProperty>
    * @param pTissueDynamics
    * @param pCellProperty
    */
+  @SuppressWarnings("unchecked")
   void apply(int pBeginId,
              int pEndId,
              TissueDynamics pTissueDynamics,
-             @SuppressWarnings("unchecked") CP... pCellProperty);
+             CP... pCellProperty);
+
+  /**
+   * Returns true if this operator can be applied in parallel over disjoint
+   * chunks of a range of cell ids, see prepare(...), applyRange(...) and
+   * complete(...).
+   * 
+   * @return true if range-safe
+   */
+  default boolean isRangeSafe()
+  {
+    return false;
+  }
+
+  /**
+   * Prepares a parallel application of this operator over a range of cell ids.
+   * Only called for range-safe operators, from the caller thread.
+   * 
+   * @param pBeginId
+   *          begin id of the whole range
+   * @param pEndId
+   *          end id of the whole range
+   * @param pTissueDynamics
+   *          tissue
+   * @param pCellProperty
+   *          cell properties
+   */
+  @SuppressWarnings("unchecked")
+  default void prepare(int pBeginId,
+                       int pEndId,
+                       TissueDynamics pTissueDynamics,
+                       CP... pCellProperty)
+  {
+    // nothing by default
+  }
+
+  /**
+   * Applies this operator to a chunk of a range of cell ids. Only called for
+   * range-safe operators, possibly concurrently for disjoint chunks.
+   * 
+   * @param pBeginId
+   *          begin id of the chunk
+   * @param pEndId
+   *          end id of the chunk
+   * @param pTissueDynamics
+   *          tissue
+   * @param pCellProperty
+   *          cell properties
+   */
+  @SuppressWarnings("unchecked")
+  default void applyRange(int pBeginId,
+                          int pEndId,
+                          TissueDynamics pTissueDynamics,
+                          CP... pCellProperty)
+  {
+    throw new UnsupportedOperationException(getClass().getSimpleName()
+                                            + " is not range-safe");
+  }
+
+  /**
+   * Completes a parallel application of this operator over a range of cell ids,
+   * for example by swapping buffers or applying queued events. Only called for
+   * range-safe operators, from the caller thread, after all chunks have been
+   * processed.
+   * 
+   * @param pBeginId
+   *          begin id of the whole range
+   * @param pEndId
+   *          end id of the whole range
+   * @param pTissueDynamics
+   *          tissue
+   * @param pCellProperty
+   *          cell properties
+   */
+  @SuppressWarnings("unchecked")
+  default void complete(int pBeginId,
+                        int pEndId,
+                        TissueDynamics pTissueDynamics,
+                        CP... pCellProperty)
+  {
+    // nothing by default
+  }
 
 }
@@ -3,7 +3,7 @@ package simbryo.dynamics.tissue.cellprop.operators.impl;
 import simbryo.dynamics.tissue.TissueDynamics;
 import simbryo.dynamics.tissue.cellprop.VectorCellProperty;
 import simbryo.dynamics.tissue.cellprop.operators.OperatorBase;
-import simbryo.particles.neighborhood.NeighborhoodGrid;
+import simbryo.particles.neighborhood.NeighborQuery;
 import simbryo.util.geom.GeometryUtils;
 
 /**
@@ -19,7 +19,6 @@ public class NematicOrderOperator extends
   private static final long serialVersionUID = 1L;
 
   private float mCouplingConstant;
-  private int[] mNeighboorsArray;
   private float mNeighborhoodRadiusDilationFactor;
 
   /**
@@ -48,16 +47,28 @@ public class NematicOrderOperator extends
                     int pEndId,
                     TissueDynamics pEmbryo,
                     VectorCellProperty... pVectorCellProperty)
+  {
+    applyRange(pBeginId, pEndId, pEmbryo, pVectorCellProperty);
+    complete(pBeginId, pEndId, pEmbryo, pVectorCellProperty);
+  }
+
+  @Override
+  public boolean isRangeSafe()
+  {
+    return true;
+  }
+
+  @Override
+  public void applyRange(int pBeginId,
+                         int pEndId,
+                         TissueDynamics pEmbryo,
+                         VectorCellProperty... pVectorCellProperty)
   {
     final int lDimension = pEmbryo.getDimension();
     final VectorCellProperty lVectorCellProperty =
                                                  pVectorCellProperty[0];
 
-    final NeighborhoodGrid lNeighborhood =
-                                         pEmbryo.getNeighborhoodGrid();
-    final int lMaxNumberOfParticlesPerGridCell =
-                                               lNeighborhood.getMaxParticlesPerGridCell();
-    final int lTotalNumberOfCells = lNeighborhood.getVolume();
+    final NeighborQuery lNeighborQuery = pEmbryo.getNeighborQuery();
     final float lCouplingConstant = mCouplingConstant;
     final float lNeighborhoodRadiusFactor =
                                           mNeighborhoodRadiusDilationFactor;
@@ -66,37 +77,16 @@ public class NematicOrderOperator extends
                              pEmbryo.getPositions().getCurrentArray();
     final float[] lRadii = pEmbryo.getRadii().getCurrentArray();
 
-    int lNeighboorhoodListMaxLength = lMaxNumberOfParticlesPerGridCell
-                                      * lTotalNumberOfCells;
-    if (mNeighboorsArray == null
-        || mNeighboorsArray.length != lNeighboorhoodListMaxLength)
-    {
-      mNeighboorsArray = new int[lNeighboorhoodListMaxLength];
-    }
-
-    final int[] lNeighboors = mNeighboorsArray;
-    final int[] lNeighboorsTemp = mNeighboorsArray;
-    final float[] lCellCoord = new float[lDimension];
-    final int[] lCellCoordMin = new int[lDimension];
-    final int[] lCellCoordMax = new int[lDimension];
-    final int[] lCellCoordCurrent = new int[lDimension];
-
     lVectorCellProperty.copyDefault(pBeginId, pEndId);
 
     for (int idu = pBeginId; idu < pEndId; idu++)
     {
       final float ru = lRadii[idu];
 
-      int lNumberOfNeighboors =
-                              lNeighborhood.getAllNeighborsForParticle(lNeighboors,
-                                                                       lNeighboorsTemp,
-                                                                       lPositions,
-                                                                       idu,
-                                                                       ru,
-                                                                       lCellCoord,
-                                                                       lCellCoordMin,
-                                                                       lCellCoordMax,
-                                                                       lCellCoordCurrent);
+      final int lNumberOfNeighboors = lNeighborQuery.query(lPositions,
+                                                           idu,
+                                                           ru);
+      final int[] lNeighboors = lNeighborQuery.getNeighbors();
 
       for (int k = 0; k < lNumberOfNeighboors; k++)
       {
@@ -119,8 +109,15 @@ public class NematicOrderOperator extends
     }
 
     lVectorCellProperty.normalize(pBeginId, pEndId);
-    lVectorCellProperty.getArray().swap();
+  }
 
+  @Override
+  public void complete(int pBeginId,
+                       int pEndId,
+                       TissueDynamics pEmbryo,
+                       VectorCellProperty... pVectorCellProperty)
+  {
+    pVectorCellProperty[0].getArray().swap();
   }
 
 }
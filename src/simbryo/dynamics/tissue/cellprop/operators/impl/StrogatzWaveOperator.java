@@ -2,8 +2,10 @@ package simbryo.dynamics.tissue.cellprop.operators.impl;
 
 import simbryo.dynamics.tissue.TissueDynamics;
 import simbryo.dynamics.tissue.cellprop.CellProperty;
+import simbryo.dynamics.tissue.cellprop.operators.CellEventQueue;
 import simbryo.dynamics.tissue.cellprop.operators.OperatorBase;
-import simbryo.particles.neighborhood.NeighborhoodGrid;
+import simbryo.particles.neighborhood.NeighborQuery;
+import simbryo.particles.neighborhood.NeighborhoodGridInterface;
 import simbryo.util.geom.GeometryUtils;
 
 /**
@@ -16,6 +18,10 @@ import simbryo.util.geom.GeometryUtils;
  * cycle to the next 'pull' their neighbors by an amount defined by the coupling
  * constant. This scheme can be used to implement mitotic waves.
  * 
+ * Each application is split in a pass that only reads the tissue and queues
+ * the cells transitioning to the next cycle, and a commit phase that applies
+ * the consequences of these events (e.g. cell divisions) in one batch.
+ * 
  * 
  * http://epubs.siam.org/doi/abs/10.1137/0150098
  * 
@@ -26,12 +32,12 @@ public class StrogatzWaveOperator extends OperatorBase<CellProperty>
 
   private float mCouplingConstant;
 
-  private int[] mNeighboorsArray;
-
   private float mNeighborhoodRadiusDilationFactor;
 
   private float mIncrement;
 
+  private transient CellEventQueue mEventQueue;
+
   /**
    * Constructs a Strogatz wave operator with given increment, coupling constant
    * and neighborhood radius factor. The neighborhood radius dilation factor
@@ -61,15 +67,78 @@ public class StrogatzWaveOperator extends OperatorBase<CellProperty>
                     int pEndId,
                     TissueDynamics pEmbryo,
                     CellProperty... pCellProperty)
+  {
+    prepare(pBeginId, pEndId, pEmbryo, pCellProperty);
+    applyRange(pBeginId, pEndId, pEmbryo, pCellProperty);
+    complete(pBeginId, pEndId, pEmbryo, pCellProperty);
+  }
+
+  @Override
+  public boolean isRangeSafe()
+  {
+    return true;
+  }
+
+  @Override
+  public void prepare(int pBeginId,
+                      int pEndId,
+                      TissueDynamics pEmbryo,
+                      CellProperty... pCellProperty)
+  {
+    CellEventQueue lEventQueue = mEventQueue;
+    if (lEventQueue == null)
+      mEventQueue = lEventQueue = new CellEventQueue();
+    lEventQueue.clear(pEndId - pBeginId);
+  }
+
+  @Override
+  public void applyRange(int pBeginId,
+                         int pEndId,
+                         TissueDynamics pEmbryo,
+                         CellProperty... pCellProperty)
+  {
+    pass(pBeginId, pEndId, pEmbryo, pCellProperty[0], mEventQueue);
+  }
+
+  @Override
+  public void complete(int pBeginId,
+                       int pEndId,
+                       TissueDynamics pEmbryo,
+                       CellProperty... pCellProperty)
+  {
+    commit(pEmbryo, pCellProperty[0], mEventQueue);
+  }
+
+  /**
+   * Computes the new morphogen values for a range of cells and queues the cells
+   * that transition to the next cycle. The pass only reads the tissue and only
+   * writes the values of its own range into the write array of the cell
+   * property, hence passes over disjoint ranges can run concurrently. Events
+   * are applied afterwards by commit(...).
+   * 
+   * @param pBeginId
+   *          begin id (inclusive)
+   * @param pEndId
+   *          end id (exclusive)
+   * @param pEmbryo
+   *          tissue
+   * @param pCellProperty
+   *          morphogen cell property
+   * @param pEventQueue
+   *          event queue, must have been cleared for at least the number of
+   *          cells of all concurrent passes
+   */
+  public void pass(int pBeginId,
+                   int pEndId,
+                   TissueDynamics pEmbryo,
+                   CellProperty pCellProperty,
+                   CellEventQueue pEventQueue)
   {
     final int lDimension = pEmbryo.getDimension();
-    final CellProperty lCellProperty = pCellProperty[0];
 
-    final NeighborhoodGrid lNeighborhood =
-                                         pEmbryo.getNeighborhoodGrid();
-    final int lMaxNumberOfParticlesPerGridCell =
-                                               lNeighborhood.getMaxParticlesPerGridCell();
-    final int lTotalNumberOfCells = lNeighborhood.getVolume();
+    final NeighborQuery lNeighborQuery = pEmbryo.getNeighborQuery();
+    final NeighborhoodGridInterface lNeighborhood =
+                                                  lNeighborQuery.getNeighborhoodGrid();
     final float lIncrement = mIncrement;
     final float lCouplingConstant = mCouplingConstant;
     final float lNeighborhoodRadiusFactor =
@@ -81,26 +150,11 @@ public class StrogatzWaveOperator extends OperatorBase<CellProperty>
                                        .getCurrentArray();
     final float[] lRadii = pEmbryo.getRadii().getCurrentArray();
 
-    int lNeighboorhoodListMaxLength = lMaxNumberOfParticlesPerGridCell
-                                      * lTotalNumberOfCells;
-    if (mNeighboorsArray == null
-        || mNeighboorsArray.length != lNeighboorhoodListMaxLength)
-    {
-      mNeighboorsArray = new int[lNeighboorhoodListMaxLength];
-    }
-
-    final int[] lNeighboors = mNeighboorsArray;
-    final int[] lNeighboorsTemp = mNeighboorsArray;
-    final float[] lCellCoord = new float[lDimension];
-    final int[] lCellCoordMin = new int[lDimension];
-    final int[] lCellCoordMax = new int[lDimension];
-    final int[] lCellCoordCurrent = new int[lDimension];
-
     final float[] lCellPropertyArrayRead =
-                                         lCellProperty.getArray()
+                                         pCellProperty.getArray()
                                                       .getReadArray();
     final float[] lCellPropertyArrayWrite =
-                                          lCellProperty.getArray()
+                                          pCellProperty.getArray()
                                                        .getWriteArray();
 
     for (int idu = pBeginId; idu < pEndId; idu++)
@@ -109,16 +163,10 @@ public class StrogatzWaveOperator extends OperatorBase<CellProperty>
 
       float lOldValue = lCellPropertyArrayRead[idu];
 
-      int lNumberOfNeighboors =
-                              lNeighborhood.getAllNeighborsForParticle(lNeighboors,
-                                                                       lNeighboorsTemp,
-                                                                       lPositions,
-                                                                       idu,
-                                                                       ru,
-                                                                       lCellCoord,
-                                                                       lCellCoordMin,
-                                                                       lCellCoordMax,
-                                                                       lCellCoordCurrent);
+      final int lNumberOfNeighboors = lNeighborQuery.query(lPositions,
+                                                           idu,
+                                                           ru);
+      final int[] lNeighboors = lNeighborQuery.getNeighbors();
 
       float lNewValue = lOldValue + lIncrement
                         + detectNeighboringEvent(lDimension,
@@ -137,6 +185,9 @@ public class StrogatzWaveOperator extends OperatorBase<CellProperty>
 
       lNewValue = (lEvent ? (int) lNewValue : lNewValue);
 
+      if (lEvent)
+        pEventQueue.add(idu, lNewValue);
+
       lCellPropertyArrayWrite[idu] = eventHook(lEvent,
                                                idu,
                                                lPositions,
@@ -145,16 +196,41 @@ public class StrogatzWaveOperator extends OperatorBase<CellProperty>
                                                lNewValue);
 
     }
+  }
 
-    lCellProperty.getArray().swap();
-
+  /**
+   * Applies the queued events in increasing cell id order, by calling
+   * commitEventHook(...) for each of them, and then swaps the cell property
+   * arrays. This is the only phase during which cells can be added to the
+   * tissue.
+   * 
+   * @param pEmbryo
+   *          tissue
+   * @param pCellProperty
+   *          morphogen cell property
+   * @param pEventQueue
+   *          events queued by the pass(es)
+   */
+  public void commit(TissueDynamics pEmbryo,
+                     CellProperty pCellProperty,
+                     CellEventQueue pEventQueue)
+  {
+    pEventQueue.sort();
+    final int lNumberOfEvents = pEventQueue.size();
+    for (int i = 0; i < lNumberOfEvents; i++)
+      commitEventHook(pEmbryo,
+                      pCellProperty,
+                      pEventQueue.getId(i),
+                      pEventQueue.getValue(i));
+
+    pCellProperty.getArray().swap();
   }
 
   /*
    * 
    */
   private float detectNeighboringEvent(int pDimension,
-                                       NeighborhoodGrid pNeighborhood,
+                                       NeighborhoodGridInterface pNeighborhood,
                                        final float pCouplingConstant,
                                        final float pNeighborhoodRadiusFactor,
                                        final float[] pPositions,
@@ -199,6 +275,25 @@ public class StrogatzWaveOperator extends OperatorBase<CellProperty>
       return 0;
   }
 
+  /**
+   * Called during the pass for each cell, returns the new morphogen value of
+   * the cell. This hook may run concurrently for different cells and must not
+   * modify the tissue.
+   * 
+   * @param pEvent
+   *          true if the cell transitions to the next cycle
+   * @param pId
+   *          cell id
+   * @param pPositions
+   *          positions
+   * @param pVelocities
+   *          velocities
+   * @param pRadii
+   *          radii
+   * @param pNewMorphogenValue
+   *          new morphogen value
+   * @return morphogen value to store for the cell
+   */
   protected float eventHook(boolean pEvent,
                             int pId,
                             float[] pPositions,
@@ -209,4 +304,27 @@ public class StrogatzWaveOperator extends OperatorBase<CellProperty>
     return pEvent ? (int) pNewMorphogenValue : pNewMorphogenValue;
   }
 
+  /**
+   * Called during the commit phase for each cell that transitioned to the next
+   * cycle, sequentially and in increasing cell id order. This hook may modify
+   * the tissue, for example to divide the cell. Values of new cells must be
+   * written to the write array of the cell property.
+   * 
+   * @param pEmbryo
+   *          tissue
+   * @param pCellProperty
+   *          morphogen cell property
+   * @param pId
+   *          cell id
+   * @param pNewMorphogenValue
+   *          new morphogen value, as computed before eventHook(...)
+   */
+  protected void commitEventHook(TissueDynamics pEmbryo,
+                                 CellProperty pCellProperty,
+                                 int pId,
+                                 float pNewMorphogenValue)
+  {
+    // nothing by default
+  }
+
 }
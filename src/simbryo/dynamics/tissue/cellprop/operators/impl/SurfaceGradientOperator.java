@@ -1,5 +1,7 @@
 package simbryo.dynamics.tissue.cellprop.operators.impl;
 
+import org.apache.commons.lang3.SerializationUtils;
+
 import simbryo.dynamics.tissue.TissueDynamics;
 import simbryo.dynamics.tissue.cellprop.VectorCellProperty;
 import simbryo.dynamics.tissue.cellprop.operators.OperatorBase;
@@ -10,7 +12,9 @@ import simbryo.particles.isosurf.IsoSurfaceInterface;
  * Surface gradient operator.
  * 
  * This operator sets a vector property to the normalized gradient of an
- * iso-surface.
+ * iso-surface. When applied in parallel, each worker thread evaluates its own
+ * copy of the iso-surface, copies are refreshed when the tissue's surface is
+ * replaced.
  * 
  */
 public class SurfaceGradientOperator extends
@@ -19,6 +23,8 @@ public class SurfaceGradientOperator extends
 
   private static final long serialVersionUID = 1L;
 
+  private transient ThreadLocal<IsoSurfaceInterface[]> mSurfaceCopies;
+
   /**
    * Constructs a Surface gradient operator.
    * 
@@ -34,19 +40,71 @@ public class SurfaceGradientOperator extends
                     int pEndId,
                     TissueDynamics pTissueDynamics,
                     VectorCellProperty... pVectorCellProperty)
+  {
+    computeGradients(pBeginId,
+                     pEndId,
+                     pTissueDynamics,
+                     getSurface(pTissueDynamics),
+                     pVectorCellProperty[0]);
+  }
+
+  @Override
+  public boolean isRangeSafe()
+  {
+    return true;
+  }
+
+  @Override
+  public void prepare(int pBeginId,
+                      int pEndId,
+                      TissueDynamics pTissueDynamics,
+                      VectorCellProperty... pVectorCellProperty)
+  {
+    if (mSurfaceCopies == null)
+      mSurfaceCopies = new ThreadLocal<>();
+  }
+
+  @Override
+  public void applyRange(int pBeginId,
+                         int pEndId,
+                         TissueDynamics pTissueDynamics,
+                         VectorCellProperty... pVectorCellProperty)
+  {
+    // iso-surfaces accumulate coordinates, each worker needs its own copy:
+    IsoSurfaceInterface lSurface = getSurface(pTissueDynamics);
+    IsoSurfaceInterface[] lSurfaceCopy = mSurfaceCopies.get();
+    if (lSurfaceCopy == null || lSurfaceCopy[0] != lSurface)
+    {
+      lSurfaceCopy = new IsoSurfaceInterface[]
+      { lSurface, SerializationUtils.clone(lSurface) };
+      mSurfaceCopies.set(lSurfaceCopy);
+    }
+
+    computeGradients(pBeginId,
+                     pEndId,
+                     pTissueDynamics,
+                     lSurfaceCopy[1],
+                     pVectorCellProperty[0]);
+  }
+
+  private IsoSurfaceInterface getSurface(TissueDynamics pTissueDynamics)
   {
     if (!(pTissueDynamics instanceof HasSurface))
       throw new IllegalArgumentException("tissue dynamics should implement "
                                          + HasSurface.class.getSimpleName()
                                          + " interface");
 
-    HasSurface lHasSurface = (HasSurface) pTissueDynamics;
-    IsoSurfaceInterface lSurface = lHasSurface.getSurface();
+    return ((HasSurface) pTissueDynamics).getSurface();
+  }
 
+  private void computeGradients(int pBeginId,
+                                int pEndId,
+                                TissueDynamics pTissueDynamics,
+                                IsoSurfaceInterface pSurface,
+                                VectorCellProperty pVectorCellProperty)
+  {
     final int lDimension = pTissueDynamics.getDimension();
-    final VectorCellProperty lVectorCellProperty =
-                                                 pVectorCellProperty[0];
-    float[] lPropertyArray = lVectorCellProperty.getArray()
+    float[] lPropertyArray = pVectorCellProperty.getArray()
                                                 .getCurrentArray();
 
     final float[] lPositions = pTissueDynamics.getPositions()
@@ -55,16 +113,16 @@ public class SurfaceGradientOperator extends
     for (int idu = pBeginId; idu < pEndId; idu++)
     {
       int lIndex = lDimension * idu;
-      lSurface.clear();
+      pSurface.clear();
       for (int d = 0; d < lDimension; d++)
       {
         float lValue = lPositions[lIndex + d];
-        lSurface.addCoordinate(lValue);
+        pSurface.addCoordinate(lValue);
       }
 
       for (int d = 0; d < lDimension; d++)
       {
-        float lValue = lSurface.getNormalizedGardient(d);
+        float lValue = pSurface.getNormalizedGardient(d);
         lPropertyArray[lIndex + d] = lValue;
       }
     }
@@ -4,10 +4,19 @@ import static org.junit.Assert.*;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
 
 import org.junit.Test;
 
+import simbryo.dynamics.tissue.cellprop.HasPolarity;
+import simbryo.dynamics.tissue.cellprop.VectorCellProperty;
 import simbryo.dynamics.tissue.embryo.zoo.Drosophila;
+import simbryo.dynamics.tissue.embryo.zoo.Organoid;
+import simbryo.dynamics.tissue.trajectory.TrajectoryFrame;
+import simbryo.dynamics.tissue.trajectory.TrajectoryReader;
+import simbryo.dynamics.tissue.trajectory.TrajectoryRecorder;
+import simbryo.util.checkpoint.CheckpointCodec;
+import simbryo.util.checkpoint.CheckpointUtilities;
 import simbryo.util.serialization.SerializationUtilities;
 
 /**
@@ -53,4 +62,264 @@ public class EmbryoDynamicsTests
     // lDrosophilaLoaded.getViewer().waitWhileShowing();
   }
 
+  /**
+   * This test writes checkpoints of an embryo after a few divisions, with and
+   * without compression, and restores them into freshly constructed embryos.
+   * 
+   * @throws IOException
+   *           NA
+   */
+  @Test
+  public void testCheckpoint() throws IOException
+  {
+    Drosophila lDrosophila = new Drosophila(64, 16, 16, 16);
+    lDrosophila.simulationSteps(4000);
+    int lNumberOfParticles = lDrosophila.getNumberOfParticles();
+    assertTrue(lNumberOfParticles > 1);
+
+    for (CheckpointCodec lCodec : CheckpointCodec.values())
+    {
+      File lTempFile = File.createTempFile("EmbryoDynamicsTests",
+                                           "testCheckpoint" + lCodec);
+      lTempFile.deleteOnExit();
+
+      CheckpointUtilities.saveToFile(lDrosophila, lTempFile, lCodec);
+
+      Drosophila lDrosophilaLoaded = new Drosophila(64, 16, 16, 16);
+      assertTrue(CheckpointUtilities.loadFromFile(lDrosophilaLoaded,
+                                                  lTempFile));
+
+      assertEquals(lDrosophila.getTimeStepIndex(),
+                   lDrosophilaLoaded.getTimeStepIndex());
+      assertEquals(lNumberOfParticles,
+                   lDrosophilaLoaded.getNumberOfParticles());
+
+      float[] lExpected = new float[3 * lNumberOfParticles];
+      float[] lActual = new float[3 * lNumberOfParticles];
+      lDrosophila.copyPositions(lExpected);
+      lDrosophilaLoaded.copyPositions(lActual);
+      assertArrayEquals(lExpected, lActual, 0);
+      lDrosophila.copyVelocities(lExpected);
+      lDrosophilaLoaded.copyVelocities(lActual);
+      assertArrayEquals(lExpected, lActual, 0);
+
+      float[] lPolarity = lDrosophila.getPolarityProperty()
+                                     .getArray()
+                                     .getCurrentArray();
+      float[] lPolarityLoaded = lDrosophilaLoaded.getPolarityProperty()
+                                                 .getArray()
+                                                 .getCurrentArray();
+      for (int id = 0; id < lNumberOfParticles; id++)
+      {
+        assertEquals(lDrosophila.getRadius(id),
+                     lDrosophilaLoaded.getRadius(id),
+                     0);
+        assertEquals(lDrosophila.getTargetRadius(id),
+                     lDrosophilaLoaded.getTargetRadius(id),
+                     0);
+        for (int d = 0; d < 3; d++)
+          assertEquals(lPolarity[3 * id + d],
+                       lPolarityLoaded[3 * id + d],
+                       0);
+      }
+
+      // the restored embryo must be able to carry on:
+      lDrosophilaLoaded.simulationSteps(10);
+
+      // checkpoints are tied to the class they were written for:
+      assertFalse(CheckpointUtilities.loadFromFile(new Organoid(16,
+                                                                16,
+                                                                16),
+                                                   lTempFile));
+    }
+  }
+
+  /**
+   * Tests that embryos created with the same seed develop identically, whether
+   * simulated sequentially, in parallel, or resumed from a checkpoint.
+   * 
+   * @throws IOException
+   *           NA
+   */
+  @Test
+  public void testSeededReproducibility() throws IOException
+  {
+    Drosophila lSequential = new Drosophila(42L, 64, 16, 16, 16);
+    lSequential.simulationSteps(2000);
+
+    File lTempFile = File.createTempFile("EmbryoDynamicsTests",
+                                         "testSeededReproducibility");
+    lTempFile.deleteOnExit();
+    CheckpointUtilities.saveToFile(lSequential,
+                                   lTempFile,
+                                   CheckpointCodec.None);
+    lSequential.simulationSteps(1000);
+
+    Drosophila lParallel = new Drosophila(42L, 64, 16, 16, 16);
+    lParallel.setParallelOperators(true);
+    lParallel.getCollisionForceField().setParallel(true);
+    lParallel.simulationSteps(3000);
+
+    Drosophila lResumed = new Drosophila(7L, 64, 16, 16, 16);
+    assertTrue(CheckpointUtilities.loadFromFile(lResumed, lTempFile));
+    lResumed.simulationSteps(1000);
+
+    Drosophila lOtherSeed = new Drosophila(7L, 64, 16, 16, 16);
+    lOtherSeed.simulationSteps(3000);
+
+    final int lNumberOfParticles = lSequential.getNumberOfParticles();
+    assertTrue(lNumberOfParticles > 1);
+    assertEquals(lNumberOfParticles, lParallel.getNumberOfParticles());
+    assertEquals(lNumberOfParticles, lResumed.getNumberOfParticles());
+
+    float[] lExpected = new float[3 * lNumberOfParticles];
+    float[] lActual = new float[3 * lNumberOfParticles];
+    lSequential.copyPositions(lExpected);
+    lParallel.copyPositions(lActual);
+    assertArrayEquals(lExpected, lActual, 0);
+    lResumed.copyPositions(lActual);
+    assertArrayEquals(lExpected, lActual, 0);
+
+    float[] lOther = new float[3 * lOtherSeed.getNumberOfParticles()];
+    lOtherSeed.copyPositions(lOther);
+    assertFalse(Arrays.equals(lExpected, lOther));
+  }
+
+  /**
+   * Tests that cell properties grow in lock-step with the tissue's particle
+   * storage, and that cloned cells inherit their properties.
+   */
+  @Test
+  public void testCapacityGrowth()
+  {
+    Drosophila lDrosophila = new Drosophila(64, 16, 16, 16);
+
+    VectorCellProperty lPolarityProperty =
+                                         lDrosophila.getPolarityProperty();
+    int lInitialCapacity = lDrosophila.getCapacity();
+    assertEquals(lInitialCapacity, lPolarityProperty.getCapacity());
+
+    float[] lPolarity = lPolarityProperty.getArray().getCurrentArray();
+    lPolarity[0] = 0.1f;
+    lPolarity[1] = 0.2f;
+    lPolarity[2] = 0.3f;
+    lDrosophila.setTargetRadius(0, 0.05f);
+
+    int lNumberOfClones = 2 * lInitialCapacity;
+    for (int i = 0; i < lNumberOfClones; i++)
+      assertTrue(lDrosophila.cloneParticle(0, 0) > 0);
+
+    assertEquals(lNumberOfClones + 1, lDrosophila.getNumberOfParticles());
+    assertTrue(lDrosophila.getCapacity() > lInitialCapacity);
+    assertEquals(lDrosophila.getCapacity(),
+                 lPolarityProperty.getCapacity());
+
+    int lLastId = lDrosophila.getNumberOfParticles() - 1;
+    lPolarity = lPolarityProperty.getArray().getCurrentArray();
+    assertEquals(0.1f, lPolarity[3 * lLastId], 0);
+    assertEquals(0.2f, lPolarity[3 * lLastId + 1], 0);
+    assertEquals(0.3f, lPolarity[3 * lLastId + 2], 0);
+    assertEquals(0.05f, lDrosophila.getTargetRadius(lLastId), 0);
+
+    lDrosophila.simulationSteps(10);
+  }
+
+  /**
+   * This test records the trajectory of an embryo and checks that the frames
+   * read back match the state of the embryo at the recorded time steps.
+   * 
+   * @throws IOException
+   *           NA
+   */
+  @Test
+  public void testTrajectory() throws IOException
+  {
+    Drosophila lDrosophila = new Drosophila(64, 16, 16, 16);
+
+    File lTempFile = File.createTempFile("EmbryoDynamicsTests",
+                                         "testTrajectory");
+    lTempFile.deleteOnExit();
+
+    int lRecordingPeriod = 100;
+    float[] lExpectedPositions = null;
+    float[] lExpectedPolarity = null;
+    float[] lExpectedRadii = null;
+    try (TrajectoryRecorder lTrajectoryRecorder =
+                                                new TrajectoryRecorder(lTempFile,
+                                                                       lDrosophila,
+                                                                       lRecordingPeriod))
+    {
+      lDrosophila.setTrajectoryRecorder(lTrajectoryRecorder);
+      lDrosophila.simulationSteps(3000);
+
+      int lNumberOfParticles = lDrosophila.getNumberOfParticles();
+      lExpectedPositions = new float[3 * lNumberOfParticles];
+      lDrosophila.copyPositions(lExpectedPositions);
+      lExpectedRadii = new float[lNumberOfParticles];
+      for (int id = 0; id < lNumberOfParticles; id++)
+        lExpectedRadii[id] = lDrosophila.getRadius(id);
+      lExpectedPolarity = new float[3 * lNumberOfParticles];
+      System.arraycopy(lDrosophila.getPolarityProperty()
+                                  .getArray()
+                                  .getCurrentArray(),
+                       0,
+                       lExpectedPolarity,
+                       0,
+                       3 * lNumberOfParticles);
+
+      assertEquals(3000 / lRecordingPeriod,
+                   lTrajectoryRecorder.getNumberOfFrames());
+      lDrosophila.setTrajectoryRecorder(null);
+    }
+
+    try (TrajectoryReader lTrajectoryReader =
+                                            new TrajectoryReader(lTempFile))
+    {
+      assertEquals(3000 / lRecordingPeriod,
+                   lTrajectoryReader.getNumberOfFrames());
+      assertEquals(lRecordingPeriod,
+                   lTrajectoryReader.getRecordingPeriod());
+      assertEquals(-1, lTrajectoryReader.getFrameIndex(0));
+      assertEquals(0, lTrajectoryReader.getFrameIndex(150));
+
+      int lLastFrameIndex = lTrajectoryReader.getFrameIndex(3000);
+      assertEquals(lTrajectoryReader.getNumberOfFrames() - 1,
+                   lLastFrameIndex);
+      assertEquals(3000,
+                   lTrajectoryReader.getTimeStepIndex(lLastFrameIndex));
+
+      TrajectoryFrame lFrame = lTrajectoryReader.getFrame(lLastFrameIndex);
+      assertEquals(3000, lFrame.getTimeStepIndex());
+      assertEquals(lExpectedRadii.length, lFrame.getNumberOfParticles());
+
+      float[] lPositions = new float[lExpectedPositions.length];
+      lFrame.copyPositions(lPositions);
+      assertArrayEquals(lExpectedPositions, lPositions, 0);
+      for (int id = 0; id < lExpectedRadii.length; id++)
+        assertEquals(lExpectedRadii[id], lFrame.getRadius(id), 0);
+
+      assertTrue(lFrame instanceof HasPolarity);
+      float[] lPolarity = ((HasPolarity) lFrame).getPolarityProperty()
+                                                .getArray()
+                                                .getCurrentArray();
+      for (int i = 0; i < lExpectedPolarity.length; i++)
+        assertEquals(lExpectedPolarity[i], lPolarity[i], 0);
+
+      // frames can be reused, earlier frames have fewer cells:
+      lTrajectoryReader.readFrame(0, lFrame);
+      assertEquals(lRecordingPeriod, lFrame.getTimeStepIndex());
+      assertTrue(lFrame.getNumberOfParticles() <= lExpectedRadii.length);
+
+      try
+      {
+        lFrame.simulationSteps(1);
+        fail();
+      }
+      catch (UnsupportedOperationException e)
+      {
+        // expected
+      }
+    }
+  }
+
 }
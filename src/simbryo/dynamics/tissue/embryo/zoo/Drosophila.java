@@ -4,16 +4,20 @@ import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
 
+import simbryo.dynamics.tissue.TissueDynamics;
+import simbryo.dynamics.tissue.cache.TissueCheckpointCache;
 import simbryo.dynamics.tissue.cellprop.CellProperty;
 import simbryo.dynamics.tissue.cellprop.HasPolarity;
 import simbryo.dynamics.tissue.cellprop.VectorCellProperty;
 import simbryo.dynamics.tissue.cellprop.operators.impl.StrogatzWaveOperator;
 import simbryo.dynamics.tissue.cellprop.operators.impl.SurfaceGradientOperator;
 import simbryo.dynamics.tissue.embryo.EmbryoDynamics;
-import simbryo.particles.forcefield.ForceFieldInterface;
+import simbryo.particles.forcefield.external.ExternalForceFieldInterface;
 import simbryo.particles.forcefield.external.impl.OneSidedIsoSurfaceForceField;
 import simbryo.particles.isosurf.impl.Ellipsoid;
-import simbryo.util.serialization.SerializationUtilities;
+import simbryo.util.checkpoint.CheckpointReader;
+import simbryo.util.checkpoint.CheckpointWriter;
+import simbryo.util.random.CounterRandom;
 
 /**
  * Drosophila melanogster embryo (First 14 divisions).
@@ -36,8 +40,14 @@ public class Drosophila extends EmbryoDynamics
 
   private static final float Ri = 0.08f;
 
-  private ForceFieldInterface mOutsideEllipseForceField;
-  private ForceFieldInterface mInsideEllipseForceField;
+  private static final float cSnapshotIntervalInDivisionTime = 0.5f;
+  private static final long cSnapshotDiskBudget = 512L << 20;
+
+  private static final TissueCheckpointCache<Drosophila> cDevelopedEmbryoCache =
+                                                                             createDevelopedEmbryoCache();
+
+  private ExternalForceFieldInterface mOutsideEllipseForceField;
+  private ExternalForceFieldInterface mInsideEllipseForceField;
 
   private CellProperty mCellCycleProperty;
   private StrogatzWaveOperator mStrogatzOscillator;
@@ -60,8 +70,30 @@ public class Drosophila extends EmbryoDynamics
    */
   public Drosophila(int pMaxNumberOfParticlesPerGridCell,
                     int... pGridDimensions)
+  {
+    this(CounterRandom.newSeed(),
+         pMaxNumberOfParticlesPerGridCell,
+         pGridDimensions);
+  }
+
+  /**
+   * Creates a Drosophila embryo with a given random seed. Two embryos created
+   * with the same seed and parameters develop identically, whether or not
+   * operators and force fields are computed in parallel.
+   *
+   * @param pSeed
+   *          random seed
+   * @param pMaxNumberOfParticlesPerGridCell
+   *          max number of particles per grid cell
+   * @param pGridDimensions
+   *          grid dimensions
+   */
+  public Drosophila(long pSeed,
+                    int pMaxNumberOfParticlesPerGridCell,
+                    int... pGridDimensions)
   {
     super(Fc, D, pMaxNumberOfParticlesPerGridCell, pGridDimensions);
+    setSeed(pSeed);
 
     setSurface(new Ellipsoid(getEllipsoidR(),
                              0.5f,
@@ -71,11 +103,20 @@ public class Drosophila extends EmbryoDynamics
                              getEllipsoidB(),
                              getEllipsoidC()));
 
+    final long lRandomKey = nextRandomKey();
     for (int i = 0; i < 1; i++)
     {
-      float x = (float) (0.5f + Ri * (Math.random() - 0.5f));
-      float y = (float) (Ri - 0.02 * Math.random());
-      float z = (float) (0.5f + Ri * (Math.random() - 0.5f));
+      float x = (float) (0.5f + Ri
+                                * (CounterRandom.nextDouble(lRandomKey,
+                                                            3 * i)
+                                   - 0.5f));
+      float y = (float) (Ri - 0.02
+                              * CounterRandom.nextDouble(lRandomKey,
+                                                         3 * i + 1));
+      float z = (float) (0.5f + Ri
+                                * (CounterRandom.nextDouble(lRandomKey,
+                                                            3 * i + 2)
+                                   - 0.5f));
 
       int lId = addParticle(x, y, z);
       setRadius(lId, Ri);
@@ -110,9 +151,19 @@ public class Drosophila extends EmbryoDynamics
                                                  float[] pRadii,
                                                  float pNewMorphogenValue)
                           {
-                            return cellDivisionHook(pEvent,
-                                                    pId,
-                                                    pNewMorphogenValue);
+                            return cellCycleHook(pEvent,
+                                                 pId,
+                                                 pPositions,
+                                                 pNewMorphogenValue);
+                          }
+
+                          @Override
+                          protected void commitEventHook(TissueDynamics pEmbryo,
+                                                         CellProperty pCellProperty,
+                                                         int pId,
+                                                         float pNewMorphogenValue)
+                          {
+                            cellDivisionHook(pId, pNewMorphogenValue);
                           }
 
                         };
@@ -170,15 +221,24 @@ public class Drosophila extends EmbryoDynamics
     return mPolarityProperty;
   }
 
-  private float cellDivisionHook(boolean pEvent,
-                                 int pId,
-                                 float pNewMorphogenValue)
+  private float cellCycleHook(boolean pEvent,
+                              int pId,
+                              float[] pPositions,
+                              float pNewMorphogenValue)
   {
-    int lDimension = getDimension();
-
-    if (pEvent && pNewMorphogenValue < 14)
+    if (pEvent && pNewMorphogenValue < 14 && pNewMorphogenValue >= 5)
     {
+      float y = pPositions[pId * getDimension() + 1];
+      if (y > 0.9f)
+        return (float) (pNewMorphogenValue + 0.1f * Math.pow(y, 4));
+    }
+    return pNewMorphogenValue;
+  }
 
+  private void cellDivisionHook(int pId, float pNewMorphogenValue)
+  {
+    if (pNewMorphogenValue < 14)
+    {
       int lNewParticleId = cloneParticle(pId, 0.001f);
 
       mCellCycleProperty.getArray()
@@ -194,23 +254,12 @@ public class Drosophila extends EmbryoDynamics
                         getRadius(lNewParticleId)
                                         * cCellDivisionRadiusShrinkage);
       }
-
-      if (pNewMorphogenValue >= 5)
-      {
-        float[] lPositions = mPositions.getReadArray();
-        float y = lPositions[pId * lDimension + 1];
-        if (y > 0.9f)
-          return (float) (pNewMorphogenValue + 0.1f * Math.pow(y, 4));
-      }
-
     }
 
     if ((int) pNewMorphogenValue > mCellDivCount)
       System.out.println("Division: " + mCellDivCount);
 
     mCellDivCount = Math.max(mCellDivCount, (int) pNewMorphogenValue);
-
-    return pNewMorphogenValue;
   }
 
   @Override
@@ -223,13 +272,31 @@ public class Drosophila extends EmbryoDynamics
 
       adjustForceFieldInsideEmbryo();
 
-      applyForceField(mOutsideEllipseForceField);
-      applyForceField(mInsideEllipseForceField);
-
       super.simulationSteps(1);
     }
   }
 
+  @Override
+  public void writeCheckpoint(CheckpointWriter pCheckpointWriter)
+  {
+    super.writeCheckpoint(pCheckpointWriter);
+    pCheckpointWriter.writeInt(mCellDivCount);
+  }
+
+  @Override
+  public void readCheckpoint(CheckpointReader pCheckpointReader) throws IOException
+  {
+    super.readCheckpoint(pCheckpointReader);
+    mCellDivCount = pCheckpointReader.readInt();
+  }
+
+  @Override
+  protected ExternalForceFieldInterface[] getExternalForceFields()
+  {
+    return new ExternalForceFieldInterface[]
+    { mOutsideEllipseForceField, mInsideEllipseForceField };
+  }
+
   private void adjustForceFieldInsideEmbryo()
   {
     final float lForce;
@@ -264,8 +331,10 @@ public class Drosophila extends EmbryoDynamics
   }
 
   /**
-   * Returns a cached embryo dynamics state. Phantom width, height and depth are
-   * provided to optimize the grid size.
+   * Returns a cached embryo dynamics state. Embryos are cached as checkpoints
+   * in the temporary folder, a snapshot is kept every
+   * 'cSnapshotIntervalInDivisionTime' so that any developmental time resumes
+   * from the nearest earlier snapshot.
    * 
    * @param pDivisionTime
    *          time in cell-division time
@@ -274,26 +343,24 @@ public class Drosophila extends EmbryoDynamics
    *           exception if problem savin/loading saved dynamics state
    */
   public static Drosophila getDeveloppedEmbryo(float pDivisionTime) throws IOException
+  {
+    return cDevelopedEmbryoCache.getTissue((long) (pDivisionTime * 1000));
+  }
+
+  private static TissueCheckpointCache<Drosophila> createDevelopedEmbryoCache()
   {
     File lTempDirectory =
                         new File(System.getProperty("java.io.tmpdir"));
-    File lCachedEmbryoDynamicsFile =
-                                   new File(lTempDirectory,
-                                            Drosophila.class.getSimpleName()
-                                                            + pDivisionTime);
-    Drosophila lDrosophila =
-                           SerializationUtilities.loadFromFile(Drosophila.class,
-                                                               lCachedEmbryoDynamicsFile);
-
-    if (lDrosophila == null)
-    {
-
-      lDrosophila = new Drosophila(64, 16, 16, 16);
-      lDrosophila.simulationSteps((int) (pDivisionTime * 1000));
-      SerializationUtilities.saveToFile(lDrosophila,
-                                        lCachedEmbryoDynamicsFile);
-    }
-    return lDrosophila;
+    return new TissueCheckpointCache<>(lTempDirectory,
+                                       Drosophila.class.getSimpleName()
+                                                       + "-64-16-16-16",
+                                       () -> new Drosophila(64,
+                                                            16,
+                                                            16,
+                                                            16),
+                                       (int) (cSnapshotIntervalInDivisionTime
+                                              * 1000),
+                                       cSnapshotDiskBudget);
   }
 
 }
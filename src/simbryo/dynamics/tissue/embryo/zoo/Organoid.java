@@ -1,7 +1,13 @@
 package simbryo.dynamics.tissue.embryo.zoo;
 
+import java.io.IOException;
+
 import simbryo.dynamics.tissue.embryo.EmbryoDynamics;
+import simbryo.particles.forcefield.external.ExternalForceFieldInterface;
 import simbryo.particles.forcefield.external.impl.CentriForceField;
+import simbryo.util.checkpoint.CheckpointReader;
+import simbryo.util.checkpoint.CheckpointWriter;
+import simbryo.util.random.CounterRandom;
 
 /**
  * 'Organoid' just a clump of cells dividing 14 times.
@@ -33,14 +39,39 @@ public class Organoid extends EmbryoDynamics
    *          grid dimensions
    */
   public Organoid(int... pGridDimensions)
+  {
+    this(CounterRandom.newSeed(), pGridDimensions);
+  }
+
+  /**
+   * Creates an 'Organoid' with a given random seed. Two instances created with the same
+   * seed and grid dimensions develop identically.
+   *
+   * @param pSeed
+   *          random seed
+   * @param pGridDimensions
+   *          grid dimensions
+   */
+  public Organoid(long pSeed, int... pGridDimensions)
   {
     super(Fc, D, 32, pGridDimensions);
+    setSeed(pSeed);
 
+    final long lRandomKey = nextRandomKey();
     for (int i = 0; i < 1; i++)
     {
-      float x = (float) (0.5f + 0.0001f * (Math.random() - 0.5f));
-      float y = (float) (0.5f + 0.0001f * (Math.random() - 0.5f));
-      float z = (float) (0.5f + 0.0001f * (Math.random() - 0.5f));
+      float x = (float) (0.5f + 0.0001f
+                                * (CounterRandom.nextDouble(lRandomKey,
+                                                            3 * i)
+                                   - 0.5f));
+      float y = (float) (0.5f + 0.0001f
+                                * (CounterRandom.nextDouble(lRandomKey,
+                                                            3 * i + 1)
+                                   - 0.5f));
+      float z = (float) (0.5f + 0.0001f
+                                * (CounterRandom.nextDouble(lRandomKey,
+                                                            3 * i + 2)
+                                   - 0.5f));
 
       int lId = addParticle(x, y, z);
       setRadius(lId, Ri);
@@ -61,11 +92,31 @@ public class Organoid extends EmbryoDynamics
       if (mCellDivCount <= 14 && getTimeStepIndex() % 500 == 499)
         triggerCellDivision();
 
-      applyForceField(mCentriForceField);
       super.simulationSteps(1);
     }
   }
 
+  @Override
+  public void writeCheckpoint(CheckpointWriter pCheckpointWriter)
+  {
+    super.writeCheckpoint(pCheckpointWriter);
+    pCheckpointWriter.writeInt(mCellDivCount);
+  }
+
+  @Override
+  public void readCheckpoint(CheckpointReader pCheckpointReader) throws IOException
+  {
+    super.readCheckpoint(pCheckpointReader);
+    mCellDivCount = pCheckpointReader.readInt();
+  }
+
+  @Override
+  protected ExternalForceFieldInterface[] getExternalForceFields()
+  {
+    return new ExternalForceFieldInterface[]
+    { mCentriForceField };
+  }
+
   private void triggerCellDivision()
   {
 
@@ -1,8 +1,14 @@
 package simbryo.dynamics.tissue.embryo.zoo;
 
+import java.io.IOException;
+
 import simbryo.dynamics.tissue.embryo.EmbryoDynamics;
+import simbryo.particles.forcefield.external.ExternalForceFieldInterface;
 import simbryo.particles.forcefield.external.impl.IsoSurfaceForceField;
 import simbryo.particles.isosurf.impl.Sphere;
+import simbryo.util.checkpoint.CheckpointReader;
+import simbryo.util.checkpoint.CheckpointWriter;
+import simbryo.util.random.CounterRandom;
 
 /**
  * Cells divide 14 times and remain on a sphere.`
@@ -35,16 +41,41 @@ public class Spheroid extends EmbryoDynamics
    *          grid dimensions
    */
   public Spheroid(int... pGridDimensions)
+  {
+    this(CounterRandom.newSeed(), pGridDimensions);
+  }
+
+  /**
+   * Creates a 'Spheroid' with a given random seed. Two instances created with the same
+   * seed and grid dimensions develop identically.
+   *
+   * @param pSeed
+   *          random seed
+   * @param pGridDimensions
+   *          grid dimensions
+   */
+  public Spheroid(long pSeed, int... pGridDimensions)
   {
     super(Fc, D, 32, pGridDimensions);
+    setSeed(pSeed);
 
     setSurface(new Sphere(Fradius, 0.5f, 0.5f, 0.5f));
 
+    final long lRandomKey = nextRandomKey();
     for (int i = 0; i < 1; i++)
     {
-      float x = (float) (0.5f + 0.0001f * (Math.random() - 0.5f));
-      float y = (float) (0.5f + 0.0001f * (Math.random() - 0.5f));
-      float z = (float) (0.5f + 0.0001f * (Math.random() - 0.5f));
+      float x = (float) (0.5f + 0.0001f
+                                * (CounterRandom.nextDouble(lRandomKey,
+                                                            3 * i)
+                                   - 0.5f));
+      float y = (float) (0.5f + 0.0001f
+                                * (CounterRandom.nextDouble(lRandomKey,
+                                                            3 * i + 1)
+                                   - 0.5f));
+      float z = (float) (0.5f + 0.0001f
+                                * (CounterRandom.nextDouble(lRandomKey,
+                                                            3 * i + 2)
+                                   - 0.5f));
 
       int lId = addParticle(x, y, z);
       setRadius(lId, Ri);
@@ -64,11 +95,31 @@ public class Spheroid extends EmbryoDynamics
       if (mCellDivCount <= 14 && getTimeStepIndex() % 500 == 499)
         triggerCellDivision();
 
-      applyForceField(mForceField);
       super.simulationSteps(1);
     }
   }
 
+  @Override
+  public void writeCheckpoint(CheckpointWriter pCheckpointWriter)
+  {
+    super.writeCheckpoint(pCheckpointWriter);
+    pCheckpointWriter.writeInt(mCellDivCount);
+  }
+
+  @Override
+  public void readCheckpoint(CheckpointReader pCheckpointReader) throws IOException
+  {
+    super.readCheckpoint(pCheckpointReader);
+    mCellDivCount = pCheckpointReader.readInt();
+  }
+
+  @Override
+  protected ExternalForceFieldInterface[] getExternalForceFields()
+  {
+    return new ExternalForceFieldInterface[]
+    { mForceField };
+  }
+
   private void triggerCellDivision()
   {
 
@@ -0,0 +1,240 @@
+package simbryo.dynamics.tissue.ensemble;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+
+import simbryo.dynamics.tissue.TissueDynamics;
+import simbryo.util.parallel.ParallelRange;
+
+/**
+ * Tissue ensembles simulate many independent tissues (e.g. embryos generated
+ * with different seeds) concurrently. Each member is simulated single-threaded
+ * by one worker of a fork-join pool, idle workers steal members that have not
+ * been started yet, so that members of uneven cost keep all cores busy. The
+ * ensemble keeps track of the aggregate throughput in member steps per second.
+ *
+ * Members should not use their own parallel modes (parallel operators,
+ * parallel collision force field or grid updates): parallelism is across
+ * members.
+ *
+ * @param <T>
+ *          tissue type
+ * @author royer
+ */
+public class TissueEnsemble<T extends TissueDynamics>
+{
+  private final ArrayList<T> mMembers;
+  private volatile ForkJoinPool mPool = ForkJoinPool.commonPool();
+
+  private volatile long mTotalNumberOfSteps;
+  private volatile long mTotalNanoseconds;
+
+  /**
+   * Creates an ensemble of a given number of members, each created by a
+   * factory given the member index (e.g. to derive a seed).
+   *
+   * @param pNumberOfMembers
+   *          number of members
+   * @param pMemberFactory
+   *          member factory
+   */
+  public TissueEnsemble(int pNumberOfMembers,
+                        IntFunction<T> pMemberFactory)
+  {
+    super();
+    mMembers = new ArrayList<>(pNumberOfMembers);
+    for (int i = 0; i < pNumberOfMembers; i++)
+      mMembers.add(pMemberFactory.apply(i));
+  }
+
+  /**
+   * Creates an ensemble from a list of existing tissues.
+   *
+   * @param pMembers
+   *          members
+   */
+  public TissueEnsemble(List<T> pMembers)
+  {
+    super();
+    mMembers = new ArrayList<>(pMembers);
+  }
+
+  /**
+   * Returns the fork-join pool used to simulate the members.
+   *
+   * @return pool
+   */
+  public ForkJoinPool getPool()
+  {
+    return mPool;
+  }
+
+  /**
+   * Sets the fork-join pool used to simulate the members, by default the
+   * common pool.
+   *
+   * @param pPool
+   *          pool, or null to simulate all members on the caller thread.
+   */
+  public void setPool(ForkJoinPool pPool)
+  {
+    mPool = pPool;
+  }
+
+  /**
+   * Returns the number of members.
+   *
+   * @return number of members
+   */
+  public int getNumberOfMembers()
+  {
+    return mMembers.size();
+  }
+
+  /**
+   * Returns a given member.
+   *
+   * @param pIndex
+   *          member index
+   * @return member
+   */
+  public T getMember(int pIndex)
+  {
+    return mMembers.get(pIndex);
+  }
+
+  /**
+   * Returns the list of members.
+   *
+   * @return unmodifiable list of members
+   */
+  public List<T> getMembers()
+  {
+    return Collections.unmodifiableList(mMembers);
+  }
+
+  /**
+   * Applies a given number of simulation steps to all members.
+   *
+   * @param pNumberOfSteps
+   *          number of steps
+   */
+  public void simulationSteps(int pNumberOfSteps)
+  {
+    simulationSteps(pNumberOfSteps, null);
+  }
+
+  /**
+   * Applies a given number of simulation steps to all members, and notifies a
+   * listener as soon as each member is done, for example to save or render it
+   * while the other members are still being simulated. The listener is called
+   * from worker threads and must be thread-safe.
+   *
+   * @param pNumberOfSteps
+   *          number of steps
+   * @param pMemberListener
+   *          listener called for each member once it is done, can be null
+   */
+  public void simulationSteps(int pNumberOfSteps,
+                              Consumer<T> pMemberListener)
+  {
+    final int lNumberOfMembers = mMembers.size();
+    final long lStartTime = System.nanoTime();
+
+    // one chunk per member, chunks are forked recursively so that idle
+    // workers can steal them:
+    ParallelRange.forEach(mPool,
+                          0,
+                          lNumberOfMembers,
+                          lNumberOfMembers,
+                          (c, b, e) -> {
+                            for (int i = b; i < e; i++)
+                            {
+                              T lMember = mMembers.get(i);
+                              lMember.simulationSteps(pNumberOfSteps);
+                              if (pMemberListener != null)
+                                pMemberListener.accept(lMember);
+                            }
+                          });
+
+    synchronized (this)
+    {
+      mTotalNanoseconds += System.nanoTime() - lStartTime;
+      mTotalNumberOfSteps += (long) pNumberOfSteps * lNumberOfMembers;
+    }
+  }
+
+  /**
+   * Returns the total number of member steps simulated so far, i.e. the sum
+   * over all members of their number of steps.
+   *
+   * @return total number of member steps
+   */
+  public long getTotalNumberOfSteps()
+  {
+    return mTotalNumberOfSteps;
+  }
+
+  /**
+   * Returns the total wall-clock time spent simulating, in nanoseconds.
+   *
+   * @return total time in nanoseconds
+   */
+  public long getTotalNanoseconds()
+  {
+    return mTotalNanoseconds;
+  }
+
+  /**
+   * Returns the aggregate throughput: member steps per second of wall-clock
+   * time.
+   *
+   * @return member steps per second
+   */
+  public synchronized double getStepsPerSecond()
+  {
+    if (mTotalNanoseconds == 0)
+      return 0;
+    return mTotalNumberOfSteps / (mTotalNanoseconds * 1e-9);
+  }
+
+  /**
+   * Returns the aggregate throughput per busy worker thread of the pool. There
+   * is one member per worker at most, so ensembles with fewer members than
+   * workers are divided by their number of members.
+   *
+   * @return member steps per second per worker
+   */
+  public double getStepsPerSecondPerWorker()
+  {
+    final ForkJoinPool lPool = mPool;
+    final int lNumberOfWorkers =
+                               lPool == null ? 1
+                                             : Math.min(getNumberOfMembers(),
+                                                        lPool.getParallelism());
+    return getStepsPerSecond() / Math.max(1, lNumberOfWorkers);
+  }
+
+  /**
+   * Resets the throughput statistics.
+   */
+  public synchronized void resetStatistics()
+  {
+    mTotalNumberOfSteps = 0;
+    mTotalNanoseconds = 0;
+  }
+
+  @Override
+  public String toString()
+  {
+    return String.format("TissueEnsemble [members=%d, steps=%d, steps/s=%.1f]",
+                         getNumberOfMembers(),
+                         getTotalNumberOfSteps(),
+                         getStepsPerSecond());
+  }
+
+}
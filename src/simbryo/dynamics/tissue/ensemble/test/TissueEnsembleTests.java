@@ -0,0 +1,99 @@
+package simbryo.dynamics.tissue.ensemble.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+import simbryo.dynamics.tissue.embryo.zoo.Organoid;
+import simbryo.dynamics.tissue.ensemble.TissueEnsemble;
+
+/**
+ * Tissue ensemble tests
+ *
+ * @author royer
+ */
+public class TissueEnsembleTests
+{
+
+  /**
+   * Tests that all members of an ensemble are simulated, that members are
+   * reported as they complete, and that throughput is accounted for.
+   */
+  @Test
+  public void testEnsemble()
+  {
+    int lNumberOfMembers = 16;
+    int lNumberOfSteps = 600;
+
+    TissueEnsemble<Organoid> lEnsemble =
+                                       new TissueEnsemble<>(lNumberOfMembers,
+                                                            (i) -> new Organoid(16,
+                                                                                16,
+                                                                                16));
+    ForkJoinPool lPool = new ForkJoinPool(4);
+    try
+    {
+      lEnsemble.setPool(lPool);
+
+      ConcurrentHashMap<Organoid, Boolean> lDoneMembers =
+                                                        new ConcurrentHashMap<>();
+      lEnsemble.simulationSteps(lNumberOfSteps,
+                                (m) -> lDoneMembers.put(m, true));
+
+      assertEquals(lNumberOfMembers, lDoneMembers.size());
+      for (Organoid lOrganoid : lEnsemble.getMembers())
+      {
+        assertEquals(lNumberOfSteps, lOrganoid.getTimeStepIndex());
+        // first division happens at step 500:
+        assertTrue(lOrganoid.getNumberOfParticles() > 1);
+      }
+
+      assertEquals((long) lNumberOfMembers * lNumberOfSteps,
+                   lEnsemble.getTotalNumberOfSteps());
+      assertTrue(lEnsemble.getStepsPerSecond() > 0);
+    }
+    finally
+    {
+      lPool.shutdown();
+    }
+
+    lEnsemble.resetStatistics();
+    assertEquals(0, lEnsemble.getTotalNumberOfSteps());
+  }
+
+  /**
+   * Tests that the throughput per worker only counts busy workers when there
+   * are fewer members than workers.
+   */
+  @Test
+  public void testStepsPerSecondPerWorker()
+  {
+    TissueEnsemble<Organoid> lEnsemble =
+                                       new TissueEnsemble<>(2,
+                                                            (i) -> new Organoid((long) i,
+                                                                                16,
+                                                                                16,
+                                                                                16));
+    ForkJoinPool lPool = new ForkJoinPool(4);
+    try
+    {
+      lEnsemble.setPool(lPool);
+      lEnsemble.simulationSteps(10);
+
+      double lStepsPerSecond = lEnsemble.getStepsPerSecond();
+      assertTrue(lStepsPerSecond > 0);
+      assertEquals(lStepsPerSecond / 2,
+                   lEnsemble.getStepsPerSecondPerWorker(),
+                   1e-9 * lStepsPerSecond);
+    }
+    finally
+    {
+      lPool.shutdown();
+    }
+  }
+
+}
@@ -70,10 +70,10 @@ public class LayeredEpitheliumDynamics extends TissueDynamics
     mEpitheliumLayerCellForceProperty = addCellProperty();
 
     mEpitheliumLayerCellForceProperty.set(0,
-                                          getMaxNumberOfParticles(),
+                                          mEpitheliumLayerCellForceProperty.getCapacity(),
                                           0f);
 
-    mMask = new float[getMaxNumberOfParticles()];
+    mMask = new float[getCapacity()];
 
   }
 
@@ -140,6 +140,9 @@ public class LayeredEpitheliumDynamics extends TissueDynamics
   {
     for (int i = 0; i < pNumberOfSteps; i++)
     {
+      if (mMask.length < getCapacity())
+        mMask = new float[getCapacity()];
+
       for (int layer = 0; layer < getNumberOfLayers(); layer++)
       {
         for (int id = 0; id < getNumberOfParticles(); id++)
@@ -0,0 +1,264 @@
+package simbryo.dynamics.tissue.stats;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import simbryo.particles.neighborhood.NeighborhoodGridInterface;
+import simbryo.particles.neighborhood.VerletNeighborList;
+
+/**
+ * Simulation statistics collect per-stage timings and counters while a tissue
+ * dynamics simulation runs. Statistics are written by the simulation thread and
+ * can be read concurrently from any thread, for example via JMX after calling
+ * registerMBean(...).
+ *
+ * @author royer
+ */
+public class SimulationStatistics implements SimulationStatisticsMXBean
+{
+  private static final TissueDynamicsStage[] cStages =
+                                                     TissueDynamicsStage.values();
+
+  private final AtomicLongArray mStageNanoseconds =
+                                                  new AtomicLongArray(cStages.length);
+  private final ConcurrentHashMap<String, AtomicLong> mOperatorNanoseconds =
+                                                                           new ConcurrentHashMap<>();
+
+  private volatile long mNumberOfSteps;
+  private volatile long mNumberOfNeighborPairs = -1;
+  private volatile float mMaximalCellOccupancy;
+  private volatile float mPeakMaximalCellOccupancy;
+  private volatile long mNumberOfCellOverflows;
+
+  private volatile ObjectName mObjectName;
+
+  /**
+   * Records the time elapsed since a given start time for a given stage.
+   *
+   * @param pStage
+   *          stage
+   * @param pStartTimeInNanoseconds
+   *          start time as given by System.nanoTime()
+   * @return current time, to be used as start time for the next stage
+   */
+  public long lap(TissueDynamicsStage pStage,
+                  long pStartTimeInNanoseconds)
+  {
+    final long lNow = System.nanoTime();
+    mStageNanoseconds.addAndGet(pStage.ordinal(),
+                                lNow - pStartTimeInNanoseconds);
+    return lNow;
+  }
+
+  /**
+   * Records the time spent applying a cell property operator. Time is added to
+   * the operators stage and to the operator's own total.
+   *
+   * @param pOperator
+   *          operator
+   * @param pElapsedNanoseconds
+   *          elapsed nanoseconds
+   */
+  public void addOperatorTime(Object pOperator, long pElapsedNanoseconds)
+  {
+    mStageNanoseconds.addAndGet(TissueDynamicsStage.Operators.ordinal(),
+                                pElapsedNanoseconds);
+    mOperatorNanoseconds.computeIfAbsent(getOperatorName(pOperator),
+                                         (n) -> new AtomicLong())
+                        .addAndGet(pElapsedNanoseconds);
+  }
+
+  /**
+   * Records the end of a simulation step and samples the neighborhood counters.
+   *
+   * @param pNeighborhoodGrid
+   *          neighborhood grid
+   * @param pVerletNeighborList
+   *          Verlet neighbor list, may be null
+   * @param pNumberOfParticles
+   *          number of particles
+   */
+  public void recordStep(NeighborhoodGridInterface pNeighborhoodGrid,
+                         VerletNeighborList pVerletNeighborList,
+                         int pNumberOfParticles)
+  {
+    final float lMaximalCellOccupancy =
+                                      pNeighborhoodGrid.getMaximalCellOccupancy();
+    mMaximalCellOccupancy = lMaximalCellOccupancy;
+    mPeakMaximalCellOccupancy = Math.max(mPeakMaximalCellOccupancy,
+                                         lMaximalCellOccupancy);
+    mNumberOfCellOverflows += pNeighborhoodGrid.getNumberOfDroppedEntries();
+
+    if (pVerletNeighborList != null
+        && pVerletNeighborList.isValidFor(pNumberOfParticles))
+      // lists are symmetric and contain the particle itself:
+      mNumberOfNeighborPairs = (pVerletNeighborList.getNumberOfEntries()
+                                - pNumberOfParticles)
+                               / 2;
+    else
+      mNumberOfNeighborPairs = -1;
+
+    mNumberOfSteps++;
+  }
+
+  @Override
+  public long getNumberOfSteps()
+  {
+    return mNumberOfSteps;
+  }
+
+  @Override
+  public double getStepsPerSecond()
+  {
+    final long lTotalNanoseconds = getTotalNanoseconds();
+    if (lTotalNanoseconds == 0)
+      return 0;
+    return 1e9 * mNumberOfSteps / lTotalNanoseconds;
+  }
+
+  @Override
+  public long getTotalNanoseconds()
+  {
+    long lTotal = 0;
+    for (int i = 0; i < cStages.length; i++)
+      lTotal += mStageNanoseconds.get(i);
+    return lTotal;
+  }
+
+  /**
+   * Returns the cumulative number of nanoseconds spent in a given stage.
+   *
+   * @param pStage
+   *          stage
+   * @return nanoseconds
+   */
+  public long getNanoseconds(TissueDynamicsStage pStage)
+  {
+    return mStageNanoseconds.get(pStage.ordinal());
+  }
+
+  @Override
+  public Map<String, Long> getStageNanoseconds()
+  {
+    LinkedHashMap<String, Long> lMap = new LinkedHashMap<>();
+    for (TissueDynamicsStage lStage : cStages)
+      lMap.put(lStage.name(), getNanoseconds(lStage));
+    return lMap;
+  }
+
+  @Override
+  public Map<String, Long> getOperatorNanoseconds()
+  {
+    LinkedHashMap<String, Long> lMap = new LinkedHashMap<>();
+    for (Map.Entry<String, AtomicLong> lEntry : mOperatorNanoseconds.entrySet())
+      lMap.put(lEntry.getKey(), lEntry.getValue().get());
+    return lMap;
+  }
+
+  @Override
+  public long getNumberOfNeighborPairs()
+  {
+    return mNumberOfNeighborPairs;
+  }
+
+  @Override
+  public float getMaximalCellOccupancy()
+  {
+    return mMaximalCellOccupancy;
+  }
+
+  @Override
+  public float getPeakMaximalCellOccupancy()
+  {
+    return mPeakMaximalCellOccupancy;
+  }
+
+  @Override
+  public long getNumberOfCellOverflows()
+  {
+    return mNumberOfCellOverflows;
+  }
+
+  @Override
+  public void reset()
+  {
+    for (int i = 0; i < cStages.length; i++)
+      mStageNanoseconds.set(i, 0);
+    mOperatorNanoseconds.clear();
+    mNumberOfSteps = 0;
+    mNumberOfNeighborPairs = -1;
+    mMaximalCellOccupancy = 0;
+    mPeakMaximalCellOccupancy = 0;
+    mNumberOfCellOverflows = 0;
+  }
+
+  /**
+   * Registers these statistics with the platform MBean server under the name
+   * 'simbryo:type=SimulationStatistics,name=pName'.
+   *
+   * @param pName
+   *          name distinguishing this simulation from others in the same JVM
+   * @return object name under which the statistics are registered
+   * @throws JMException
+   *           if registration fails, for example if the name is already taken
+   */
+  public ObjectName registerMBean(String pName) throws JMException
+  {
+    ObjectName lObjectName =
+                           new ObjectName("simbryo:type=SimulationStatistics,name="
+                                          + ObjectName.quote(pName));
+    ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+                                                             lObjectName);
+    mObjectName = lObjectName;
+    return lObjectName;
+  }
+
+  /**
+   * Unregisters these statistics from the platform MBean server, does nothing
+   * if they are not registered.
+   *
+   * @throws JMException
+   *           if unregistration fails
+   */
+  public void unregisterMBean() throws JMException
+  {
+    final ObjectName lObjectName = mObjectName;
+    if (lObjectName == null)
+      return;
+    MBeanServer lMBeanServer = ManagementFactory.getPlatformMBeanServer();
+    if (lMBeanServer.isRegistered(lObjectName))
+      lMBeanServer.unregisterMBean(lObjectName);
+    mObjectName = null;
+  }
+
+  private static String getOperatorName(Object pOperator)
+  {
+    Class<?> lClass = pOperator.getClass();
+    while (lClass.isAnonymousClass())
+      lClass = lClass.getSuperclass();
+    return lClass.getSimpleName();
+  }
+
+  @Override
+  public String toString()
+  {
+    return String.format("SimulationStatistics [steps=%d, steps/s=%.1f, stages(ns)=%s, operators(ns)=%s, neighbor pairs=%d, max cell occupancy=%.2f (peak %.2f), cell overflows=%d]",
+                         getNumberOfSteps(),
+                         getStepsPerSecond(),
+                         getStageNanoseconds(),
+                         getOperatorNanoseconds(),
+                         getNumberOfNeighborPairs(),
+                         getMaximalCellOccupancy(),
+                         getPeakMaximalCellOccupancy(),
+                         getNumberOfCellOverflows());
+  }
+
+}
@@ -0,0 +1,88 @@
+package simbryo.dynamics.tissue.stats;
+
+import java.util.Map;
+
+/**
+ * Management interface exposing tissue dynamics simulation statistics via JMX.
+ *
+ * @author royer
+ */
+public interface SimulationStatisticsMXBean
+{
+
+  /**
+   * Returns the number of simulation steps recorded.
+   *
+   * @return number of steps
+   */
+  long getNumberOfSteps();
+
+  /**
+   * Returns the simulation throughput in steps per second. Only time spent in
+   * the recorded stages counts, so time spent outside of the simulation (e.g.
+   * rendering) does not lower the throughput.
+   *
+   * @return steps per second
+   */
+  double getStepsPerSecond();
+
+  /**
+   * Returns the total number of nanoseconds spent in all stages.
+   *
+   * @return total nanoseconds
+   */
+  long getTotalNanoseconds();
+
+  /**
+   * Returns the cumulative number of nanoseconds spent per stage.
+   *
+   * @return map from stage name to nanoseconds
+   */
+  Map<String, Long> getStageNanoseconds();
+
+  /**
+   * Returns the cumulative number of nanoseconds spent per cell property
+   * operator.
+   *
+   * @return map from operator name to nanoseconds
+   */
+  Map<String, Long> getOperatorNanoseconds();
+
+  /**
+   * Returns the number of candidate neighbor pairs at the last step, as found in
+   * the Verlet neighbor list.
+   *
+   * @return number of neighbor pairs, -1 if no Verlet neighbor list is used.
+   */
+  long getNumberOfNeighborPairs();
+
+  /**
+   * Returns the maximal grid cell occupancy at the last step, relative to the
+   * max number of particles per cell.
+   *
+   * @return maximal cell occupancy
+   */
+  float getMaximalCellOccupancy();
+
+  /**
+   * Returns the highest maximal grid cell occupancy seen over all recorded
+   * steps.
+   *
+   * @return peak maximal cell occupancy
+   */
+  float getPeakMaximalCellOccupancy();
+
+  /**
+   * Returns the cumulative number of particle-to-cell insertions dropped
+   * because grid cells were full.
+   *
+   * @return number of cell overflows
+   */
+  long getNumberOfCellOverflows();
+
+  /**
+   * Resets all statistics.
+   */
+  void reset();
+
+}
@@ -0,0 +1,37 @@
+package simbryo.dynamics.tissue.stats;
+
+/**
+ * Stages of a tissue dynamics simulation step, used to break down where
+ * simulation time goes.
+ *
+ * @author royer
+ */
+public enum TissueDynamicsStage
+{
+ /**
+  * Cell property operators (e.g. Strogatz oscillators, surface gradients).
+  */
+ Operators,
+
+ /**
+  * External force fields (e.g. iso-surface fields), Brownian motion and radius
+  * relaxation.
+  */
+ ExternalForces,
+
+ /**
+  * Collisions between particles.
+  */
+ Collision,
+
+ /**
+  * Euler integration and enforcement of bounds.
+  */
+ Integration,
+
+ /**
+  * Neighborhood grid and Verlet neighbor list updates.
+  */
+ Neighborhood;
+
+}
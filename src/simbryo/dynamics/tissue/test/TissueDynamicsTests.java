@@ -0,0 +1,268 @@
+package simbryo.dynamics.tissue.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+import simbryo.dynamics.tissue.TissueDynamics;
+import simbryo.dynamics.tissue.cellprop.CellProperty;
+import simbryo.dynamics.tissue.cellprop.VectorCellProperty;
+import simbryo.dynamics.tissue.cellprop.operators.impl.NematicOrderOperator;
+import simbryo.dynamics.tissue.cellprop.operators.impl.StrogatzWaveOperator;
+import simbryo.dynamics.tissue.stats.SimulationStatistics;
+import simbryo.dynamics.tissue.stats.TissueDynamicsStage;
+import simbryo.particles.forcefield.external.ExternalForceFieldInterface;
+import simbryo.particles.forcefield.external.impl.CentriForceField;
+
+/**
+ * Tissue dynamics tests
+ *
+ * @author royer
+ */
+public class TissueDynamicsTests
+{
+
+  /**
+   * Tests that fused integration gives the same dynamics as applying each step
+   * of the integration separately.
+   */
+  @Test
+  public void testFusedIntegration()
+  {
+    int lNumberOfParticles = 500;
+    int lNumberOfSteps = 200;
+
+    TissueDynamics lFusedTissue = createTissue(lNumberOfParticles);
+    TissueDynamics lSeparateTissue = createTissue(lNumberOfParticles);
+    lFusedTissue.setFusedIntegration(true);
+    lSeparateTissue.setFusedIntegration(false);
+
+    lFusedTissue.simulationSteps(lNumberOfSteps);
+    lSeparateTissue.simulationSteps(lNumberOfSteps);
+
+    float[] lFusedPositions = new float[3 * lNumberOfParticles];
+    float[] lSeparatePositions = new float[3 * lNumberOfParticles];
+    float[] lFusedVelocities = new float[3 * lNumberOfParticles];
+    float[] lSeparateVelocities = new float[3 * lNumberOfParticles];
+    lFusedTissue.copyPositions(lFusedPositions);
+    lSeparateTissue.copyPositions(lSeparatePositions);
+    lFusedTissue.copyVelocities(lFusedVelocities);
+    lSeparateTissue.copyVelocities(lSeparateVelocities);
+
+    for (int i = 0; i < 3 * lNumberOfParticles; i++)
+    {
+      assertEquals(lSeparatePositions[i], lFusedPositions[i], 1e-5f);
+      assertEquals(lSeparateVelocities[i], lFusedVelocities[i], 1e-6f);
+    }
+
+    for (int id = 0; id < lNumberOfParticles; id++)
+      assertEquals(lSeparateTissue.getRadius(id),
+                   lFusedTissue.getRadius(id),
+                   1e-6f);
+  }
+
+  /**
+   * Tests that simulation statistics are collected and exposed via JMX.
+   * 
+   * @throws JMException
+   *           if JMX registration fails
+   */
+  @Test
+  public void testStatistics() throws JMException
+  {
+    int lNumberOfParticles = 500;
+    int lNumberOfSteps = 50;
+
+    TissueDynamics lTissueDynamics = createTissue(lNumberOfParticles);
+    assertNull(lTissueDynamics.getStatistics());
+
+    lTissueDynamics.setStatisticsEnabled(true);
+    SimulationStatistics lStatistics = lTissueDynamics.getStatistics();
+
+    CellProperty lCellProperty = new CellProperty(lTissueDynamics);
+    StrogatzWaveOperator lStrogatzWaveOperator =
+                                               new StrogatzWaveOperator(0.001f,
+                                                                        0.01f,
+                                                                        0.1f);
+    for (int i = 0; i < lNumberOfSteps; i++)
+    {
+      lTissueDynamics.applyOperator(lStrogatzWaveOperator, lCellProperty);
+      lTissueDynamics.simulationSteps(1);
+    }
+
+    assertEquals(lNumberOfSteps, lStatistics.getNumberOfSteps());
+    for (TissueDynamicsStage lStage : TissueDynamicsStage.values())
+      assertTrue(lStatistics.getNanoseconds(lStage) > 0);
+    assertEquals(lStatistics.getNanoseconds(TissueDynamicsStage.Operators),
+                 (long) lStatistics.getOperatorNanoseconds()
+                                   .get(StrogatzWaveOperator.class.getSimpleName()));
+    assertTrue(lStatistics.getStepsPerSecond() > 0);
+    assertTrue(lStatistics.getNumberOfNeighborPairs() > 0);
+    assertTrue(lStatistics.getMaximalCellOccupancy() > 0);
+    assertTrue(lStatistics.getPeakMaximalCellOccupancy() >= lStatistics.getMaximalCellOccupancy());
+    assertEquals(0, lStatistics.getNumberOfCellOverflows());
+
+    ObjectName lObjectName = lStatistics.registerMBean("test");
+    try
+    {
+      assertEquals((long) lNumberOfSteps,
+                   ManagementFactory.getPlatformMBeanServer()
+                                    .getAttribute(lObjectName,
+                                                  "NumberOfSteps"));
+      assertTrue(ManagementFactory.getPlatformMBeanServer()
+                                  .getAttribute(lObjectName,
+                                                "StageNanoseconds") != null);
+    }
+    finally
+    {
+      lStatistics.unregisterMBean();
+    }
+    assertTrue(!ManagementFactory.getPlatformMBeanServer()
+                                 .isRegistered(lObjectName));
+
+    lStatistics.reset();
+    assertEquals(0, lStatistics.getNumberOfSteps());
+    assertEquals(0, lStatistics.getTotalNanoseconds());
+
+    lTissueDynamics.setStatisticsEnabled(false);
+    assertNull(lTissueDynamics.getStatistics());
+  }
+
+  /**
+   * Tests that range-safe operators give the same results when applied in
+   * parallel, and that queued events are committed in increasing id order.
+   */
+  @Test
+  public void testParallelOperators()
+  {
+    int lNumberOfParticles = 4000;
+    int lNumberOfSteps = 20;
+
+    TissueDynamics lSequentialTissue = createTissue(lNumberOfParticles);
+    TissueDynamics lParallelTissue = createTissue(lNumberOfParticles);
+    lParallelTissue.setParallelOperators(true);
+
+    float[][] lCycles = new float[2][];
+    float[][] lPolarities = new float[2][];
+    ArrayList<ArrayList<Integer>> lEvents = new ArrayList<>();
+    int i = 0;
+    for (TissueDynamics lTissueDynamics : new TissueDynamics[]
+    { lSequentialTissue, lParallelTissue })
+    {
+      ArrayList<Integer> lEventIds = new ArrayList<>();
+      StrogatzWaveOperator lStrogatzWaveOperator =
+                                                 new StrogatzWaveOperator(0.001f,
+                                                                          0.01f,
+                                                                          0.1f)
+                                                 {
+                                                   private static final long serialVersionUID =
+                                                                                              1L;
+
+                                                   @Override
+                                                   protected void commitEventHook(TissueDynamics pEmbryo,
+                                                                                  CellProperty pCellProperty,
+                                                                                  int pId,
+                                                                                  float pNewMorphogenValue)
+                                                   {
+                                                     lEventIds.add(pId);
+                                                   }
+                                                 };
+      NematicOrderOperator lNematicOrderOperator =
+                                                 new NematicOrderOperator(0.1f,
+                                                                          0.1f);
+
+      CellProperty lCycle = new CellProperty(lTissueDynamics);
+      VectorCellProperty lPolarity = new VectorCellProperty(lTissueDynamics,
+                                                            3);
+      Random lRandom = new Random(2);
+      float[] lCycleArray = lCycle.getArray().getCurrentArray();
+      float[] lPolarityArray = lPolarity.getArray().getCurrentArray();
+      for (int id = 0; id < lNumberOfParticles; id++)
+      {
+        lCycleArray[id] = 0.98f + 0.02f * lRandom.nextFloat();
+        for (int d = 0; d < 3; d++)
+          lPolarityArray[3 * id + d] = lRandom.nextFloat() - 0.5f;
+      }
+
+      for (int s = 0; s < lNumberOfSteps; s++)
+      {
+        lTissueDynamics.applyOperator(lStrogatzWaveOperator, lCycle);
+        lTissueDynamics.applyOperator(lNematicOrderOperator, lPolarity);
+      }
+
+      lCycles[i] = lCycle.getArray().getCurrentArray();
+      lPolarities[i] = lPolarity.getArray().getCurrentArray();
+      lEvents.add(lEventIds);
+      i++;
+    }
+
+    assertTrue(lEvents.get(0).size() > 0);
+    assertEquals(lEvents.get(0), lEvents.get(1));
+    for (int id = 0; id < lNumberOfParticles; id++)
+    {
+      assertEquals(lCycles[0][id], lCycles[1][id], 0);
+      for (int d = 0; d < 3; d++)
+        assertEquals(lPolarities[0][3 * id + d],
+                     lPolarities[1][3 * id + d],
+                     0);
+    }
+  }
+
+  private TissueDynamics createTissue(int pNumberOfParticles)
+  {
+    final CentriForceField lCentriForceField =
+                                             new CentriForceField(0.00005f,
+                                                                  0.5f,
+                                                                  0.5f,
+                                                                  0.5f);
+
+    TissueDynamics lTissueDynamics = new TissueDynamics(0.0001f,
+                                                        0.9f,
+                                                        32,
+                                                        16,
+                                                        16,
+                                                        16)
+    {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected ExternalForceFieldInterface[] getExternalForceFields()
+      {
+        return new ExternalForceFieldInterface[]
+        { lCentriForceField };
+      }
+    };
+
+    // Brownian motion is random and would make the two tissues diverge:
+    lTissueDynamics.setBrownianMotionIntensity(0);
+
+    Random lRandom = new Random(1);
+    for (int i = 0; i < pNumberOfParticles; i++)
+    {
+      int lId = lTissueDynamics.addParticle(0.3f + 0.4f
+                                                   * lRandom.nextFloat(),
+                                            0.3f + 0.4f
+                                                   * lRandom.nextFloat(),
+                                            0.3f + 0.4f
+                                                   * lRandom.nextFloat());
+      lTissueDynamics.setRadius(lId, 0.02f);
+      lTissueDynamics.setTargetRadius(lId,
+                                      0.015f + 0.01f
+                                               * lRandom.nextFloat());
+    }
+    lTissueDynamics.updateNeighborhoodGrid();
+
+    return lTissueDynamics;
+  }
+
+}
@@ -0,0 +1,48 @@
+package simbryo.dynamics.tissue.trajectory;
+
+import simbryo.dynamics.tissue.cellprop.HasPolarity;
+import simbryo.dynamics.tissue.cellprop.VectorCellProperty;
+
+/**
+ * Trajectory frames for tissues that have a polarity.
+ *
+ * @author royer
+ */
+public class PolarTrajectoryFrame extends TrajectoryFrame
+                                  implements HasPolarity
+{
+  private static final long serialVersionUID = 1L;
+
+  private final VectorCellProperty mPolarityProperty;
+
+  /**
+   * Creates an empty trajectory frame with a given layout.
+   *
+   * @param pMaxNumberOfParticlesPerGridCell
+   *          max number of particles per grid cell
+   * @param pGridDimensions
+   *          grid dimensions
+   * @param pCellPropertyDimensions
+   *          dimensions of the cell properties
+   * @param pPolarityIndex
+   *          index of the polarity in the list of cell properties
+   */
+  PolarTrajectoryFrame(int pMaxNumberOfParticlesPerGridCell,
+                       int[] pGridDimensions,
+                       int[] pCellPropertyDimensions,
+                       int pPolarityIndex)
+  {
+    super(pMaxNumberOfParticlesPerGridCell,
+          pGridDimensions,
+          pCellPropertyDimensions);
+    mPolarityProperty =
+                      (VectorCellProperty) getCellProperties().get(pPolarityIndex);
+  }
+
+  @Override
+  public VectorCellProperty getPolarityProperty()
+  {
+    return mPolarityProperty;
+  }
+
+}
@@ -0,0 +1,261 @@
+package simbryo.dynamics.tissue.trajectory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import simbryo.dynamics.tissue.TissueDynamics;
+import simbryo.dynamics.tissue.cellprop.CellProperty;
+import simbryo.dynamics.tissue.cellprop.operators.CellPropertyOperatorInterface;
+import simbryo.particles.forcefield.ForceFieldInterface;
+import simbryo.util.checkpoint.CheckpointReader;
+
+/**
+ * Trajectory frames are read-only tissues holding the state of a recorded
+ * tissue at a given time step: positions, radii and cell properties. They can
+ * be handed to anything that expects a TissueDynamicsInterface, for example
+ * phantom renderers. Velocities are not recorded and are zero, target radii are
+ * equal to the radii. All methods that would change the state of the tissue
+ * throw an UnsupportedOperationException.
+ *
+ * @author royer
+ */
+public class TrajectoryFrame extends TissueDynamics
+{
+  private static final long serialVersionUID = 1L;
+
+  private int mFrameIndex = -1;
+
+  /**
+   * Creates an empty trajectory frame with a given layout.
+   *
+   * @param pMaxNumberOfParticlesPerGridCell
+   *          max number of particles per grid cell
+   * @param pGridDimensions
+   *          grid dimensions
+   * @param pCellPropertyDimensions
+   *          dimensions of the cell properties
+   */
+  TrajectoryFrame(int pMaxNumberOfParticlesPerGridCell,
+                  int[] pGridDimensions,
+                  int[] pCellPropertyDimensions)
+  {
+    super(0, 0, pMaxNumberOfParticlesPerGridCell, pGridDimensions);
+    for (int lCellPropertyDimension : pCellPropertyDimensions)
+      addVectorCellProperty(lCellPropertyDimension);
+  }
+
+  /**
+   * Returns the index of this frame in its trajectory.
+   *
+   * @return frame index, -1 if no frame has been loaded yet
+   */
+  public int getFrameIndex()
+  {
+    return mFrameIndex;
+  }
+
+  /**
+   * Loads a frame from a buffer positioned after the frame header.
+   *
+   * @param pFrameIndex
+   *          frame index
+   * @param pTimeStepIndex
+   *          time step index of frame
+   * @param pNumberOfParticles
+   *          number of particles in frame
+   * @param pFrame
+   *          frame contents
+   */
+  void load(int pFrameIndex,
+            long pTimeStepIndex,
+            int pNumberOfParticles,
+            ByteBuffer pFrame)
+  {
+    final int lDimension = getDimension();
+
+    setNumberOfParticles(pNumberOfParticles);
+    getFloats(pFrame,
+              mPositions.getCurrentArray(),
+              pNumberOfParticles * lDimension);
+    getFloats(pFrame, mRadii.getCurrentArray(), pNumberOfParticles);
+    System.arraycopy(mRadii.getCurrentArray(),
+                     0,
+                     getTargetRadii().getCurrentArray(),
+                     0,
+                     pNumberOfParticles);
+
+    for (CellProperty lCellProperty : getCellProperties())
+      getFloats(pFrame,
+                lCellProperty.getArray().getCurrentArray(),
+                pNumberOfParticles * lCellProperty.getDimension());
+
+    mFrameIndex = pFrameIndex;
+    mTimeStepIndex = pTimeStepIndex;
+
+    updateNeighborhoodGrid(getNeighborhoodGrid());
+  }
+
+  private static void getFloats(ByteBuffer pBuffer,
+                                float[] pArray,
+                                int pLength)
+  {
+    pBuffer.asFloatBuffer().get(pArray, 0, pLength);
+    pBuffer.position(pBuffer.position() + 4 * pLength);
+  }
+
+  private static UnsupportedOperationException readOnly()
+  {
+    return new UnsupportedOperationException("Trajectory frames are read-only");
+  }
+
+  @Override
+  public void simulationSteps(int pNumberOfSteps)
+  {
+    throw readOnly();
+  }
+
+  @Override
+  public int addParticle(float... pPosition)
+  {
+    throw readOnly();
+  }
+
+  @Override
+  public void removeParticle(int pParticleId)
+  {
+    throw readOnly();
+  }
+
+  @Override
+  public void copyParticle(int pSourceParticleId,
+                           int pDestinationParticleId)
+  {
+    throw readOnly();
+  }
+
+  @Override
+  public int cloneParticle(int pSourceParticleId, float pNoiseFactor)
+  {
+    throw readOnly();
+  }
+
+  @Override
+  public void addNoiseToParticle(int pParticleId,
+                                 float pPositionNoise,
+                                 float pVelocityNoise,
+                                 float pRadiusNoise)
+  {
+    throw readOnly();
+  }
+
+  @Override
+  public void setPosition(int pParticleId, float... pParticlePosition)
+  {
+    throw readOnly();
+  }
+
+  @Override
+  public void setVelocity(int pParticleId, float... pVelocity)
+  {
+    throw readOnly();
+  }
+
+  @Override
+  public void setRadius(int pParticleId, float pRadius)
+  {
+    throw readOnly();
+  }
+
+  @Override
+  public void setTargetRadius(int pParticleId, float pTargetRadius)
+  {
+    throw readOnly();
+  }
+
+  @Override
+  public void sortParticlesAlongZOrderCurve()
+  {
+    throw readOnly();
+  }
+
+  @Override
+  public void reorderParticles(int[] pNewToOld)
+  {
+    throw readOnly();
+  }
+
+  @Override
+  public void repelAround(float pFactor, float pCenterX, float pCenterY)
+  {
+    throw readOnly();
+  }
+
+  @Override
+  public void enforceBounds(float pDampening)
+  {
+    throw readOnly();
+  }
+
+  @Override
+  public void enforceBounds(float pDampening, float pNoise)
+  {
+    throw readOnly();
+  }
+
+  @Override
+  public void addBrownianMotion(float pAmount)
+  {
+    throw readOnly();
+  }
+
+  @Override
+  public void applyForce(int pBeginId, int pEndId, float... pForce)
+  {
+    throw readOnly();
+  }
+
+  @Override
+  public void applyForceField(ForceFieldInterface pForceField,
+                              int pBeginId,
+                              int pEndId,
+                              float[] pForceFactor)
+  {
+    throw readOnly();
+  }
+
+  @Override
+  public void intergrateEuler()
+  {
+    throw readOnly();
+  }
+
+  @Override
+  public void intergrateTrapezoidal()
+  {
+    throw readOnly();
+  }
+
+  @Override
+  public void intergrateEulerAndEnforceBounds(float pDampening,
+                                              float pNoise)
+  {
+    throw readOnly();
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public <CP extends CellProperty> void apply(int pBeginId,
+                                              int pEndId,
+                                              CellPropertyOperatorInterface<CP> pOperator,
+                                              CP... pCellProperties)
+  {
+    throw readOnly();
+  }
+
+  @Override
+  public void readCheckpoint(CheckpointReader pCheckpointReader) throws IOException
+  {
+    throw readOnly();
+  }
+
+}
@@ -0,0 +1,320 @@
+package simbryo.dynamics.tissue.trajectory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Trajectory readers give random access to the frames of a trajectory recorded
+ * with a TrajectoryRecorder. Frames are read directly from the memory-mapped
+ * file into read-only TrajectoryFrame tissues. If the recorder was not closed
+ * properly, the frame index is missing and is rebuilt by walking through the
+ * frames.
+ *
+ * @author royer
+ */
+public class TrajectoryReader implements AutoCloseable
+{
+  private final FileChannel mFileChannel;
+  private final int mRecordingPeriod;
+  private final int mDimension;
+  private final int mMaxNumberOfParticlesPerGridCell;
+  private final int[] mGridDimensions;
+  private final int[] mCellPropertyDimensions;
+  private final int mPolarityIndex;
+  private final int mFloatsPerParticle;
+
+  private final long[] mFrameOffsets;
+  private final long[] mFrameTimeStepIndices;
+
+  /**
+   * Opens a trajectory file.
+   *
+   * @param pFile
+   *          trajectory file
+   * @throws IOException
+   *           thrown if the file cannot be read or is not a trajectory file
+   */
+  public TrajectoryReader(File pFile) throws IOException
+  {
+    super();
+    mFileChannel = FileChannel.open(pFile.toPath(),
+                                    StandardOpenOption.READ);
+    try
+    {
+      final long lFileSize = mFileChannel.size();
+
+      ByteBuffer lHeader = read(0, Math.min(lFileSize, 4096));
+      if (lHeader.remaining() < 24
+          || lHeader.getInt() != TrajectoryRecorder.cMagicNumber)
+        throw new IOException("Not a trajectory file: " + pFile);
+      final int lVersion = lHeader.getInt();
+      if (lVersion > TrajectoryRecorder.cFormatVersion)
+        throw new IOException("Unsupported trajectory format version: "
+                              + lVersion);
+
+      mRecordingPeriod = lHeader.getInt();
+      mDimension = lHeader.getInt();
+      mMaxNumberOfParticlesPerGridCell = lHeader.getInt();
+      mGridDimensions = new int[lHeader.getInt()];
+      for (int d = 0; d < mGridDimensions.length; d++)
+        mGridDimensions[d] = lHeader.getInt();
+      mCellPropertyDimensions = new int[lHeader.getInt()];
+      int lFloatsPerParticle = mDimension + 1;
+      for (int i = 0; i < mCellPropertyDimensions.length; i++)
+      {
+        mCellPropertyDimensions[i] = lHeader.getInt();
+        lFloatsPerParticle += mCellPropertyDimensions[i];
+      }
+      mPolarityIndex = lHeader.getInt();
+      mFloatsPerParticle = lFloatsPerParticle;
+
+      final long lFirstFrameOffset = lHeader.position();
+
+      ArrayList<long[]> lFrameIndex = readFrameIndex(lFileSize,
+                                                     lFirstFrameOffset);
+      if (lFrameIndex == null)
+        lFrameIndex = scanFrames(lFileSize, lFirstFrameOffset);
+
+      mFrameOffsets = new long[lFrameIndex.size()];
+      mFrameTimeStepIndices = new long[lFrameIndex.size()];
+      for (int i = 0; i < lFrameIndex.size(); i++)
+      {
+        mFrameOffsets[i] = lFrameIndex.get(i)[0];
+        mFrameTimeStepIndices[i] = lFrameIndex.get(i)[1];
+      }
+    }
+    catch (IOException | RuntimeException e)
+    {
+      mFileChannel.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Returns the number of time steps between two recorded frames.
+   *
+   * @return recording period
+   */
+  public int getRecordingPeriod()
+  {
+    return mRecordingPeriod;
+  }
+
+  /**
+   * Returns the dimension of the recorded tissue.
+   *
+   * @return dimension
+   */
+  public int getDimension()
+  {
+    return mDimension;
+  }
+
+  /**
+   * Returns the number of frames in the trajectory.
+   *
+   * @return number of frames
+   */
+  public int getNumberOfFrames()
+  {
+    return mFrameOffsets.length;
+  }
+
+  /**
+   * Returns the time step index of a given frame.
+   *
+   * @param pFrameIndex
+   *          frame index
+   * @return time step index
+   */
+  public long getTimeStepIndex(int pFrameIndex)
+  {
+    return mFrameTimeStepIndices[pFrameIndex];
+  }
+
+  /**
+   * Returns the index of the last frame recorded at or before a given time
+   * step.
+   *
+   * @param pTimeStepIndex
+   *          time step index
+   * @return frame index, or -1 if all frames were recorded after that time
+   *         step.
+   */
+  public int getFrameIndex(long pTimeStepIndex)
+  {
+    int lIndex = Arrays.binarySearch(mFrameTimeStepIndices,
+                                     pTimeStepIndex);
+    if (lIndex >= 0)
+      return lIndex;
+    return -lIndex - 2;
+  }
+
+  /**
+   * Creates an empty frame suitable for this trajectory. Frames can be reused
+   * to read successive frames without allocating new tissues.
+   *
+   * @return empty frame
+   */
+  public TrajectoryFrame createFrame()
+  {
+    if (mPolarityIndex >= 0)
+      return new PolarTrajectoryFrame(mMaxNumberOfParticlesPerGridCell,
+                                      mGridDimensions,
+                                      mCellPropertyDimensions,
+                                      mPolarityIndex);
+    return new TrajectoryFrame(mMaxNumberOfParticlesPerGridCell,
+                               mGridDimensions,
+                               mCellPropertyDimensions);
+  }
+
+  /**
+   * Reads a given frame into a new read-only tissue.
+   *
+   * @param pFrameIndex
+   *          frame index
+   * @return frame
+   * @throws IOException
+   *           thrown if problem occurs while reading file
+   */
+  public TrajectoryFrame getFrame(int pFrameIndex) throws IOException
+  {
+    TrajectoryFrame lTrajectoryFrame = createFrame();
+    readFrame(pFrameIndex, lTrajectoryFrame);
+    return lTrajectoryFrame;
+  }
+
+  /**
+   * Reads a given frame into an existing frame obtained from createFrame().
+   *
+   * @param pFrameIndex
+   *          frame index
+   * @param pTrajectoryFrame
+   *          frame to read into
+   * @throws IOException
+   *           thrown if problem occurs while reading file
+   */
+  public void readFrame(int pFrameIndex,
+                        TrajectoryFrame pTrajectoryFrame) throws IOException
+  {
+    final long lFrameOffset = mFrameOffsets[pFrameIndex];
+
+    ByteBuffer lFrameHeader = read(lFrameOffset,
+                                   TrajectoryRecorder.cFrameHeaderSize);
+    if (lFrameHeader.getInt() != TrajectoryRecorder.cFrameMagicNumber)
+      throw new IOException("Corrupted trajectory frame: "
+                            + pFrameIndex);
+    final long lTimeStepIndex = lFrameHeader.getLong();
+    final int lNumberOfParticles = lFrameHeader.getInt();
+
+    MappedByteBuffer lFrame =
+                            mFileChannel.map(FileChannel.MapMode.READ_ONLY,
+                                             lFrameOffset
+                                                                   + TrajectoryRecorder.cFrameHeaderSize,
+                                             getFrameSize(lNumberOfParticles)
+                                                                                   - TrajectoryRecorder.cFrameHeaderSize);
+    lFrame.order(TrajectoryRecorder.cByteOrder);
+
+    pTrajectoryFrame.load(pFrameIndex,
+                          lTimeStepIndex,
+                          lNumberOfParticles,
+                          lFrame);
+  }
+
+  /**
+   * Closes the trajectory file.
+   *
+   * @throws IOException
+   *           thrown if problem occurs while closing file
+   */
+  @Override
+  public void close() throws IOException
+  {
+    mFileChannel.close();
+  }
+
+  private long getFrameSize(int pNumberOfParticles)
+  {
+    return TrajectoryRecorder.cFrameHeaderSize
+           + 4L * mFloatsPerParticle * pNumberOfParticles;
+  }
+
+  private ArrayList<long[]> readFrameIndex(long pFileSize,
+                                           long pFirstFrameOffset) throws IOException
+  {
+    if (pFileSize < pFirstFrameOffset
+                    + TrajectoryRecorder.cIndexTrailerSize)
+      return null;
+
+    ByteBuffer lTrailer =
+                        read(pFileSize - TrajectoryRecorder.cIndexTrailerSize,
+                             TrajectoryRecorder.cIndexTrailerSize);
+    final long lIndexOffset = lTrailer.getLong();
+    if (lTrailer.getInt() != TrajectoryRecorder.cIndexMagicNumber
+        || lIndexOffset < pFirstFrameOffset
+        || lIndexOffset > pFileSize - 8)
+      return null;
+
+    ByteBuffer lIndexHeader = read(lIndexOffset, 8);
+    if (lIndexHeader.getInt() != TrajectoryRecorder.cIndexMagicNumber)
+      return null;
+    final int lNumberOfFrames = lIndexHeader.getInt();
+    if (lNumberOfFrames < 0
+        || lIndexOffset + 8
+           + 16L * lNumberOfFrames
+           + TrajectoryRecorder.cIndexTrailerSize != pFileSize)
+      return null;
+
+    ByteBuffer lIndex = read(lIndexOffset + 8, 16L * lNumberOfFrames);
+    ArrayList<long[]> lFrameIndex = new ArrayList<>(lNumberOfFrames);
+    for (int i = 0; i < lNumberOfFrames; i++)
+      lFrameIndex.add(new long[]
+      { lIndex.getLong(), lIndex.getLong() });
+    return lFrameIndex;
+  }
+
+  private ArrayList<long[]> scanFrames(long pFileSize,
+                                       long pFirstFrameOffset) throws IOException
+  {
+    ArrayList<long[]> lFrameIndex = new ArrayList<>();
+    long lOffset = pFirstFrameOffset;
+    while (lOffset + TrajectoryRecorder.cFrameHeaderSize <= pFileSize)
+    {
+      ByteBuffer lFrameHeader = read(lOffset,
+                                     TrajectoryRecorder.cFrameHeaderSize);
+      if (lFrameHeader.getInt() != TrajectoryRecorder.cFrameMagicNumber)
+        break;
+      final long lTimeStepIndex = lFrameHeader.getLong();
+      final long lFrameSize = getFrameSize(lFrameHeader.getInt());
+      if (lOffset + lFrameSize > pFileSize)
+        break;
+      lFrameIndex.add(new long[]
+      { lOffset, lTimeStepIndex });
+      lOffset += lFrameSize;
+    }
+    return lFrameIndex;
+  }
+
+  private ByteBuffer read(long pPosition, long pLength) throws IOException
+  {
+    ByteBuffer lBuffer = ByteBuffer.allocate((int) pLength)
+                                   .order(TrajectoryRecorder.cByteOrder);
+    long lPosition = pPosition;
+    while (lBuffer.hasRemaining())
+    {
+      int lRead = mFileChannel.read(lBuffer, lPosition);
+      if (lRead < 0)
+        throw new IOException("Truncated trajectory file");
+      lPosition += lRead;
+    }
+    lBuffer.flip();
+    return lBuffer;
+  }
+
+}
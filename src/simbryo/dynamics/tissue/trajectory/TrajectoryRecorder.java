@@ -0,0 +1,286 @@
+package simbryo.dynamics.tissue.trajectory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import simbryo.dynamics.tissue.TissueDynamics;
+import simbryo.dynamics.tissue.cellprop.CellProperty;
+import simbryo.dynamics.tissue.cellprop.HasPolarity;
+
+/**
+ * Trajectory recorders append frames of a tissue simulation to a file: for each
+ * recorded time step the positions, radii and all cell properties (e.g.
+ * polarity and cell cycle) of the live cells are written. Frames are written
+ * into memory-mapped chunks of the file, and a frame index is appended when the
+ * recorder is closed. Recorded trajectories can be replayed with a
+ * TrajectoryReader.
+ *
+ * A recorder is attached to a tissue with
+ * TissueDynamics.setTrajectoryRecorder(...), it then records a frame every
+ * 'recording period' time steps.
+ *
+ * @author royer
+ */
+public class TrajectoryRecorder implements AutoCloseable
+{
+  static final int cMagicNumber = 0x52544253; // 'SBTR'
+  static final int cFrameMagicNumber = 0x4D415246; // 'FRAM'
+  static final int cIndexMagicNumber = 0x58494253; // 'SBIX'
+  static final int cFormatVersion = 1;
+  static final ByteOrder cByteOrder = ByteOrder.LITTLE_ENDIAN;
+
+  // frame header: magic, time step index, number of particles
+  static final int cFrameHeaderSize = 4 + 8 + 4;
+
+  // index footer trailer: index offset, magic
+  static final int cIndexTrailerSize = 8 + 4;
+
+  private static final long cChunkSize = 64L << 20;
+
+  private final FileChannel mFileChannel;
+  private final int mRecordingPeriod;
+  private final int mDimension;
+  private final int[] mCellPropertyDimensions;
+  private final int mFloatsPerParticle;
+
+  private MappedByteBuffer mChunk;
+  private long mChunkOffset;
+  private long mWritePosition;
+
+  private final List<long[]> mFrameIndex = new ArrayList<>();
+
+  /**
+   * Creates a trajectory recorder for a given tissue. The layout of the tissue
+   * (dimension, grid, cell properties) is written to the file header, so only
+   * tissues with the same layout can be recorded with this recorder.
+   *
+   * @param pFile
+   *          file to record to, overwritten if it exists
+   * @param pTissueDynamics
+   *          tissue to record
+   * @param pRecordingPeriod
+   *          number of time steps between two recorded frames
+   * @throws IOException
+   *           thrown if problem occurs while writing file
+   */
+  public TrajectoryRecorder(File pFile,
+                            TissueDynamics pTissueDynamics,
+                            int pRecordingPeriod) throws IOException
+  {
+    super();
+    if (pRecordingPeriod < 1)
+      throw new IllegalArgumentException("Recording period must be at least 1");
+
+    mRecordingPeriod = pRecordingPeriod;
+    mDimension = pTissueDynamics.getDimension();
+
+    List<CellProperty> lCellProperties =
+                                       pTissueDynamics.getCellProperties();
+    mCellPropertyDimensions = new int[lCellProperties.size()];
+    int lPolarityIndex = -1;
+    int lFloatsPerParticle = mDimension + 1;
+    for (int i = 0; i < lCellProperties.size(); i++)
+    {
+      CellProperty lCellProperty = lCellProperties.get(i);
+      mCellPropertyDimensions[i] = lCellProperty.getDimension();
+      lFloatsPerParticle += lCellProperty.getDimension();
+      if (pTissueDynamics instanceof HasPolarity
+          && ((HasPolarity) pTissueDynamics).getPolarityProperty() == lCellProperty)
+        lPolarityIndex = i;
+    }
+    mFloatsPerParticle = lFloatsPerParticle;
+
+    int[] lGridDimensions = pTissueDynamics.getGridDimensions();
+
+    ByteBuffer lHeader = ByteBuffer.allocate(4 * (8
+                                                  + lGridDimensions.length
+                                                  + mCellPropertyDimensions.length))
+                                   .order(cByteOrder);
+    lHeader.putInt(cMagicNumber);
+    lHeader.putInt(cFormatVersion);
+    lHeader.putInt(mRecordingPeriod);
+    lHeader.putInt(mDimension);
+    lHeader.putInt(pTissueDynamics.getMaxNumberOfParticlesPerGridCell());
+    lHeader.putInt(lGridDimensions.length);
+    for (int lGridDimension : lGridDimensions)
+      lHeader.putInt(lGridDimension);
+    lHeader.putInt(mCellPropertyDimensions.length);
+    for (int lCellPropertyDimension : mCellPropertyDimensions)
+      lHeader.putInt(lCellPropertyDimension);
+    lHeader.putInt(lPolarityIndex);
+    lHeader.flip();
+
+    File lParentFile = pFile.getAbsoluteFile().getParentFile();
+    if (lParentFile != null)
+      lParentFile.mkdirs();
+
+    mFileChannel = FileChannel.open(pFile.toPath(),
+                                    StandardOpenOption.CREATE,
+                                    StandardOpenOption.READ,
+                                    StandardOpenOption.WRITE,
+                                    StandardOpenOption.TRUNCATE_EXISTING);
+    while (lHeader.hasRemaining())
+      mWritePosition += mFileChannel.write(lHeader, mWritePosition);
+  }
+
+  /**
+   * Returns the number of time steps between two recorded frames.
+   *
+   * @return recording period
+   */
+  public int getRecordingPeriod()
+  {
+    return mRecordingPeriod;
+  }
+
+  /**
+   * Returns the number of frames recorded so far.
+   *
+   * @return number of frames
+   */
+  public int getNumberOfFrames()
+  {
+    return mFrameIndex.size();
+  }
+
+  /**
+   * Called by the tissue after each simulation step, records a frame if the
+   * current time step index is a multiple of the recording period.
+   *
+   * @param pTissueDynamics
+   *          tissue
+   */
+  public void stepCompleted(TissueDynamics pTissueDynamics)
+  {
+    if (pTissueDynamics.getTimeStepIndex() % mRecordingPeriod != 0)
+      return;
+    try
+    {
+      record(pTissueDynamics);
+    }
+    catch (IOException e)
+    {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Records a frame for the current state of the tissue.
+   *
+   * @param pTissueDynamics
+   *          tissue, must have the same layout as the tissue given at
+   *          construction
+   * @throws IOException
+   *           thrown if problem occurs while writing file
+   */
+  public void record(TissueDynamics pTissueDynamics) throws IOException
+  {
+    final int lNumberOfParticles = pTissueDynamics.getNumberOfParticles();
+    final long lFrameSize = cFrameHeaderSize
+                            + 4L * mFloatsPerParticle
+                              * lNumberOfParticles;
+
+    ByteBuffer lChunk = getChunkFor(lFrameSize);
+
+    final long lFrameOffset = mWritePosition;
+    lChunk.putInt(cFrameMagicNumber);
+    lChunk.putLong(pTissueDynamics.getTimeStepIndex());
+    lChunk.putInt(lNumberOfParticles);
+
+    putFloats(lChunk,
+              pTissueDynamics.getPositions().getCurrentArray(),
+              lNumberOfParticles * mDimension);
+    putFloats(lChunk,
+              pTissueDynamics.getRadii().getCurrentArray(),
+              lNumberOfParticles);
+
+    List<CellProperty> lCellProperties =
+                                       pTissueDynamics.getCellProperties();
+    for (int i = 0; i < mCellPropertyDimensions.length; i++)
+      putFloats(lChunk,
+                lCellProperties.get(i).getArray().getCurrentArray(),
+                lNumberOfParticles * mCellPropertyDimensions[i]);
+
+    mWritePosition += lFrameSize;
+    mFrameIndex.add(new long[]
+    { lFrameOffset, pTissueDynamics.getTimeStepIndex() });
+  }
+
+  /**
+   * Flushes the recorded frames, appends the frame index, and closes the file.
+   *
+   * @throws IOException
+   *           thrown if problem occurs while writing file
+   */
+  @Override
+  public void close() throws IOException
+  {
+    if (!mFileChannel.isOpen())
+      return;
+
+    if (mChunk != null)
+    {
+      mChunk.force();
+      mChunk = null;
+    }
+
+    final int lNumberOfFrames = mFrameIndex.size();
+    ByteBuffer lIndex = ByteBuffer.allocate(4 + 4
+                                            + 16 * lNumberOfFrames
+                                            + cIndexTrailerSize)
+                                  .order(cByteOrder);
+    lIndex.putInt(cIndexMagicNumber);
+    lIndex.putInt(lNumberOfFrames);
+    for (long[] lEntry : mFrameIndex)
+    {
+      lIndex.putLong(lEntry[0]);
+      lIndex.putLong(lEntry[1]);
+    }
+    lIndex.putLong(mWritePosition);
+    lIndex.putInt(cIndexMagicNumber);
+    lIndex.flip();
+
+    // mapping chunks grows the file, trim it before appending the index:
+    mFileChannel.truncate(mWritePosition);
+    long lPosition = mWritePosition;
+    while (lIndex.hasRemaining())
+      lPosition += mFileChannel.write(lIndex, lPosition);
+
+    mFileChannel.close();
+  }
+
+  private ByteBuffer getChunkFor(long pFrameSize) throws IOException
+  {
+    if (mChunk == null
+        || mWritePosition + pFrameSize > mChunkOffset
+                                         + mChunk.capacity())
+    {
+      if (mChunk != null)
+        mChunk.force();
+      mChunkOffset = mWritePosition;
+      mChunk = mFileChannel.map(FileChannel.MapMode.READ_WRITE,
+                                mChunkOffset,
+                                Math.max(cChunkSize, pFrameSize));
+      mChunk.order(cByteOrder);
+    }
+    mChunk.position((int) (mWritePosition - mChunkOffset));
+    return mChunk;
+  }
+
+  private static void putFloats(ByteBuffer pBuffer,
+                                float[] pArray,
+                                int pLength)
+  {
+    pBuffer.asFloatBuffer().put(pArray, 0, pLength);
+    pBuffer.position(pBuffer.position() + 4 * pLength);
+  }
+
+}
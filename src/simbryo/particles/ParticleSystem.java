@@ -1,10 +1,21 @@
 package simbryo.particles;
 
-import java.util.concurrent.ThreadLocalRandom;
+import java.io.IOException;
+import java.util.Arrays;
 
 import simbryo.particles.forcefield.ForceFieldInterface;
+import simbryo.particles.neighborhood.CompactNeighborhoodGrid;
 import simbryo.particles.neighborhood.NeighborhoodGrid;
+import simbryo.particles.neighborhood.NeighborQuery;
+import simbryo.particles.neighborhood.NeighborhoodGridInterface;
+import simbryo.particles.neighborhood.VerletNeighborList;
 import simbryo.util.DoubleBufferingFloatArray;
+import simbryo.util.FloatArrayKernels;
+import simbryo.util.checkpoint.CheckpointReader;
+import simbryo.util.checkpoint.CheckpointWriter;
+import simbryo.util.checkpoint.CheckpointableInterface;
+import simbryo.util.morton.MortonCode;
+import simbryo.util.random.CounterRandom;
 
 /**
  * N-dimensional Particle system implementation. Particles have a position and
@@ -14,20 +25,36 @@ import simbryo.util.DoubleBufferingFloatArray;
  *
  * @author royer
  */
-public class ParticleSystem implements ParticleSystemInterface
+public class ParticleSystem implements
+                            ParticleSystemInterface,
+                            CheckpointableInterface
 {
   private static final long serialVersionUID = 1L;
 
+  protected static final int cInitialCapacity = 1024;
+
   private final int mDimension;
   private final int mMaxNumberOfParticles;
   private final int mMaxNumberOfParticlesPerGridCell;
   private int mNumberOfParticles;
+  private int mCapacity;
 
   protected final DoubleBufferingFloatArray mPositions;
   protected final DoubleBufferingFloatArray mVelocities;
   protected final DoubleBufferingFloatArray mRadii;
 
-  private final NeighborhoodGrid mNeighborhood;
+  private NeighborhoodGridInterface mNeighborhood;
+  private VerletNeighborList mVerletNeighborList;
+  private transient ThreadLocal<NeighborQuery> mNeighborQueries;
+
+  private volatile int mSpatialSortingPeriod = 0;
+  private int mNeighborhoodGridUpdateCounter;
+  private int[] mParticleIdMapping;
+
+  private CounterRandom mRandom = new CounterRandom(CounterRandom.newSeed());
+  private long mRandomPassIndex;
+
+  private volatile boolean mVectorizedKernels = true;
 
   /**
    * Creates a particle system with a give number of dimensions, number of
@@ -101,7 +128,8 @@ public class ParticleSystem implements ParticleSystemInterface
 
   /**
    * Constructs a particle system with a given grid size, max number of
-   * particles and particles per cell.
+   * particles and particles per cell. Particle storage is not allocated upfront
+   * for the max number of particles, it grows as particles are added.
    * 
    * @param pMaxNumberOfParticlesPerGridCell
    *          max number of particles per grid cell
@@ -120,14 +148,13 @@ public class ParticleSystem implements ParticleSystemInterface
     mMaxNumberOfParticlesPerGridCell =
                                      pMaxNumberOfParticlesPerGridCell;
     mDimension = pGridDimensions.length;
-    mPositions = new DoubleBufferingFloatArray(pMaxNumberOfParticles
-                                               * mDimension);
-    mVelocities = new DoubleBufferingFloatArray(pMaxNumberOfParticles
-                                                * mDimension);
-    mRadii = new DoubleBufferingFloatArray(pMaxNumberOfParticles);
+    mCapacity = Math.min(pMaxNumberOfParticles, cInitialCapacity);
+    mPositions = new DoubleBufferingFloatArray(mCapacity * mDimension);
+    mVelocities = new DoubleBufferingFloatArray(mCapacity * mDimension);
+    mRadii = new DoubleBufferingFloatArray(mCapacity);
     mNeighborhood =
-                  new NeighborhoodGrid(pMaxNumberOfParticlesPerGridCell,
-                                       pGridDimensions);
+                  new CompactNeighborhoodGrid(pMaxNumberOfParticlesPerGridCell,
+                                              pGridDimensions);
   }
 
   @Override
@@ -149,23 +176,231 @@ public class ParticleSystem implements ParticleSystemInterface
   }
 
   @Override
-  public NeighborhoodGrid getNeighborhoodGrid()
+  public NeighborhoodGridInterface getNeighborhoodGrid()
   {
     return mNeighborhood;
   }
 
+  @Override
+  public void setNeighborhoodGrid(NeighborhoodGridInterface pNeighborhoodGrid)
+  {
+    if (pNeighborhoodGrid.getDimension() != mDimension)
+      throw new IllegalArgumentException("Incompatible dimensions!");
+    mNeighborhood = pNeighborhoodGrid;
+    if (mVerletNeighborList != null)
+      mVerletNeighborList.invalidate();
+  }
+
+  @Override
+  public boolean isIncrementalNeighborhoodGrid()
+  {
+    return mNeighborhood.isIncremental();
+  }
+
+  @Override
+  public void setIncrementalNeighborhoodGrid(boolean pIncremental)
+  {
+    NeighborhoodGridInterface lNeighborhoodGrid = mNeighborhood;
+    if (lNeighborhoodGrid.isIncremental() == pIncremental)
+      return;
+
+    if (!lNeighborhoodGrid.isIncrementalSupported())
+    {
+      if (!pIncremental)
+        return;
+      NeighborhoodGrid lIncrementalGrid =
+                                        new NeighborhoodGrid(mMaxNumberOfParticlesPerGridCell,
+                                                             lNeighborhoodGrid.getGridDimensions());
+      lIncrementalGrid.setParallel(lNeighborhoodGrid.isParallel());
+      lIncrementalGrid.setIncremental(true);
+      setNeighborhoodGrid(lIncrementalGrid);
+      updateNeighborhoodGrid(lIncrementalGrid);
+      return;
+    }
+
+    lNeighborhoodGrid.setIncremental(pIncremental);
+  }
+
+  @Override
+  public VerletNeighborList getVerletNeighborList()
+  {
+    return mVerletNeighborList;
+  }
+
+  @Override
+  public VerletNeighborList getValidVerletNeighborList()
+  {
+    final VerletNeighborList lVerletNeighborList = mVerletNeighborList;
+    if (lVerletNeighborList != null
+        && lVerletNeighborList.isValidFor(mNumberOfParticles))
+      return lVerletNeighborList;
+    return null;
+  }
+
+  @Override
+  public void setVerletNeighborList(VerletNeighborList pVerletNeighborList)
+  {
+    if (pVerletNeighborList != null)
+      pVerletNeighborList.invalidate();
+    mVerletNeighborList = pVerletNeighborList;
+  }
+
+  /**
+   * Returns true if the per-particle sweeps (integration, forces, Brownian
+   * motion, bounds) use flat loops that the JIT compiler can vectorize, false
+   * if they use the reference loops nested over particles and coordinates.
+   * 
+   * @return true if vectorized kernels are used
+   */
+  public boolean isVectorizedKernels()
+  {
+    return mVectorizedKernels;
+  }
+
+  /**
+   * Selects between flat, vectorizable loops (default) and the reference loops
+   * nested over particles and coordinates for the per-particle sweeps. Both
+   * give bit-identical results.
+   * 
+   * @param pVectorizedKernels
+   *          true for vectorized kernels, false for reference loops
+   */
+  public void setVectorizedKernels(boolean pVectorizedKernels)
+  {
+    mVectorizedKernels = pVectorizedKernels;
+  }
+
+  /**
+   * Returns the counter-based random number generator of this particle system.
+   * 
+   * @return random number generator
+   */
+  public CounterRandom getRandom()
+  {
+    return mRandom;
+  }
+
+  /**
+   * Sets the seed of the random number generator and restarts its pass
+   * sequence. Two particle systems with the same seed and the same sequence of
+   * operations produce bit-identical trajectories, whether or not particles
+   * are processed in parallel.
+   * 
+   * @param pSeed
+   *          seed
+   */
+  public void setSeed(long pSeed)
+  {
+    mRandom = new CounterRandom(pSeed);
+    mRandomPassIndex = 0;
+  }
+
+  /**
+   * Returns a fresh random key for a pass of random draws. Within a pass,
+   * numbers are drawn with CounterRandom.nextDouble(key, counter) and a counter
+   * derived from the particle id, so that they do not depend on the order in
+   * which particles are processed.
+   * 
+   * @return random key
+   */
+  public long nextRandomKey()
+  {
+    return mRandom.getKey(mRandomPassIndex++);
+  }
+
+  @Override
+  public NeighborQuery getNeighborQuery()
+  {
+    ThreadLocal<NeighborQuery> lNeighborQueries = mNeighborQueries;
+    if (lNeighborQueries == null)
+    {
+      lNeighborQueries = new ThreadLocal<>();
+      mNeighborQueries = lNeighborQueries;
+    }
+
+    NeighborQuery lNeighborQuery = lNeighborQueries.get();
+    if (lNeighborQuery == null)
+    {
+      lNeighborQuery = new NeighborQuery(getNeighborhoodGrid(),
+                                         getValidVerletNeighborList());
+      lNeighborQueries.set(lNeighborQuery);
+    }
+    else
+      lNeighborQuery.reset(getNeighborhoodGrid(),
+                           getValidVerletNeighborList());
+
+    return lNeighborQuery;
+  }
+
   @Override
   public int getNumberOfParticles()
   {
     return mNumberOfParticles;
   }
 
+  /**
+   * Sets the number of particles, growing storage as needed. The state of
+   * particles beyond the previous number of particles is not initialized, this
+   * is meant for derived classes that fill the particle arrays in bulk.
+   * 
+   * @param pNumberOfParticles
+   *          new number of particles
+   */
+  protected void setNumberOfParticles(int pNumberOfParticles)
+  {
+    if (pNumberOfParticles < 0
+        || pNumberOfParticles > mMaxNumberOfParticles)
+      throw new IllegalArgumentException("Invalid number of particles: "
+                                         + pNumberOfParticles);
+    ensureCapacity(pNumberOfParticles);
+    mNumberOfParticles = pNumberOfParticles;
+  }
+
   @Override
   public int getMaxNumberOfParticles()
   {
     return mMaxNumberOfParticles;
   }
 
+  @Override
+  public int getCapacity()
+  {
+    return mCapacity;
+  }
+
+  @Override
+  public boolean ensureCapacity(int pNumberOfParticles)
+  {
+    if (pNumberOfParticles <= mCapacity)
+      return false;
+    if (mCapacity >= mMaxNumberOfParticles)
+      return false;
+
+    final int lNewCapacity =
+                           (int) Math.min(mMaxNumberOfParticles,
+                                          Math.max(pNumberOfParticles,
+                                                   2L * mCapacity));
+    resizeParticleStorage(lNewCapacity);
+    mCapacity = lNewCapacity;
+    return true;
+  }
+
+  /**
+   * Resizes all per-particle arrays to a given capacity. Derived classes that
+   * hold their own per-particle arrays must override this method, call the
+   * super method, and resize their arrays too so that all arrays stay in
+   * lock-step.
+   * 
+   * @param pCapacity
+   *          new capacity in number of particles
+   */
+  protected void resizeParticleStorage(int pCapacity)
+  {
+    mPositions.resize(pCapacity * mDimension);
+    mVelocities.resize(pCapacity * mDimension);
+    mRadii.resize(pCapacity);
+  }
+
   @Override
   public int getMaxNumberOfParticlesPerGridCell()
   {
@@ -195,6 +430,7 @@ public class ParticleSystem implements ParticleSystemInterface
   {
     if (mNumberOfParticles >= mMaxNumberOfParticles)
       return -1;
+    ensureCapacity(mNumberOfParticles + 1);
 
     final int lDimension = mDimension;
     final float[] lPositionsRead = mPositions.getReadArray();
@@ -284,23 +520,31 @@ public class ParticleSystem implements ParticleSystemInterface
     final float[] lVelocities = mVelocities.getCurrentArray();
     final float[] lRadii = mRadii.getCurrentArray();
 
-    ThreadLocalRandom lRandom = ThreadLocalRandom.current();
+    final long lRandomKey = nextRandomKey();
 
     for (int d = 0; d < lDimension; d++)
     {
       float lPositionNoiseValue =
-                                (float) ((lRandom.nextDouble() - 0.5)
+                                (float) ((CounterRandom.nextDouble(lRandomKey,
+                                                                   2 * d)
+                                          - 0.5)
                                          * 2 * pPositionNoise);
       float lVelocityNoiseValue =
-                                (float) ((lRandom.nextDouble() - 0.5)
+                                (float) ((CounterRandom.nextDouble(lRandomKey,
+                                                                   2 * d
+                                                                               + 1)
+                                          - 0.5)
                                          * 2 * pVelocityNoise);
       lPositions[pParticleId * lDimension + d] += lPositionNoiseValue;
 
       lVelocities[pParticleId * lDimension + d] +=
                                                 lVelocityNoiseValue;
     }
-    float lRadiusNoiseValue = (float) ((lRandom.nextDouble() - 0.5)
-                                       * 2 * pVelocityNoise);
+    float lRadiusNoiseValue =
+                            (float) ((CounterRandom.nextDouble(lRandomKey,
+                                                               2 * lDimension)
+                                      - 0.5)
+                                     * 2 * pVelocityNoise);
     lRadii[pParticleId] += lRadiusNoiseValue;
   }
 
@@ -336,18 +580,121 @@ public class ParticleSystem implements ParticleSystemInterface
   @Override
   public void updateNeighborhoodGrid()
   {
+    if (mSpatialSortingPeriod > 0
+        && ++mNeighborhoodGridUpdateCounter
+           % mSpatialSortingPeriod == 0)
+      sortParticlesAlongZOrderCurve();
+
     updateNeighborhoodGrid(getNeighborhoodGrid());
+
+    if (mVerletNeighborList != null)
+      mVerletNeighborList.update(getNeighborhoodGrid(),
+                                 mPositions.getCurrentArray(),
+                                 mRadii.getCurrentArray(),
+                                 mNumberOfParticles);
   }
 
   @Override
-  public void updateNeighborhoodGrid(NeighborhoodGrid pNeighborhoodGrid)
+  public void updateNeighborhoodGrid(NeighborhoodGridInterface pNeighborhoodGrid)
   {
-    pNeighborhoodGrid.clear();
+    // incremental grids keep their contents and only move the particles whose
+    // cells changed, including added, removed and cloned particles:
+    if (!pNeighborhoodGrid.isIncremental())
+      pNeighborhoodGrid.clear();
     float[] lPositions = mPositions.getCurrentArray();
     float[] lRadii = mRadii.getCurrentArray();
     pNeighborhoodGrid.update(lPositions, lRadii, mNumberOfParticles);
   }
 
+  @Override
+  public int getSpatialSortingPeriod()
+  {
+    return mSpatialSortingPeriod;
+  }
+
+  @Override
+  public void setSpatialSortingPeriod(int pPeriod)
+  {
+    mSpatialSortingPeriod = pPeriod;
+  }
+
+  @Override
+  public void sortParticlesAlongZOrderCurve()
+  {
+    final int lDimension = mDimension;
+    final int lNumberOfParticles = mNumberOfParticles;
+    final int[] lGridDimensions = getGridDimensions();
+    final float[] lPositions = mPositions.getCurrentArray();
+
+    // Morton codes must fit in 31 bits so that we can pack them together with
+    // the particle ids in a long and use a primitive sort:
+    int lNumberOfBitsNeeded = 0;
+    for (int d = 0; d < lDimension; d++)
+      lNumberOfBitsNeeded =
+                          Math.max(lNumberOfBitsNeeded,
+                                   MortonCode.getNumberOfBits(lGridDimensions[d]));
+    final int lNumberOfBits = Math.min(lNumberOfBitsNeeded,
+                                       31 / lDimension);
+    final int lShift = lNumberOfBitsNeeded - lNumberOfBits;
+
+    final int[] lCellCoordinates = new int[lDimension];
+    final long[] lKeys = new long[lNumberOfParticles];
+
+    for (int id = 0, i = 0; id < lNumberOfParticles; id++, i +=
+                                                             lDimension)
+    {
+      for (int d = 0; d < lDimension; d++)
+      {
+        int lCellCoordinate = (int) (lPositions[i + d]
+                                     * lGridDimensions[d]);
+        lCellCoordinate = Math.max(0,
+                                   Math.min(lGridDimensions[d] - 1,
+                                            lCellCoordinate));
+        lCellCoordinates[d] = lCellCoordinate >> lShift;
+      }
+
+      long lCode = MortonCode.encode(lNumberOfBits, lCellCoordinates);
+      lKeys[id] = (lCode << 32) | id;
+    }
+
+    Arrays.sort(lKeys);
+
+    final int[] lNewToOld = new int[lNumberOfParticles];
+    for (int i = 0; i < lNumberOfParticles; i++)
+      lNewToOld[i] = (int) (lKeys[i] & 0xFFFFFFFFL);
+
+    reorderParticles(lNewToOld);
+  }
+
+  @Override
+  public void reorderParticles(int[] pNewToOld)
+  {
+    final int lNumberOfParticles = mNumberOfParticles;
+
+    mPositions.permute(pNewToOld, lNumberOfParticles, mDimension);
+    mVelocities.permute(pNewToOld, lNumberOfParticles, mDimension);
+    mRadii.permute(pNewToOld, lNumberOfParticles, 1);
+
+    final int[] lOldToNew = new int[lNumberOfParticles];
+    for (int i = 0; i < lNumberOfParticles; i++)
+      lOldToNew[pNewToOld[i]] = i;
+    mParticleIdMapping = lOldToNew;
+
+    // almost all ids change, a full rebuild is cheaper than an incremental
+    // update:
+    if (mNeighborhood.isIncremental())
+      mNeighborhood.clear();
+
+    if (mVerletNeighborList != null)
+      mVerletNeighborList.invalidate();
+  }
+
+  @Override
+  public int[] getParticleIdMapping()
+  {
+    return mParticleIdMapping;
+  }
+
   @Override
   public void repelAround(float pFactor,
                           float pCenterX,
@@ -388,6 +735,27 @@ public class ParticleSystem implements ParticleSystemInterface
   @Override
   public void enforceBounds(float pDampening, float pNoise)
   {
+    if (mVectorizedKernels)
+    {
+      final int lLength = mNumberOfParticles * mDimension;
+      final float[] lVelocitiesRead = mVelocities.getReadArray();
+      final float[] lVelocitiesWrite = mVelocities.getWriteArray();
+      System.arraycopy(mPositions.getReadArray(),
+                       0,
+                       mPositions.getWriteArray(),
+                       0,
+                       lLength);
+      System.arraycopy(lVelocitiesRead, 0, lVelocitiesWrite, 0, lLength);
+      fixOutOfBounds(mPositions.getWriteArray(),
+                     lVelocitiesRead,
+                     lVelocitiesWrite,
+                     pDampening,
+                     pNoise);
+      mPositions.swap();
+      mVelocities.swap();
+      return;
+    }
+
     final int lDimension = mDimension;
     final float[] lPositionsRead = mPositions.getReadArray();
     final float[] lPositionsWrite = mPositions.getWriteArray();
@@ -395,7 +763,7 @@ public class ParticleSystem implements ParticleSystemInterface
     final float[] lVelocitiesWrite = mVelocities.getWriteArray();
     final float[] lRadiiRead = mRadii.getReadArray();
 
-    ThreadLocalRandom lRandom = ThreadLocalRandom.current();
+    final long lRandomKey = nextRandomKey();
 
     for (int id = 0; id < mNumberOfParticles; id++)
     {
@@ -407,15 +775,19 @@ public class ParticleSystem implements ParticleSystemInterface
         if (lPositionsRead[i] < lRadius)
         {
           lPositionsWrite[i] = (float) (lRadius
-                                        + lRandom.nextDouble(-pNoise,
-                                                             pNoise));
+                                        + CounterRandom.nextDouble(lRandomKey,
+                                                                   i,
+                                                                   -pNoise,
+                                                                   pNoise));
           lVelocitiesWrite[i] = -pDampening * lVelocitiesRead[i];
         }
         else if (lPositionsRead[i] > 1 - lRadius)
         {
           lPositionsWrite[i] = (float) (1 - lRadius
-                                        + lRandom.nextDouble(-pNoise,
-                                                             pNoise));
+                                        + CounterRandom.nextDouble(lRandomKey,
+                                                                   i,
+                                                                   -pNoise,
+                                                                   pNoise));
           lVelocitiesWrite[i] = -pDampening * lVelocitiesRead[i];
         }
         else
@@ -437,7 +809,21 @@ public class ParticleSystem implements ParticleSystemInterface
     final float[] lVelocitiesRead = mVelocities.getReadArray();
     final float[] lVelocitiesWrite = mVelocities.getWriteArray();
 
-    ThreadLocalRandom lRandom = ThreadLocalRandom.current();
+    final long lRandomKey = nextRandomKey();
+
+    if (mVectorizedKernels)
+    {
+      final int lLength = mNumberOfParticles * lDimension;
+      for (int i = 0; i < lLength; i++)
+        lVelocitiesWrite[i] = (float) (lVelocitiesRead[i]
+                                       + pAmount
+                                         * CounterRandom.nextDouble(lRandomKey,
+                                                                    i,
+                                                                    -1,
+                                                                    1));
+      mVelocities.swap();
+      return;
+    }
 
     for (int id = 0; id < mNumberOfParticles; id++)
     {
@@ -447,7 +833,10 @@ public class ParticleSystem implements ParticleSystemInterface
 
         lVelocitiesWrite[i] = (float) (lVelocitiesRead[i]
                                        + pAmount
-                                         * lRandom.nextDouble(-1, 1));
+                                         * CounterRandom.nextDouble(lRandomKey,
+                                                                    i,
+                                                                    -1,
+                                                                    1));
       }
     }
 
@@ -470,6 +859,19 @@ public class ParticleSystem implements ParticleSystemInterface
     final int lIndexStart = pBeginId * lDimension;
     final int lIndexEnd = pEndId * lDimension;
 
+    if (mVectorizedKernels)
+    {
+      FloatArrayKernels.addPattern(lVelocitiesRead,
+                                   pForce.length == lDimension ? pForce
+                                                               : Arrays.copyOf(pForce,
+                                                                               lDimension),
+                                   lVelocitiesWrite,
+                                   lIndexStart,
+                                   lIndexEnd);
+      mVelocities.swap();
+      return;
+    }
+
     for (int i = lIndexStart; i < lIndexEnd; i += lDimension)
       for (int d = 0; d < lDimension; d++)
         lVelocitiesWrite[i + d] = lVelocitiesRead[i + d] + pForce[d];
@@ -501,6 +903,17 @@ public class ParticleSystem implements ParticleSystemInterface
     final float[] lVelocities = mVelocities.getCurrentArray();
     final int lLength = mNumberOfParticles * lDimension;
 
+    if (mVectorizedKernels)
+    {
+      FloatArrayKernels.add(lPositionsRead,
+                            lVelocities,
+                            lPositionsWrite,
+                            0,
+                            lLength);
+      mPositions.swap();
+      return;
+    }
+
     for (int i = 0; i < lLength; i += lDimension)
     {
       for (int d = 0; d < lDimension; d++)
@@ -523,6 +936,18 @@ public class ParticleSystem implements ParticleSystemInterface
                                       mVelocities.getPreviousArray();
     final int lLength = mNumberOfParticles * lDimension;
 
+    if (mVectorizedKernels)
+    {
+      FloatArrayKernels.addAverage(lPositionsRead,
+                                   lVelocitiesCurrent,
+                                   lVelocitiesPrevious,
+                                   lPositionsWrite,
+                                   0,
+                                   lLength);
+      mPositions.swap();
+      return;
+    }
+
     for (int i = 0; i < lLength; i += lDimension)
     {
       for (int d = 0; d < lDimension; d++)
@@ -536,6 +961,127 @@ public class ParticleSystem implements ParticleSystemInterface
 
   }
 
+  @Override
+  public void intergrateEulerAndEnforceBounds(float pDampening,
+                                              float pNoise)
+  {
+    final int lDimension = mDimension;
+    final float[] lPositionsRead = mPositions.getReadArray();
+    final float[] lPositionsWrite = mPositions.getWriteArray();
+    final float[] lVelocitiesRead = mVelocities.getReadArray();
+    final float[] lVelocitiesWrite = mVelocities.getWriteArray();
+    final float[] lRadiiRead = mRadii.getReadArray();
+    final int lNumberOfParticles = mNumberOfParticles;
+
+    if (mVectorizedKernels)
+    {
+      // unconstrained integration first, then fix the few out-of-bounds
+      // coordinates:
+      final int lLength = lNumberOfParticles * lDimension;
+      FloatArrayKernels.add(lPositionsRead,
+                            lVelocitiesRead,
+                            lPositionsWrite,
+                            0,
+                            lLength);
+      System.arraycopy(lVelocitiesRead, 0, lVelocitiesWrite, 0, lLength);
+      fixOutOfBounds(lPositionsWrite,
+                     lVelocitiesRead,
+                     lVelocitiesWrite,
+                     pDampening,
+                     pNoise);
+      mPositions.swap();
+      mVelocities.swap();
+      return;
+    }
+
+    final long lRandomKey = nextRandomKey();
+
+    for (int id = 0, i = 0; id < lNumberOfParticles; id++, i +=
+                                                             lDimension)
+    {
+      final float lRadius = lRadiiRead[id];
+
+      for (int d = 0; d < lDimension; d++)
+      {
+        final float lVelocity = lVelocitiesRead[i + d];
+        final float lPosition = lPositionsRead[i + d] + lVelocity;
+
+        if (lPosition < lRadius)
+        {
+          lPositionsWrite[i + d] = (float) (lRadius
+                                            + CounterRandom.nextDouble(lRandomKey,
+                                                                       i + d,
+                                                                       -pNoise,
+                                                                       pNoise));
+          lVelocitiesWrite[i + d] = -pDampening * lVelocity;
+        }
+        else if (lPosition > 1 - lRadius)
+        {
+          lPositionsWrite[i + d] = (float) (1 - lRadius
+                                            + CounterRandom.nextDouble(lRandomKey,
+                                                                       i + d,
+                                                                       -pNoise,
+                                                                       pNoise));
+          lVelocitiesWrite[i + d] = -pDampening * lVelocity;
+        }
+        else
+        {
+          lPositionsWrite[i + d] = lPosition;
+          lVelocitiesWrite[i + d] = lVelocity;
+        }
+      }
+    }
+
+    mPositions.swap();
+    mVelocities.swap();
+  }
+
+  /**
+   * Moves coordinates that are out of bounds back inside, with a bit of noise,
+   * and reverses and dampens the corresponding velocities. Coordinates within
+   * bounds are left untouched.
+   */
+  private void fixOutOfBounds(float[] pPositions,
+                              float[] pVelocitiesRead,
+                              float[] pVelocitiesWrite,
+                              float pDampening,
+                              float pNoise)
+  {
+    final int lDimension = mDimension;
+    final int lNumberOfParticles = mNumberOfParticles;
+    final float[] lRadiiRead = mRadii.getReadArray();
+
+    final long lRandomKey = nextRandomKey();
+
+    for (int id = 0, i = 0; id < lNumberOfParticles; id++, i +=
+                                                             lDimension)
+    {
+      final float lRadius = lRadiiRead[id];
+      for (int d = 0; d < lDimension; d++)
+      {
+        final float lPosition = pPositions[i + d];
+        if (lPosition < lRadius)
+        {
+          pPositions[i + d] = (float) (lRadius
+                                       + CounterRandom.nextDouble(lRandomKey,
+                                                                  i + d,
+                                                                  -pNoise,
+                                                                  pNoise));
+          pVelocitiesWrite[i + d] = -pDampening * pVelocitiesRead[i + d];
+        }
+        else if (lPosition > 1 - lRadius)
+        {
+          pPositions[i + d] = (float) (1 - lRadius
+                                       + CounterRandom.nextDouble(lRandomKey,
+                                                                  i + d,
+                                                                  -pNoise,
+                                                                  pNoise));
+          pVelocitiesWrite[i + d] = -pDampening * pVelocitiesRead[i + d];
+        }
+      }
+    }
+  }
+
   @Override
   public int copyPositions(float[] pPositionsCopy)
   {
@@ -559,4 +1105,66 @@ public class ParticleSystem implements ParticleSystemInterface
     return mNumberOfParticles;
   }
 
+  /**
+   * Writes the particles' positions, velocities and radii, and the state of the
+   * random number generator to a checkpoint. Only the live particles are
+   * written.
+   */
+  @Override
+  public void writeCheckpoint(CheckpointWriter pCheckpointWriter)
+  {
+    final int lNumberOfParticles = mNumberOfParticles;
+    pCheckpointWriter.writeInt(mDimension);
+    pCheckpointWriter.writeInt(lNumberOfParticles);
+    pCheckpointWriter.writeInt(mNeighborhoodGridUpdateCounter);
+    mPositions.writeCheckpoint(pCheckpointWriter,
+                               lNumberOfParticles * mDimension);
+    mVelocities.writeCheckpoint(pCheckpointWriter,
+                                lNumberOfParticles * mDimension);
+    mRadii.writeCheckpoint(pCheckpointWriter, lNumberOfParticles);
+    pCheckpointWriter.writeLong(mRandom.getSeed());
+    pCheckpointWriter.writeLong(mRandomPassIndex);
+  }
+
+  /**
+   * Restores the particles from a checkpoint, growing storage as needed. The
+   * neighborhood grid is updated from the restored particles.
+   */
+  @Override
+  public void readCheckpoint(CheckpointReader pCheckpointReader) throws IOException
+  {
+    final int lDimension = pCheckpointReader.readInt();
+    if (lDimension != mDimension)
+      throw new IOException("Checkpoint dimension " + lDimension
+                            + " does not match particle system dimension "
+                            + mDimension);
+
+    final int lNumberOfParticles = pCheckpointReader.readInt();
+    if (lNumberOfParticles < 0
+        || lNumberOfParticles > mMaxNumberOfParticles)
+      throw new IOException("Invalid number of particles in checkpoint: "
+                            + lNumberOfParticles);
+
+    mNeighborhoodGridUpdateCounter = pCheckpointReader.readInt();
+
+    setNumberOfParticles(lNumberOfParticles);
+    mPositions.readCheckpoint(pCheckpointReader,
+                              lNumberOfParticles * mDimension);
+    mVelocities.readCheckpoint(pCheckpointReader,
+                               lNumberOfParticles * mDimension);
+    mRadii.readCheckpoint(pCheckpointReader, lNumberOfParticles);
+    mParticleIdMapping = null;
+
+    // the random number generator state was added in version 2:
+    if (pCheckpointReader.getVersion() >= 2)
+    {
+      setSeed(pCheckpointReader.readLong());
+      mRandomPassIndex = pCheckpointReader.readLong();
+    }
+
+    if (mVerletNeighborList != null)
+      mVerletNeighborList.invalidate();
+    updateNeighborhoodGrid(getNeighborhoodGrid());
+  }
+
 }
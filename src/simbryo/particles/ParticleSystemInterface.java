@@ -3,7 +3,9 @@ package simbryo.particles;
 import java.io.Serializable;
 
 import simbryo.particles.forcefield.ForceFieldInterface;
-import simbryo.particles.neighborhood.NeighborhoodGrid;
+import simbryo.particles.neighborhood.NeighborQuery;
+import simbryo.particles.neighborhood.NeighborhoodGridInterface;
+import simbryo.particles.neighborhood.VerletNeighborList;
 import simbryo.util.DoubleBufferingFloatArray;
 
 /**
@@ -40,7 +42,78 @@ public interface ParticleSystemInterface extends Serializable
    * 
    * @return neighborhood grid
    */
-  NeighborhoodGrid getNeighborhoodGrid();
+  NeighborhoodGridInterface getNeighborhoodGrid();
+
+  /**
+   * Sets the neighborhood grid used by this particle system. By default a
+   * CompactNeighborhoodGrid is used, a NeighborhoodGrid can be set instead when
+   * the dense -1 padded layout is needed. The grid must have the same
+   * dimension as the particle system, it is filled on the next call to
+   * updateNeighborhoodGrid().
+   * 
+   * @param pNeighborhoodGrid
+   *          neighborhood grid
+   */
+  void setNeighborhoodGrid(NeighborhoodGridInterface pNeighborhoodGrid);
+
+  /**
+   * Returns true if the neighborhood grid is updated incrementally.
+   * 
+   * @return true if incremental
+   */
+  boolean isIncrementalNeighborhoodGrid();
+
+  /**
+   * Sets whether the neighborhood grid is updated incrementally, only moving
+   * the particles whose cells changed. If the current grid does not support
+   * incremental updates (as the default CompactNeighborhoodGrid), it is
+   * replaced by a NeighborhoodGrid with the same dimensions, capacity per cell
+   * and parallel mode.
+   * 
+   * @param pIncremental
+   *          true for incremental updates
+   */
+  void setIncrementalNeighborhoodGrid(boolean pIncremental);
+
+  /**
+   * Returns the Verlet neighbor list shared by force fields and cell property
+   * operators, or null if none is set.
+   * 
+   * @return Verlet neighbor list or null
+   */
+  VerletNeighborList getVerletNeighborList();
+
+  /**
+   * Returns the Verlet neighbor list if one is set and if it is up-to-date with
+   * the current particles, null otherwise. Callers should fall back to the
+   * neighborhood grid when null is returned, for example when particles have
+   * been added since the last call to updateNeighborhoodGrid().
+   * 
+   * @return up-to-date Verlet neighbor list or null
+   */
+  VerletNeighborList getValidVerletNeighborList();
+
+  /**
+   * Sets the Verlet neighbor list shared by force fields and cell property
+   * operators. The list is (re)built when needed on calls to
+   * updateNeighborhoodGrid(). Pass null to query the neighborhood grid
+   * directly.
+   * 
+   * @param pVerletNeighborList
+   *          Verlet neighbor list or null
+   */
+  void setVerletNeighborList(VerletNeighborList pVerletNeighborList);
+
+  /**
+   * Returns the neighbor query cursor of the calling thread, reset to use the
+   * current neighborhood grid and, if valid, the Verlet neighbor list. Each
+   * thread gets its own cursor, so parallel callers can query neighbors
+   * concurrently. The cursor is shared by all callers on the same thread and
+   * should not be used across nested queries.
+   * 
+   * @return neighbor query cursor
+   */
+  NeighborQuery getNeighborQuery();
 
   /**
    * Returns current number of particles.
@@ -56,6 +129,27 @@ public interface ParticleSystemInterface extends Serializable
    */
   int getMaxNumberOfParticles();
 
+  /**
+   * Returns the number of particles for which storage is currently allocated.
+   * This grows automatically as particles are added, up to the max number of
+   * particles.
+   * 
+   * @return capacity in number of particles
+   */
+  int getCapacity();
+
+  /**
+   * Makes sure that storage is allocated for at least a given number of
+   * particles (but no more than the max number of particles). Storage grows by
+   * at least a factor two. Array references previously obtained from this
+   * particle system are no longer valid after storage has grown.
+   * 
+   * @param pNumberOfParticles
+   *          number of particles
+   * @return true if storage was reallocated
+   */
+  boolean ensureCapacity(int pNumberOfParticles);
+
   /**
    * Returns the max number of particles per grid cell.
    * 
@@ -178,14 +272,60 @@ public interface ParticleSystemInterface extends Serializable
   void updateNeighborhoodGrid();
 
   /**
-   * Updates neighborhood grid with particles in this particle system.
-   * Important: make sure that the particles are entirely contained within
-   * [0,1]^d.
+   * Updates neighborhood grid with particles in this particle system. The grid
+   * is cleared first unless it is incremental. Important: make sure that the
+   * particles are entirely contained within [0,1]^d.
    * 
    * @param pNeighborhoodGrid
    *          neighborhood grid
    */
-  public void updateNeighborhoodGrid(NeighborhoodGrid pNeighborhoodGrid);
+  public void updateNeighborhoodGrid(NeighborhoodGridInterface pNeighborhoodGrid);
+
+  /**
+   * Returns the spatial sorting period, see setSpatialSortingPeriod.
+   * 
+   * @return spatial sorting period in number of neighborhood grid updates, 0 if
+   *         disabled.
+   */
+  int getSpatialSortingPeriod();
+
+  /**
+   * Sets the spatial sorting period. If strictly positive, the particles are
+   * reordered along a Z-order curve of their neighborhood grid cell every
+   * pPeriod calls to updateNeighborhoodGrid(). Particles that are close in
+   * space then also tend to be close in memory. Since particle ids change,
+   * anything that refers to particles by id must be remapped using
+   * getParticleIdMapping(). Disabled by default.
+   * 
+   * @param pPeriod
+   *          period in number of neighborhood grid updates, 0 to disable.
+   */
+  void setSpatialSortingPeriod(int pPeriod);
+
+  /**
+   * Reorders all particles along a Z-order (Morton) curve of their
+   * neighborhood grid cell. The neighborhood grid needs to be updated
+   * afterwards.
+   */
+  void sortParticlesAlongZOrderCurve();
+
+  /**
+   * Reorders all particles according to a given permutation: the particle with
+   * new id i is the particle with old id pNewToOld[i].
+   * 
+   * @param pNewToOld
+   *          permutation from new ids to old ids.
+   */
+  void reorderParticles(int[] pNewToOld);
+
+  /**
+   * Returns the particle id mapping table of the last reordering: the particle
+   * with old id i now has id getParticleIdMapping()[i]. Returns null if the
+   * particles were never reordered.
+   * 
+   * @return old id to new id mapping table
+   */
+  int[] getParticleIdMapping();
 
   /**
    * Apply a centrifugal force around a point (X,Y)
@@ -282,6 +422,19 @@ public interface ParticleSystemInterface extends Serializable
    */
   void intergrateTrapezoidal();
 
+  /**
+   * Euler integration followed by enforcement of the bounds [0,1]^d, fused in
+   * a single pass over the particles. This is equivalent to calling
+   * intergrateEuler() and then enforceBounds(pDampening, pNoise).
+   *
+   * @param pDampening
+   *          how much should velocity be dampened.
+   * @param pNoise
+   *          amount of noise to add to prevent perfect particle overlapp after
+   *          enforcing bounds (typically at the corners).
+   */
+  void intergrateEulerAndEnforceBounds(float pDampening, float pNoise);
+
   /**
    * Copies the positions to this array.
    * 
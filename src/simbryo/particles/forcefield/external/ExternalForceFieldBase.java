@@ -1,5 +1,6 @@
 package simbryo.particles.forcefield.external;
 
+import simbryo.particles.ParticleSystem;
 import simbryo.particles.forcefield.ForceFieldBase;
 
 /**
@@ -26,4 +27,35 @@ public abstract class ExternalForceFieldBase extends ForceFieldBase
     super(pForceIntensity);
   }
 
+  @Override
+  public void applyForceField(int pBeginId,
+                              int pEndId,
+                              float[] pForceFactor,
+                              ParticleSystem pParticleSystem)
+  {
+    final int lDimension = pParticleSystem.getDimension();
+
+    final float[] lPositionsRead = pParticleSystem.getPositions()
+                                                  .getReadArray();
+    final float[] lRadiiRead = pParticleSystem.getRadii()
+                                              .getReadArray();
+    final float[] lVelocitiesWrite = pParticleSystem.getVelocities()
+                                                    .getWriteArray();
+
+    pParticleSystem.getVelocities().copyDefault(pBeginId * lDimension,
+                                                pEndId * lDimension);
+
+    for (int id = pBeginId; id < pEndId; id++)
+    {
+      addForce(lDimension,
+               id,
+               lPositionsRead,
+               lRadiiRead,
+               pForceFactor != null ? pForceFactor[id] : 1,
+               lVelocitiesWrite);
+    }
+
+    pParticleSystem.getVelocities().swap();
+  }
+
 }
@@ -13,4 +13,30 @@ public interface ExternalForceFieldInterface extends
                                              ForceFieldInterface
 {
 
+  /**
+   * Adds the force exerted by this force field on a single particle to the
+   * velocity of that particle. Since external force fields act on each particle
+   * independently, this can be used to fuse several force fields and other per
+   * particle updates into a single pass over the particles.
+   * 
+   * @param pDimension
+   *          dimension
+   * @param pParticleId
+   *          particle id
+   * @param pPositions
+   *          positions array
+   * @param pRadii
+   *          radii array
+   * @param pForceFactor
+   *          force factor for this particle
+   * @param pVelocities
+   *          velocities array, the velocity of the particle is incremented.
+   */
+  void addForce(int pDimension,
+                int pParticleId,
+                float[] pPositions,
+                float[] pRadii,
+                float pForceFactor,
+                float[] pVelocities);
+
 }
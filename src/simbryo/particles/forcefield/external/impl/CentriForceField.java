@@ -1,6 +1,5 @@
 package simbryo.particles.forcefield.external.impl;
 
-import simbryo.particles.ParticleSystem;
 import simbryo.particles.forcefield.external.ExternalForceFieldBase;
 import simbryo.particles.forcefield.external.ExternalForceFieldInterface;
 
@@ -33,61 +32,32 @@ public class CentriForceField extends ExternalForceFieldBase
 
   }
 
-  @SuppressWarnings("unused")
   @Override
-  public void applyForceField(int pBeginId,
-                              int pEndId,
-                              float[] pForceFactor,
-                              ParticleSystem pParticleSystem)
+  public void addForce(int pDimension,
+                       int pParticleId,
+                       float[] pPositions,
+                       float[] pRadii,
+                       float pForceFactor,
+                       float[] pVelocities)
   {
-    final int lDimension = pParticleSystem.getDimension();
+    final int i = pParticleId * pDimension;
 
-    final float[] lPositionsRead = pParticleSystem.getPositions()
-                                                  .getReadArray();
-    final float[] lPositionsWrite = pParticleSystem.getPositions()
-                                                   .getWriteArray();
-    final float[] lVelocitiesRead = pParticleSystem.getVelocities()
-                                                   .getReadArray();
-    final float[] lVelocitiesWrite = pParticleSystem.getVelocities()
-                                                    .getWriteArray();
-
-    final int lIndexStart = pBeginId * lDimension;
-    final int lIndexEnd = pEndId * lDimension;
-
-    final float[] lVector = new float[lDimension];
-
-    for (int i =
-               lIndexStart, id =
-                               pBeginId; i < lIndexEnd; i +=
-                                                          lDimension, id++)
+    float lSquaredLength = 0;
+    for (int d = 0; d < pDimension; d++)
     {
-      float lSquaredLength = 0;
-      for (int d = 0; d < lDimension; d++)
-      {
-        float px = lPositionsRead[i + d];
-        float cx = mCenter[d];
-        float dx = cx - px;
-        lVector[d] = dx;
-
-        lSquaredLength += dx * dx;
-      }
+      float dx = mCenter[d] - pPositions[i + d];
+      lSquaredLength += dx * dx;
+    }
 
-      float lInverseLengthTimesForce =
-                                     (float) (mForceIntensity
-                                              * (pForceFactor != null ? pForceFactor[id]
-                                                                      : 1)
+    float lInverseLengthTimesForce = (float) (mForceIntensity
+                                              * pForceFactor
                                               / Math.sqrt(lSquaredLength));
 
-      for (int d = 0; d < lDimension; d++)
-      {
-        lVelocitiesWrite[i + d] = lVelocitiesRead[i + d]
-                                  + lVector[d]
-                                    * lInverseLengthTimesForce;
-      }
-
+    for (int d = 0; d < pDimension; d++)
+    {
+      float dx = mCenter[d] - pPositions[i + d];
+      pVelocities[i + d] += dx * lInverseLengthTimesForce;
     }
-
-    pParticleSystem.getVelocities().swap();
   }
 
 }
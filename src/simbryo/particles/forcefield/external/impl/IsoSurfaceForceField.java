@@ -1,6 +1,5 @@
 package simbryo.particles.forcefield.external.impl;
 
-import simbryo.particles.ParticleSystem;
 import simbryo.particles.forcefield.external.ExternalForceFieldBase;
 import simbryo.particles.forcefield.external.ExternalForceFieldInterface;
 import simbryo.particles.isosurf.IsoSurfaceInterface;
@@ -34,60 +33,36 @@ public class IsoSurfaceForceField extends ExternalForceFieldBase
     mIsoSurfaceInterface = pIsoSurfaceInterface;
   }
 
-  @SuppressWarnings("unused")
   @Override
-  public void applyForceField(int pBeginId,
-                              int pEndId,
-                              float[] pForceFactor,
-                              ParticleSystem pParticleSystem)
+  public void addForce(int pDimension,
+                       int pParticleId,
+                       float[] pPositions,
+                       float[] pRadii,
+                       float pForceFactor,
+                       float[] pVelocities)
   {
-    final float lForceIntensity = mForceIntensity;
+    final int i = pParticleId * pDimension;
 
-    final int lDimension = pParticleSystem.getDimension();
+    mIsoSurfaceInterface.clear();
 
-    final float[] lPositionsRead = pParticleSystem.getPositions()
-                                                  .getReadArray();
-    final float[] lPositionsWrite = pParticleSystem.getPositions()
-                                                   .getWriteArray();
-    final float[] lVelocitiesRead = pParticleSystem.getVelocities()
-                                                   .getReadArray();
-    final float[] lVelocitiesWrite = pParticleSystem.getVelocities()
-                                                    .getWriteArray();
-
-    final int lIndexStart = pBeginId * lDimension;
-    final int lIndexEnd = pEndId * lDimension;
-
-    for (int i =
-               lIndexStart, id =
-                               pBeginId; id < pEndId; i +=
-                                                        lDimension, id++)
+    for (int d = 0; d < pDimension; d++)
     {
-      mIsoSurfaceInterface.clear();
-
-      for (int d = 0; d < lDimension; d++)
-      {
-        float px = lPositionsRead[i + d];
-        mIsoSurfaceInterface.addCoordinate(px);
-      }
-
-      final float lDistance = mIsoSurfaceInterface.getDistance();
+      float px = pPositions[i + d];
+      mIsoSurfaceInterface.addCoordinate(px);
+    }
 
-      final float lForceSign = Math.signum(lDistance);
+    final float lDistance = mIsoSurfaceInterface.getDistance();
 
-      final float lForceIntensityFinal = lForceSign * lForceIntensity
-                                         * (pForceFactor != null ? pForceFactor[id]
-                                                                 : 1);
+    final float lForceSign = Math.signum(lDistance);
 
-      for (int d = 0; d < lDimension; d++)
-      {
-        float dx = mIsoSurfaceInterface.getNormalizedGardient(d);
-        lVelocitiesWrite[i + d] = lVelocitiesRead[i + d]
-                                  + dx * lForceIntensityFinal;
-      }
+    final float lForceIntensityFinal = lForceSign * mForceIntensity
+                                       * pForceFactor;
 
+    for (int d = 0; d < pDimension; d++)
+    {
+      float dx = mIsoSurfaceInterface.getNormalizedGardient(d);
+      pVelocities[i + d] += dx * lForceIntensityFinal;
     }
-
-    pParticleSystem.getVelocities().swap();
   }
 
 }
@@ -1,6 +1,5 @@
 package simbryo.particles.forcefield.external.impl;
 
-import simbryo.particles.ParticleSystem;
 import simbryo.particles.forcefield.external.ExternalForceFieldBase;
 import simbryo.particles.forcefield.external.ExternalForceFieldInterface;
 import simbryo.particles.isosurf.IsoSurfaceInterface;
@@ -53,81 +52,48 @@ public class OneSidedIsoSurfaceForceField extends
     mIsoSurfaceInterface = pIsoSurfaceInterface;
   }
 
-  @SuppressWarnings("unused")
   @Override
-  public void applyForceField(int pBeginId,
-                              int pEndId,
-                              float[] pForceFactor,
-                              ParticleSystem pParticleSystem)
+  public void addForce(int pDimension,
+                       int pParticleId,
+                       float[] pPositions,
+                       float[] pRadii,
+                       float pForceFactor,
+                       float[] pVelocities)
   {
-    final int lDimension = pParticleSystem.getDimension();
+    final boolean lConstraintInside = mZeroInside;
+    final int i = pParticleId * pDimension;
 
-    final float[] lPositionsRead = pParticleSystem.getPositions()
-                                                  .getReadArray();
-    final float[] lPositionsWrite = pParticleSystem.getPositions()
-                                                   .getWriteArray();
-    final float[] lVelocitiesRead = pParticleSystem.getVelocities()
-                                                   .getReadArray();
-    final float[] lVelocitiesWrite = pParticleSystem.getVelocities()
-                                                    .getWriteArray();
+    mIsoSurfaceInterface.clear();
 
-    final float[] lRadiiRead = pParticleSystem.getRadii()
-                                              .getWriteArray();
-
-    float lForceIntensity = mForceIntensity;
-    boolean lConstraintInside = mZeroInside;
-    boolean lConstraintWithRadius = mConstraintWithRadius;
-
-    final int lIndexStart = pBeginId * lDimension;
-    final int lIndexEnd = pEndId * lDimension;
-
-    for (int i =
-               lIndexStart, id =
-                               pBeginId; i < lIndexEnd; i +=
-                                                          lDimension, id++)
+    for (int d = 0; d < pDimension; d++)
     {
-      mIsoSurfaceInterface.clear();
-
-      for (int d = 0; d < lDimension; d++)
-      {
-        float px = lPositionsRead[i + d];
-        mIsoSurfaceInterface.addCoordinate(px);
-      }
-
-      float lDistance = mIsoSurfaceInterface.getDistance();
-
-      float lRadius = lRadiiRead[id];
+      float px = pPositions[i + d];
+      mIsoSurfaceInterface.addCoordinate(px);
+    }
 
-      float lValue = (lConstraintInside ? -1 : 1)
-                     * (lConstraintWithRadius ? lRadius : 0);
+    float lDistance = mIsoSurfaceInterface.getDistance();
 
-      float lSignedDistanceToEllipoid = lDistance - lValue;
+    float lRadius = pRadii[pParticleId];
 
-      float lForceIntensityPerParticle = lForceIntensity
-                                         * (pForceFactor != null ? pForceFactor[id]
-                                                                 : 1);
+    float lValue = (lConstraintInside ? -1 : 1)
+                   * (mConstraintWithRadius ? lRadius : 0);
 
-      if (lConstraintInside && lSignedDistanceToEllipoid >= 0)
-        for (int d = 0; d < lDimension; d++)
-        {
-          float dx = mIsoSurfaceInterface.getNormalizedGardient(d);
-          lVelocitiesWrite[i + d] = lVelocitiesRead[i + d]
-                                    + dx * lForceIntensityPerParticle;
-        }
-      else if (!lConstraintInside && lSignedDistanceToEllipoid < 0)
-        for (int d = 0; d < lDimension; d++)
-        {
-          float dx = mIsoSurfaceInterface.getNormalizedGardient(d);
-          lVelocitiesWrite[i + d] = lVelocitiesRead[i + d]
-                                    - dx * lForceIntensityPerParticle;
-        }
-      else
-        for (int d = 0; d < lDimension; d++)
-          lVelocitiesWrite[i + d] = lVelocitiesRead[i + d];
+    float lSignedDistanceToEllipoid = lDistance - lValue;
 
-    }
+    float lForceIntensityPerParticle = mForceIntensity * pForceFactor;
 
-    pParticleSystem.getVelocities().swap();
+    if (lConstraintInside && lSignedDistanceToEllipoid >= 0)
+      for (int d = 0; d < pDimension; d++)
+      {
+        float dx = mIsoSurfaceInterface.getNormalizedGardient(d);
+        pVelocities[i + d] += dx * lForceIntensityPerParticle;
+      }
+    else if (!lConstraintInside && lSignedDistanceToEllipoid < 0)
+      for (int d = 0; d < pDimension; d++)
+      {
+        float dx = mIsoSurfaceInterface.getNormalizedGardient(d);
+        pVelocities[i + d] -= dx * lForceIntensityPerParticle;
+      }
   }
 
 }
@@ -3,7 +3,7 @@ package simbryo.particles.forcefield.interaction.impl;
 import simbryo.particles.ParticleSystem;
 import simbryo.particles.forcefield.interaction.InteractionForceFieldBase;
 import simbryo.particles.forcefield.interaction.InteractionForceFieldInterface;
-import simbryo.particles.neighborhood.NeighborhoodGrid;
+import simbryo.particles.neighborhood.NeighborQuery;
 import simbryo.util.geom.GeometryUtils;
 
 /**
@@ -21,8 +21,6 @@ public class CohesionForceField extends InteractionForceFieldBase
 
   private float mDrag;
 
-  private int[] mNeighboorsArray;
-
   /**
    * Constructs a cohesion force field given a force intensity and drag
    * coefficient. The drag coefficient is often necessary to prevent excessive
@@ -48,11 +46,8 @@ public class CohesionForceField extends InteractionForceFieldBase
   {
     final int lDimension = pParticleSystem.getDimension();
 
-    NeighborhoodGrid lNeighborhoodGrid =
-                                       pParticleSystem.getNeighborhoodGrid();
-    final int lMaxNumberOfParticlesPerGridCell =
-                                               lNeighborhoodGrid.getMaxParticlesPerGridCell();
-    final int lTotalNumberOfCells = lNeighborhoodGrid.getVolume();
+    final NeighborQuery lNeighborQuery =
+                                       pParticleSystem.getNeighborQuery();
 
     final float[] lPositionsRead = pParticleSystem.getPositions()
                                                   .getReadArray();
@@ -69,21 +64,6 @@ public class CohesionForceField extends InteractionForceFieldBase
                                                 pEndId * lDimension,
                                                 mDrag);
 
-    int lNeighboorhoodListMaxLength = lMaxNumberOfParticlesPerGridCell
-                                      * lTotalNumberOfCells;
-    if (mNeighboorsArray == null
-        || mNeighboorsArray.length != lNeighboorhoodListMaxLength)
-    {
-      mNeighboorsArray = new int[lNeighboorhoodListMaxLength];
-    }
-
-    final int[] lNeighboors = mNeighboorsArray;
-    final int[] lNeighboorsTemp = mNeighboorsArray;
-    final float[] lCellCoord = new float[lDimension];
-    final int[] lCellCoordMin = new int[lDimension];
-    final int[] lCellCoordMax = new int[lDimension];
-    final int[] lCellCoordCurrent = new int[lDimension];
-
     for (int idu =
                  pBeginId, i = idu
                                * lDimension; idu < pEndId; idu++, i +=
@@ -92,16 +72,10 @@ public class CohesionForceField extends InteractionForceFieldBase
 
       final float ru = lRadii[idu];
 
-      int lNumberOfNeighboors =
-                              lNeighborhoodGrid.getAllNeighborsForParticle(lNeighboors,
-                                                                           lNeighboorsTemp,
-                                                                           lPositionsRead,
-                                                                           idu,
-                                                                           ru,
-                                                                           lCellCoord,
-                                                                           lCellCoordMin,
-                                                                           lCellCoordMax,
-                                                                           lCellCoordCurrent);
+      final int lNumberOfNeighboors = lNeighborQuery.query(lPositionsRead,
+                                                           idu,
+                                                           ru);
+      final int[] lNeighboors = lNeighborQuery.getNeighbors();
 
       for (int k = 0; k < lNumberOfNeighboors; k++)
       {
@@ -1,10 +1,13 @@
 package simbryo.particles.forcefield.interaction.impl;
 
+import java.util.concurrent.ForkJoinPool;
+
 import simbryo.particles.ParticleSystem;
 import simbryo.particles.forcefield.interaction.InteractionForceFieldBase;
 import simbryo.particles.forcefield.interaction.InteractionForceFieldInterface;
-import simbryo.particles.neighborhood.NeighborhoodGrid;
+import simbryo.particles.neighborhood.NeighborQuery;
 import simbryo.util.geom.GeometryUtils;
+import simbryo.util.parallel.ParallelRange;
 
 /**
  * This interaction force field applies a force to each particle that prevents
@@ -21,10 +24,11 @@ public class CollisionForceField extends InteractionForceFieldBase
 
   private static final float cGapCorrectionFactor = 0.5f;
 
+  private static final int cMinParticlesPerChunk = 256;
+
   private float mDrag;
   private boolean mForbidOverlap = true;
-
-  private int[] mNeighboorsArray;
+  private volatile boolean mParallel = false;
 
   /**
    * Constructs a collision force field given a force intensity and drag
@@ -71,20 +75,72 @@ public class CollisionForceField extends InteractionForceFieldBase
     mForbidOverlap = pForbidOverlap;
   }
 
-  @SuppressWarnings("unused")
+  /**
+   * Returns true if the force field is computed in parallel.
+   * 
+   * @return true if parallel
+   */
+  public boolean isParallel()
+  {
+    return mParallel;
+  }
+
+  /**
+   * Sets whether the force field should be computed in parallel over the
+   * common fork-join pool. In parallel mode each particle accumulates the
+   * forces exerted by all of its neighbors (instead of updating both particles
+   * of each pair), this way chunks of particle ids can be processed
+   * concurrently without any two threads writing to the same particle.
+   * 
+   * @param pParallel
+   *          true for parallel computation
+   */
+  public void setParallel(boolean pParallel)
+  {
+    mParallel = pParallel;
+  }
+
   @Override
   public void applyForceField(int pBeginId,
                               int pEndId,
                               float[] pForceFactor,
                               ParticleSystem pParticleSystem)
+  {
+    if (isParallel())
+    {
+      ForkJoinPool lPool = ForkJoinPool.commonPool();
+      int lNumberOfChunks =
+                          ParallelRange.getNumberOfChunks(lPool,
+                                                          pEndId - pBeginId,
+                                                          cMinParticlesPerChunk);
+      if (lNumberOfChunks > 1)
+      {
+        applyForceFieldParallel(lPool,
+                                lNumberOfChunks,
+                                pBeginId,
+                                pEndId,
+                                pForceFactor,
+                                pParticleSystem);
+        return;
+      }
+    }
+
+    applyForceFieldSequential(pBeginId,
+                              pEndId,
+                              pForceFactor,
+                              pParticleSystem);
+  }
+
+  @SuppressWarnings("unused")
+  private void applyForceFieldSequential(int pBeginId,
+                                         int pEndId,
+                                         float[] pForceFactor,
+                                         ParticleSystem pParticleSystem)
   {
     final int lDimension = pParticleSystem.getDimension();
 
-    NeighborhoodGrid lNeighborhoodGrid =
-                                       pParticleSystem.getNeighborhoodGrid();
-    final int lMaxNumberOfParticlesPerGridCell =
-                                               lNeighborhoodGrid.getMaxParticlesPerGridCell();
-    final int lTotalNumberOfCells = lNeighborhoodGrid.getVolume();
+    final NeighborQuery lNeighborQuery =
+                                       pParticleSystem.getNeighborQuery();
 
     final float[] lPositionsRead = pParticleSystem.getPositions()
                                                   .getReadArray();
@@ -101,20 +157,11 @@ public class CollisionForceField extends InteractionForceFieldBase
                                                 pEndId * lDimension,
                                                 mDrag);
 
-    int lNeighboorhoodListMaxLength = lMaxNumberOfParticlesPerGridCell
-                                      * lTotalNumberOfCells;
-    if (mNeighboorsArray == null
-        || mNeighboorsArray.length != lNeighboorhoodListMaxLength)
-    {
-      mNeighboorsArray = new int[lNeighboorhoodListMaxLength];
-    }
-
-    final int[] lNeighboors = mNeighboorsArray;
-    final int[] lNeighboorsTemp = mNeighboorsArray;
-    final float[] lCellCoord = new float[lDimension];
-    final int[] lCellCoordMin = new int[lDimension];
-    final int[] lCellCoordMax = new int[lDimension];
-    final int[] lCellCoordCurrent = new int[lDimension];
+    // overlap corrections are accumulated on a copy of the positions, same as
+    // in parallel mode:
+    if (isForbidOverlap())
+      pParticleSystem.getPositions().copyDefault(pBeginId * lDimension,
+                                                 pEndId * lDimension);
 
     for (int idu =
                  pBeginId, i = idu
@@ -124,16 +171,10 @@ public class CollisionForceField extends InteractionForceFieldBase
 
       final float ru = lRadii[idu];
 
-      int lNumberOfNeighboors =
-                              lNeighborhoodGrid.getAllNeighborsForParticle(lNeighboors,
-                                                                           lNeighboorsTemp,
-                                                                           lPositionsRead,
-                                                                           idu,
-                                                                           ru,
-                                                                           lCellCoord,
-                                                                           lCellCoordMin,
-                                                                           lCellCoordMax,
-                                                                           lCellCoordCurrent);
+      final int lNumberOfNeighboors = lNeighborQuery.query(lPositionsRead,
+                                                           idu,
+                                                           ru);
+      final int[] lNeighboors = lNeighborQuery.getNeighbors();
 
       for (int k = 0; k < lNumberOfNeighboors; k++)
       {
@@ -186,10 +227,8 @@ public class CollisionForceField extends InteractionForceFieldBase
                 float lOverlapCorrection = lInvDistance * lDelta
                                            * (cGapCorrectionFactor
                                               * -lGap);
-                lPositionsWrite[i + d] = lPositionsRead[i + d]
-                                         + lOverlapCorrection;
-                lPositionsWrite[j + d] = lPositionsRead[j + d]
-                                         + -lOverlapCorrection;
+                lPositionsWrite[i + d] += lOverlapCorrection;
+                lPositionsWrite[j + d] += -lOverlapCorrection;
               }
             }
 
@@ -207,4 +246,121 @@ public class CollisionForceField extends InteractionForceFieldBase
 
   }
 
+  private void applyForceFieldParallel(ForkJoinPool pPool,
+                                       int pNumberOfChunks,
+                                       int pBeginId,
+                                       int pEndId,
+                                       float[] pForceFactor,
+                                       ParticleSystem pParticleSystem)
+  {
+    final boolean lForbidOverlap = isForbidOverlap();
+
+    ParallelRange.forEach(pPool,
+                          pBeginId,
+                          pEndId,
+                          pNumberOfChunks,
+                          (c, b, e) -> applyForceFieldToChunk(b,
+                                                              e,
+                                                              pForceFactor,
+                                                              pParticleSystem,
+                                                              lForbidOverlap));
+
+    if (lForbidOverlap)
+      pParticleSystem.getPositions().swap();
+
+    pParticleSystem.getVelocities().swap();
+  }
+
+  /**
+   * Applies the collision forces to all particles in a chunk. Only the
+   * velocities and positions of the particles within the chunk are written to.
+   * Each worker thread uses its own neighbor query cursor.
+   */
+  private void applyForceFieldToChunk(int pBeginId,
+                                      int pEndId,
+                                      float[] pForceFactor,
+                                      ParticleSystem pParticleSystem,
+                                      boolean pForbidOverlap)
+  {
+    final int lDimension = pParticleSystem.getDimension();
+    final NeighborQuery lNeighborQuery =
+                                       pParticleSystem.getNeighborQuery();
+
+    final float[] lPositionsRead = pParticleSystem.getPositions()
+                                                  .getReadArray();
+    final float[] lPositionsWrite = pParticleSystem.getPositions()
+                                                   .getWriteArray();
+    final float[] lVelocitiesWrite = pParticleSystem.getVelocities()
+                                                    .getWriteArray();
+    final float[] lRadii =
+                         pParticleSystem.getRadii().getCurrentArray();
+
+    pParticleSystem.getVelocities().copyAndMult(pBeginId * lDimension,
+                                                pEndId * lDimension,
+                                                mDrag);
+    if (pForbidOverlap)
+      pParticleSystem.getPositions().copyDefault(pBeginId * lDimension,
+                                                 pEndId * lDimension);
+
+    for (int idu =
+                 pBeginId, i = idu
+                               * lDimension; idu < pEndId; idu++, i +=
+                                                                    lDimension)
+    {
+      final float ru = lRadii[idu];
+
+      final int lNumberOfNeighboors = lNeighborQuery.query(lPositionsRead,
+                                                           idu,
+                                                           ru);
+      final int[] lNeighboors = lNeighborQuery.getNeighbors();
+
+      for (int k = 0; k < lNumberOfNeighboors; k++)
+      {
+        final int idv = lNeighboors[k];
+
+        final float rv = lRadii[idv];
+
+        if (idu != idv
+            && GeometryUtils.detectBoundingBoxCollision(lDimension,
+                                                        lPositionsRead,
+                                                        ru,
+                                                        rv,
+                                                        idu,
+                                                        idv))
+        {
+          int j = idv * lDimension;
+          float lDistance = GeometryUtils.computeDistance(lDimension,
+                                                          lPositionsRead,
+                                                          idu,
+                                                          idv);
+          float lGap = lDistance - ru - rv;
+
+          if (lGap < 0 && lDistance != 0)
+          {
+            float lInvDistance = 1.0f / lDistance;
+            float lInvDistanceWithForce = mForceIntensity
+                                          * (pForceFactor != null ? pForceFactor[idu]
+                                                                    * pForceFactor[idv]
+                                                                  : 1)
+                                          * lInvDistance;
+
+            for (int d = 0; d < lDimension; d++)
+            {
+              float lDelta = lPositionsRead[i + d]
+                             - lPositionsRead[j + d];
+
+              lVelocitiesWrite[i + d] += lInvDistanceWithForce
+                                         * lDelta;
+
+              if (pForbidOverlap)
+                lPositionsWrite[i + d] += lInvDistance * lDelta
+                                          * (cGapCorrectionFactor
+                                             * -lGap);
+            }
+          }
+        }
+      }
+    }
+  }
+
 }
@@ -1,11 +1,10 @@
 package simbryo.particles.forcefield.interaction.impl;
 
-import java.util.SplittableRandom;
-
 import simbryo.particles.ParticleSystem;
 import simbryo.particles.forcefield.interaction.InteractionForceFieldBase;
 import simbryo.particles.forcefield.interaction.InteractionForceFieldInterface;
 import simbryo.util.geom.GeometryUtils;
+import simbryo.util.random.CounterRandom;
 
 /**
  * This interaction force field applies a repulsion force from all-against-all
@@ -22,8 +21,6 @@ public class RepulsionForceField extends InteractionForceFieldBase
 
   private int mNumberOfInteractionPartners;
 
-  private transient SplittableRandom mRandom;
-
   /**
    * Constructs a collision force field given a force intensity and a percentage
    * of interaction partners.
@@ -47,8 +44,7 @@ public class RepulsionForceField extends InteractionForceFieldBase
                               float[] pForceFactor,
                               ParticleSystem pParticleSystem)
   {
-    if (mRandom == null)
-      mRandom = new SplittableRandom();
+    final long lRandomKey = pParticleSystem.nextRandomKey();
 
     final int lDimension = pParticleSystem.getDimension();
 
@@ -77,7 +73,13 @@ public class RepulsionForceField extends InteractionForceFieldBase
 
       for (int k = 0; k < lNumberOfInteractionPartners; k++)
       {
-        final int idv = mRandom.nextInt(pBeginId, pEndId);
+        final int idv =
+                        CounterRandom.nextInt(lRandomKey,
+                                              (long) idu
+                                                          * lNumberOfInteractionPartners
+                                                          + k,
+                                              pBeginId,
+                                              pEndId);
 
         if (idv == idu)
           continue;
@@ -0,0 +1,115 @@
+package simbryo.particles.forcefield.interaction.impl.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import simbryo.particles.ParticleSystem;
+import simbryo.particles.forcefield.interaction.impl.CollisionForceField;
+
+/**
+ * Collision force field tests
+ *
+ * @author royer
+ */
+public class CollisionForceFieldTests
+{
+
+  /**
+   * Checks that the parallel collision computation gives the same velocities
+   * as the sequential computation.
+   */
+  @Test
+  public void testParallelMatchesSequential()
+  {
+    checkParallelMatchesSequential(false);
+  }
+
+  /**
+   * Checks that the parallel collision computation gives the same velocities
+   * and positions as the sequential computation when overlaps are forbidden.
+   */
+  @Test
+  public void testParallelMatchesSequentialWithForbiddenOverlap()
+  {
+    checkParallelMatchesSequential(true);
+  }
+
+  private void checkParallelMatchesSequential(boolean pForbidOverlap)
+  {
+    int lNumberOfParticles = 4000;
+
+    ParticleSystem lSequentialSystem =
+                                     createParticleSystem(lNumberOfParticles);
+    ParticleSystem lParallelSystem =
+                                   createParticleSystem(lNumberOfParticles);
+
+    CollisionForceField lSequentialForceField =
+                                              new CollisionForceField(0.0001f,
+                                                                      0.9f,
+                                                                      pForbidOverlap);
+    CollisionForceField lParallelForceField =
+                                            new CollisionForceField(0.0001f,
+                                                                    0.9f,
+                                                                    pForbidOverlap);
+    lParallelForceField.setParallel(true);
+
+    for (int i = 0; i < 10; i++)
+    {
+      lSequentialSystem.applyForceField(lSequentialForceField);
+      lParallelSystem.applyForceField(lParallelForceField);
+    }
+
+    float[] lSequentialVelocities =
+                                  new float[lNumberOfParticles * 3];
+    float[] lParallelVelocities = new float[lNumberOfParticles * 3];
+    lSequentialSystem.copyVelocities(lSequentialVelocities);
+    lParallelSystem.copyVelocities(lParallelVelocities);
+
+    float lTotalSpeed = 0;
+    for (int i = 0; i < lSequentialVelocities.length; i++)
+    {
+      assertEquals(lSequentialVelocities[i],
+                   lParallelVelocities[i],
+                   1e-6f);
+      lTotalSpeed += Math.abs(lSequentialVelocities[i]);
+    }
+    assertTrue(lTotalSpeed > 0);
+
+    float[] lSequentialPositions = lSequentialSystem.getPositions()
+                                                    .getCurrentArray();
+    float[] lParallelPositions = lParallelSystem.getPositions()
+                                                .getCurrentArray();
+    for (int i = 0; i < lNumberOfParticles * 3; i++)
+      assertEquals(lSequentialPositions[i],
+                   lParallelPositions[i],
+                   1e-6f);
+  }
+
+  private ParticleSystem createParticleSystem(int pNumberOfParticles)
+  {
+    ParticleSystem lParticleSystem =
+                                   new ParticleSystem(64,
+                                                      pNumberOfParticles,
+                                                      16,
+                                                      16,
+                                                      16);
+    Random lRandom = new Random(42);
+    for (int i = 0; i < pNumberOfParticles; i++)
+    {
+      int lId = lParticleSystem.addParticle(0.1f
+                                            + 0.8f * lRandom.nextFloat(),
+                                            0.1f + 0.8f
+                                                   * lRandom.nextFloat(),
+                                            0.1f + 0.8f
+                                                   * lRandom.nextFloat());
+      lParticleSystem.setRadius(lId, 0.01f);
+    }
+    lParticleSystem.updateNeighborhoodGrid();
+    return lParticleSystem;
+  }
+
+}
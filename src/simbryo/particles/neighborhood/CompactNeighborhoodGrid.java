@@ -0,0 +1,794 @@
+package simbryo.particles.neighborhood;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import simbryo.util.parallel.ParallelRange;
+import simbryo.util.vectorinc.VectorInc;
+
+/**
+ * Neighborhood grid that stores cell contents in a compressed sparse row (CSR)
+ * layout: an array of cell offsets of length volume+1 and a packed array of
+ * particle ids. The grid is rebuilt with a two pass counting sort, so the cost
+ * of an update scales with the number of particles (plus a single prefix sum
+ * over the cells) instead of volume times the max number of particles per
+ * cell. Cells have no fixed capacity, no particle is ever dropped. Ids within
+ * a cell are sorted in increasing order, just like for NeighborhoodGrid.
+ *
+ * Contrary to NeighborhoodGrid, an update replaces the contents of the grid
+ * instead of adding to it.
+ *
+ * @author royer
+ */
+public class CompactNeighborhoodGrid implements NeighborhoodGridInterface
+{
+  private static final long serialVersionUID = 1L;
+
+  private final static float cEpsilon = 1e-6f;
+
+  private static final int cMinParticlesPerChunk = 1024;
+  private static final int cMinCellsPerChunk = 4096;
+
+  private final int mDimension;
+  private final int[] mGridDimensions;
+  private final int mNominalMaxParticlesPerGridCell;
+  private final int mVolume;
+
+  private final int[] mStride;
+
+  private final int[] mCellOffsets;
+  private int[] mCellEntries;
+  private int mMaximalEffectiveNumberOfParticlesPerGridCell;
+
+  private volatile boolean mParallel = false;
+  private transient AtomicIntegerArray mAtomicCellOffsets;
+
+  /**
+   * Constructs an instance given the nominal maximal number of particles per
+   * cell and the grid dimensions. The nominal number of particles per cell is
+   * only used to size the initial storage and to compute occupancies, cells
+   * can hold more particles.
+   *
+   * @param pMaxParticlesPerCell
+   *          nominal max particles per cell
+   * @param pGridDimensions
+   *          grid dimensions
+   */
+  public CompactNeighborhoodGrid(int pMaxParticlesPerCell,
+                                 int... pGridDimensions)
+  {
+    super();
+    mDimension = pGridDimensions.length;
+    mGridDimensions = pGridDimensions;
+    mNominalMaxParticlesPerGridCell = pMaxParticlesPerCell;
+
+    int lVolume = 1;
+    for (int d = 0; d < mDimension; d++)
+      lVolume *= mGridDimensions[d];
+    mVolume = lVolume;
+
+    mStride = new int[mDimension];
+    int lStride = 1;
+    for (int d = 0; d < mDimension; d++)
+    {
+      mStride[d] = lStride;
+      lStride *= mGridDimensions[d];
+    }
+
+    mCellOffsets = new int[mVolume + 1];
+    mCellEntries = new int[Math.max(16, mVolume)];
+  }
+
+  @Override
+  public int getDimension()
+  {
+    return mDimension;
+  }
+
+  @Override
+  public int[] getGridDimensions()
+  {
+    return mGridDimensions;
+  }
+
+  @Override
+  public int getVolume()
+  {
+    return mVolume;
+  }
+
+  /**
+   * Returns the maximal number of particles per grid cell. This is the larger
+   * of the nominal number given at construction time and the largest number of
+   * particles effectively found in a cell.
+   *
+   * @return max particles per grid cell
+   */
+  @Override
+  public int getMaxParticlesPerGridCell()
+  {
+    return Math.max(mNominalMaxParticlesPerGridCell,
+                    mMaximalEffectiveNumberOfParticlesPerGridCell);
+  }
+
+  @Override
+  public float getMaximalCellOccupancy()
+  {
+    return (1.0f * getMaximalEffectiveNumberOfParticlesPerGridCell())
+           / mNominalMaxParticlesPerGridCell;
+  }
+
+  @Override
+  public int getMaximalEffectiveNumberOfParticlesPerGridCell()
+  {
+    return mMaximalEffectiveNumberOfParticlesPerGridCell;
+  }
+
+  @Override
+  public double getAverageCellOccupancy()
+  {
+    return getAverageNumberOfParticlesPerGridCell()
+           / mNominalMaxParticlesPerGridCell;
+  }
+
+  @Override
+  public double getAverageNumberOfParticlesPerGridCell()
+  {
+    return ((double) getNumberOfEntries()) / mVolume;
+  }
+
+  @Override
+  public int getNumberOfDroppedEntries()
+  {
+    return 0;
+  }
+
+  /**
+   * Returns the total number of particle-to-cell entries.
+   *
+   * @return number of entries
+   */
+  public int getNumberOfEntries()
+  {
+    return mCellOffsets[mVolume];
+  }
+
+  /**
+   * Returns the cell offsets array. The ids of the particles in cell i are
+   * found in the entries array between indices getCellOffsets()[i] (inclusive)
+   * and getCellOffsets()[i+1] (exclusive).
+   *
+   * @return cell offsets array of length volume+1
+   */
+  public int[] getCellOffsets()
+  {
+    return mCellOffsets;
+  }
+
+  /**
+   * Returns the packed array of particle ids. Only the first
+   * getNumberOfEntries() entries are valid.
+   *
+   * @return entries array
+   */
+  public int[] getCellEntries()
+  {
+    return mCellEntries;
+  }
+
+  @Override
+  public int[] getCellContents(int... pCellCoordinates)
+  {
+    int lCellIndex = getCellIndex(mDimension,
+                                  mStride,
+                                  pCellCoordinates);
+    return getCellContents(new int[mCellOffsets[lCellIndex + 1]
+                                   - mCellOffsets[lCellIndex]
+                                   + 1],
+                           pCellCoordinates);
+  }
+
+  @Override
+  public int[] getCellContents(int[] pNeighboors,
+                               int... pCellCoordinates)
+  {
+    int lCellIndex = getCellIndex(mDimension,
+                                  mStride,
+                                  pCellCoordinates);
+    copyCellContents(lCellIndex, pNeighboors);
+    return pNeighboors;
+  }
+
+  @Override
+  public final int[] getCellContentsAt(final float... pTestPoint)
+  {
+    int lCellIndex = getCellIndexAtPoint(mDimension,
+                                         mGridDimensions,
+                                         mStride,
+                                         pTestPoint);
+    return getCellContentsAt(new int[mCellOffsets[lCellIndex + 1]
+                                     - mCellOffsets[lCellIndex]
+                                     + 1],
+                             pTestPoint);
+  }
+
+  @Override
+  public final int[] getCellContentsAt(int[] pNeighboors,
+                                       final float... pTestPoint)
+  {
+    int lCellIndex = getCellIndexAtPoint(mDimension,
+                                         mGridDimensions,
+                                         mStride,
+                                         pTestPoint);
+    copyCellContents(lCellIndex, pNeighboors);
+    return pNeighboors;
+  }
+
+  private void copyCellContents(int pCellIndex, int[] pNeighboors)
+  {
+    final int lBegin = mCellOffsets[pCellIndex];
+    final int lLength = Math.min(mCellOffsets[pCellIndex + 1] - lBegin,
+                                 pNeighboors.length);
+    System.arraycopy(mCellEntries, lBegin, pNeighboors, 0, lLength);
+    if (lLength < pNeighboors.length)
+      pNeighboors[lLength] = -1;
+  }
+
+  @Override
+  public String getCellInfoAt(int... pCellCoordinates)
+  {
+    int lCellIndex = getCellIndex(mDimension,
+                                  mStride,
+                                  pCellCoordinates);
+
+    StringBuilder lStringBuilder = new StringBuilder();
+    lStringBuilder.append("Cell: " + Arrays.toString(pCellCoordinates)
+                          + ": ");
+
+    for (int i = mCellOffsets[lCellIndex]; i < mCellOffsets[lCellIndex
+                                                            + 1]; i++)
+      lStringBuilder.append("" + mCellEntries[i] + ", ");
+
+    return lStringBuilder.toString();
+  }
+
+  @Override
+  public final int getAllNeighborsForParticle(int[] pNeighboors,
+                                              int[] pNeighboorsTemp,
+                                              float[] pPositions,
+                                              int pParticleId,
+                                              float pRadius)
+  {
+    final int lDimension = getDimension();
+
+    final float[] lCellCoord = new float[lDimension];
+    final int[] lCellCoordMin = new int[lDimension];
+    final int[] lCellCoordMax = new int[lDimension];
+    final int[] lCellCoordCurrent = new int[lDimension];
+
+    return getAllNeighborsForParticle(pNeighboors,
+                                      pNeighboorsTemp,
+                                      pPositions,
+                                      pParticleId,
+                                      pRadius,
+                                      lCellCoord,
+                                      lCellCoordMin,
+                                      lCellCoordMax,
+                                      lCellCoordCurrent);
+  }
+
+  @Override
+  public final int getAllNeighborsForParticle(int[] pNeighboors,
+                                              int[] pNeighboorsTemp,
+                                              float[] pPositions,
+                                              int pParticleId,
+                                              float pRadius,
+                                              float[] pCellCoord,
+                                              int[] pCellCoordMin,
+                                              int[] pCellCoordMax,
+                                              int[] pCellCoordCurrent)
+  {
+    final int lDimension = mDimension;
+    final int[] lGridDimensions = mGridDimensions;
+    final int[] lStride = mStride;
+    final int[] lCellOffsets = mCellOffsets;
+    final int[] lCellEntries = mCellEntries;
+
+    final boolean lFullyContainedInCell =
+                                        computeCellCoord(lDimension,
+                                                         lGridDimensions,
+                                                         pPositions,
+                                                         pParticleId,
+                                                         pRadius,
+                                                         pCellCoord);
+
+    int lNeighboorCounter = 0;
+
+    if (lFullyContainedInCell)
+    {
+      final int lCellIndex = getCellIndex(lDimension,
+                                          lStride,
+                                          pCellCoord);
+      final int lBegin = lCellOffsets[lCellIndex];
+      lNeighboorCounter = lCellOffsets[lCellIndex + 1] - lBegin;
+      System.arraycopy(lCellEntries,
+                       lBegin,
+                       pNeighboors,
+                       0,
+                       lNeighboorCounter);
+    }
+    else
+    {
+      initCellEnumeration(lDimension,
+                          lGridDimensions,
+                          pCellCoord,
+                          pRadius,
+                          pCellCoordMin,
+                          pCellCoordMax,
+                          pCellCoordCurrent);
+
+      do
+      {
+        final int lCellIndex = getCellIndex(lDimension,
+                                            lStride,
+                                            pCellCoordCurrent);
+        final int lEnd = lCellOffsets[lCellIndex + 1];
+        for (int i = lCellOffsets[lCellIndex]; i < lEnd; i++)
+        {
+          final int lNeighboorId = lCellEntries[i];
+          if (!contains(pNeighboors, lNeighboorCounter, lNeighboorId))
+          {
+            pNeighboors[lNeighboorCounter++] = lNeighboorId;
+          }
+        }
+      }
+      while (VectorInc.increment(pCellCoordMin,
+                                 pCellCoordMax,
+                                 pCellCoordCurrent));
+
+      pNeighboors[lNeighboorCounter] = -1;
+    }
+
+    return lNeighboorCounter;
+  }
+
+  private static boolean contains(int[] pNeighboors,
+                                  int pNeighboorCounter,
+                                  int pNeighboorId)
+  {
+    for (int i = 0; i < pNeighboorCounter; i++)
+      if (pNeighboors[i] == pNeighboorId)
+        return true;
+
+    return false;
+  }
+
+  @Override
+  public final void clear()
+  {
+    Arrays.fill(mCellOffsets, 0);
+    mMaximalEffectiveNumberOfParticlesPerGridCell = 0;
+  }
+
+  @Override
+  public boolean isParallel()
+  {
+    return mParallel;
+  }
+
+  @Override
+  public void setParallel(boolean pParallel)
+  {
+    mParallel = pParallel;
+  }
+
+  @Override
+  public final void updateCells(float[] pPositions, float[] pRadii)
+  {
+    final int lDimension = getDimension();
+    update(pPositions, pRadii, pPositions.length / lDimension);
+  }
+
+  @Override
+  public final void update(float[] pPositions,
+                           float[] pRadii,
+                           int pNumberOfParticles)
+  {
+    if (mParallel)
+    {
+      ForkJoinPool lPool = ForkJoinPool.commonPool();
+      int lNumberOfChunks =
+                          ParallelRange.getNumberOfChunks(lPool,
+                                                          pNumberOfParticles,
+                                                          cMinParticlesPerChunk);
+      if (lNumberOfChunks > 1)
+      {
+        updateParallel(lPool,
+                       lNumberOfChunks,
+                       pPositions,
+                       pRadii,
+                       pNumberOfParticles);
+        return;
+      }
+    }
+
+    final int lDimension = mDimension;
+    final int lVolume = mVolume;
+    final int[] lCellOffsets = mCellOffsets;
+
+    final float[] lCellCoord = new float[lDimension];
+    final int[] lCellCoordMin = new int[lDimension];
+    final int[] lCellCoordMax = new int[lDimension];
+    final int[] lCellCoordCurrent = new int[lDimension];
+
+    // First pass: count the number of particles touching each cell:
+    Arrays.fill(lCellOffsets, 0);
+    for (int id = 0; id < pNumberOfParticles; id++)
+      visitCellsOfParticle(lCellOffsets,
+                           null,
+                           null,
+                           pPositions,
+                           pRadii,
+                           id,
+                           lCellCoord,
+                           lCellCoordMin,
+                           lCellCoordMax,
+                           lCellCoordCurrent);
+
+    // Inclusive prefix sum, offsets now point to the end of each cell:
+    int lMax = 0;
+    int lSum = 0;
+    for (int c = 0; c < lVolume; c++)
+    {
+      final int lCount = lCellOffsets[c];
+      lMax = Math.max(lMax, lCount);
+      lSum += lCount;
+      lCellOffsets[c] = lSum;
+    }
+    lCellOffsets[lVolume] = lSum;
+    mMaximalEffectiveNumberOfParticlesPerGridCell = lMax;
+
+    if (mCellEntries.length < lSum)
+      mCellEntries = new int[lSum + lSum / 2];
+
+    // Second pass: scatter ids, going backwards so that each cell ends up
+    // sorted in increasing order and offsets end up pointing to the beginning
+    // of each cell:
+    final int[] lCellEntries = mCellEntries;
+    for (int id = pNumberOfParticles - 1; id >= 0; id--)
+      visitCellsOfParticle(lCellOffsets,
+                           null,
+                           lCellEntries,
+                           pPositions,
+                           pRadii,
+                           id,
+                           lCellCoord,
+                           lCellCoordMin,
+                           lCellCoordMax,
+                           lCellCoordCurrent);
+  }
+
+  /**
+   * Parallel version of the two pass counting sort: cell counters and offsets
+   * are atomic so that particles can be counted and scattered concurrently.
+   * Since the order in which ids are scattered now depends on scheduling, each
+   * cell is sorted at the end, this yields exactly the same layout as the
+   * sequential update.
+   */
+  private void updateParallel(ForkJoinPool pPool,
+                              int pNumberOfChunks,
+                              float[] pPositions,
+                              float[] pRadii,
+                              int pNumberOfParticles)
+  {
+    final int lDimension = mDimension;
+    final int lVolume = mVolume;
+    final int[] lCellOffsets = mCellOffsets;
+    final int lNumberOfCellChunks =
+                                  ParallelRange.getNumberOfChunks(pPool,
+                                                                  lVolume,
+                                                                  cMinCellsPerChunk);
+
+    if (mAtomicCellOffsets == null)
+      mAtomicCellOffsets = new AtomicIntegerArray(lVolume + 1);
+    final AtomicIntegerArray lAtomicCellOffsets = mAtomicCellOffsets;
+
+    // First pass: count the number of particles touching each cell:
+    ParallelRange.forEach(pPool,
+                          0,
+                          lVolume,
+                          lNumberOfCellChunks,
+                          (c, b, e) -> {
+                            for (int lCell = b; lCell < e; lCell++)
+                              lAtomicCellOffsets.set(lCell, 0);
+                          });
+    ParallelRange.forEach(pPool,
+                          0,
+                          pNumberOfParticles,
+                          pNumberOfChunks,
+                          (c, b, e) -> {
+                            visitCellsOfParticles(lDimension,
+                                                  lAtomicCellOffsets,
+                                                  null,
+                                                  pPositions,
+                                                  pRadii,
+                                                  b,
+                                                  e);
+                          });
+
+    // Inclusive prefix sum, offsets now point to the end of each cell:
+    int lMax = 0;
+    int lSum = 0;
+    for (int c = 0; c < lVolume; c++)
+    {
+      final int lCount = lAtomicCellOffsets.get(c);
+      lMax = Math.max(lMax, lCount);
+      lSum += lCount;
+      lAtomicCellOffsets.set(c, lSum);
+    }
+    lAtomicCellOffsets.set(lVolume, lSum);
+    lCellOffsets[lVolume] = lSum;
+    mMaximalEffectiveNumberOfParticlesPerGridCell = lMax;
+
+    if (mCellEntries.length < lSum)
+      mCellEntries = new int[lSum + lSum / 2];
+    final int[] lCellEntries = mCellEntries;
+
+    // Second pass: scatter ids, offsets end up pointing to the beginning of
+    // each cell:
+    ParallelRange.forEach(pPool,
+                          0,
+                          pNumberOfParticles,
+                          pNumberOfChunks,
+                          (c, b, e) -> {
+                            visitCellsOfParticles(lDimension,
+                                                  lAtomicCellOffsets,
+                                                  lCellEntries,
+                                                  pPositions,
+                                                  pRadii,
+                                                  b,
+                                                  e);
+                          });
+
+    // Copy offsets back and sort the contents of each cell:
+    ParallelRange.forEach(pPool,
+                          0,
+                          lVolume,
+                          lNumberOfCellChunks,
+                          (c, b, e) -> {
+                            for (int lCell = b; lCell < e; lCell++)
+                            {
+                              final int lBegin =
+                                               lAtomicCellOffsets.get(lCell);
+                              final int lEnd =
+                                             lAtomicCellOffsets.get(lCell
+                                                                    + 1);
+                              lCellOffsets[lCell] = lBegin;
+                              if (lEnd - lBegin > 1)
+                                Arrays.sort(lCellEntries, lBegin, lEnd);
+                            }
+                          });
+  }
+
+  private void visitCellsOfParticles(int pDimension,
+                                     AtomicIntegerArray pAtomicCellOffsets,
+                                     int[] pCellEntries,
+                                     float[] pPositions,
+                                     float[] pRadii,
+                                     int pBeginId,
+                                     int pEndId)
+  {
+    final float[] lCellCoord = new float[pDimension];
+    final int[] lCellCoordMin = new int[pDimension];
+    final int[] lCellCoordMax = new int[pDimension];
+    final int[] lCellCoordCurrent = new int[pDimension];
+
+    for (int id = pBeginId; id < pEndId; id++)
+      visitCellsOfParticle(null,
+                           pAtomicCellOffsets,
+                           pCellEntries,
+                           pPositions,
+                           pRadii,
+                           id,
+                           lCellCoord,
+                           lCellCoordMin,
+                           lCellCoordMax,
+                           lCellCoordCurrent);
+  }
+
+  /**
+   * Visits all cells touched by a particle. If no entries array is given, the
+   * counter of each cell is incremented, otherwise the particle id is written
+   * at the decremented offset of each cell. Either plain or atomic offsets are
+   * used depending on which one is non null.
+   */
+  private void visitCellsOfParticle(int[] pCellOffsets,
+                                    AtomicIntegerArray pAtomicCellOffsets,
+                                    int[] pCellEntries,
+                                    float[] pPositions,
+                                    float[] pRadii,
+                                    int pParticleId,
+                                    float[] pCellCoord,
+                                    int[] pCellCoordMin,
+                                    int[] pCellCoordMax,
+                                    int[] pCellCoordCurrent)
+  {
+    final int lDimension = mDimension;
+    final int[] lGridDimensions = mGridDimensions;
+    final int[] lStride = mStride;
+    final float lRadius = pRadii[pParticleId];
+
+    final boolean lFullyContainedInCell =
+                                        computeCellCoord(lDimension,
+                                                         lGridDimensions,
+                                                         pPositions,
+                                                         pParticleId,
+                                                         lRadius,
+                                                         pCellCoord);
+
+    if (lFullyContainedInCell)
+    {
+      final int lCellIndex = getCellIndex(lDimension,
+                                          lStride,
+                                          pCellCoord);
+      visitCell(pCellOffsets,
+                pAtomicCellOffsets,
+                pCellEntries,
+                lCellIndex,
+                pParticleId);
+    }
+    else
+    {
+      initCellEnumeration(lDimension,
+                          lGridDimensions,
+                          pCellCoord,
+                          lRadius,
+                          pCellCoordMin,
+                          pCellCoordMax,
+                          pCellCoordCurrent);
+
+      do
+      {
+        final int lCellIndex = getCellIndex(lDimension,
+                                            lStride,
+                                            pCellCoordCurrent);
+        visitCell(pCellOffsets,
+                  pAtomicCellOffsets,
+                  pCellEntries,
+                  lCellIndex,
+                  pParticleId);
+      }
+      while (VectorInc.increment(pCellCoordMin,
+                                 pCellCoordMax,
+                                 pCellCoordCurrent));
+    }
+  }
+
+  private static final void visitCell(int[] pCellOffsets,
+                                      AtomicIntegerArray pAtomicCellOffsets,
+                                      int[] pCellEntries,
+                                      int pCellIndex,
+                                      int pParticleId)
+  {
+    if (pAtomicCellOffsets == null)
+    {
+      if (pCellEntries == null)
+        pCellOffsets[pCellIndex]++;
+      else
+        pCellEntries[--pCellOffsets[pCellIndex]] = pParticleId;
+    }
+    else
+    {
+      if (pCellEntries == null)
+        pAtomicCellOffsets.getAndIncrement(pCellIndex);
+      else
+        pCellEntries[pAtomicCellOffsets.decrementAndGet(pCellIndex)] =
+                                                                      pParticleId;
+    }
+  }
+
+  /**
+   * Computes the coordinates in cell space of a given particle and returns true
+   * if the particle's sphere of given radius is fully contained in its cell.
+   */
+  private static final boolean computeCellCoord(int pDimension,
+                                                int[] pGridDimensions,
+                                                float[] pPositions,
+                                                int pParticleId,
+                                                float pRadius,
+                                                float[] pCellCoord)
+  {
+    boolean lFullyContainedInCell = true;
+
+    for (int d = 0; d < pDimension; d++)
+    {
+      float lValue =
+                   getParticleCoordinateInCell(pGridDimensions,
+                                               d,
+                                               pPositions[pParticleId
+                                                          * pDimension
+                                                          + d]);
+
+      pCellCoord[d] = lValue;
+
+      float lInCellCoord = (float) (lValue - Math.floor(lValue));
+      float lScaledRadius = pRadius * pGridDimensions[d];
+
+      lFullyContainedInCell &= (lInCellCoord - lScaledRadius >= 0)
+                               && (lInCellCoord + lScaledRadius <= 1);
+    }
+
+    return lFullyContainedInCell;
+  }
+
+  private static final void initCellEnumeration(int pDimension,
+                                                int[] pGridDimensions,
+                                                float[] pCellCoord,
+                                                final float pRadius,
+                                                int[] pCellCoordMin,
+                                                int[] pCellCoordMax,
+                                                int[] pCellCoordCurrent)
+  {
+    for (int d = 0; d < pDimension; d++)
+    {
+      float lInfluenceRadius = pRadius * pGridDimensions[d];
+      pCellCoordMin[d] =
+                       (int) Math.max(0,
+                                      Math.min(pGridDimensions[d] - 1,
+                                               (pCellCoord[d]
+                                                - lInfluenceRadius)));
+      pCellCoordMax[d] = 1 + (int) Math.max(0,
+                                            Math.min(pGridDimensions[d]
+                                                     - 1,
+                                                     (pCellCoord[d]
+                                                      + lInfluenceRadius)));
+      pCellCoordCurrent[d] = pCellCoordMin[d];
+    }
+  }
+
+  private static final float getParticleCoordinateInCell(final int[] pGridDimensions,
+                                                         final int pDimensionIndex,
+                                                         final float pParticleCoordinate)
+  {
+    // cEpsilon is to make sure that we never see the value pGridSize as
+    // coordinate...
+    return pParticleCoordinate
+           * (1.0f * pGridDimensions[pDimensionIndex] - cEpsilon);
+  }
+
+  private static final int getCellIndex(int pDimension,
+                                        int[] pStride,
+                                        int[] pCellCoordinates)
+  {
+    int lIndex = 0;
+    for (int d = 0; d < pDimension; d++)
+      lIndex += pStride[d] * pCellCoordinates[d];
+    return lIndex;
+  }
+
+  private static final int getCellIndex(int pDimension,
+                                        int[] pStride,
+                                        float[] pCellCoordinate)
+  {
+    int lIndex = 0;
+    for (int d = 0; d < pDimension; d++)
+      lIndex += pStride[d] * (int) pCellCoordinate[d];
+    return lIndex;
+  }
+
+  private static final int getCellIndexAtPoint(int pDimension,
+                                               int[] pGridDimensions,
+                                               int[] pStride,
+                                               final float[] pPoint)
+  {
+    int lIndex = 0;
+    for (int d = 0; d < pDimension; d++)
+      lIndex += pStride[d]
+                * (int) getParticleCoordinateInCell(pGridDimensions,
+                                                    d,
+                                                    pPoint[d]);
+    return lIndex;
+  }
+
+}
@@ -0,0 +1,590 @@
+package simbryo.particles.neighborhood;
+
+import java.util.Arrays;
+
+import simbryo.util.vectorinc.VectorInc;
+
+/**
+ * Multi-level loose neighborhood grid for particles of very different radii.
+ * The grid is a stack of levels, level 0 has the given grid dimensions and
+ * each following level halves them, down to a single cell. Each particle is
+ * stored exactly once, in the cell containing its center at the finest level
+ * whose cells are at least as large as the particle's diameter. A neighbor
+ * query visits, at each level, the cells within the query radius plus the
+ * largest particle radius found at that level. Large particles are therefore
+ * never inserted into dozens of cells and small particles do not make cells
+ * overflow, queries stay O(1) in the number of cells visited across the whole
+ * range of radii.
+ *
+ * Ids within a cell are sorted in increasing order. Contrary to
+ * NeighborhoodGrid, an update replaces the contents of the grid instead of
+ * adding to it. Updates are always sequential: since each particle has a
+ * single entry, an update costs two passes over the particles.
+ *
+ * @author royer
+ */
+public class MultiLevelNeighborhoodGrid implements
+                                        NeighborhoodGridInterface
+{
+  private static final long serialVersionUID = 1L;
+
+  private final static float cEpsilon = 1e-6f;
+
+  private final int mDimension;
+  private final int[] mGridDimensions;
+  private final int mNominalMaxParticlesPerGridCell;
+
+  private final int mNumberOfLevels;
+  private final int[][] mLevelGridDimensions;
+  private final int[][] mLevelStrides;
+  private final int[] mLevelCellOffsets;
+  private final float[] mLevelHalfCellSizes;
+  private final float[] mLevelMaxRadii;
+  private final int[] mLevelNumberOfParticles;
+
+  private final int[] mCellOffsets;
+  private int[] mCellEntries = new int[16];
+  private int[] mParticleCells = new int[16];
+  private int mNumberOfParticles;
+  private int mMaximalEffectiveNumberOfParticlesPerGridCell;
+
+  private volatile boolean mParallel = false;
+
+  /**
+   * Constructs a multi-level grid given the nominal maximal number of particles
+   * per cell and the grid dimensions of the finest level. The nominal number of
+   * particles per cell is only used to compute occupancies, cells can hold more
+   * particles.
+   *
+   * @param pMaxParticlesPerCell
+   *          nominal max particles per cell
+   * @param pGridDimensions
+   *          grid dimensions of the finest level
+   */
+  public MultiLevelNeighborhoodGrid(int pMaxParticlesPerCell,
+                                    int... pGridDimensions)
+  {
+    super();
+    mDimension = pGridDimensions.length;
+    mGridDimensions = pGridDimensions;
+    mNominalMaxParticlesPerGridCell = pMaxParticlesPerCell;
+
+    int lMaxGridDimension = 1;
+    for (int d = 0; d < mDimension; d++)
+      lMaxGridDimension = Math.max(lMaxGridDimension,
+                                   pGridDimensions[d]);
+    int lNumberOfLevels = 1;
+    while ((lMaxGridDimension >> (lNumberOfLevels - 1)) > 1)
+      lNumberOfLevels++;
+    mNumberOfLevels = lNumberOfLevels;
+
+    mLevelGridDimensions = new int[mNumberOfLevels][mDimension];
+    mLevelStrides = new int[mNumberOfLevels][mDimension];
+    mLevelCellOffsets = new int[mNumberOfLevels + 1];
+    mLevelHalfCellSizes = new float[mNumberOfLevels];
+    mLevelMaxRadii = new float[mNumberOfLevels];
+    mLevelNumberOfParticles = new int[mNumberOfLevels];
+
+    int lCellOffset = 0;
+    for (int l = 0; l < mNumberOfLevels; l++)
+    {
+      int lStride = 1;
+      float lHalfCellSize = Float.POSITIVE_INFINITY;
+      for (int d = 0; d < mDimension; d++)
+      {
+        final int lLevelGridDimension = Math.max(1,
+                                                 pGridDimensions[d] >> l);
+        mLevelGridDimensions[l][d] = lLevelGridDimension;
+        mLevelStrides[l][d] = lStride;
+        lStride *= lLevelGridDimension;
+        lHalfCellSize = Math.min(lHalfCellSize,
+                                 0.5f / lLevelGridDimension);
+      }
+      mLevelCellOffsets[l] = lCellOffset;
+      mLevelHalfCellSizes[l] = lHalfCellSize;
+      lCellOffset += lStride;
+    }
+    mLevelCellOffsets[mNumberOfLevels] = lCellOffset;
+
+    mCellOffsets = new int[lCellOffset + 1];
+  }
+
+  @Override
+  public int getDimension()
+  {
+    return mDimension;
+  }
+
+  /**
+   * Returns the grid dimensions of the finest level.
+   *
+   * @return grid dimensions
+   */
+  @Override
+  public int[] getGridDimensions()
+  {
+    return mGridDimensions;
+  }
+
+  /**
+   * Returns the number of cells of the finest level.
+   *
+   * @return number of cells
+   */
+  @Override
+  public int getVolume()
+  {
+    return mLevelCellOffsets[1];
+  }
+
+  /**
+   * Returns the number of levels.
+   *
+   * @return number of levels
+   */
+  public int getNumberOfLevels()
+  {
+    return mNumberOfLevels;
+  }
+
+  /**
+   * Returns the grid dimensions of a given level.
+   *
+   * @param pLevel
+   *          level, 0 being the finest
+   * @return grid dimensions
+   */
+  public int[] getGridDimensions(int pLevel)
+  {
+    return mLevelGridDimensions[pLevel];
+  }
+
+  /**
+   * Returns the number of particles stored at a given level during the last
+   * update.
+   *
+   * @param pLevel
+   *          level, 0 being the finest
+   * @return number of particles
+   */
+  public int getNumberOfParticles(int pLevel)
+  {
+    return mLevelNumberOfParticles[pLevel];
+  }
+
+  /**
+   * Returns the level at which a particle of given radius is stored: the finest
+   * level whose cells are at least as large as the particle's diameter.
+   *
+   * @param pRadius
+   *          particle radius
+   * @return level
+   */
+  public int getLevelForRadius(float pRadius)
+  {
+    final float[] lLevelHalfCellSizes = mLevelHalfCellSizes;
+    final int lLastLevel = mNumberOfLevels - 1;
+    for (int l = 0; l < lLastLevel; l++)
+      if (pRadius <= lLevelHalfCellSizes[l])
+        return l;
+    return lLastLevel;
+  }
+
+  /**
+   * Returns the maximal number of particles per grid cell. This is the larger
+   * of the nominal number given at construction time and the largest number of
+   * particles effectively found in a cell, raised if needed so that arrays of
+   * length getMaxParticlesPerGridCell()*getVolume() can hold all particles.
+   *
+   * @return max particles per grid cell
+   */
+  @Override
+  public int getMaxParticlesPerGridCell()
+  {
+    final int lVolume = getVolume();
+    return Math.max(Math.max(mNominalMaxParticlesPerGridCell,
+                             mMaximalEffectiveNumberOfParticlesPerGridCell),
+                    (mNumberOfParticles + lVolume) / lVolume);
+  }
+
+  @Override
+  public float getMaximalCellOccupancy()
+  {
+    return (1.0f * getMaximalEffectiveNumberOfParticlesPerGridCell())
+           / mNominalMaxParticlesPerGridCell;
+  }
+
+  @Override
+  public int getMaximalEffectiveNumberOfParticlesPerGridCell()
+  {
+    return mMaximalEffectiveNumberOfParticlesPerGridCell;
+  }
+
+  @Override
+  public double getAverageCellOccupancy()
+  {
+    return getAverageNumberOfParticlesPerGridCell()
+           / mNominalMaxParticlesPerGridCell;
+  }
+
+  /**
+   * Returns the average number of particles per cell, over the cells of all
+   * levels.
+   *
+   * @return average number of particles per cell
+   */
+  @Override
+  public double getAverageNumberOfParticlesPerGridCell()
+  {
+    return ((double) mNumberOfParticles)
+           / mLevelCellOffsets[mNumberOfLevels];
+  }
+
+  @Override
+  public int getNumberOfDroppedEntries()
+  {
+    return 0;
+  }
+
+  /**
+   * Returns an upper bound for the number of ids written by a neighbor query,
+   * including the '-1' terminator. Since particles of any level can be found
+   * within the query radius, the bound is the number of particles.
+   *
+   * @param pRadius
+   *          query radius
+   * @return max number of neighbors
+   */
+  @Override
+  public int getMaxNumberOfNeighbors(float pRadius)
+  {
+    return mNumberOfParticles + 1;
+  }
+
+  /**
+   * Returns a '-1' terminated array of the ids of the particles stored in a
+   * given cell of the finest level, or in the cells containing it at coarser
+   * levels.
+   *
+   * @param pCellCoordinates
+   *          cell coordinates at the finest level
+   * @return array with ids
+   */
+  @Override
+  public int[] getCellContents(int... pCellCoordinates)
+  {
+    return getCellContents(new int[countCellContents(pCellCoordinates)
+                                   + 1],
+                           pCellCoordinates);
+  }
+
+  @Override
+  public int[] getCellContents(int[] pNeighboors,
+                               int... pCellCoordinates)
+  {
+    int lCounter = 0;
+    for (int l = 0; l < mNumberOfLevels; l++)
+    {
+      final int lCellIndex = getCellIndexAtLevel(l, pCellCoordinates);
+      for (int i = mCellOffsets[lCellIndex]; i < mCellOffsets[lCellIndex
+                                                              + 1]
+                                             && lCounter < pNeighboors.length; i++)
+        pNeighboors[lCounter++] = mCellEntries[i];
+    }
+    if (lCounter < pNeighboors.length)
+      pNeighboors[lCounter] = -1;
+    return pNeighboors;
+  }
+
+  @Override
+  public final int[] getCellContentsAt(final float... pTestPoint)
+  {
+    return getCellContents(getCellCoordinatesAtPoint(pTestPoint));
+  }
+
+  @Override
+  public final int[] getCellContentsAt(int[] pNeighboors,
+                                       final float... pTestPoint)
+  {
+    return getCellContents(pNeighboors,
+                           getCellCoordinatesAtPoint(pTestPoint));
+  }
+
+  @Override
+  public String getCellInfoAt(int... pCellCoordinates)
+  {
+    StringBuilder lStringBuilder = new StringBuilder();
+    lStringBuilder.append("Cell: " + Arrays.toString(pCellCoordinates)
+                          + ": ");
+
+    for (int l = 0; l < mNumberOfLevels; l++)
+    {
+      final int lCellIndex = getCellIndexAtLevel(l, pCellCoordinates);
+      for (int i = mCellOffsets[lCellIndex]; i < mCellOffsets[lCellIndex
+                                                              + 1]; i++)
+        lStringBuilder.append("" + mCellEntries[i] + ", ");
+    }
+
+    return lStringBuilder.toString();
+  }
+
+  @Override
+  public final int getAllNeighborsForParticle(int[] pNeighboors,
+                                              int[] pNeighboorsTemp,
+                                              float[] pPositions,
+                                              int pParticleId,
+                                              float pRadius)
+  {
+    final int lDimension = getDimension();
+
+    final float[] lCellCoord = new float[lDimension];
+    final int[] lCellCoordMin = new int[lDimension];
+    final int[] lCellCoordMax = new int[lDimension];
+    final int[] lCellCoordCurrent = new int[lDimension];
+
+    return getAllNeighborsForParticle(pNeighboors,
+                                      pNeighboorsTemp,
+                                      pPositions,
+                                      pParticleId,
+                                      pRadius,
+                                      lCellCoord,
+                                      lCellCoordMin,
+                                      lCellCoordMax,
+                                      lCellCoordCurrent);
+  }
+
+  /**
+   * Returns all particles whose sphere may touch the box of half-side pRadius
+   * around the given particle, the particle itself included. At each level,
+   * the cells visited are those that intersect this box enlarged by the
+   * largest radius of the particles stored at that level. Since each particle
+   * is stored once, no duplicate elimination is needed.
+   */
+  @Override
+  public final int getAllNeighborsForParticle(int[] pNeighboors,
+                                              int[] pNeighboorsTemp,
+                                              float[] pPositions,
+                                              int pParticleId,
+                                              float pRadius,
+                                              float[] pCellCoord,
+                                              int[] pCellCoordMin,
+                                              int[] pCellCoordMax,
+                                              int[] pCellCoordCurrent)
+  {
+    final int lDimension = mDimension;
+    final int[] lCellOffsets = mCellOffsets;
+    final int[] lCellEntries = mCellEntries;
+    final int lPositionIndex = pParticleId * lDimension;
+
+    int lNeighboorCounter = 0;
+
+    for (int l = 0; l < mNumberOfLevels; l++)
+    {
+      if (mLevelNumberOfParticles[l] == 0)
+        continue;
+
+      final int[] lLevelGridDimensions = mLevelGridDimensions[l];
+      final int[] lLevelStrides = mLevelStrides[l];
+      final int lLevelCellOffset = mLevelCellOffsets[l];
+      final float lReach = pRadius + mLevelMaxRadii[l];
+
+      for (int d = 0; d < lDimension; d++)
+      {
+        final float lPosition = pPositions[lPositionIndex + d];
+        pCellCoordMin[d] = getClampedCellCoordinate(lLevelGridDimensions,
+                                                    d,
+                                                    lPosition - lReach);
+        pCellCoordMax[d] = 1
+                           + getClampedCellCoordinate(lLevelGridDimensions,
+                                                      d,
+                                                      lPosition + lReach);
+        pCellCoordCurrent[d] = pCellCoordMin[d];
+      }
+
+      do
+      {
+        int lCellIndex = lLevelCellOffset;
+        for (int d = 0; d < lDimension; d++)
+          lCellIndex += lLevelStrides[d] * pCellCoordCurrent[d];
+
+        final int lBegin = lCellOffsets[lCellIndex];
+        final int lLength = lCellOffsets[lCellIndex + 1] - lBegin;
+        System.arraycopy(lCellEntries,
+                         lBegin,
+                         pNeighboors,
+                         lNeighboorCounter,
+                         lLength);
+        lNeighboorCounter += lLength;
+      }
+      while (VectorInc.increment(pCellCoordMin,
+                                 pCellCoordMax,
+                                 pCellCoordCurrent));
+    }
+
+    pNeighboors[lNeighboorCounter] = -1;
+    return lNeighboorCounter;
+  }
+
+  @Override
+  public final void clear()
+  {
+    Arrays.fill(mCellOffsets, 0);
+    Arrays.fill(mLevelMaxRadii, 0);
+    Arrays.fill(mLevelNumberOfParticles, 0);
+    mNumberOfParticles = 0;
+    mMaximalEffectiveNumberOfParticlesPerGridCell = 0;
+  }
+
+  @Override
+  public boolean isParallel()
+  {
+    return mParallel;
+  }
+
+  /**
+   * Multi-level grids are always updated sequentially, the flag is only kept
+   * for compatibility.
+   *
+   * @param pParallel
+   *          ignored
+   */
+  @Override
+  public void setParallel(boolean pParallel)
+  {
+    mParallel = pParallel;
+  }
+
+  @Override
+  public final void updateCells(float[] pPositions, float[] pRadii)
+  {
+    final int lDimension = getDimension();
+    update(pPositions, pRadii, pPositions.length / lDimension);
+  }
+
+  @Override
+  public final void update(float[] pPositions,
+                           float[] pRadii,
+                           int pNumberOfParticles)
+  {
+    clear();
+
+    if (mParticleCells.length < pNumberOfParticles)
+    {
+      mParticleCells = new int[pNumberOfParticles
+                               + pNumberOfParticles / 2];
+      mCellEntries = new int[mParticleCells.length];
+    }
+
+    final int[] lCellOffsets = mCellOffsets;
+    final int[] lParticleCells = mParticleCells;
+    final float[] lLevelMaxRadii = mLevelMaxRadii;
+    final int[] lLevelNumberOfParticles = mLevelNumberOfParticles;
+
+    // First pass: find the cell of each particle and count the number of
+    // particles per cell:
+    for (int id = 0; id < pNumberOfParticles; id++)
+    {
+      final float lRadius = pRadii[id];
+      final int lLevel = getLevelForRadius(lRadius);
+      final int lCellIndex = getCellIndexForParticle(lLevel,
+                                                     pPositions,
+                                                     id);
+      lParticleCells[id] = lCellIndex;
+      lCellOffsets[lCellIndex]++;
+      lLevelMaxRadii[lLevel] = Math.max(lLevelMaxRadii[lLevel], lRadius);
+      lLevelNumberOfParticles[lLevel]++;
+    }
+
+    // Inclusive prefix sum, offsets now point to the end of each cell:
+    final int lNumberOfCells = mLevelCellOffsets[mNumberOfLevels];
+    int lMax = 0;
+    int lSum = 0;
+    for (int c = 0; c < lNumberOfCells; c++)
+    {
+      final int lCount = lCellOffsets[c];
+      lMax = Math.max(lMax, lCount);
+      lSum += lCount;
+      lCellOffsets[c] = lSum;
+    }
+    lCellOffsets[lNumberOfCells] = lSum;
+    mMaximalEffectiveNumberOfParticlesPerGridCell = lMax;
+    mNumberOfParticles = pNumberOfParticles;
+
+    // Second pass: scatter ids, going backwards so that each cell ends up
+    // sorted in increasing order and offsets end up pointing to the beginning
+    // of each cell:
+    final int[] lCellEntries = mCellEntries;
+    for (int id = pNumberOfParticles - 1; id >= 0; id--)
+      lCellEntries[--lCellOffsets[lParticleCells[id]]] = id;
+  }
+
+  private int getCellIndexForParticle(int pLevel,
+                                      float[] pPositions,
+                                      int pParticleId)
+  {
+    final int lDimension = mDimension;
+    final int[] lLevelGridDimensions = mLevelGridDimensions[pLevel];
+    final int[] lLevelStrides = mLevelStrides[pLevel];
+
+    int lCellIndex = mLevelCellOffsets[pLevel];
+    for (int d = 0; d < lDimension; d++)
+      lCellIndex += lLevelStrides[d]
+                    * getClampedCellCoordinate(lLevelGridDimensions,
+                                               d,
+                                               pPositions[pParticleId
+                                                          * lDimension
+                                                          + d]);
+    return lCellIndex;
+  }
+
+  private int getCellIndexAtLevel(int pLevel, int[] pCellCoordinates)
+  {
+    final int[] lLevelGridDimensions = mLevelGridDimensions[pLevel];
+    final int[] lLevelStrides = mLevelStrides[pLevel];
+
+    int lCellIndex = mLevelCellOffsets[pLevel];
+    for (int d = 0; d < mDimension; d++)
+      lCellIndex += lLevelStrides[d]
+                    * Math.min(lLevelGridDimensions[d] - 1,
+                               pCellCoordinates[d]
+                                                        * lLevelGridDimensions[d]
+                                                        / mGridDimensions[d]);
+    return lCellIndex;
+  }
+
+  private int countCellContents(int[] pCellCoordinates)
+  {
+    int lCount = 0;
+    for (int l = 0; l < mNumberOfLevels; l++)
+    {
+      final int lCellIndex = getCellIndexAtLevel(l, pCellCoordinates);
+      lCount += mCellOffsets[lCellIndex + 1] - mCellOffsets[lCellIndex];
+    }
+    return lCount;
+  }
+
+  private int[] getCellCoordinatesAtPoint(float[] pPoint)
+  {
+    final int[] lCellCoordinates = new int[mDimension];
+    for (int d = 0; d < mDimension; d++)
+      lCellCoordinates[d] = getClampedCellCoordinate(mGridDimensions,
+                                                     d,
+                                                     pPoint[d]);
+    return lCellCoordinates;
+  }
+
+  private static final int getClampedCellCoordinate(int[] pGridDimensions,
+                                                    int pDimensionIndex,
+                                                    float pCoordinate)
+  {
+    // cEpsilon is to make sure that we never see the value pGridSize as
+    // coordinate...
+    final int lGridDimension = pGridDimensions[pDimensionIndex];
+    final int lCellCoordinate =
+                              (int) Math.floor(pCoordinate
+                                               * (1.0f * lGridDimension
+                                                  - cEpsilon));
+    return Math.max(0, Math.min(lGridDimension - 1, lCellCoordinate));
+  }
+
+}
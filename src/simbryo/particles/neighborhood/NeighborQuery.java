@@ -0,0 +1,230 @@
+package simbryo.particles.neighborhood;
+
+import java.util.function.IntConsumer;
+
+/**
+ * Neighbor query cursor. A neighbor query owns all the working arrays needed to
+ * enumerate the neighbors of a particle, and sizes its neighbor buffer for the
+ * query radius instead of for the whole grid. Once warmed up, queries do not
+ * allocate any memory. If a valid Verlet neighbor list is provided, neighbors
+ * are taken from that list instead of from the grid.
+ *
+ * Neighbor queries are not thread safe, each thread must use its own cursor.
+ *
+ * @author royer
+ */
+public class NeighborQuery
+{
+  private NeighborhoodGridInterface mNeighborhoodGrid;
+  private VerletNeighborList mVerletNeighborList;
+
+  private float[] mCellCoord;
+  private int[] mCellCoordMin, mCellCoordMax, mCellCoordCurrent;
+
+  private int[] mNeighbors = new int[64];
+  private int mNumberOfNeighbors;
+
+  /**
+   * Constructs a neighbor query for a given neighborhood grid.
+   *
+   * @param pNeighborhoodGrid
+   *          neighborhood grid
+   */
+  public NeighborQuery(NeighborhoodGridInterface pNeighborhoodGrid)
+  {
+    this(pNeighborhoodGrid, null);
+  }
+
+  /**
+   * Constructs a neighbor query for a given neighborhood grid and Verlet
+   * neighbor list.
+   *
+   * @param pNeighborhoodGrid
+   *          neighborhood grid
+   * @param pVerletNeighborList
+   *          valid Verlet neighbor list, or null to query the grid.
+   */
+  public NeighborQuery(NeighborhoodGridInterface pNeighborhoodGrid,
+                       VerletNeighborList pVerletNeighborList)
+  {
+    super();
+    reset(pNeighborhoodGrid, pVerletNeighborList);
+  }
+
+  /**
+   * Resets this cursor for a (possibly different) neighborhood grid and Verlet
+   * neighbor list. Working arrays are kept whenever possible.
+   *
+   * @param pNeighborhoodGrid
+   *          neighborhood grid
+   * @param pVerletNeighborList
+   *          valid Verlet neighbor list, or null to query the grid.
+   */
+  public void reset(NeighborhoodGridInterface pNeighborhoodGrid,
+                    VerletNeighborList pVerletNeighborList)
+  {
+    final int lDimension = pNeighborhoodGrid.getDimension();
+    if (mCellCoord == null || mCellCoord.length != lDimension)
+    {
+      mCellCoord = new float[lDimension];
+      mCellCoordMin = new int[lDimension];
+      mCellCoordMax = new int[lDimension];
+      mCellCoordCurrent = new int[lDimension];
+    }
+    mNeighborhoodGrid = pNeighborhoodGrid;
+    mVerletNeighborList = pVerletNeighborList;
+    mNumberOfNeighbors = 0;
+  }
+
+  /**
+   * Returns the neighborhood grid queried by this cursor.
+   *
+   * @return neighborhood grid
+   */
+  public NeighborhoodGridInterface getNeighborhoodGrid()
+  {
+    return mNeighborhoodGrid;
+  }
+
+  /**
+   * Returns the Verlet neighbor list used by this cursor, null if the grid is
+   * queried directly.
+   *
+   * @return Verlet neighbor list or null
+   */
+  public VerletNeighborList getVerletNeighborList()
+  {
+    return mVerletNeighborList;
+  }
+
+  /**
+   * Finds all neighbors of a given particle, itself included. The neighbors are
+   * available through getNeighbors() and getNumberOfNeighbors() until the next
+   * query. If a Verlet neighbor list is used and covers the query radius (see
+   * VerletNeighborList.getCoveredRadius), neighbors are taken from the list,
+   * otherwise the grid is queried.
+   *
+   * @param pPositions
+   *          array of particle positions
+   * @param pParticleId
+   *          particle id
+   * @param pRadius
+   *          radius
+   * @return number of neighbors
+   */
+  public int query(float[] pPositions, int pParticleId, float pRadius)
+  {
+    final VerletNeighborList lVerletNeighborList = mVerletNeighborList;
+    if (isCovered(lVerletNeighborList, pParticleId, pRadius))
+    {
+      ensureNeighborsCapacity(lVerletNeighborList.getNumberOfNeighbors(pParticleId));
+      mNumberOfNeighbors = lVerletNeighborList.getNeighbors(mNeighbors,
+                                                            pParticleId);
+    }
+    else
+    {
+      ensureNeighborsCapacity(getMaxNumberOfNeighbors(mNeighborhoodGrid,
+                                                      pRadius));
+      mNumberOfNeighbors =
+                         mNeighborhoodGrid.getAllNeighborsForParticle(mNeighbors,
+                                                                      mNeighbors,
+                                                                      pPositions,
+                                                                      pParticleId,
+                                                                      pRadius,
+                                                                      mCellCoord,
+                                                                      mCellCoordMin,
+                                                                      mCellCoordMax,
+                                                                      mCellCoordCurrent);
+    }
+    return mNumberOfNeighbors;
+  }
+
+  /**
+   * Calls a consumer for each neighbor of a given particle, itself included.
+   * Neighbors come from the Verlet neighbor list or from the grid as for
+   * query(...). To stay allocation free, callers should reuse the same consumer instance
+   * for all particles.
+   *
+   * @param pPositions
+   *          array of particle positions
+   * @param pParticleId
+   *          particle id
+   * @param pRadius
+   *          radius
+   * @param pConsumer
+   *          consumer called with the id of each neighbor
+   */
+  public void forEachNeighbor(float[] pPositions,
+                              int pParticleId,
+                              float pRadius,
+                              IntConsumer pConsumer)
+  {
+    final VerletNeighborList lVerletNeighborList = mVerletNeighborList;
+    if (isCovered(lVerletNeighborList, pParticleId, pRadius))
+    {
+      lVerletNeighborList.forEachNeighbor(pParticleId, pConsumer);
+      return;
+    }
+
+    final int lNumberOfNeighbors = query(pPositions,
+                                         pParticleId,
+                                         pRadius);
+    final int[] lNeighbors = mNeighbors;
+    for (int k = 0; k < lNumberOfNeighbors; k++)
+      pConsumer.accept(lNeighbors[k]);
+  }
+
+  private static boolean isCovered(VerletNeighborList pVerletNeighborList,
+                                   int pParticleId,
+                                   float pRadius)
+  {
+    // larger radii, for example dilated coupling radii, fall back to the grid:
+    return pVerletNeighborList != null
+           && pRadius <= pVerletNeighborList.getCoveredRadius(pParticleId);
+  }
+
+  /**
+   * Returns the neighbor buffer filled by the last query. Only the first
+   * getNumberOfNeighbors() entries are valid. The buffer may be reallocated by
+   * the next query.
+   *
+   * @return neighbor buffer
+   */
+  public int[] getNeighbors()
+  {
+    return mNeighbors;
+  }
+
+  /**
+   * Returns the number of neighbors found by the last query.
+   *
+   * @return number of neighbors
+   */
+  public int getNumberOfNeighbors()
+  {
+    return mNumberOfNeighbors;
+  }
+
+  /**
+   * Returns an upper bound for the number of ids written by a grid query of a
+   * given radius, including the '-1' terminator.
+   *
+   * @param pNeighborhoodGrid
+   *          neighborhood grid
+   * @param pRadius
+   *          query radius
+   * @return max number of neighbors
+   */
+  public static int getMaxNumberOfNeighbors(NeighborhoodGridInterface pNeighborhoodGrid,
+                                            float pRadius)
+  {
+    return pNeighborhoodGrid.getMaxNumberOfNeighbors(pRadius);
+  }
+
+  private void ensureNeighborsCapacity(int pLength)
+  {
+    if (mNeighbors.length < pLength)
+      mNeighbors = new int[Math.max(pLength, 2 * mNeighbors.length)];
+  }
+
+}
@@ -1,8 +1,10 @@
 package simbryo.particles.neighborhood;
 
-import java.io.Serializable;
 import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
+import simbryo.util.parallel.ParallelRange;
 import simbryo.util.vectorinc.VectorInc;
 
 /**
@@ -12,12 +14,15 @@ import simbryo.util.vectorinc.VectorInc;
  *
  * @author royer
  */
-public class NeighborhoodGrid implements Serializable
+public class NeighborhoodGrid implements NeighborhoodGridInterface
 {
   private static final long serialVersionUID = 1L;
 
   private final static float cEpsilon = 1e-6f;
 
+  private static final int cMinParticlesPerChunk = 1024;
+  private static final int cMinCellsPerChunk = 4096;
+
   private final int mDimension;
   private final int[] mGridDimensions;
   private final int mMaxParticlesPerGridCell;
@@ -26,6 +31,17 @@ public class NeighborhoodGrid implements Serializable
 
   private final int[] mNeighboorhoodArray;
 
+  private int mNumberOfDroppedEntries;
+
+  private volatile boolean mParallel = false;
+  private transient AtomicIntegerArray mCellCounters;
+  private transient boolean mCleared;
+
+  private volatile boolean mIncremental = false;
+  private transient int[] mParticleCellRanges;
+  private transient int mNumberOfTrackedParticles;
+  private transient boolean mTracking;
+
   /**
    * Constructs an instance given the maximal number of particles per cell and
    * the grid dimensions.
@@ -61,6 +77,7 @@ public class NeighborhoodGrid implements Serializable
    * 
    * @return maximal cell occupancy.
    */
+  @Override
   public float getMaximalCellOccupancy()
   {
     return (1.0f * getMaximalEffectiveNumberOfParticlesPerGridCell())
@@ -72,6 +89,7 @@ public class NeighborhoodGrid implements Serializable
    * 
    * @return max number of particles found in a cell.
    */
+  @Override
   public int getMaximalEffectiveNumberOfParticlesPerGridCell()
   {
     int lMax = 0;
@@ -94,6 +112,7 @@ public class NeighborhoodGrid implements Serializable
    * 
    * @return maximal cell occupancy.
    */
+  @Override
   public double getAverageCellOccupancy()
   {
     return getAverageNumberOfParticlesPerGridCell()
@@ -105,6 +124,7 @@ public class NeighborhoodGrid implements Serializable
    * 
    * @return max number of particles found in a cell.
    */
+  @Override
   public double getAverageNumberOfParticlesPerGridCell()
   {
     double lAverage = 0;
@@ -129,6 +149,7 @@ public class NeighborhoodGrid implements Serializable
    * 
    * @return dimension
    */
+  @Override
   public int getDimension()
   {
     return mDimension;
@@ -139,6 +160,7 @@ public class NeighborhoodGrid implements Serializable
    * 
    * @return grid size
    */
+  @Override
   public int[] getGridDimensions()
   {
     return mGridDimensions;
@@ -149,6 +171,7 @@ public class NeighborhoodGrid implements Serializable
    * 
    * @return max particles per grid cell
    */
+  @Override
   public int getMaxParticlesPerGridCell()
   {
     return mMaxParticlesPerGridCell;
@@ -159,6 +182,7 @@ public class NeighborhoodGrid implements Serializable
    * 
    * @return number of cells
    */
+  @Override
   public int getVolume()
   {
     int lVolume = 1;
@@ -184,6 +208,7 @@ public class NeighborhoodGrid implements Serializable
    *          cell coordinates
    * @return array with ids
    */
+  @Override
   public int[] getCellContents(int... pCellCoordinates)
   {
     return getCellContents(new int[getMaxParticlesPerGridCell()],
@@ -200,6 +225,7 @@ public class NeighborhoodGrid implements Serializable
    *          cell coordinates
    * @return the provided array filled with ids.
    */
+  @Override
   public int[] getCellContents(int[] pNeighboors,
                                int... pCellCoordinates)
   {
@@ -224,6 +250,7 @@ public class NeighborhoodGrid implements Serializable
    *          coordinates in particle space.
    * @return array of ids.
    */
+  @Override
   public final int[] getCellContentsAt(final float... pTestPoint)
   {
     return getCellContentsAt(new int[getMaxParticlesPerGridCell()],
@@ -239,6 +266,7 @@ public class NeighborhoodGrid implements Serializable
    *          coordinates in particle space.
    * @return array of ids.
    */
+  @Override
   public final int[] getCellContentsAt(int[] pNeighboors,
                                        final float... pTestPoint)
   {
@@ -264,6 +292,7 @@ public class NeighborhoodGrid implements Serializable
    *          cell's coordinates
    * @return string describing the contents of this cell.
    */
+  @Override
   public String getCellInfoAt(int... pCellCoordinates)
   {
 
@@ -301,6 +330,7 @@ public class NeighborhoodGrid implements Serializable
    *          radius
    * @return number of particle ids written in array.
    */
+  @Override
   public final int getAllNeighborsForParticle(int[] pNeighboors,
                                               int[] pNeighboorsTemp,
                                               float[] pPositions,
@@ -349,6 +379,7 @@ public class NeighborhoodGrid implements Serializable
    *          working array, length must be dimension
    * @return number of particle ids written in array.
    */
+  @Override
   public final int getAllNeighborsForParticle(int[] pNeighboors,
                                               int[] pNeighboorsTemp,
                                               float[] pPositions,
@@ -467,9 +498,60 @@ public class NeighborhoodGrid implements Serializable
   /**
    * Clears the ids for all cells
    */
+  @Override
   public final void clear()
   {
-    Arrays.fill(mNeighboorhoodArray, -1);
+    final int[] lNeighboorhoodArray = mNeighboorhoodArray;
+    final int lLength = lNeighboorhoodArray.length;
+    final ForkJoinPool lPool = mParallel ? ForkJoinPool.commonPool()
+                                         : null;
+    final int lNumberOfChunks =
+                              ParallelRange.getNumberOfChunks(lPool,
+                                                              lLength,
+                                                              cMinCellsPerChunk
+                                                                       * mMaxParticlesPerGridCell);
+    ParallelRange.forEach(lPool,
+                          0,
+                          lLength,
+                          lNumberOfChunks,
+                          (c, b, e) -> Arrays.fill(lNeighboorhoodArray,
+                                                   b,
+                                                   e,
+                                                   -1));
+    mNumberOfDroppedEntries = 0;
+    mCleared = true;
+    mTracking = false;
+  }
+
+  @Override
+  public boolean isParallel()
+  {
+    return mParallel;
+  }
+
+  @Override
+  public void setParallel(boolean pParallel)
+  {
+    mParallel = pParallel;
+  }
+
+  @Override
+  public boolean isIncrementalSupported()
+  {
+    return true;
+  }
+
+  @Override
+  public boolean isIncremental()
+  {
+    return mIncremental;
+  }
+
+  @Override
+  public void setIncremental(boolean pIncremental)
+  {
+    mIncremental = pIncremental;
+    mTracking = false;
   }
 
   /**
@@ -480,6 +562,7 @@ public class NeighborhoodGrid implements Serializable
    * @param pRadii
    *          particle radii
    */
+  @Override
   public final void updateCells(float[] pPositions, float[] pRadii)
   {
     final int lDimension = getDimension();
@@ -496,9 +579,452 @@ public class NeighborhoodGrid implements Serializable
    * @param pNumberOfParticles
    *          number of particles to consider in arrays.
    */
+  @Override
   public final void update(float[] pPositions,
                            float[] pRadii,
                            int pNumberOfParticles)
+  {
+    if (mIncremental)
+    {
+      updateIncremental(pPositions, pRadii, pNumberOfParticles);
+      return;
+    }
+    mTracking = false;
+    updateAll(pPositions, pRadii, pNumberOfParticles);
+  }
+
+  /**
+   * Adds all particles to the cells, sequentially or in parallel.
+   */
+  private void updateAll(float[] pPositions,
+                         float[] pRadii,
+                         int pNumberOfParticles)
+  {
+    if (mParallel)
+    {
+      ForkJoinPool lPool = ForkJoinPool.commonPool();
+      int lNumberOfChunks =
+                          ParallelRange.getNumberOfChunks(lPool,
+                                                          pNumberOfParticles,
+                                                          cMinParticlesPerChunk);
+      if (lNumberOfChunks > 1)
+      {
+        updateParallel(lPool,
+                       lNumberOfChunks,
+                       pPositions,
+                       pRadii,
+                       pNumberOfParticles);
+        return;
+      }
+    }
+
+    mCleared = false;
+    mNumberOfDroppedEntries += addParticlesToCells(null,
+                                                   pPositions,
+                                                   pRadii,
+                                                   0,
+                                                   pNumberOfParticles);
+  }
+
+  /**
+   * Updates the content of the cells incrementally. The range of cells touched
+   * by each particle is remembered, only particles whose range changed are
+   * removed from their old cells and inserted into their new cells. Particles
+   * are identified by their ids: a particle added, removed (the last particle
+   * moving into the freed slot) or cloned since the last update simply shows up
+   * as an id with a new range. Ids are kept sorted within each cell so that the
+   * cell contents are the same as after a full rebuild. If a full rebuild is
+   * needed (first update, grid cleared, or cells overflowed), it is done here.
+   */
+  private void updateIncremental(float[] pPositions,
+                                 float[] pRadii,
+                                 int pNumberOfParticles)
+  {
+    final int lDimension = mDimension;
+    final int lRangeLength = 2 * lDimension;
+
+    if (mParticleCellRanges == null)
+      mParticleCellRanges = new int[pNumberOfParticles * lRangeLength];
+    else if (mParticleCellRanges.length < pNumberOfParticles
+                                          * lRangeLength)
+      mParticleCellRanges = Arrays.copyOf(mParticleCellRanges,
+                                          Math.max(pNumberOfParticles
+                                                   * lRangeLength,
+                                                   2 * mParticleCellRanges.length));
+    final int[] lParticleCellRanges = mParticleCellRanges;
+
+    final float[] lCellCoord = new float[lDimension];
+    final int[] lCellCoordMin = new int[lDimension];
+    final int[] lCellCoordMax = new int[lDimension];
+    final int[] lCellCoordCurrent = new int[lDimension];
+
+    if (!mTracking)
+    {
+      clear();
+      updateAll(pPositions, pRadii, pNumberOfParticles);
+      for (int id = 0; id < pNumberOfParticles; id++)
+        getCellRangeForParticle(pPositions,
+                                pRadii,
+                                id,
+                                lCellCoord,
+                                lParticleCellRanges,
+                                id * lRangeLength);
+      mNumberOfTrackedParticles = pNumberOfParticles;
+      mTracking = mNumberOfDroppedEntries == 0;
+      return;
+    }
+
+    final int[] lNewRange = new int[lRangeLength];
+    final int lNumberOfTrackedParticles = mNumberOfTrackedParticles;
+    int lNumberOfDroppedEntries = 0;
+
+    for (int id = 0; id < pNumberOfParticles; id++)
+    {
+      final int lRangeIndex = id * lRangeLength;
+      getCellRangeForParticle(pPositions,
+                              pRadii,
+                              id,
+                              lCellCoord,
+                              lNewRange,
+                              0);
+
+      if (id < lNumberOfTrackedParticles)
+      {
+        boolean lSameRange = true;
+        for (int k = 0; k < lRangeLength; k++)
+          lSameRange &= lNewRange[k] == lParticleCellRanges[lRangeIndex
+                                                            + k];
+        if (lSameRange)
+          continue;
+
+        removeParticleFromCells(lParticleCellRanges,
+                                lRangeIndex,
+                                id,
+                                lCellCoordMin,
+                                lCellCoordMax,
+                                lCellCoordCurrent);
+      }
+
+      System.arraycopy(lNewRange,
+                       0,
+                       lParticleCellRanges,
+                       lRangeIndex,
+                       lRangeLength);
+      lNumberOfDroppedEntries += insertParticleIntoCells(lParticleCellRanges,
+                                                         lRangeIndex,
+                                                         id,
+                                                         lCellCoordMin,
+                                                         lCellCoordMax,
+                                                         lCellCoordCurrent);
+    }
+
+    for (int id = pNumberOfParticles; id < lNumberOfTrackedParticles; id++)
+      removeParticleFromCells(lParticleCellRanges,
+                              id * lRangeLength,
+                              id,
+                              lCellCoordMin,
+                              lCellCoordMax,
+                              lCellCoordCurrent);
+
+    mCleared = false;
+    mNumberOfDroppedEntries = lNumberOfDroppedEntries;
+    // cells that overflowed do not hold all their particles, removing
+    // particles later would not make room for them, so we rebuild next time:
+    mNumberOfTrackedParticles = pNumberOfParticles;
+    mTracking = lNumberOfDroppedEntries == 0;
+  }
+
+  /**
+   * Computes the range of cells touched by a particle, exactly as
+   * addParticleToCells(...) does, and stores the min (inclusive) and max
+   * (exclusive) cell coordinates in an array.
+   */
+  private void getCellRangeForParticle(float[] pPositions,
+                                       float[] pRadii,
+                                       int pParticleId,
+                                       float[] pCellCoord,
+                                       int[] pRanges,
+                                       int pRangeIndex)
+  {
+    final int lDimension = mDimension;
+    final int[] lGridDimensions = mGridDimensions;
+    final float lRadius = pRadii[pParticleId];
+
+    boolean lFullyContainedInCell = true;
+    for (int d = 0; d < lDimension; d++)
+    {
+      float lValue = getCellCoordForParticle(lDimension,
+                                             lGridDimensions,
+                                             pPositions,
+                                             pParticleId,
+                                             d);
+      pCellCoord[d] = lValue;
+
+      float lInCellCoord = (float) (lValue - Math.floor(lValue));
+      float lScaledRadius = lRadius * lGridDimensions[d];
+
+      lFullyContainedInCell &= (lInCellCoord - lScaledRadius >= 0)
+                               && (lInCellCoord + lScaledRadius <= 1);
+    }
+
+    for (int d = 0; d < lDimension; d++)
+    {
+      if (lFullyContainedInCell)
+      {
+        pRanges[pRangeIndex + d] = (int) pCellCoord[d];
+        pRanges[pRangeIndex + lDimension + d] = (int) pCellCoord[d] + 1;
+      }
+      else
+      {
+        float lInfluenceRadius = lRadius * lGridDimensions[d];
+        pRanges[pRangeIndex + d] =
+                                 (int) Math.max(0,
+                                                Math.min(lGridDimensions[d]
+                                                         - 1,
+                                                         (pCellCoord[d]
+                                                          - lInfluenceRadius)));
+        pRanges[pRangeIndex + lDimension
+                + d] = 1 + (int) Math.max(0,
+                                          Math.min(lGridDimensions[d] - 1,
+                                                   (pCellCoord[d]
+                                                    + lInfluenceRadius)));
+      }
+    }
+  }
+
+  /**
+   * Removes a particle from all cells of a given range, keeping the remaining
+   * ids of each cell in order.
+   */
+  private void removeParticleFromCells(int[] pRanges,
+                                       int pRangeIndex,
+                                       int pParticleId,
+                                       int[] pCellCoordMin,
+                                       int[] pCellCoordMax,
+                                       int[] pCellCoordCurrent)
+  {
+    final int lMaxParticlesPerGridCell = mMaxParticlesPerGridCell;
+    final int[] lNeighboorhoodArray = mNeighboorhoodArray;
+
+    initCellRangeEnumeration(pRanges,
+                             pRangeIndex,
+                             pCellCoordMin,
+                             pCellCoordMax,
+                             pCellCoordCurrent);
+    do
+    {
+      int lCellIndex = getCellIndex(mDimension,
+                                    mStride,
+                                    lMaxParticlesPerGridCell,
+                                    pCellCoordCurrent);
+      int k = 0;
+      while (k < lMaxParticlesPerGridCell
+             && lNeighboorhoodArray[lCellIndex + k] != pParticleId
+             && lNeighboorhoodArray[lCellIndex + k] != -1)
+        k++;
+
+      if (k < lMaxParticlesPerGridCell
+          && lNeighboorhoodArray[lCellIndex + k] == pParticleId)
+      {
+        System.arraycopy(lNeighboorhoodArray,
+                         lCellIndex + k + 1,
+                         lNeighboorhoodArray,
+                         lCellIndex + k,
+                         lMaxParticlesPerGridCell - k - 1);
+        lNeighboorhoodArray[lCellIndex + lMaxParticlesPerGridCell
+                            - 1] = -1;
+      }
+    }
+    while (VectorInc.increment(pCellCoordMin,
+                               pCellCoordMax,
+                               pCellCoordCurrent));
+  }
+
+  /**
+   * Inserts a particle into all cells of a given range, at its sorted position
+   * within each cell.
+   * 
+   * @return number of cells that were full and thus could not receive the
+   *         particle.
+   */
+  private int insertParticleIntoCells(int[] pRanges,
+                                      int pRangeIndex,
+                                      int pParticleId,
+                                      int[] pCellCoordMin,
+                                      int[] pCellCoordMax,
+                                      int[] pCellCoordCurrent)
+  {
+    final int lMaxParticlesPerGridCell = mMaxParticlesPerGridCell;
+    final int[] lNeighboorhoodArray = mNeighboorhoodArray;
+    int lNumberOfDroppedEntries = 0;
+
+    initCellRangeEnumeration(pRanges,
+                             pRangeIndex,
+                             pCellCoordMin,
+                             pCellCoordMax,
+                             pCellCoordCurrent);
+    do
+    {
+      int lCellIndex = getCellIndex(mDimension,
+                                    mStride,
+                                    lMaxParticlesPerGridCell,
+                                    pCellCoordCurrent);
+
+      int lCount = 0;
+      while (lCount < lMaxParticlesPerGridCell
+             && lNeighboorhoodArray[lCellIndex + lCount] != -1)
+        lCount++;
+
+      if (lCount == lMaxParticlesPerGridCell)
+      {
+        lNumberOfDroppedEntries++;
+        continue;
+      }
+
+      int k = lCount;
+      while (k > 0 && lNeighboorhoodArray[lCellIndex + k - 1] > pParticleId)
+      {
+        lNeighboorhoodArray[lCellIndex + k] =
+                                            lNeighboorhoodArray[lCellIndex
+                                                                + k - 1];
+        k--;
+      }
+      lNeighboorhoodArray[lCellIndex + k] = pParticleId;
+    }
+    while (VectorInc.increment(pCellCoordMin,
+                               pCellCoordMax,
+                               pCellCoordCurrent));
+
+    return lNumberOfDroppedEntries;
+  }
+
+  private void initCellRangeEnumeration(int[] pRanges,
+                                        int pRangeIndex,
+                                        int[] pCellCoordMin,
+                                        int[] pCellCoordMax,
+                                        int[] pCellCoordCurrent)
+  {
+    final int lDimension = mDimension;
+    for (int d = 0; d < lDimension; d++)
+    {
+      pCellCoordMin[d] = pRanges[pRangeIndex + d];
+      pCellCoordMax[d] = pRanges[pRangeIndex + lDimension + d];
+      pCellCoordCurrent[d] = pCellCoordMin[d];
+    }
+  }
+
+  /**
+   * Updates the content of the cells using several threads. Each cell has an
+   * atomic counter that hands out the insertion slots, the contents of each
+   * cell are sorted afterwards so that the result does not depend on thread
+   * scheduling and is the same as for a sequential update (unless a cell
+   * overflows, in which case the dropped ids may differ).
+   */
+  private void updateParallel(ForkJoinPool pPool,
+                              int pNumberOfChunks,
+                              float[] pPositions,
+                              float[] pRadii,
+                              int pNumberOfParticles)
+  {
+    final int lVolume = getVolume();
+    final int lMaxParticlesPerGridCell = mMaxParticlesPerGridCell;
+    final int[] lNeighboorhoodArray = mNeighboorhoodArray;
+    final int lNumberOfCellChunks =
+                                  ParallelRange.getNumberOfChunks(pPool,
+                                                                  lVolume,
+                                                                  cMinCellsPerChunk);
+
+    if (mCellCounters == null || mCellCounters.length() != lVolume)
+    {
+      mCellCounters = new AtomicIntegerArray(lVolume);
+      mCleared = false;
+    }
+    final AtomicIntegerArray lCellCounters = mCellCounters;
+
+    // Counters must reflect the current contents of the cells:
+    final boolean lCleared = mCleared;
+    ParallelRange.forEach(pPool,
+                          0,
+                          lVolume,
+                          lNumberOfCellChunks,
+                          (c, b, e) -> {
+                            for (int lCell = b; lCell < e; lCell++)
+                            {
+                              int k = 0;
+                              if (!lCleared)
+                              {
+                                int lCellIndex = lCell
+                                                 * lMaxParticlesPerGridCell;
+                                while (k < lMaxParticlesPerGridCell
+                                       && lNeighboorhoodArray[lCellIndex
+                                                              + k] != -1)
+                                  k++;
+                              }
+                              lCellCounters.set(lCell, k);
+                            }
+                          });
+    mCleared = false;
+
+    final int[] lNumberOfDroppedEntries = new int[pNumberOfChunks];
+    ParallelRange.forEach(pPool,
+                          0,
+                          pNumberOfParticles,
+                          pNumberOfChunks,
+                          (c, b, e) -> {
+                            lNumberOfDroppedEntries[c] =
+                                                       addParticlesToCells(lCellCounters,
+                                                                           pPositions,
+                                                                           pRadii,
+                                                                           b,
+                                                                           e);
+                          });
+
+    ParallelRange.forEach(pPool,
+                          0,
+                          lVolume,
+                          lNumberOfCellChunks,
+                          (c, b, e) -> {
+                            for (int lCell = b; lCell < e; lCell++)
+                            {
+                              int lCount =
+                                         Math.min(lCellCounters.get(lCell),
+                                                  lMaxParticlesPerGridCell);
+                              if (lCount > 1)
+                              {
+                                int lCellIndex = lCell
+                                                 * lMaxParticlesPerGridCell;
+                                Arrays.sort(lNeighboorhoodArray,
+                                            lCellIndex,
+                                            lCellIndex + lCount);
+                              }
+                            }
+                          });
+
+    for (int c = 0; c < pNumberOfChunks; c++)
+      mNumberOfDroppedEntries += lNumberOfDroppedEntries[c];
+  }
+
+  /**
+   * Adds a range of particles to the cells that they touch.
+   * 
+   * @param pCellCounters
+   *          atomic cell counters for concurrent insertion, or null for
+   *          sequential insertion.
+   * @param pPositions
+   *          positions array
+   * @param pRadii
+   *          radii array
+   * @param pBeginId
+   *          first particle id (inclusive)
+   * @param pEndId
+   *          last particle id (exclusive)
+   * @return number of dropped entries
+   */
+  private int addParticlesToCells(AtomicIntegerArray pCellCounters,
+                                  float[] pPositions,
+                                  float[] pRadii,
+                                  int pBeginId,
+                                  int pEndId)
   {
     final int lDimension = getDimension();
     final int[] lGridDimensions = mGridDimensions;
@@ -511,27 +1037,38 @@ public class NeighborhoodGrid implements Serializable
     final int[] lCellCoordMax = new int[lDimension];
     final int[] lCellCoordCurrent = new int[lDimension];
 
-    for (int id = 0; id < pNumberOfParticles; id++)
+    int lNumberOfDroppedEntries = 0;
+    for (int id = pBeginId; id < pEndId; id++)
     {
-      addParticleToCells(lNeighboorhoodArray,
-                         lDimension,
-                         lGridDimensions,
-                         lStride,
-                         lMaxParticlesPerGridCell,
-                         pPositions,
-                         pRadii,
-                         id,
-                         lCellCoord,
-                         lCellCoordMin,
-                         lCellCoordMax,
-                         lCellCoordCurrent);
+      lNumberOfDroppedEntries += addParticleToCells(lNeighboorhoodArray,
+                                                    pCellCounters,
+                                                    lDimension,
+                                                    lGridDimensions,
+                                                    lStride,
+                                                    lMaxParticlesPerGridCell,
+                                                    pPositions,
+                                                    pRadii,
+                                                    id,
+                                                    lCellCoord,
+                                                    lCellCoordMin,
+                                                    lCellCoordMax,
+                                                    lCellCoordCurrent);
     }
+    return lNumberOfDroppedEntries;
+  }
+
+  @Override
+  public int getNumberOfDroppedEntries()
+  {
+    return mNumberOfDroppedEntries;
   }
 
   /**
    * Adds a given particle to all cells that it touches.
    * 
    * @param pNeighboorhoodArray
+   * @param pCellCounters
+   *          atomic cell counters, or null for sequential insertion.
    * @param pDimension
    *          dimension
    * @param pGridDimensions
@@ -554,19 +1091,22 @@ public class NeighborhoodGrid implements Serializable
    *          working array, length must be dimension
    * @param pCellCoordCurrent
    *          working array, length must be dimension
+   * @return number of cells that were full and thus could not receive the
+   *         particle.
    */
-  private static final void addParticleToCells(int[] pNeighboorhoodArray,
-                                               int pDimension,
-                                               int[] pGridDimensions,
-                                               int[] pStride,
-                                               int pMaxParticlesPerGridCell,
-                                               float[] pPositions,
-                                               float[] pRadii,
-                                               int pParticleId,
-                                               float[] pCellCoord,
-                                               int[] pCellCoordMin,
-                                               int[] pCellCoordMax,
-                                               int[] pCellCoordCurrent)
+  private static final int addParticleToCells(int[] pNeighboorhoodArray,
+                                              AtomicIntegerArray pCellCounters,
+                                              int pDimension,
+                                              int[] pGridDimensions,
+                                              int[] pStride,
+                                              int pMaxParticlesPerGridCell,
+                                              float[] pPositions,
+                                              float[] pRadii,
+                                              int pParticleId,
+                                              float[] pCellCoord,
+                                              int[] pCellCoordMin,
+                                              int[] pCellCoordMax,
+                                              int[] pCellCoordCurrent)
   {
 
     final float lRadius = pRadii[pParticleId];
@@ -600,13 +1140,16 @@ public class NeighborhoodGrid implements Serializable
                                                         pStride,
                                                         pPositions,
                                                         pParticleId);
-      addParticleToCell(pNeighboorhoodArray,
-                        pMaxParticlesPerGridCell,
-                        lNeighboorListIndex,
-                        pParticleId);
+      int k = addParticleToCell(pNeighboorhoodArray,
+                                pCellCounters,
+                                pMaxParticlesPerGridCell,
+                                lNeighboorListIndex,
+                                pParticleId);
+      return k < pMaxParticlesPerGridCell ? 0 : 1;
     }
     else/**/
     {
+      int lNumberOfDroppedEntries = 0;
 
       initCellEnumeration(pDimension,
                           pGridDimensions,
@@ -622,15 +1165,20 @@ public class NeighborhoodGrid implements Serializable
                                                pStride,
                                                pMaxParticlesPerGridCell,
                                                pCellCoordCurrent);
-        addParticleToCell(pNeighboorhoodArray,
-                          pMaxParticlesPerGridCell,
-                          lNeighboorListIndex,
-                          pParticleId);
+        int k = addParticleToCell(pNeighboorhoodArray,
+                                  pCellCounters,
+                                  pMaxParticlesPerGridCell,
+                                  lNeighboorListIndex,
+                                  pParticleId);
+        if (k == pMaxParticlesPerGridCell)
+          lNumberOfDroppedEntries++;
 
       }
       while (VectorInc.increment(pCellCoordMin,
                                  pCellCoordMax,
                                  pCellCoordCurrent));
+
+      return lNumberOfDroppedEntries;
     }
   }
 
@@ -683,6 +1231,8 @@ public class NeighborhoodGrid implements Serializable
    * 
    * @param pNeighboorhoodArray
    *          neighborhood array
+   * @param pCellCounters
+   *          atomic cell counters, or null for sequential insertion.
    * @param pMaxParticlesPerGridCell
    *          max particles per cell
    * @param pCellIndex
@@ -692,10 +1242,21 @@ public class NeighborhoodGrid implements Serializable
    * @return new index
    */
   private static final int addParticleToCell(int[] pNeighboorhoodArray,
+                                             AtomicIntegerArray pCellCounters,
                                              int pMaxParticlesPerGridCell,
                                              int pCellIndex,
                                              int pParticleId)
   {
+    if (pCellCounters != null)
+    {
+      int k = pCellCounters.getAndIncrement(pCellIndex
+                                            / pMaxParticlesPerGridCell);
+      if (k >= pMaxParticlesPerGridCell)
+        return pMaxParticlesPerGridCell;
+      pNeighboorhoodArray[pCellIndex + k] = pParticleId;
+      return k;
+    }
+
     int k;
     for (k = 0; k < pMaxParticlesPerGridCell; k++)
       if (pNeighboorhoodArray[pCellIndex + k] == -1)
@@ -0,0 +1,307 @@
+package simbryo.particles.neighborhood;
+
+import java.io.Serializable;
+
+/**
+ * Neighborhood grids keep track of which particles touch which cells of a
+ * regular grid covering [0,1]^d. They are used to quickly enumerate the
+ * particles that are in the vicinity of a given particle.
+ *
+ * @author royer
+ */
+public interface NeighborhoodGridInterface extends Serializable
+{
+
+  /**
+   * Returns dimension of the grid.
+   *
+   * @return dimension
+   */
+  int getDimension();
+
+  /**
+   * Return grid size along each dimension
+   *
+   * @return grid size
+   */
+  int[] getGridDimensions();
+
+  /**
+   * Returns the 'volume' of the grid i.e. the number of cells.
+   *
+   * @return number of cells
+   */
+  int getVolume();
+
+  /**
+   * Returns the maximal number of particles per grid cell. Arrays of length
+   * getMaxParticlesPerGridCell()*getVolume() are guaranteed to be large enough
+   * to hold the result of any neighbor query.
+   *
+   * @return max particles per grid cell
+   */
+  int getMaxParticlesPerGridCell();
+
+  /**
+   * Returns maximal cell occupancy relative to the nominal number of particles
+   * per cell.
+   *
+   * @return maximal cell occupancy.
+   */
+  float getMaximalCellOccupancy();
+
+  /**
+   * Returns the maximal number of particles found in a cell.
+   *
+   * @return max number of particles found in a cell.
+   */
+  int getMaximalEffectiveNumberOfParticlesPerGridCell();
+
+  /**
+   * Returns average cell occupancy relative to the nominal number of particles
+   * per cell.
+   *
+   * @return average cell occupancy.
+   */
+  double getAverageCellOccupancy();
+
+  /**
+   * Returns the average number of particles found in a cell.
+   *
+   * @return average number of particles found in a cell.
+   */
+  double getAverageNumberOfParticlesPerGridCell();
+
+  /**
+   * Returns the number of particle-to-cell insertions that were dropped during
+   * the last update because a cell was full.
+   *
+   * @return number of dropped insertions, 0 if the grid never drops particles.
+   */
+  int getNumberOfDroppedEntries();
+
+  /**
+   * Returns an upper bound for the number of ids written by a neighbor query of
+   * a given radius, including the '-1' terminator. The default bound counts the
+   * cells spanned by the query times the max number of particles per cell.
+   *
+   * @param pRadius
+   *          query radius
+   * @return max number of neighbors
+   */
+  default int getMaxNumberOfNeighbors(float pRadius)
+  {
+    final int[] lGridDimensions = getGridDimensions();
+
+    long lNumberOfCells = 1;
+    for (int d = 0; d < lGridDimensions.length; d++)
+    {
+      final int lGridDimension = lGridDimensions[d];
+      final int lSpan =
+                      (int) Math.min(lGridDimension,
+                                     Math.ceil(2 * pRadius
+                                               * lGridDimension)
+                                                     + 1);
+      lNumberOfCells *= lSpan;
+    }
+
+    return (int) Math.min(Integer.MAX_VALUE - 8,
+                          lNumberOfCells * getMaxParticlesPerGridCell()
+                                             + 1);
+  }
+
+  /**
+   * Returns a '-1' terminated array of particle ids for a given cell.
+   *
+   * @param pCellCoordinates
+   *          cell coordinates
+   * @return array with ids
+   */
+  int[] getCellContents(int... pCellCoordinates);
+
+  /**
+   * Returns a '-1' terminated array of particle ids for a given cell. An array
+   * has to be provided to store the ids.
+   *
+   * @param pNeighboors
+   *          allocated array for storing the particle ids.
+   * @param pCellCoordinates
+   *          cell coordinates
+   * @return the provided array filled with ids.
+   */
+  int[] getCellContents(int[] pNeighboors, int... pCellCoordinates);
+
+  /**
+   * Returns a '-1' terminated array of particle ids for the cell containing a
+   * given point.
+   *
+   * @param pTestPoint
+   *          coordinates in particle space.
+   * @return array of ids.
+   */
+  int[] getCellContentsAt(float... pTestPoint);
+
+  /**
+   * Returns a '-1' terminated array of particle ids for the cell containing a
+   * given point. An array has to be provided to store the ids.
+   *
+   * @param pNeighboors
+   *          preallocated array for storing ids.
+   * @param pTestPoint
+   *          coordinates in particle space.
+   * @return array of ids.
+   */
+  int[] getCellContentsAt(int[] pNeighboors, float... pTestPoint);
+
+  /**
+   * Returns a string describing the contents of this cell.
+   *
+   * @param pCellCoordinates
+   *          cell's coordinates
+   * @return string describing the contents of this cell.
+   */
+  String getCellInfoAt(int... pCellCoordinates);
+
+  /**
+   * Returns all neighbors for a given particle and radius. This method
+   * allocates working arrays at each call, use a NeighborQuery cursor in
+   * performance sensitive loops.
+   *
+   * @param pNeighboors
+   *          array in which to store the list of ids.
+   * @param pNeighboorsTemp
+   *          working array of same length as pNeighboors.
+   * @param pPositions
+   *          array of particle positions
+   * @param pParticleId
+   *          particle id
+   * @param pRadius
+   *          radius
+   * @return number of particle ids written in array.
+   */
+  int getAllNeighborsForParticle(int[] pNeighboors,
+                                 int[] pNeighboorsTemp,
+                                 float[] pPositions,
+                                 int pParticleId,
+                                 float pRadius);
+
+  /**
+   * Returns all neighbors for a given particle and radius. This method
+   * delegates the allocation of working arrays to the caller.
+   *
+   * @param pNeighboors
+   *          array in which to store the list of ids.
+   * @param pNeighboorsTemp
+   *          working array of the same size as pNeighboors, used internally.
+   * @param pPositions
+   *          array of particle positions
+   * @param pParticleId
+   *          particle id
+   * @param pRadius
+   *          radius
+   * @param pCellCoord
+   *          working array, length must be dimension
+   * @param pCellCoordMin
+   *          working array, length must be dimension
+   * @param pCellCoordMax
+   *          working array, length must be dimension
+   * @param pCellCoordCurrent
+   *          working array, length must be dimension
+   * @return number of particle ids written in array.
+   */
+  int getAllNeighborsForParticle(int[] pNeighboors,
+                                 int[] pNeighboorsTemp,
+                                 float[] pPositions,
+                                 int pParticleId,
+                                 float pRadius,
+                                 float[] pCellCoord,
+                                 int[] pCellCoordMin,
+                                 int[] pCellCoordMax,
+                                 int[] pCellCoordCurrent);
+
+  /**
+   * Returns true if the grid is updated using several threads.
+   *
+   * @return true if parallel
+   */
+  boolean isParallel();
+
+  /**
+   * Sets whether the grid should be updated using several threads of the
+   * common fork-join pool. Parallel updates produce the same cell contents as
+   * sequential updates. Small particle systems are still updated sequentially.
+   *
+   * @param pParallel
+   *          true for parallel updates
+   */
+  void setParallel(boolean pParallel);
+
+  /**
+   * Returns true if the grid supports incremental updates.
+   *
+   * @return true if incremental updates are supported
+   */
+  default boolean isIncrementalSupported()
+  {
+    return false;
+  }
+
+  /**
+   * Returns true if the grid is updated incrementally.
+   *
+   * @return true if incremental
+   */
+  default boolean isIncremental()
+  {
+    return false;
+  }
+
+  /**
+   * Sets whether the grid should be updated incrementally. An incremental grid
+   * remembers the cells that each particle was inserted into, and an update
+   * only moves the particles whose cells changed. Incremental grids must not be
+   * cleared before each update, clearing forces a full rebuild at the next
+   * update. Grids that do not support incremental updates (see
+   * isIncrementalSupported) throw an UnsupportedOperationException, use
+   * ParticleSystem.setIncrementalNeighborhoodGrid to switch grids as needed.
+   *
+   * @param pIncremental
+   *          true for incremental updates
+   */
+  default void setIncremental(boolean pIncremental)
+  {
+    if (pIncremental)
+      throw new UnsupportedOperationException(getClass().getSimpleName()
+                                              + " does not support incremental updates");
+  }
+
+  /**
+   * Clears the ids for all cells
+   */
+  void clear();
+
+  /**
+   * Updates the content of the cells.
+   *
+   * @param pPositions
+   *          particle position array
+   * @param pRadii
+   *          particle radii
+   */
+  void updateCells(float[] pPositions, float[] pRadii);
+
+  /**
+   * Updates the content of the cells.
+   *
+   * @param pPositions
+   *          particle position array
+   * @param pRadii
+   *          particle radii
+   * @param pNumberOfParticles
+   *          number of particles to consider in arrays.
+   */
+  void update(float[] pPositions,
+              float[] pRadii,
+              int pNumberOfParticles);
+
+}
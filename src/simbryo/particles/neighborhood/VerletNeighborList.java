@@ -0,0 +1,378 @@
+package simbryo.particles.neighborhood;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Verlet neighbor list: for each particle, the list of all particles (itself
+ * included) whose distance is below a cutoff distance plus a 'skin' distance.
+ * For two particles u and v of radii ru and rv the cutoff distance is
+ * cutoff-factor*(ru+rv). Thanks to the skin, the list stays valid for several
+ * time steps and only needs to be rebuilt once some particle has moved (or
+ * grown) by more than half the skin distance. Lists are stored in a compressed
+ * sparse row layout, and ids in each list are sorted in increasing order.
+ *
+ * @author royer
+ */
+public class VerletNeighborList implements Serializable
+{
+  private static final long serialVersionUID = 1L;
+
+  private final float mCutoffFactor;
+  private final float mSkin;
+
+  private int mDimension;
+  private int mNumberOfParticles = -1;
+  private int[] mOffsets = new int[1];
+  private int[] mNeighbors = new int[16];
+  private float[] mReferencePositions = new float[0];
+  private float[] mReferenceRadii = new float[0];
+
+  private transient NeighborQuery mNeighborQuery;
+  private long mNumberOfRebuilds;
+
+  /**
+   * Constructs a Verlet neighbor list for a given cutoff factor and skin
+   * distance.
+   *
+   * @param pCutoffFactor
+   *          cutoff factor, two particles interact if their distance is below
+   *          cutoff-factor*(ru+rv). Must be at least 1.
+   * @param pSkin
+   *          skin distance in normalized particle coordinates.
+   */
+  public VerletNeighborList(float pCutoffFactor, float pSkin)
+  {
+    super();
+    if (pCutoffFactor < 1)
+      throw new IllegalArgumentException("Cutoff factor must be at least 1");
+    if (pSkin < 0)
+      throw new IllegalArgumentException("Skin must be positive");
+    mCutoffFactor = pCutoffFactor;
+    mSkin = pSkin;
+  }
+
+  /**
+   * Returns the cutoff factor.
+   *
+   * @return cutoff factor
+   */
+  public float getCutoffFactor()
+  {
+    return mCutoffFactor;
+  }
+
+  /**
+   * Returns the skin distance.
+   *
+   * @return skin distance
+   */
+  public float getSkin()
+  {
+    return mSkin;
+  }
+
+  /**
+   * Returns the number of particles for which lists were built.
+   *
+   * @return number of particles, -1 if the list has not been built yet or has
+   *         been invalidated.
+   */
+  public int getNumberOfParticles()
+  {
+    return mNumberOfParticles;
+  }
+
+  /**
+   * Returns the number of times the lists have been rebuilt.
+   *
+   * @return number of rebuilds
+   */
+  public long getNumberOfRebuilds()
+  {
+    return mNumberOfRebuilds;
+  }
+
+  /**
+   * Returns the total number of entries in the lists, i.e. the sum of the
+   * number of neighbors over all particles.
+   *
+   * @return number of entries, 0 if the list has not been built yet or has
+   *         been invalidated.
+   */
+  public long getNumberOfEntries()
+  {
+    return mNumberOfParticles < 0 ? 0 : mOffsets[mNumberOfParticles];
+  }
+
+  /**
+   * Returns true if this list can be used for a particle system with a given
+   * number of particles.
+   *
+   * @param pNumberOfParticles
+   *          current number of particles
+   * @return true if valid
+   */
+  public boolean isValidFor(int pNumberOfParticles)
+  {
+    return mNumberOfParticles == pNumberOfParticles;
+  }
+
+  /**
+   * Invalidates the list, forcing a rebuild on the next update. This must be
+   * called whenever particle ids are changed.
+   */
+  public void invalidate()
+  {
+    mNumberOfParticles = -1;
+  }
+
+  /**
+   * Returns the largest query radius around a given particle that the lists
+   * cover: all particles that a grid query of that radius could return as
+   * interaction partners are in the particle's list. This is cutoff-factor
+   * times the radius of the particle at the last rebuild.
+   *
+   * @param pParticleId
+   *          particle id
+   * @return covered query radius
+   */
+  public float getCoveredRadius(int pParticleId)
+  {
+    return mCutoffFactor * mReferenceRadii[pParticleId];
+  }
+
+  /**
+   * Returns the number of neighbors of a given particle, itself included.
+   *
+   * @param pParticleId
+   *          particle id
+   * @return number of neighbors
+   */
+  public int getNumberOfNeighbors(int pParticleId)
+  {
+    return mOffsets[pParticleId + 1] - mOffsets[pParticleId];
+  }
+
+  /**
+   * Copies the neighbors of a given particle, itself included, into a given
+   * array.
+   *
+   * @param pNeighboors
+   *          array in which to store the list of ids.
+   * @param pParticleId
+   *          particle id
+   * @return number of particle ids written in array.
+   */
+  public int getNeighbors(int[] pNeighboors, int pParticleId)
+  {
+    final int lBegin = mOffsets[pParticleId];
+    final int lLength = mOffsets[pParticleId + 1] - lBegin;
+    System.arraycopy(mNeighbors, lBegin, pNeighboors, 0, lLength);
+    return lLength;
+  }
+
+  /**
+   * Calls a consumer for each neighbor of a given particle, itself included.
+   *
+   * @param pParticleId
+   *          particle id
+   * @param pConsumer
+   *          consumer called with the id of each neighbor
+   */
+  public void forEachNeighbor(int pParticleId, IntConsumer pConsumer)
+  {
+    final int[] lNeighbors = mNeighbors;
+    final int lEnd = mOffsets[pParticleId + 1];
+    for (int k = mOffsets[pParticleId]; k < lEnd; k++)
+      pConsumer.accept(lNeighbors[k]);
+  }
+
+  /**
+   * Rebuilds the lists if needed, that is if the list was invalidated, if the
+   * number of particles changed, or if some particle has moved or grown too
+   * much since the last rebuild. The neighborhood grid must be up-to-date.
+   *
+   * @param pNeighborhoodGrid
+   *          up-to-date neighborhood grid
+   * @param pPositions
+   *          positions array
+   * @param pRadii
+   *          radii array
+   * @param pNumberOfParticles
+   *          number of particles
+   * @return true if the lists were rebuilt
+   */
+  public boolean update(NeighborhoodGridInterface pNeighborhoodGrid,
+                        float[] pPositions,
+                        float[] pRadii,
+                        int pNumberOfParticles)
+  {
+    if (!isRebuildNeeded(pNeighborhoodGrid.getDimension(),
+                         pPositions,
+                         pRadii,
+                         pNumberOfParticles))
+      return false;
+
+    rebuild(pNeighborhoodGrid, pPositions, pRadii, pNumberOfParticles);
+    return true;
+  }
+
+  /**
+   * Returns true if the lists need to be rebuilt. Particles that were not in
+   * each other's list at the last rebuild were further apart than
+   * cutoff-factor*(ru+rv)+skin, they can only come within the cutoff distance
+   * if the displacement plus cutoff-factor times the radius increase summed
+   * over both particles exceeds the skin.
+   *
+   * @param pDimension
+   *          dimension
+   * @param pPositions
+   *          positions array
+   * @param pRadii
+   *          radii array
+   * @param pNumberOfParticles
+   *          number of particles
+   * @return true if rebuild needed
+   */
+  public boolean isRebuildNeeded(int pDimension,
+                                 float[] pPositions,
+                                 float[] pRadii,
+                                 int pNumberOfParticles)
+  {
+    if (mNumberOfParticles != pNumberOfParticles
+        || mDimension != pDimension)
+      return true;
+
+    final float[] lReferencePositions = mReferencePositions;
+    final float[] lReferenceRadii = mReferenceRadii;
+    final float lCutoffFactor = mCutoffFactor;
+    final float lHalfSkin = 0.5f * mSkin;
+
+    for (int id = 0, i = 0; id < pNumberOfParticles; id++, i +=
+                                                             pDimension)
+    {
+      float lSquaredDisplacement = 0;
+      for (int d = 0; d < pDimension; d++)
+      {
+        final float lDelta = pPositions[i + d]
+                             - lReferencePositions[i + d];
+        lSquaredDisplacement += lDelta * lDelta;
+      }
+
+      final float lGrowth = Math.max(0,
+                                     pRadii[id] - lReferenceRadii[id]);
+
+      final float lMargin = (float) Math.sqrt(lSquaredDisplacement)
+                            + lCutoffFactor * lGrowth;
+      if (lMargin > lHalfSkin)
+        return true;
+    }
+
+    return false;
+  }
+
+  /**
+   * Rebuilds the lists unconditionally. The neighborhood grid must be
+   * up-to-date.
+   *
+   * @param pNeighborhoodGrid
+   *          up-to-date neighborhood grid
+   * @param pPositions
+   *          positions array
+   * @param pRadii
+   *          radii array
+   * @param pNumberOfParticles
+   *          number of particles
+   */
+  public void rebuild(NeighborhoodGridInterface pNeighborhoodGrid,
+                      float[] pPositions,
+                      float[] pRadii,
+                      int pNumberOfParticles)
+  {
+    final int lDimension = pNeighborhoodGrid.getDimension();
+    final float lCutoffFactor = mCutoffFactor;
+    final float lSkin = mSkin;
+
+    float lMaxRadius = 0;
+    for (int id = 0; id < pNumberOfParticles; id++)
+      lMaxRadius = Math.max(lMaxRadius, pRadii[id]);
+
+    if (mNeighborQuery == null)
+      mNeighborQuery = new NeighborQuery(pNeighborhoodGrid);
+    else
+      mNeighborQuery.reset(pNeighborhoodGrid, null);
+    final NeighborQuery lNeighborQuery = mNeighborQuery;
+
+    if (mOffsets.length < pNumberOfParticles + 1)
+      mOffsets = new int[pNumberOfParticles + 1 + pNumberOfParticles / 2];
+    final int[] lOffsets = mOffsets;
+    int[] lNeighbors = mNeighbors;
+    int lCounter = 0;
+
+    for (int idu = 0, i = 0; idu < pNumberOfParticles; idu++, i +=
+                                                              lDimension)
+    {
+      final float ru = pRadii[idu];
+      lOffsets[idu] = lCounter;
+
+      // Any particle v within cutoff-factor*(ru+rv)+skin is found by a grid
+      // query of radius cutoff-factor*ru + (cutoff-factor-1)*rv + skin since
+      // the grid registers each particle in all cells touched by its radius:
+      final float lQueryRadius = lCutoffFactor * ru
+                                 + (lCutoffFactor - 1) * lMaxRadius
+                                 + lSkin;
+
+      final int lNumberOfCandidates = lNeighborQuery.query(pPositions,
+                                                           idu,
+                                                           lQueryRadius);
+      final int[] lQueryArray = lNeighborQuery.getNeighbors();
+
+      if (lNeighbors.length < lCounter + lNumberOfCandidates)
+        lNeighbors = Arrays.copyOf(lNeighbors,
+                                   2 * (lCounter + lNumberOfCandidates));
+
+      for (int k = 0; k < lNumberOfCandidates; k++)
+      {
+        final int idv = lQueryArray[k];
+        final int j = idv * lDimension;
+
+        final float lCutoff = lCutoffFactor * (ru + pRadii[idv])
+                              + lSkin;
+
+        float lSquaredDistance = 0;
+        for (int d = 0; d < lDimension; d++)
+        {
+          final float lDelta = pPositions[i + d] - pPositions[j + d];
+          lSquaredDistance += lDelta * lDelta;
+        }
+
+        if (lSquaredDistance < lCutoff * lCutoff)
+          lNeighbors[lCounter++] = idv;
+      }
+
+      Arrays.sort(lNeighbors, lOffsets[idu], lCounter);
+    }
+    lOffsets[pNumberOfParticles] = lCounter;
+    mNeighbors = lNeighbors;
+
+    final int lPositionsLength = pNumberOfParticles * lDimension;
+    if (mReferencePositions.length < lPositionsLength)
+      mReferencePositions = new float[pPositions.length];
+    System.arraycopy(pPositions,
+                     0,
+                     mReferencePositions,
+                     0,
+                     lPositionsLength);
+
+    if (mReferenceRadii.length < pNumberOfParticles)
+      mReferenceRadii = new float[pRadii.length];
+    System.arraycopy(pRadii, 0, mReferenceRadii, 0, pNumberOfParticles);
+
+    mDimension = lDimension;
+    mNumberOfParticles = pNumberOfParticles;
+    mNumberOfRebuilds++;
+  }
+
+}
@@ -1,11 +1,20 @@
 package simbryo.particles.neighborhood.test;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import java.util.Arrays;
+import java.util.Random;
 
 import org.junit.Test;
+import simbryo.particles.neighborhood.CompactNeighborhoodGrid;
+import simbryo.particles.neighborhood.MultiLevelNeighborhoodGrid;
+import simbryo.particles.neighborhood.NeighborQuery;
 import simbryo.particles.neighborhood.NeighborhoodGrid;
+import simbryo.particles.neighborhood.NeighborhoodGridInterface;
+import simbryo.particles.neighborhood.VerletNeighborList;
 
 /**
  * Neighborhood data structure tests
@@ -161,4 +170,526 @@ public class NeighborhoodTests
 
   }
 
+  /**
+   * Tests that the compact (CSR) grid has the same cell contents and answers
+   * the same queries as the dense grid.
+   */
+  @Test
+  public void testCompactMatchesDense()
+  {
+    int lNumberOfParticles = 500;
+    Random lRandom = new Random(42);
+
+    float[] lPositions = new float[2 * lNumberOfParticles];
+    float[] lRadii = new float[lNumberOfParticles];
+    for (int i = 0; i < lPositions.length; i++)
+      lPositions[i] = lRandom.nextFloat();
+    for (int i = 0; i < lNumberOfParticles; i++)
+      lRadii[i] = 0.01f + 0.05f * lRandom.nextFloat();
+
+    NeighborhoodGrid lDense = new NeighborhoodGrid(256, 8, 8);
+    CompactNeighborhoodGrid lCompact = new CompactNeighborhoodGrid(16,
+                                                                   8,
+                                                                   8);
+
+    // the compact grid is updated twice to check that updates replace:
+    for (int r = 0; r < 2; r++)
+    {
+      lDense.clear();
+      lDense.updateCells(lPositions, lRadii);
+      lCompact.updateCells(lPositions, lRadii);
+    }
+
+    assertEquals(0, lDense.getNumberOfDroppedEntries());
+    assertEquals(lDense.getMaximalEffectiveNumberOfParticlesPerGridCell(),
+                 lCompact.getMaximalEffectiveNumberOfParticlesPerGridCell());
+    assertEquals(lDense.getAverageNumberOfParticlesPerGridCell(),
+                 lCompact.getAverageNumberOfParticlesPerGridCell(),
+                 1e-9);
+
+    for (int i = 0; i < 8; i++)
+      for (int j = 0; j < 8; j++)
+      {
+        int[] lDenseContents = lDense.getCellContents(i, j);
+        int[] lCompactContents = lCompact.getCellContents(i, j);
+        int lLength = lCompactContents.length - 1;
+        assertEquals(-1, lCompactContents[lLength]);
+        assertEquals(-1, lDenseContents[lLength]);
+        assertArrayEquals(Arrays.copyOf(lDenseContents, lLength),
+                          Arrays.copyOf(lCompactContents, lLength));
+      }
+
+    int lLength = lCompact.getMaxParticlesPerGridCell()
+                  * lCompact.getVolume();
+    int[] lDenseNeighboors = new int[lLength];
+    int[] lCompactNeighboors = new int[lLength];
+    int[] lTemp = new int[lLength];
+
+    for (int id = 0; id < lNumberOfParticles; id++)
+    {
+      float lRadius = 2 * lRadii[id];
+      int lDenseCount = lDense.getAllNeighborsForParticle(lDenseNeighboors,
+                                                          lTemp,
+                                                          lPositions,
+                                                          id,
+                                                          lRadius);
+      int lCompactCount =
+                        lCompact.getAllNeighborsForParticle(lCompactNeighboors,
+                                                            lTemp,
+                                                            lPositions,
+                                                            id,
+                                                            lRadius);
+      assertEquals(lDenseCount, lCompactCount);
+      assertArrayEquals(Arrays.copyOf(lDenseNeighboors, lDenseCount),
+                        Arrays.copyOf(lCompactNeighboors,
+                                      lCompactCount));
+    }
+  }
+
+  /**
+   * Tests that the compact grid does not drop particles from crowded cells,
+   * whereas the dense grid does and reports it.
+   */
+  @Test
+  public void testCompactOverflow()
+  {
+    int lNumberOfParticles = 50;
+    float[] lPositions = new float[2 * lNumberOfParticles];
+    float[] lRadii = new float[lNumberOfParticles];
+    for (int i = 0; i < lNumberOfParticles; i++)
+    {
+      lPositions[2 * i] = 0.1f + 0.001f * i;
+      lPositions[2 * i + 1] = 0.1f;
+    }
+
+    NeighborhoodGrid lDense = new NeighborhoodGrid(10, 4, 4);
+    lDense.clear();
+    lDense.updateCells(lPositions, lRadii);
+    assertEquals(lNumberOfParticles - 10,
+                 lDense.getNumberOfDroppedEntries());
+
+    CompactNeighborhoodGrid lCompact = new CompactNeighborhoodGrid(10,
+                                                                   4,
+                                                                   4);
+    lCompact.updateCells(lPositions, lRadii);
+    assertEquals(0, lCompact.getNumberOfDroppedEntries());
+    assertEquals(lNumberOfParticles,
+                 lCompact.getMaximalEffectiveNumberOfParticlesPerGridCell());
+    assertTrue(lCompact.getMaximalCellOccupancy() > 1);
+
+    int[] lContents = lCompact.getCellContents(0, 0);
+    assertEquals(lNumberOfParticles + 1, lContents.length);
+    for (int i = 0; i < lNumberOfParticles; i++)
+      assertEquals(i, lContents[i]);
+  }
+
+  /**
+   * Tests that Verlet neighbor lists contain all particles within the cutoff
+   * distance, and are only rebuilt when particles moved more than half the
+   * skin.
+   */
+  @Test
+  public void testVerletNeighborList()
+  {
+    int lNumberOfParticles = 300;
+    Random lRandom = new Random(1);
+
+    float[] lPositions = new float[2 * lNumberOfParticles];
+    float[] lRadii = new float[lNumberOfParticles];
+    for (int i = 0; i < lPositions.length; i++)
+      lPositions[i] = lRandom.nextFloat();
+    for (int i = 0; i < lNumberOfParticles; i++)
+      lRadii[i] = 0.005f + 0.02f * lRandom.nextFloat();
+
+    CompactNeighborhoodGrid lGrid = new CompactNeighborhoodGrid(16, 8, 8);
+    lGrid.updateCells(lPositions, lRadii);
+
+    float lCutoffFactor = 1.5f;
+    float lSkin = 0.01f;
+    VerletNeighborList lVerletNeighborList =
+                                           new VerletNeighborList(lCutoffFactor,
+                                                                  lSkin);
+    assertFalse(lVerletNeighborList.isValidFor(lNumberOfParticles));
+    assertTrue(lVerletNeighborList.update(lGrid,
+                                          lPositions,
+                                          lRadii,
+                                          lNumberOfParticles));
+    assertTrue(lVerletNeighborList.isValidFor(lNumberOfParticles));
+
+    int[] lNeighboors = new int[lNumberOfParticles];
+    for (int u = 0; u < lNumberOfParticles; u++)
+    {
+      int lNumberOfNeighboors =
+                              lVerletNeighborList.getNeighbors(lNeighboors,
+                                                               u);
+      int[] lList = Arrays.copyOf(lNeighboors, lNumberOfNeighboors);
+      assertTrue(Arrays.binarySearch(lList, u) >= 0);
+
+      for (int v = 0; v < lNumberOfParticles; v++)
+      {
+        double lDistance = Math.hypot(lPositions[2 * u]
+                                      - lPositions[2 * v],
+                                      lPositions[2 * u + 1]
+                                                         - lPositions[2 * v
+                                                                      + 1]);
+        double lCutoff = lCutoffFactor * (lRadii[u] + lRadii[v]);
+        boolean lInList = Arrays.binarySearch(lList, v) >= 0;
+        if (lDistance < lCutoff)
+          assertTrue(lInList);
+        if (lInList)
+          assertTrue(lDistance < lCutoff + lSkin + 1e-6);
+      }
+    }
+
+    // small displacement, no rebuild needed:
+    for (int i = 0; i < lPositions.length; i++)
+      lPositions[i] += 0.002f;
+    lGrid.updateCells(lPositions, lRadii);
+    assertFalse(lVerletNeighborList.update(lGrid,
+                                           lPositions,
+                                           lRadii,
+                                           lNumberOfParticles));
+
+    // one particle moves more than half the skin, rebuild needed:
+    lPositions[0] += 0.004f;
+    lGrid.updateCells(lPositions, lRadii);
+    assertTrue(lVerletNeighborList.update(lGrid,
+                                          lPositions,
+                                          lRadii,
+                                          lNumberOfParticles));
+    assertEquals(2, lVerletNeighborList.getNumberOfRebuilds());
+
+    // one particle grows, rebuild needed:
+    lRadii[1] += 0.004f;
+    lGrid.updateCells(lPositions, lRadii);
+    assertTrue(lVerletNeighborList.update(lGrid,
+                                          lPositions,
+                                          lRadii,
+                                          lNumberOfParticles));
+  }
+
+  /**
+   * Tests that parallel grid updates produce the same cell contents as
+   * sequential updates, for both grid layouts.
+   */
+  @Test
+  public void testParallelUpdate()
+  {
+    int lNumberOfParticles = 20000;
+    Random lRandom = new Random(7);
+
+    float[] lPositions = new float[3 * lNumberOfParticles];
+    float[] lRadii = new float[lNumberOfParticles];
+    for (int i = 0; i < lPositions.length; i++)
+      lPositions[i] = lRandom.nextFloat();
+    for (int i = 0; i < lNumberOfParticles; i++)
+      lRadii[i] = 0.02f * lRandom.nextFloat();
+
+    NeighborhoodGrid lDense = new NeighborhoodGrid(64, 32, 32, 32);
+    NeighborhoodGrid lDenseParallel = new NeighborhoodGrid(64,
+                                                           32,
+                                                           32,
+                                                           32);
+    lDenseParallel.setParallel(true);
+
+    CompactNeighborhoodGrid lCompact =
+                                     new CompactNeighborhoodGrid(64,
+                                                                 32,
+                                                                 32,
+                                                                 32);
+    CompactNeighborhoodGrid lCompactParallel =
+                                             new CompactNeighborhoodGrid(64,
+                                                                         32,
+                                                                         32,
+                                                                         32);
+    lCompactParallel.setParallel(true);
+
+    for (int r = 0; r < 2; r++)
+    {
+      lDense.clear();
+      lDense.update(lPositions, lRadii, lNumberOfParticles);
+      lDenseParallel.clear();
+      lDenseParallel.update(lPositions, lRadii, lNumberOfParticles);
+      lCompact.update(lPositions, lRadii, lNumberOfParticles);
+      lCompactParallel.update(lPositions, lRadii, lNumberOfParticles);
+    }
+
+    assertEquals(0, lDense.getNumberOfDroppedEntries());
+    assertEquals(0, lDenseParallel.getNumberOfDroppedEntries());
+    assertArrayEquals(lDense.getArray(), lDenseParallel.getArray());
+
+    int lNumberOfEntries = lCompact.getNumberOfEntries();
+    assertEquals(lNumberOfEntries, lCompactParallel.getNumberOfEntries());
+    assertArrayEquals(lCompact.getCellOffsets(),
+                      lCompactParallel.getCellOffsets());
+    assertArrayEquals(Arrays.copyOf(lCompact.getCellEntries(),
+                                    lNumberOfEntries),
+                      Arrays.copyOf(lCompactParallel.getCellEntries(),
+                                    lNumberOfEntries));
+    assertEquals(lCompact.getMaximalEffectiveNumberOfParticlesPerGridCell(),
+                 lCompactParallel.getMaximalEffectiveNumberOfParticlesPerGridCell());
+  }
+
+  /**
+   * Tests that neighbor query cursors find the same neighbors as direct grid
+   * queries, with much smaller buffers.
+   */
+  @Test
+  public void testNeighborQuery()
+  {
+    int lNumberOfParticles = 2000;
+    Random lRandom = new Random(1);
+    float[] lPositions = new float[3 * lNumberOfParticles];
+    float[] lRadii = new float[lNumberOfParticles];
+    for (int i = 0; i < lPositions.length; i++)
+      lPositions[i] = lRandom.nextFloat();
+    for (int i = 0; i < lNumberOfParticles; i++)
+      lRadii[i] = 0.01f + 0.02f * lRandom.nextFloat();
+
+    NeighborhoodGridInterface[] lGrids = new NeighborhoodGridInterface[]
+    { new NeighborhoodGrid(64, 16, 16, 16),
+      new CompactNeighborhoodGrid(64, 16, 16, 16) };
+
+    for (NeighborhoodGridInterface lGrid : lGrids)
+    {
+      lGrid.clear();
+      lGrid.update(lPositions, lRadii, lNumberOfParticles);
+
+      int lLength = lGrid.getMaxParticlesPerGridCell()
+                    * lGrid.getVolume();
+      int[] lNeighboors = new int[lLength];
+
+      NeighborQuery lNeighborQuery = new NeighborQuery(lGrid);
+      int[] lVisited = new int[lLength];
+      int[] lNumberOfVisited = new int[1];
+
+      for (int id = 0; id < lNumberOfParticles; id++)
+      {
+        float lRadius = lRadii[id];
+        int lCount = lGrid.getAllNeighborsForParticle(lNeighboors,
+                                                      lNeighboors,
+                                                      lPositions,
+                                                      id,
+                                                      lRadius);
+
+        int lQueryCount = lNeighborQuery.query(lPositions, id, lRadius);
+        assertEquals(lCount, lQueryCount);
+        assertArrayEquals(Arrays.copyOf(lNeighboors, lCount),
+                          Arrays.copyOf(lNeighborQuery.getNeighbors(),
+                                        lQueryCount));
+
+        lNumberOfVisited[0] = 0;
+        lNeighborQuery.forEachNeighbor(lPositions,
+                                       id,
+                                       lRadius,
+                                       (idv) -> lVisited[lNumberOfVisited[0]++] =
+                                                                                idv);
+        assertArrayEquals(Arrays.copyOf(lNeighboors, lCount),
+                          Arrays.copyOf(lVisited, lNumberOfVisited[0]));
+      }
+
+      assertTrue(lNeighborQuery.getNeighbors().length < lLength / 100);
+    }
+  }
+
+  /**
+   * Tests that neighbor query cursors take neighbors from the Verlet neighbor
+   * list when it covers the query radius, and fall back to the grid for larger
+   * radii.
+   */
+  @Test
+  public void testNeighborQueryWithVerletNeighborList()
+  {
+    int lNumberOfParticles = 2000;
+    Random lRandom = new Random(2);
+    float[] lPositions = new float[3 * lNumberOfParticles];
+    float[] lRadii = new float[lNumberOfParticles];
+    for (int i = 0; i < lPositions.length; i++)
+      lPositions[i] = lRandom.nextFloat();
+    for (int i = 0; i < lNumberOfParticles; i++)
+      lRadii[i] = 0.01f + 0.02f * lRandom.nextFloat();
+
+    CompactNeighborhoodGrid lGrid = new CompactNeighborhoodGrid(64,
+                                                                16,
+                                                                16,
+                                                                16);
+    lGrid.update(lPositions, lRadii, lNumberOfParticles);
+
+    VerletNeighborList lVerletNeighborList =
+                                           new VerletNeighborList(1.5f,
+                                                                  0.01f);
+    lVerletNeighborList.update(lGrid,
+                               lPositions,
+                               lRadii,
+                               lNumberOfParticles);
+
+    NeighborQuery lGridQuery = new NeighborQuery(lGrid);
+    NeighborQuery lVerletQuery = new NeighborQuery(lGrid,
+                                                   lVerletNeighborList);
+    int[] lList = new int[lNumberOfParticles];
+
+    for (int id = 0; id < lNumberOfParticles; id++)
+    {
+      float lRadius = lRadii[id];
+      assertTrue(lRadius <= lVerletNeighborList.getCoveredRadius(id));
+      int lListCount = lVerletNeighborList.getNeighbors(lList, id);
+      int lCount = lVerletQuery.query(lPositions, id, lRadius);
+      assertArrayEquals(Arrays.copyOf(lList, lListCount),
+                        Arrays.copyOf(lVerletQuery.getNeighbors(),
+                                      lCount));
+
+      // dilated radius beyond the list cutoff:
+      float lDilatedRadius = 3 * lRadius;
+      assertTrue(lDilatedRadius > lVerletNeighborList.getCoveredRadius(id));
+      int lGridCount = lGridQuery.query(lPositions, id, lDilatedRadius);
+      lCount = lVerletQuery.query(lPositions, id, lDilatedRadius);
+      assertArrayEquals(Arrays.copyOf(lGridQuery.getNeighbors(),
+                                      lGridCount),
+                        Arrays.copyOf(lVerletQuery.getNeighbors(),
+                                      lCount));
+    }
+  }
+
+  /**
+   * Tests that incremental grid updates give the same cell contents as full
+   * rebuilds while particles move, are removed (the last particle taking the
+   * freed slot) and are added.
+   */
+  @Test
+  public void testIncrementalUpdate()
+  {
+    int lMaxNumberOfParticles = 3000;
+    int lNumberOfParticles = 2000;
+    Random lRandom = new Random(3);
+
+    float[] lPositions = new float[3 * lMaxNumberOfParticles];
+    float[] lRadii = new float[lMaxNumberOfParticles];
+    for (int i = 0; i < lPositions.length; i++)
+      lPositions[i] = 0.05f + 0.9f * lRandom.nextFloat();
+    for (int i = 0; i < lMaxNumberOfParticles; i++)
+      lRadii[i] = 0.005f + 0.03f * lRandom.nextFloat();
+
+    NeighborhoodGrid lIncrementalGrid = new NeighborhoodGrid(64,
+                                                             16,
+                                                             16,
+                                                             16);
+    lIncrementalGrid.setIncremental(true);
+    assertTrue(lIncrementalGrid.isIncremental());
+
+    for (int s = 0; s < 30; s++)
+    {
+      for (int i = 0; i < 3 * lNumberOfParticles; i++)
+        lPositions[i] = Math.max(0.04f,
+                                 Math.min(0.96f,
+                                          lPositions[i] + 0.01f
+                                                          * (lRandom.nextFloat()
+                                                             - 0.5f)));
+
+      if (s % 5 == 1)
+      {
+        // remove a few particles:
+        for (int k = 0; k < 20; k++)
+        {
+          int lId = lRandom.nextInt(lNumberOfParticles);
+          int lLastId = --lNumberOfParticles;
+          System.arraycopy(lPositions, 3 * lLastId, lPositions, 3 * lId, 3);
+          lRadii[lId] = lRadii[lLastId];
+        }
+      }
+      else if (s % 5 == 3)
+      {
+        // add a few particles:
+        lNumberOfParticles += 50;
+      }
+
+      lIncrementalGrid.update(lPositions, lRadii, lNumberOfParticles);
+
+      NeighborhoodGrid lFullGrid = new NeighborhoodGrid(64, 16, 16, 16);
+      lFullGrid.clear();
+      lFullGrid.update(lPositions, lRadii, lNumberOfParticles);
+
+      assertEquals(0, lFullGrid.getNumberOfDroppedEntries());
+      assertEquals(0, lIncrementalGrid.getNumberOfDroppedEntries());
+      assertArrayEquals(lFullGrid.getArray(), lIncrementalGrid.getArray());
+    }
+  }
+
+  /**
+   * Tests that multi-level grids find all particles whose boxes overlap the
+   * query box, for radii spread over two orders of magnitude, without
+   * duplicates and while visiting only a small fraction of the particles.
+   */
+  @Test
+  public void testMultiLevelGrid()
+  {
+    int lNumberOfParticles = 3000;
+    Random lRandom = new Random(5);
+    float[] lPositions = new float[3 * lNumberOfParticles];
+    float[] lRadii = new float[lNumberOfParticles];
+    for (int i = 0; i < lPositions.length; i++)
+      lPositions[i] = lRandom.nextFloat();
+    for (int i = 0; i < lNumberOfParticles; i++)
+      lRadii[i] = (float) (0.001 * Math.pow(100, lRandom.nextDouble()));
+
+    MultiLevelNeighborhoodGrid lGrid = new MultiLevelNeighborhoodGrid(16,
+                                                                      32,
+                                                                      32,
+                                                                      32);
+    assertEquals(6, lGrid.getNumberOfLevels());
+    assertEquals(0, lGrid.getLevelForRadius(0.001f));
+    assertEquals(2, lGrid.getLevelForRadius(0.05f));
+    assertEquals(5, lGrid.getLevelForRadius(10f));
+
+    lGrid.update(lPositions, lRadii, lNumberOfParticles);
+
+    int lTotal = 0;
+    for (int l = 0; l < lGrid.getNumberOfLevels(); l++)
+      lTotal += lGrid.getNumberOfParticles(l);
+    assertEquals(lNumberOfParticles, lTotal);
+    assertEquals(0, lGrid.getNumberOfDroppedEntries());
+
+    NeighborQuery lNeighborQuery = new NeighborQuery(lGrid);
+    boolean[] lFound = new boolean[lNumberOfParticles];
+    long lTotalNumberOfNeighbors = 0;
+
+    for (int u = 0; u < lNumberOfParticles; u++)
+    {
+      float lRadius = lRadii[u];
+      int lCount = lNeighborQuery.query(lPositions, u, lRadius);
+      int[] lNeighbors = lNeighborQuery.getNeighbors();
+      lTotalNumberOfNeighbors += lCount;
+
+      Arrays.fill(lFound, false);
+      for (int i = 0; i < lCount; i++)
+      {
+        assertFalse(lFound[lNeighbors[i]]);
+        lFound[lNeighbors[i]] = true;
+      }
+      assertTrue(lFound[u]);
+
+      for (int v = 0; v < lNumberOfParticles; v++)
+      {
+        float lDistance = 0;
+        for (int d = 0; d < 3; d++)
+          lDistance = Math.max(lDistance,
+                               Math.abs(lPositions[3 * u + d]
+                                        - lPositions[3 * v + d]));
+        if (lDistance < lRadius + lRadii[v])
+          assertTrue(lFound[v]);
+      }
+    }
+
+    assertTrue(lTotalNumberOfNeighbors < (long) lNumberOfParticles
+                                         * lNumberOfParticles
+                                         / 10);
+
+    // cell contents include the particles of all enclosing cells:
+    int[] lContents = lGrid.getCellContents(0, 0, 0);
+    int lCount = 0;
+    while (lContents[lCount] != -1)
+      lCount++;
+    assertTrue(lCount >= lGrid.getNumberOfParticles(lGrid.getNumberOfLevels()
+                                                    - 1));
+  }
+
 }
@@ -1,7 +1,18 @@
 package simbryo.particles.test;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
 import org.junit.Test;
 import simbryo.particles.ParticleSystem;
+import simbryo.particles.neighborhood.NeighborQuery;
+import simbryo.particles.neighborhood.NeighborhoodGrid;
+import simbryo.util.morton.MortonCode;
 
 /**
  * Particles system test
@@ -33,4 +44,252 @@ public class ParticleSystemTests
 
   }
 
+  /**
+   * Tests that sorting particles along a Z-order curve keeps all particle
+   * attributes together and provides a consistent id mapping.
+   */
+  @Test
+  public void testZOrderSorting()
+  {
+    int lNumberOfParticles = 1000;
+    ParticleSystem lParticleSystem =
+                                   new ParticleSystem(64,
+                                                      lNumberOfParticles,
+                                                      new int[]
+                                                      { 8, 8 });
+
+    Random lRandom = new Random(1);
+    for (int i = 0; i < lNumberOfParticles; i++)
+    {
+      int lId = lParticleSystem.addParticle(lRandom.nextFloat(),
+                                            lRandom.nextFloat());
+      lParticleSystem.setVelocity(lId, i, -i);
+      lParticleSystem.setRadius(lId, i);
+    }
+
+    float[] lPositionsBefore = new float[2 * lNumberOfParticles];
+    lParticleSystem.copyPositions(lPositionsBefore);
+
+    lParticleSystem.sortParticlesAlongZOrderCurve();
+
+    int[] lMapping = lParticleSystem.getParticleIdMapping();
+    float[] lPositionsAfter = new float[2 * lNumberOfParticles];
+    float[] lVelocitiesAfter = new float[2 * lNumberOfParticles];
+    lParticleSystem.copyPositions(lPositionsAfter);
+    lParticleSystem.copyVelocities(lVelocitiesAfter);
+
+    for (int lOldId = 0; lOldId < lNumberOfParticles; lOldId++)
+    {
+      int lNewId = lMapping[lOldId];
+      assertEquals(lOldId, lParticleSystem.getRadius(lNewId), 0);
+      assertEquals(lOldId, lVelocitiesAfter[2 * lNewId], 0);
+      assertEquals(-lOldId, lVelocitiesAfter[2 * lNewId + 1], 0);
+      assertEquals(lPositionsBefore[2 * lOldId],
+                   lPositionsAfter[2 * lNewId],
+                   0);
+      assertEquals(lPositionsBefore[2 * lOldId + 1],
+                   lPositionsAfter[2 * lNewId + 1],
+                   0);
+    }
+
+    long lLastCode = -1;
+    for (int id = 0; id < lNumberOfParticles; id++)
+    {
+      int x = (int) (lPositionsAfter[2 * id] * 8);
+      int y = (int) (lPositionsAfter[2 * id + 1] * 8);
+      long lCode = MortonCode.encode(3, x, y);
+      assertTrue(lCode >= lLastCode);
+      lLastCode = lCode;
+    }
+  }
+
+  /**
+   * Tests that particle storage grows on demand, preserves particle attributes,
+   * and never exceeds the max number of particles.
+   */
+  @Test
+  public void testCapacityGrowth()
+  {
+    int lMaxNumberOfParticles = 5000;
+    ParticleSystem lParticleSystem =
+                                   new ParticleSystem(64,
+                                                      lMaxNumberOfParticles,
+                                                      new int[]
+                                                      { 8, 8 });
+
+    assertTrue(lParticleSystem.getCapacity() < lMaxNumberOfParticles);
+
+    Random lRandom = new Random(1);
+    float[] lPositions = new float[2 * lMaxNumberOfParticles];
+    for (int i = 0; i < lMaxNumberOfParticles; i++)
+    {
+      lPositions[2 * i] = lRandom.nextFloat();
+      lPositions[2 * i + 1] = lRandom.nextFloat();
+      int lId = lParticleSystem.addParticle(lPositions[2 * i],
+                                            lPositions[2 * i + 1]);
+      assertEquals(i, lId);
+      lParticleSystem.setRadius(lId, i);
+      assertTrue(lParticleSystem.getCapacity() >= lParticleSystem.getNumberOfParticles());
+    }
+
+    assertEquals(lMaxNumberOfParticles, lParticleSystem.getCapacity());
+    assertEquals(-1, lParticleSystem.addParticle(0.5f, 0.5f));
+    assertEquals(lMaxNumberOfParticles,
+                 lParticleSystem.getNumberOfParticles());
+
+    float[] lPositionsCopy = new float[2 * lMaxNumberOfParticles];
+    lParticleSystem.copyPositions(lPositionsCopy);
+    for (int i = 0; i < lMaxNumberOfParticles; i++)
+    {
+      assertEquals(lPositions[2 * i], lPositionsCopy[2 * i], 0);
+      assertEquals(lPositions[2 * i + 1], lPositionsCopy[2 * i + 1], 0);
+      assertEquals(i, lParticleSystem.getRadius(i), 0);
+    }
+
+    lParticleSystem.updateNeighborhoodGrid();
+  }
+
+  /**
+   * Tests that incremental neighborhood grid updates can be switched on for a
+   * particle system using the default grid, and that neighbor queries then
+   * give the same results as with the default grid.
+   */
+  @Test
+  public void testIncrementalNeighborhoodGrid()
+  {
+    int lNumberOfParticles = 2000;
+    ParticleSystem lDefaultSystem = new ParticleSystem(64,
+                                                       lNumberOfParticles,
+                                                       16,
+                                                       16,
+                                                       16);
+    ParticleSystem lIncrementalSystem =
+                                      new ParticleSystem(64,
+                                                         lNumberOfParticles,
+                                                         16,
+                                                         16,
+                                                         16);
+
+    Random lRandom = new Random(7);
+    float[] lPositions = new float[3 * lNumberOfParticles];
+    for (int i = 0; i < lNumberOfParticles; i++)
+    {
+      for (int d = 0; d < 3; d++)
+        lPositions[3 * i + d] = 0.1f + 0.8f * lRandom.nextFloat();
+      lDefaultSystem.addParticle(lPositions[3 * i],
+                                 lPositions[3 * i + 1],
+                                 lPositions[3 * i + 2]);
+      lIncrementalSystem.addParticle(lPositions[3 * i],
+                                     lPositions[3 * i + 1],
+                                     lPositions[3 * i + 2]);
+      lDefaultSystem.setRadius(i, 0.01f);
+      lIncrementalSystem.setRadius(i, 0.01f);
+    }
+    lDefaultSystem.updateNeighborhoodGrid();
+    lIncrementalSystem.updateNeighborhoodGrid();
+
+    assertFalse(lIncrementalSystem.isIncrementalNeighborhoodGrid());
+    lIncrementalSystem.setIncrementalNeighborhoodGrid(true);
+    assertTrue(lIncrementalSystem.isIncrementalNeighborhoodGrid());
+    assertTrue(lIncrementalSystem.getNeighborhoodGrid() instanceof NeighborhoodGrid);
+
+    for (int s = 0; s < 10; s++)
+    {
+      for (int i = 0; i < lNumberOfParticles; i++)
+      {
+        for (int d = 0; d < 3; d++)
+          lPositions[3 * i + d] += 0.01f * (lRandom.nextFloat() - 0.5f);
+        lDefaultSystem.setPosition(i,
+                                   lPositions[3 * i],
+                                   lPositions[3 * i + 1],
+                                   lPositions[3 * i + 2]);
+        lIncrementalSystem.setPosition(i,
+                                       lPositions[3 * i],
+                                       lPositions[3 * i + 1],
+                                       lPositions[3 * i + 2]);
+      }
+      lDefaultSystem.updateNeighborhoodGrid();
+      lIncrementalSystem.updateNeighborhoodGrid();
+
+      for (int i = 0; i < lNumberOfParticles; i++)
+        assertArrayEquals(getSortedNeighbors(lDefaultSystem, i),
+                          getSortedNeighbors(lIncrementalSystem, i));
+    }
+
+    lIncrementalSystem.setIncrementalNeighborhoodGrid(false);
+    assertFalse(lIncrementalSystem.isIncrementalNeighborhoodGrid());
+  }
+
+  private static int[] getSortedNeighbors(ParticleSystem pParticleSystem,
+                                          int pParticleId)
+  {
+    NeighborQuery lNeighborQuery = pParticleSystem.getNeighborQuery();
+    int lNumberOfNeighbors =
+                           lNeighborQuery.query(pParticleSystem.getPositions()
+                                                               .getCurrentArray(),
+                                                pParticleId,
+                                                0.01f);
+    int[] lNeighbors = Arrays.copyOf(lNeighborQuery.getNeighbors(),
+                                     lNumberOfNeighbors);
+    Arrays.sort(lNeighbors);
+    return lNeighbors;
+  }
+
+  /**
+   * Tests that the vectorized kernels give the same results as the reference
+   * loops for all per-particle sweeps, including particles that go out of
+   * bounds.
+   */
+  @Test
+  public void testVectorizedKernels()
+  {
+    int lNumberOfParticles = 1001;
+    ParticleSystem[] lParticleSystems = new ParticleSystem[2];
+    for (int k = 0; k < 2; k++)
+    {
+      ParticleSystem lParticleSystem =
+                                     new ParticleSystem(64,
+                                                        lNumberOfParticles,
+                                                        new int[]
+                                                        { 8, 8, 8 });
+      lParticleSystem.setSeed(1);
+      lParticleSystem.setVectorizedKernels(k == 1);
+
+      Random lRandom = new Random(1);
+      for (int i = 0; i < lNumberOfParticles; i++)
+      {
+        int lId = lParticleSystem.addParticle(lRandom.nextFloat(),
+                                              lRandom.nextFloat(),
+                                              lRandom.nextFloat());
+        lParticleSystem.setVelocity(lId,
+                                    0.05f * (lRandom.nextFloat() - 0.5f),
+                                    0.05f * (lRandom.nextFloat() - 0.5f),
+                                    0.05f * (lRandom.nextFloat() - 0.5f));
+        lParticleSystem.setRadius(lId, 0.02f * lRandom.nextFloat());
+      }
+      lParticleSystems[k] = lParticleSystem;
+    }
+
+    for (ParticleSystem lParticleSystem : lParticleSystems)
+      for (int s = 0; s < 20; s++)
+      {
+        lParticleSystem.applyForce(0.001f, -0.002f, 0.003f);
+        lParticleSystem.applyForce(10, 500, 0.001f, 0.001f, -0.001f);
+        lParticleSystem.addBrownianMotion(0.001f);
+        lParticleSystem.intergrateEuler();
+        lParticleSystem.enforceBounds(0.9f);
+        lParticleSystem.intergrateTrapezoidal();
+        lParticleSystem.intergrateEulerAndEnforceBounds(0.9f, 1e-6f);
+      }
+
+    float[] lExpected = new float[3 * lNumberOfParticles];
+    float[] lActual = new float[3 * lNumberOfParticles];
+    lParticleSystems[0].copyPositions(lExpected);
+    lParticleSystems[1].copyPositions(lActual);
+    assertArrayEquals(lExpected, lActual, 0);
+    lParticleSystems[0].copyVelocities(lExpected);
+    lParticleSystems[1].copyVelocities(lActual);
+    assertArrayEquals(lExpected, lActual, 0);
+  }
+
 }
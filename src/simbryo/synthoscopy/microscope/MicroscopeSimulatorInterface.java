@@ -1,6 +1,8 @@
 package simbryo.synthoscopy.microscope;
 
 import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Future;
 
 import clearcl.ClearCLContext;
 import clearcl.ClearCLImage;
@@ -154,6 +156,29 @@ public interface MicroscopeSimulatorInterface extends
    */
   void render(int pDetectionIndex, boolean pWaitToFinish);
 
+  /**
+   * Enqueues the rendering of all detection paths and cameras without waiting
+   * for the GPU, and returns one future per camera image. Rendering of
+   * consecutive detection paths, and of consecutive calls, is pipelined on the
+   * GPU while the caller prepares the next parameters.
+   * 
+   * @return list of camera image futures, one per detection path
+   */
+  List<Future<ClearCLImage>> renderAsync();
+
+  /**
+   * Enqueues the rendering of a given detection path and camera without
+   * waiting for the GPU, and returns a future for a copy of the camera image.
+   * Each in-flight frame gets its own image, taken from a small ring per
+   * detection path: the image stays valid until the ring wraps around, and the
+   * call blocks while the frame that last used the next image is in flight.
+   * 
+   * @param pDetectionIndex
+   *          detection path index
+   * @return camera image future
+   */
+  Future<ClearCLImage> renderAsync(int pDetectionIndex);
+
   /**
    * Returns camera renderer of given index.
    * 
@@ -1,9 +1,8 @@
 package simbryo.synthoscopy.microscope.aberration;
 
-import java.util.Random;
-
 import simbryo.synthoscopy.microscope.MicroscopeSimulatorInterface;
 import simbryo.synthoscopy.microscope.parameters.ParameterInterface;
+import simbryo.util.random.CounterRandom;
 
 /**
  *
@@ -15,7 +14,25 @@ public abstract class AberrationBase implements AberrationInterface
 
   private MicroscopeSimulatorInterface mMicroscope;
 
-  protected Random mRandom = new Random();
+  protected CounterRandom mRandom =
+                                  new CounterRandom(CounterRandom.newSeed());
+
+  private long mRandomTimeStepIndex = -1;
+  private long mRandomKey;
+  private long mRandomCounter;
+
+  /**
+   * Sets the seed of the random numbers used by this aberration, for
+   * reproducible acquisitions.
+   * 
+   * @param pSeed
+   *          seed
+   */
+  public void setSeed(long pSeed)
+  {
+    mRandom = new CounterRandom(pSeed);
+    mRandomTimeStepIndex = -1;
+  }
 
   @Override
   public void setMicroscope(MicroscopeSimulatorInterface pMicroscope)
@@ -44,7 +61,9 @@ public abstract class AberrationBase implements AberrationInterface
                                    Number pNumber);
 
   /**
-   * Returns a pseudo-random number within [min,max]
+   * Returns a pseudo-random number within [min,max]. Numbers are keyed by the
+   * microscope's time step index and by their rank within that time step, so
+   * that a given seed always yields the same aberrations at the same time step.
    * 
    * @param pMin
    *          min
@@ -54,7 +73,18 @@ public abstract class AberrationBase implements AberrationInterface
    */
   public float rand(float pMin, float pMax)
   {
-    return pMin + mRandom.nextFloat() * (pMax - pMin);
+    final long lTimeStepIndex = getMicroscope() == null ? 0
+                                                        : getTimeStepIndex();
+    if (lTimeStepIndex != mRandomTimeStepIndex)
+    {
+      mRandomTimeStepIndex = lTimeStepIndex;
+      mRandomKey = mRandom.getKey(lTimeStepIndex);
+      mRandomCounter = 0;
+    }
+    return (float) CounterRandom.nextDouble(mRandomKey,
+                                            mRandomCounter++,
+                                            pMin,
+                                            pMax);
 
   }
 
@@ -5,9 +5,15 @@ import static java.lang.Math.round;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.vecmath.Matrix4f;
+import javax.vecmath.Point3f;
 import javax.vecmath.Vector3f;
 
 import clearcl.ClearCLContext;
@@ -45,6 +51,8 @@ public class LightSheetMicroscopeSimulator extends
 
   private static final int cLightMapScaleFactor = 2;
 
+  private static final int cAsyncCameraImageRingSize = 3;
+
   private ArrayList<LightSheetIllumination> mLightSheetIlluminationList =
                                                                         new ArrayList<>();
   private IlluminationCombiner<LightSheetIllumination> mIlluminationCombiner;
@@ -57,6 +65,27 @@ public class LightSheetMicroscopeSimulator extends
   private ConcurrentHashMap<Integer, Matrix4f> mDetectionTransformationMatrixMap =
                                                                                  new ConcurrentHashMap<>();
 
+  private ArrayList<AsyncCameraImageRing> mAsyncCameraImageRingList =
+                                                                    new ArrayList<>();
+
+  private final ExecutorService mRenderCompletionExecutor =
+                                                         Executors.newSingleThreadExecutor(LightSheetMicroscopeSimulator::newRenderCompletionThread);
+
+  private volatile long mEnqueuedAsyncFrameCount = 0;
+  private volatile long mCompletedAsyncFrameCount = 0;
+
+  /**
+   * Camera output images handed out by asynchronous renderings of one
+   * detection path, each in-flight frame gets its own image.
+   */
+  private static class AsyncCameraImageRing
+  {
+    final ClearCLImage[] mImages =
+                                 new ClearCLImage[cAsyncCameraImageRingSize];
+    final Future<?>[] mFutures = new Future<?>[cAsyncCameraImageRingSize];
+    int mNextIndex = 0;
+  }
+
   /**
    * Instantiates a light sheet microscope simulator given a ClearCL context
    * 
@@ -130,6 +159,7 @@ public class LightSheetMicroscopeSimulator extends
       lWideFieldDetectionOptics.addUpdateListener(lSCMOSCameraRenderer);
 
       mCameraRendererList.add(lSCMOSCameraRenderer);
+      mAsyncCameraImageRingList.add(new AsyncCameraImageRing());
     }
     catch (IOException e)
     {
@@ -271,10 +301,6 @@ public class LightSheetMicroscopeSimulator extends
   private void applyParametersForDetectionPath(int pDetectionPathIndex,
                                                ClearCLImage pLightMapImage)
   {
-    float lLengthConversionfactor =
-                                  getNumberParameterWithAberrations(UnitConversion.Length,
-                                                                    0).floatValue();
-
     WideFieldDetectionOptics lWideFieldDetectionOptics =
                                                        mWideFieldDetectionOpticsList.get(pDetectionPathIndex);
     SCMOSCameraRenderer lSCMOSCameraRenderer =
@@ -293,17 +319,7 @@ public class LightSheetMicroscopeSimulator extends
                       getNumberParameterWithAberrations(DetectionParameter.Wavelength,
                                                         pDetectionPathIndex).floatValue();
 
-    Matrix4f lDetectionTransformMatrix =
-                                       getDetectionTransformMatrix(pDetectionPathIndex);
-
-    float lDetectionZSign =
-                          lDetectionTransformMatrix.getElement(0, 0);
-
-    float lFocusZ = (lDetectionZSign
-                     * getNumberParameterWithAberrations(DetectionParameter.Z,
-                                                         pDetectionPathIndex).floatValue()
-                     / lLengthConversionfactor)
-                    + 0.5f;
+    float lFocusZ = getFocusZ(pDetectionPathIndex);
 
     long lDetectionImageWidth = lFluorescencePhantomImage.getWidth();
     long lDetectionImageHeight =
@@ -367,6 +383,72 @@ public class LightSheetMicroscopeSimulator extends
 
   }
 
+  private float getFocusZ(int pDetectionPathIndex)
+  {
+    float lLengthConversionfactor =
+                                  getNumberParameterWithAberrations(UnitConversion.Length,
+                                                                    0).floatValue();
+
+    Matrix4f lDetectionTransformMatrix =
+                                       getDetectionTransformMatrix(pDetectionPathIndex);
+
+    float lDetectionZSign =
+                          lDetectionTransformMatrix.getElement(0, 0);
+
+    float lFocusZ = (lDetectionZSign
+                     * getNumberParameterWithAberrations(DetectionParameter.Z,
+                                                         pDetectionPathIndex).floatValue()
+                     / lLengthConversionfactor)
+                    + 0.5f;
+    return lFocusZ;
+  }
+
+  /**
+   * Returns the range [begin, end) of fluorescence phantom planes sampled by a
+   * given detection path for its current focus position and max defocus depth.
+   * Only these planes need to be rendered to simulate the corresponding camera
+   * image, all other planes can stay as they are.
+   * 
+   * @param pDetectionPathIndex
+   *          detection path index
+   * @return range of phantom z plane indices
+   */
+  public int[] getFluorescencePhantomZRange(int pDetectionPathIndex)
+  {
+    WideFieldDetectionOptics lWideFieldDetectionOptics =
+                                                       mWideFieldDetectionOpticsList.get(pDetectionPathIndex);
+
+    float[] lCollectedZRange =
+                             lWideFieldDetectionOptics.getCollectedZRange(getFocusZ(pDetectionPathIndex));
+
+    Matrix4f lMatrix =
+                     getStageAndDetectionTransformMatrix(pDetectionPathIndex);
+
+    // the transform is affine, the extremal phantom z values are found at the
+    // corners of the collected detection volume:
+    float lMinZ = Float.POSITIVE_INFINITY;
+    float lMaxZ = Float.NEGATIVE_INFINITY;
+    Point3f lPoint = new Point3f();
+    for (int i = 0; i < 8; i++)
+    {
+      lPoint.set(i & 1, (i >> 1) & 1, lCollectedZRange[i >> 2]);
+      lMatrix.transform(lPoint);
+      lMinZ = Math.min(lMinZ, lPoint.z);
+      lMaxZ = Math.max(lMaxZ, lPoint.z);
+    }
+
+    int lDepth =
+               (int) getPhantomParameter(PhantomParameter.Fluorescence).getDepth();
+
+    // one plane of margin on each side for linear interpolation:
+    int lBeginZ = (int) Math.floor(lMinZ * lDepth - 0.5f) - 1;
+    int lEndZ = (int) Math.floor(lMaxZ * lDepth - 0.5f) + 3;
+
+    return new int[]
+    { Math.max(0, Math.min(lDepth, lBeginZ)),
+      Math.max(0, Math.min(lDepth, lEndZ)) };
+  }
+
   private Matrix4f getStageAndDetectionTransformMatrix(int pDetectionPathIndex)
   {
     Matrix4f lCombinedTransformMatrix =
@@ -493,14 +575,16 @@ public class LightSheetMicroscopeSimulator extends
                                                      mLightSheetIlluminationList.get(lLightSheetIndex);
       applyParametersForLightSheet(lLightSheetIndex, pDetectionIndex);
 
+      // no need to wait: all kernels are enqueued in order on the same queue,
+      // the host keeps enqueuing while the GPU works:
       lLightSheetIllumination.requestUpdate();
       ElapsedTime.measure("renderlightsheet",
-                          () -> lLightSheetIllumination.render(true));
+                          () -> lLightSheetIllumination.render(false));
 
     }
 
     ElapsedTime.measure("rendercombinedlightsheet",
-                        () -> mIlluminationCombiner.render(true));
+                        () -> mIlluminationCombiner.render(false));
     ClearCLImage lCombinedLightMap = mIlluminationCombiner.getImage();
 
     applyParametersForDetectionPath(pDetectionIndex,
@@ -516,6 +600,92 @@ public class LightSheetMicroscopeSimulator extends
     lSCMOSCameraRenderer.clearUpdate();
   }
 
+  @Override
+  public List<Future<ClearCLImage>> renderAsync()
+  {
+    int lNumberOfDetectionPath = mWideFieldDetectionOpticsList.size();
+
+    ArrayList<Future<ClearCLImage>> lFutureList = new ArrayList<>();
+    for (int d = 0; d < lNumberOfDetectionPath; d++)
+      lFutureList.add(renderAsync(d));
+
+    return lFutureList;
+  }
+
+  @Override
+  public Future<ClearCLImage> renderAsync(int pDetectionIndex)
+  {
+    AsyncCameraImageRing lRing =
+                               mAsyncCameraImageRingList.get(pDetectionIndex);
+    final int lSlot = lRing.mNextIndex;
+    lRing.mNextIndex = (lSlot + 1) % cAsyncCameraImageRingSize;
+
+    // the slot's image must not be overwritten while its frame is in flight:
+    if (lRing.mFutures[lSlot] != null)
+      waitForCompletion(lRing.mFutures[lSlot]);
+
+    render(pDetectionIndex, false);
+
+    // the camera image is overwritten, and possibly reallocated, by the next
+    // rendering, so this frame gets its own copy:
+    ClearCLImage lCameraImage = getCameraImage(pDetectionIndex);
+    ClearCLImage lOutputImage = lRing.mImages[lSlot];
+    if (lOutputImage == null
+        || lOutputImage.getWidth() != lCameraImage.getWidth()
+        || lOutputImage.getHeight() != lCameraImage.getHeight())
+    {
+      if (lOutputImage != null)
+        lOutputImage.close();
+      lOutputImage = mContext.createImage(lCameraImage);
+      lRing.mImages[lSlot] = lOutputImage;
+    }
+    lCameraImage.copyTo(lOutputImage, false);
+
+    final long lFrameIndex = ++mEnqueuedAsyncFrameCount;
+    final ClearCLImage lFrameImage = lOutputImage;
+
+    // OpenCL command queues are thread-safe, the caller keeps enqueuing while
+    // the completion thread waits. The queue is in-order: once drained, all
+    // frames enqueued before the wait started are complete, later frames are
+    // completed by the next wait. Frames already covered return immediately:
+    Future<ClearCLImage> lFuture = mRenderCompletionExecutor.submit(() -> {
+      if (mCompletedAsyncFrameCount < lFrameIndex)
+      {
+        long lEnqueuedAsyncFrameCount = mEnqueuedAsyncFrameCount;
+        mContext.getDefaultQueue().waitToFinish();
+        mCompletedAsyncFrameCount = lEnqueuedAsyncFrameCount;
+      }
+      return lFrameImage;
+    });
+    lRing.mFutures[lSlot] = lFuture;
+
+    return lFuture;
+  }
+
+  private static void waitForCompletion(Future<?> pFuture)
+  {
+    boolean lInterrupted = false;
+    while (true)
+    {
+      try
+      {
+        pFuture.get();
+        break;
+      }
+      catch (InterruptedException e)
+      {
+        lInterrupted = true;
+      }
+      catch (ExecutionException e)
+      {
+        // the failure is reported to the holder of that future
+        break;
+      }
+    }
+    if (lInterrupted)
+      Thread.currentThread().interrupt();
+  }
+
   @Override
   public ClearCLImage getCameraImage(int pIndex)
   {
@@ -570,6 +740,14 @@ public class LightSheetMicroscopeSimulator extends
     lCameraImage.writeTo(lImagePlane, pBlocking);
   }
 
+  private static Thread newRenderCompletionThread(Runnable pRunnable)
+  {
+    Thread lThread = new Thread(pRunnable,
+                                "LightSheetMicroscopeSimulatorRenderCompletion");
+    lThread.setDaemon(true);
+    return lThread;
+  }
+
   private int closestOddInteger(float pValue)
   {
     return round((pValue - 1) / 2) * 2 + 1;
@@ -578,6 +756,8 @@ public class LightSheetMicroscopeSimulator extends
   @Override
   public void close() throws Exception
   {
+    mRenderCompletionExecutor.shutdown();
+
     for (LightSheetIllumination lLightSheetIllumination : mLightSheetIlluminationList)
     {
       lLightSheetIllumination.close();
@@ -593,6 +773,13 @@ public class LightSheetMicroscopeSimulator extends
       lScmosCameraRenderer.close();
     }
 
+    for (AsyncCameraImageRing lAsyncCameraImageRing : mAsyncCameraImageRingList)
+    {
+      for (ClearCLImage lImage : lAsyncCameraImageRing.mImages)
+        if (lImage != null)
+          lImage.close();
+    }
+
   }
 
 }
@@ -66,6 +66,15 @@ public class LightSheetMicroscopeSimulatorDrosophila extends
                                                                        getWidth(),
                                                                        getHeight(),
                                                                        getDepth());
+      // as the embryo develops, only the z-slabs touched by nuclei that moved
+      // by more than half a voxel are re-rendered, the tolerance applies to
+      // all coordinates so it is taken along the largest dimension:
+      mDrosophilaFluorescencePhantom.getChangeTracker()
+                                    .setPositionTolerance(0.5f
+                                                          / Math.max(getWidth(),
+                                                                     Math.max(getHeight(),
+                                                                              getDepth())));
+      mDrosophilaFluorescencePhantom.setTrackTissueChanges(true);
       mDrosophilaFluorescencePhantom.render(true);
 
       mDrosophilaScatteringPhantom =
@@ -121,11 +130,20 @@ public class LightSheetMicroscopeSimulatorDrosophila extends
   }
 
   @Override
-  public void render(boolean pWaitToFinish)
+  public void render(int pDetectionIndex, boolean pWaitToFinish)
   {
-    mDrosophilaFluorescencePhantom.render(false);
+    // only the fluorescence phantom planes sampled by this detection path are
+    // rendered, other planes stay cached until needed:
+    int[] lZRange = getFluorescencePhantomZRange(pDetectionIndex);
+    int lBeginZ =
+                Math.max(lZRange[0],
+                         mDrosophilaFluorescencePhantom.getBeginZ());
+    int lEndZ = Math.min(lZRange[1],
+                         mDrosophilaFluorescencePhantom.getEndZ());
+    if (lBeginZ < lEndZ)
+      mDrosophilaFluorescencePhantom.render(lBeginZ, lEndZ, false);
     mDrosophilaScatteringPhantom.render(false);
-    super.render(pWaitToFinish);
+    super.render(pDetectionIndex, pWaitToFinish);
   }
 
   @Override
@@ -30,7 +30,7 @@ public class WideFieldDetectionOptics extends DetectionOpticsBase
 
   private volatile float mDefocusSigma, mSmoothDefocusTransitionPoint,
       mZFocusPosition, mScatterSigmaMin, mScatterSigmaMax,
-      mScatterSamplingDeltaZ;
+      mScatterSamplingDeltaZ, mMaxDefocusDepth;
 
   /**
    * Instantiates a light sheet illumination optics class given a ClearCL
@@ -53,6 +53,7 @@ public class WideFieldDetectionOptics extends DetectionOpticsBase
     setScatterSigmaMin(0.0001f);
     setScatterSigmaMax(0.04f);
     setScatterSamplingDeltaZ(0.01f);
+    setMaxDefocusDepth(1.0f);
 
     setupProgramAndKernels();
     mImageTemp = pContext.createImage(mImage);
@@ -144,6 +145,49 @@ public class WideFieldDetectionOptics extends DetectionOpticsBase
     }
   }
 
+  /**
+   * Returns the max defocus depth in normalized coordinates. Only planes within
+   * that distance of the focus plane are collected.
+   * 
+   * @return max defocus depth
+   */
+  public float getMaxDefocusDepth()
+  {
+    return mMaxDefocusDepth;
+  }
+
+  /**
+   * Sets the max defocus depth in normalized coordinates, by default 1 so that
+   * all planes are collected. Smaller values reduce the range of fluorescence
+   * phantom planes that need to be rendered for a given focus position.
+   * 
+   * @param pMaxDefocusDepth
+   *          max defocus depth
+   */
+  public void setMaxDefocusDepth(float pMaxDefocusDepth)
+  {
+    if (mMaxDefocusDepth != pMaxDefocusDepth)
+    {
+      mMaxDefocusDepth = pMaxDefocusDepth;
+      requestUpdate();
+    }
+  }
+
+  /**
+   * Returns the range [min, max] of z positions, in normalized detection
+   * coordinates, of the planes collected for a given focus position.
+   * 
+   * @param pZFocusPosition
+   *          z focus position (normalized coordinates within [0,1])
+   * @return collected z range
+   */
+  public float[] getCollectedZRange(float pZFocusPosition)
+  {
+    return new float[]
+    { Math.max(0, pZFocusPosition - mMaxDefocusDepth),
+      Math.min(1, pZFocusPosition + mMaxDefocusDepth) };
+  }
+
   /**
    * Returns the min sigma for detection scattering.
    * 
@@ -261,6 +305,9 @@ public class WideFieldDetectionOptics extends DetectionOpticsBase
       float lDefocusDepthInNormCoordinates = ((float) zi
                                               / lLightMapHalfDepth);
 
+      if (lDefocusDepthInNormCoordinates > mMaxDefocusDepth)
+        continue;
+
       float lFocusZ1 =
                      mZFocusPosition - lDefocusDepthInNormCoordinates;
 
@@ -35,7 +35,8 @@ public class LightSheetIllumination extends IlluminationOpticsBase
 
   protected ClearCLImage mBallisticLightImageA, mBallisticLightImageB,
       mScatteredLightImageA, mScatteredLightImageB;
-  protected ClearCLKernel mPropagateLightSheetKernel;
+  protected ClearCLKernel mPropagateLightSheetKernel,
+      mPropagateRaysKernel;
   private ClearCLBuffer mCombinedTransformMatrixBuffer;
 
   protected Vector4f mLightSheetPosition, mLightSheetAxisVector,
@@ -47,6 +48,8 @@ public class LightSheetIllumination extends IlluminationOpticsBase
       mLightSheetGammaInRad, mLightSheetThetaInRad, mLightSheetHeigth,
       mScatterConstant, mScatterLoss, mSigmaMin, mSigmaMax;
 
+  private volatile boolean mBatchedPropagation = false;
+
   private Matrix4f mDetectionTransformMatrix;
 
   /**
@@ -221,6 +224,39 @@ public class LightSheetIllumination extends IlluminationOpticsBase
     }
   }
 
+  /**
+   * Returns true if the light sheet is propagated in a single kernel launch
+   * instead of one launch per x column.
+   * 
+   * @return true if batched propagation
+   */
+  public boolean isBatchedPropagation()
+  {
+    return mBatchedPropagation;
+  }
+
+  /**
+   * Sets whether the light sheet is propagated in a single kernel launch, with
+   * one work-item per (y,z) ray looping over all x columns, instead of one
+   * launch per x column. Batched propagation removes the launch overhead that
+   * dominates for small light maps, but it is an approximation: scattered light
+   * stays within its ray instead of diffusing to neighboring rays (sigma min
+   * and max are ignored), and the ballistic light is attenuated along x
+   * instead of along the light sheet axis. Both modes agree for non-scattering
+   * phantoms and light sheets propagating along x.
+   * 
+   * @param pBatchedPropagation
+   *          true for batched propagation, false for one launch per column
+   */
+  public void setBatchedPropagation(boolean pBatchedPropagation)
+  {
+    if (mBatchedPropagation != pBatchedPropagation)
+    {
+      mBatchedPropagation = pBatchedPropagation;
+      requestUpdate();
+    }
+  }
+
   /**
    * Returns lightsheet height in normalized units.
    * 
@@ -651,6 +687,7 @@ public class LightSheetIllumination extends IlluminationOpticsBase
     lProgram.buildAndLog();
 
     mPropagateLightSheetKernel = lProgram.createKernel("propagate");
+    mPropagateRaysKernel = lProgram.createKernel("propagaterays");
   }
 
   @Override
@@ -659,13 +696,25 @@ public class LightSheetIllumination extends IlluminationOpticsBase
     if (!isUpdateNeeded())
       return;
 
+    if (isBatchedPropagation())
+    {
+      propagateRays(pWaitToFinish);
+      super.render(pWaitToFinish);
+      return;
+    }
+
     initializeLightSheet(mBallisticLightImageA,
                          mBallisticLightImageB,
                          mScatteredLightImageA,
                          mScatteredLightImageB,
                          false);
 
-    setInvariantKernelParameters(mScatteringPhantomImage);
+    setInvariantKernelParameters(mPropagateLightSheetKernel,
+                                 mScatteringPhantomImage);
+
+    mPropagateLightSheetKernel.setArgument("sigmamin", getSigmaMin());
+
+    mPropagateLightSheetKernel.setArgument("sigmamax", getSigmaMax());
 
     for (int i = 0; i < getWidth(); i++)
     {
@@ -693,6 +742,35 @@ public class LightSheetIllumination extends IlluminationOpticsBase
     super.render(pWaitToFinish);
   }
 
+  /**
+   * Configures a pure-Java light sheet ray propagator with the parameters of
+   * this light sheet: effective geometry, beam, scattering and transform
+   * matrix. The propagator then computes light maps on the CPU, with the same
+   * model as batched propagation.
+   * 
+   * @param pLightSheetRayPropagator
+   *          propagator to configure
+   */
+  public void configure(LightSheetRayPropagator pLightSheetRayPropagator)
+  {
+    updateEffectiveVectors();
+
+    float lEffectiveIntensity = getIntensity()
+                                * (1.0f / max(1.0f / getHeight(),
+                                              getLightSheetHeigth()));
+
+    pLightSheetRayPropagator.setLightSheet(mLightSheetEffectivePosition,
+                                           mLightSheetEffectiveAxisVector,
+                                           mLightSheetEffectiveNormalVector);
+    pLightSheetRayPropagator.setBeam(getLightWavelength(),
+                                     lEffectiveIntensity,
+                                     getSpotSizeAtNeck(),
+                                     getLightSheetHeigth());
+    pLightSheetRayPropagator.setScattering(getScatterConstant(),
+                                           getScatterLoss());
+    pLightSheetRayPropagator.setPhantomTransformMatrix(getPhantomAndDetectionTransformMatrix());
+  }
+
   private void updateEffectiveVectors()
   {
     Matrix4f lInverseDetectionTransformMatrix =
@@ -737,66 +815,63 @@ public class LightSheetIllumination extends IlluminationOpticsBase
 
   }
 
-  private void setInvariantKernelParameters(ClearCLImage pScatteringPhantomImage)
+  private void setInvariantKernelParameters(ClearCLKernel pKernel,
+                                            ClearCLImage pScatteringPhantomImage)
   {
     updateEffectiveVectors();
 
-    mPropagateLightSheetKernel.setGlobalOffsets(0, 0);
-    mPropagateLightSheetKernel.setGlobalSizes(getHeight(),
-                                              getDepth());
-
-    mPropagateLightSheetKernel.setArgument("scatterphantom",
-                                           pScatteringPhantomImage);
-    mPropagateLightSheetKernel.setArgument("lightmapout", getImage());
-
-    mPropagateLightSheetKernel.setArgument("lspx",
-                                           mLightSheetEffectivePosition.x);
-    mPropagateLightSheetKernel.setArgument("lspy",
-                                           mLightSheetEffectivePosition.y);
-    mPropagateLightSheetKernel.setArgument("lspz",
-                                           mLightSheetEffectivePosition.z);
-
-    mPropagateLightSheetKernel.setArgument("lsax",
-                                           mLightSheetEffectiveAxisVector.x);
-    mPropagateLightSheetKernel.setArgument("lsay",
-                                           mLightSheetEffectiveAxisVector.y);
-    mPropagateLightSheetKernel.setArgument("lsaz",
-                                           mLightSheetEffectiveAxisVector.z);
-
-    mPropagateLightSheetKernel.setArgument("lsnx",
-                                           mLightSheetEffectiveNormalVector.x);
-    mPropagateLightSheetKernel.setArgument("lsny",
-                                           mLightSheetEffectiveNormalVector.y);
-    mPropagateLightSheetKernel.setArgument("lsnz",
-                                           mLightSheetEffectiveNormalVector.z);
-
-    mPropagateLightSheetKernel.setArgument("lambda",
-                                           getLightWavelength());
+    pKernel.setGlobalOffsets(0, 0);
+    pKernel.setGlobalSizes(getHeight(),
+                           getDepth());
+
+    pKernel.setArgument("scatterphantom",
+                        pScatteringPhantomImage);
+    pKernel.setArgument("lightmapout", getImage());
+
+    pKernel.setArgument("lspx",
+                        mLightSheetEffectivePosition.x);
+    pKernel.setArgument("lspy",
+                        mLightSheetEffectivePosition.y);
+    pKernel.setArgument("lspz",
+                        mLightSheetEffectivePosition.z);
+
+    pKernel.setArgument("lsax",
+                        mLightSheetEffectiveAxisVector.x);
+    pKernel.setArgument("lsay",
+                        mLightSheetEffectiveAxisVector.y);
+    pKernel.setArgument("lsaz",
+                        mLightSheetEffectiveAxisVector.z);
+
+    pKernel.setArgument("lsnx",
+                        mLightSheetEffectiveNormalVector.x);
+    pKernel.setArgument("lsny",
+                        mLightSheetEffectiveNormalVector.y);
+    pKernel.setArgument("lsnz",
+                        mLightSheetEffectiveNormalVector.z);
+
+    pKernel.setArgument("lambda",
+                        getLightWavelength());
 
     float lEffectiveIntensity = getIntensity()
                                 * (1.0f / max(1.0f / getHeight(),
                                               getLightSheetHeigth()));
 
-    mPropagateLightSheetKernel.setArgument("intensity",
-                                           lEffectiveIntensity);
-
-    mPropagateLightSheetKernel.setArgument("scatterconstant",
-                                           getScatterConstant());
+    pKernel.setArgument("intensity",
+                        lEffectiveIntensity);
 
-    mPropagateLightSheetKernel.setArgument("scatterloss",
-                                           1.0f - getScatterLoss());
+    pKernel.setArgument("scatterconstant",
+                        getScatterConstant());
 
-    mPropagateLightSheetKernel.setArgument("sigmamin", getSigmaMin());
-
-    mPropagateLightSheetKernel.setArgument("sigmamax", getSigmaMax());
+    pKernel.setArgument("scatterloss",
+                        1.0f - getScatterLoss());
 
-    mPropagateLightSheetKernel.setArgument("w0", getSpotSizeAtNeck());
+    pKernel.setArgument("w0", getSpotSizeAtNeck());
 
-    mPropagateLightSheetKernel.setArgument("lsheight",
-                                           getLightSheetHeigth());
+    pKernel.setArgument("lsheight",
+                        getLightSheetHeigth());
 
-    mPropagateLightSheetKernel.setOptionalArgument("matrix",
-                                                   getCombinedTransformMatrixBuffer());
+    pKernel.setOptionalArgument("matrix",
+                                getCombinedTransformMatrixBuffer());
   }
 
   private void propagate(int pXPosition,
@@ -825,6 +900,28 @@ public class LightSheetIllumination extends IlluminationOpticsBase
 
   }
 
+  private void propagateRays(boolean pWaitToFinish)
+  {
+    setInvariantKernelParameters(mPropagateRaysKernel,
+                                 mScatteringPhantomImage);
+
+    final int lWidth = (int) getWidth();
+    if (mLightSheetEffectiveAxisVector.x > 0)
+    {
+      mPropagateRaysKernel.setArgument("xbegin", 0);
+      mPropagateRaysKernel.setArgument("xend", lWidth);
+      mPropagateRaysKernel.setArgument("xstep", 1);
+    }
+    else
+    {
+      mPropagateRaysKernel.setArgument("xbegin", lWidth - 1);
+      mPropagateRaysKernel.setArgument("xend", -1);
+      mPropagateRaysKernel.setArgument("xstep", -1);
+    }
+
+    mPropagateRaysKernel.run(pWaitToFinish);
+  }
+
   private void initializeLightSheet(ClearCLImage pBallisticLightImageA,
                                     ClearCLImage pBallisticLightImageB,
                                     ClearCLImage pScatteredLightImageA,
@@ -860,6 +957,7 @@ public class LightSheetIllumination extends IlluminationOpticsBase
     mScatteredLightImageB.close();
 
     mPropagateLightSheetKernel.close();
+    mPropagateRaysKernel.close();
 
     super.close();
   }
@@ -0,0 +1,365 @@
+package simbryo.synthoscopy.optics.illumination.impl.lightsheet;
+
+import java.util.concurrent.ForkJoinPool;
+
+import javax.vecmath.Matrix4f;
+import javax.vecmath.Point3f;
+import javax.vecmath.Vector4f;
+
+import simbryo.util.parallel.ParallelRange;
+
+/**
+ * Pure-Java light sheet propagation, same model as the batched OpenCL
+ * propagation of LightSheetIllumination: each (y,z) ray is propagated along
+ * all x columns with its own ballistic and scattered light accumulators, and
+ * rays are processed in parallel on a fork-join pool. Light maps and scattering
+ * phantoms are float arrays (x fastest, then y, then z), all positions and
+ * vectors are in normalized coordinates.
+ *
+ * @author royer
+ */
+public class LightSheetRayPropagator
+{
+  private volatile ForkJoinPool mPool = ForkJoinPool.commonPool();
+
+  private final Vector4f mPosition = new Vector4f(0.5f, 0.5f, 0.5f, 1),
+      mAxisVector = new Vector4f(1, 0, 0, 1),
+      mNormalVector = new Vector4f(0, 0, 1, 1);
+  private final Matrix4f mPhantomTransformMatrix = new Matrix4f();
+
+  private volatile float mLambda = 0.0005f, mIntensity = 1,
+      mSpotSizeAtNeck = 0.003f, mLightSheetHeight = 0.5f,
+      mScatterConstant = 100.0f, mScatterLoss = 0.02f;
+
+  /**
+   * Instantiates a light sheet ray propagator.
+   */
+  public LightSheetRayPropagator()
+  {
+    super();
+    mPhantomTransformMatrix.setIdentity();
+  }
+
+  /**
+   * Returns the fork-join pool used to propagate rays.
+   *
+   * @return pool
+   */
+  public ForkJoinPool getPool()
+  {
+    return mPool;
+  }
+
+  /**
+   * Sets the fork-join pool used to propagate rays, by default the common
+   * pool.
+   *
+   * @param pPool
+   *          pool, or null to propagate all rays on the caller thread.
+   */
+  public void setPool(ForkJoinPool pPool)
+  {
+    mPool = pPool;
+  }
+
+  /**
+   * Sets the light sheet geometry: center position, axis vector (propagation
+   * direction) and normal vector. Vectors are expected to be normalized and
+   * orthogonal.
+   *
+   * @param pPosition
+   *          center position
+   * @param pAxisVector
+   *          axis vector
+   * @param pNormalVector
+   *          normal vector
+   */
+  public void setLightSheet(Vector4f pPosition,
+                            Vector4f pAxisVector,
+                            Vector4f pNormalVector)
+  {
+    mPosition.set(pPosition);
+    mAxisVector.set(pAxisVector);
+    mNormalVector.set(pNormalVector);
+  }
+
+  /**
+   * Sets the beam parameters.
+   *
+   * @param pLambda
+   *          wavelength in normalized units
+   * @param pIntensity
+   *          intensity at the center of the light sheet
+   * @param pSpotSizeAtNeck
+   *          spot size at neck in normalized units
+   * @param pLightSheetHeight
+   *          light sheet height in normalized units
+   */
+  public void setBeam(float pLambda,
+                      float pIntensity,
+                      float pSpotSizeAtNeck,
+                      float pLightSheetHeight)
+  {
+    mLambda = pLambda;
+    mIntensity = pIntensity;
+    mSpotSizeAtNeck = pSpotSizeAtNeck;
+    mLightSheetHeight = pLightSheetHeight;
+  }
+
+  /**
+   * Sets the scattering parameters.
+   *
+   * @param pScatterConstant
+   *          scattering constant, the bigger the more light gets transfered
+   *          from ballistic to scattered.
+   * @param pScatterLoss
+   *          proportion of scattered light (within [0,1]) lost per voxel.
+   */
+  public void setScattering(float pScatterConstant, float pScatterLoss)
+  {
+    mScatterConstant = pScatterConstant;
+    mScatterLoss = pScatterLoss;
+  }
+
+  /**
+   * Sets the transform matrix applied to normalized light map coordinates to
+   * obtain normalized scattering phantom coordinates.
+   *
+   * @param pPhantomTransformMatrix
+   *          phantom transform matrix
+   */
+  public void setPhantomTransformMatrix(Matrix4f pPhantomTransformMatrix)
+  {
+    mPhantomTransformMatrix.set(pPhantomTransformMatrix);
+  }
+
+  /**
+   * Propagates the light sheet through a scattering phantom and writes the
+   * resulting light map. The light sheet enters from x=0 if its axis points
+   * towards positive x, and from the other side otherwise.
+   *
+   * @param pScatteringPhantom
+   *          scattering phantom, values within [0,1]
+   * @param pPhantomDimensions
+   *          scattering phantom dimensions
+   * @param pLightMap
+   *          light map to write
+   * @param pLightMapDimensions
+   *          light map dimensions
+   */
+  public void propagate(final float[] pScatteringPhantom,
+                        final int[] pPhantomDimensions,
+                        final float[] pLightMap,
+                        final int... pLightMapDimensions)
+  {
+    final int lWidth = pLightMapDimensions[0];
+    final int lHeight = pLightMapDimensions[1];
+    final int lDepth = pLightMapDimensions[2];
+    final int lNumberOfRays = lHeight * lDepth;
+
+    final boolean lForward = mAxisVector.x > 0;
+    final int lBeginX = lForward ? 0 : lWidth - 1;
+    final int lEndX = lForward ? lWidth : -1;
+    final int lStepX = lForward ? 1 : -1;
+
+    final float lLambda = mLambda;
+    final float lIntensity = mIntensity;
+    final float lSpotSizeAtNeck = mSpotSizeAtNeck;
+    final float lLightSheetHeight = mLightSheetHeight;
+    final float lScatterFactor = mScatterConstant / lWidth;
+    final float lScatterLoss = 1.0f - mScatterLoss;
+
+    final Matrix4f lMatrix = new Matrix4f(mPhantomTransformMatrix);
+    final Vector4f lPosition = new Vector4f(mPosition);
+    final Vector4f lAxisVector = new Vector4f(mAxisVector);
+    final Vector4f lNormalVector = new Vector4f(mNormalVector);
+
+    final ForkJoinPool lPool = mPool;
+    ParallelRange.forEach(lPool,
+                          0,
+                          lNumberOfRays,
+                          ParallelRange.getNumberOfChunks(lPool,
+                                                          lNumberOfRays,
+                                                          64),
+                          (c, b, e) -> {
+                            final Point3f lPoint = new Point3f();
+                            for (int r = b; r < e; r++)
+                            {
+                              final int y = r % lHeight;
+                              final int z = r / lHeight;
+                              final int lRayOffset = lWidth
+                                                     * (y + lHeight * z);
+                              final float ny = (y + 0.5f) / lHeight;
+                              final float nz = (z + 0.5f) / lDepth;
+
+                              // private accumulators carried from one
+                              // column to the next:
+                              float lBallisticRatio = 1.0f;
+                              float lScattered = 0.0f;
+
+                              for (int x = lBeginX; x != lEndX; x +=
+                                                                   lStepX)
+                              {
+                                final float nx = (x + 0.5f) / lWidth;
+
+                                final float lBallistic0 =
+                                                        lightSheetFunction(lLambda,
+                                                                           lIntensity,
+                                                                           lSpotSizeAtNeck,
+                                                                           lLightSheetHeight,
+                                                                           lPosition,
+                                                                           lAxisVector,
+                                                                           lNormalVector,
+                                                                           nx,
+                                                                           ny,
+                                                                           nz);
+
+                                lPoint.set(nx, ny, nz);
+                                lMatrix.transform(lPoint);
+                                final float lScatterValue =
+                                                          sampleLinear(pScatteringPhantom,
+                                                                       pPhantomDimensions,
+                                                                       lPoint.x,
+                                                                       lPoint.y,
+                                                                       lPoint.z);
+
+                                final float lTransfer =
+                                                      1.0f - (float) Math.pow(2,
+                                                                              -lScatterFactor
+                                                                                 * lScatterValue);
+
+                                final float lTransferredLight =
+                                                              lTransfer
+                                                                * lBallisticRatio
+                                                                * lBallistic0;
+
+                                lBallisticRatio *= 1.0f - lTransfer;
+
+                                lScattered = lScatterLoss * lScattered
+                                             + lTransferredLight;
+
+                                pLightMap[lRayOffset + x] =
+                                                          lBallistic0
+                                                            * lBallisticRatio
+                                                            + lScattered;
+                              }
+                            }
+                          });
+  }
+
+  /**
+   * Ballistic light sheet intensity (gaussian beam profile across the sheet,
+   * cut off beyond the sheet height) at a given position, same as the
+   * 'lightsheetfun' function of the OpenCL kernels.
+   *
+   * @param pLambda
+   *          wavelength
+   * @param pIntensity
+   *          intensity
+   * @param pSpotSizeAtNeck
+   *          spot size at neck
+   * @param pLightSheetHeight
+   *          light sheet height
+   * @param pPosition
+   *          light sheet center position
+   * @param pAxisVector
+   *          light sheet axis vector
+   * @param pNormalVector
+   *          light sheet normal vector
+   * @param pX
+   *          x coordinate
+   * @param pY
+   *          y coordinate
+   * @param pZ
+   *          z coordinate
+   * @return ballistic light intensity
+   */
+  public static float lightSheetFunction(float pLambda,
+                                         float pIntensity,
+                                         float pSpotSizeAtNeck,
+                                         float pLightSheetHeight,
+                                         Vector4f pPosition,
+                                         Vector4f pAxisVector,
+                                         Vector4f pNormalVector,
+                                         float pX,
+                                         float pY,
+                                         float pZ)
+  {
+    final float rx = pX - pPosition.x;
+    final float ry = pY - pPosition.y;
+    final float rz = pZ - pPosition.z;
+
+    final float ax = pAxisVector.x, ay = pAxisVector.y,
+        az = pAxisVector.z;
+    final float nx = pNormalVector.x, ny = pNormalVector.y,
+        nz = pNormalVector.z;
+
+    final float x = ax * rx + ay * ry + az * rz;
+    final float y = (ay * nz - az * ny) * rx
+                    + (az * nx - ax * nz) * ry
+                    + (ax * ny - ay * nx) * rz;
+    final float z = Math.abs(nx * rx + ny * ry + nz * rz);
+
+    final float w02 = pSpotSizeAtNeck * pSpotSizeAtNeck;
+    final float lNx = (float) ((x * pLambda) / (Math.PI * w02));
+    final float wx2 = w02 * (1.0f + lNx * lNx);
+    final float a2 = w02 / wx2;
+    final float b2 = (z * z) / wx2;
+
+    final float lSheet = pIntensity * a2 * (float) Math.exp(-2 * b2);
+
+    final float lEdge0 = 0.5f * pLightSheetHeight;
+    final float t = Math.max(0,
+                             Math.min(1,
+                                      (Math.abs(y) - lEdge0) / 0.01f));
+    return lSheet * (1 - t * t * (3 - 2 * t));
+  }
+
+  /**
+   * Samples a 3D image at normalized coordinates with linear interpolation and
+   * clamp-to-edge addressing, as OpenCL samplers do.
+   */
+  private static float sampleLinear(float[] pImage,
+                                    int[] pDimensions,
+                                    float pX,
+                                    float pY,
+                                    float pZ)
+  {
+    final int lWidth = pDimensions[0];
+    final int lHeight = pDimensions[1];
+    final int lDepth = pDimensions[2];
+
+    final float u = pX * lWidth - 0.5f;
+    final float v = pY * lHeight - 0.5f;
+    final float w = pZ * lDepth - 0.5f;
+
+    final int i0 = (int) Math.floor(u);
+    final int j0 = (int) Math.floor(v);
+    final int k0 = (int) Math.floor(w);
+    final float a = u - i0, b = v - j0, c = w - k0;
+
+    final int xi0 = clamp(i0, lWidth), xi1 = clamp(i0 + 1, lWidth);
+    final int yj0 = clamp(j0, lHeight) * lWidth,
+        yj1 = clamp(j0 + 1, lHeight) * lWidth;
+    final int zk0 = clamp(k0, lDepth) * lWidth * lHeight,
+        zk1 = clamp(k0 + 1, lDepth) * lWidth * lHeight;
+
+    final float lValue00 = (1 - a) * pImage[xi0 + yj0 + zk0]
+                           + a * pImage[xi1 + yj0 + zk0];
+    final float lValue10 = (1 - a) * pImage[xi0 + yj1 + zk0]
+                           + a * pImage[xi1 + yj1 + zk0];
+    final float lValue01 = (1 - a) * pImage[xi0 + yj0 + zk1]
+                           + a * pImage[xi1 + yj0 + zk1];
+    final float lValue11 = (1 - a) * pImage[xi0 + yj1 + zk1]
+                           + a * pImage[xi1 + yj1 + zk1];
+
+    return (1 - c) * ((1 - b) * lValue00 + b * lValue10)
+           + c * ((1 - b) * lValue01 + b * lValue11);
+  }
+
+  private static int clamp(int pIndex, int pLength)
+  {
+    return Math.max(0, Math.min(pLength - 1, pIndex));
+  }
+
+}
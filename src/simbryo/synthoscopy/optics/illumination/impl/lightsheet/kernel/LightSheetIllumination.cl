@@ -167,3 +167,74 @@ __kernel void propagate(   __read_only    image3d_t  scatterphantom,
 
 }
 
+
+
+// Batched propagation: one work-item per (y,z) ray, looping over all x columns
+// with private accumulators, a single launch per light sheet. Scattered light
+// stays within its ray (no diffusion across rays) and the ballistic ratio is
+// carried along x instead of along the light sheet axis.
+__kernel void propagaterays(   __read_only    image3d_t  scatterphantom,
+                               __constant     float*     matrix,
+                               __write_only   image3d_t  lightmapout,
+                               const          int        xbegin,
+                               const          int        xend,
+                               const          int        xstep,
+                               const          float      lambda,
+                               const          float      intensity,
+                               const          float      scatterconstant,                           
+                               const          float      scatterloss,
+                               const          float      w0,
+                               const          float      lsheight,
+                               const          float      lspx,
+                               const          float      lspy,
+                               const          float      lspz,
+                               const          float      lsax,
+                               const          float      lsay,
+                               const          float      lsaz,
+                               const          float      lsnx,
+                               const          float      lsny,
+                               const          float      lsnz
+                          )
+{
+  const sampler_t normsamplerclampedge = CLK_NORMALIZED_COORDS_TRUE  | CLK_ADDRESS_CLAMP_TO_EDGE | CLK_FILTER_LINEAR;
+ 
+  const float16 matrix16  = matrix_load(0, matrix);
+ 
+  const int lmwidth  = get_image_width(lightmapout);
+  const int lmheight = get_image_height(lightmapout);
+  const int lmdepth  = get_image_depth(lightmapout);
+  const float4 lmdim = (float4){(float)lmwidth,(float)lmheight,(float)lmdepth, 1.0f};
+  const float4 ilmdim = 1.0f/lmdim;
+  
+  const float4 lsp    = (float4){lspx, lspy, lspz, 0.0f};
+  const float4 lsa    = (float4){lsax, lsay, lsaz, 0.0f};
+  const float4 lsn    = (float4){lsnx, lsny, lsnz, 0.0f};
+  
+  const int y = get_global_id(0); 
+  const int z = get_global_id(1);
+  
+  // private accumulators carried from one column to the next:
+  float ballisticratio = 1.0f;
+  float scattered      = 0.0f;
+  
+  for(int x=xbegin; x!=xend; x+=xstep)
+  {
+    const float4 pos = ((float4){0.5f, 0.5f, 0.5f, 0.0f}+(float4){(float)x,(float)y,(float)z, 0.0f})*ilmdim;
+  
+    const float ballistic0 =  lightsheetfun(lambda, intensity, w0, lsheight, lsp, lsa, lsn, pos);
+    
+    const float scattermapvalue = trans_read_imagef(scatterphantom, normsamplerclampedge, matrix16, pos).x;
+    
+    const float transfer = 1.0f-native_exp2(-(scatterconstant/lmwidth)*scattermapvalue);
+    
+    const float transferredlight = transfer*ballisticratio*ballistic0;
+    
+    ballisticratio *= 1.0f-transfer;
+    
+    const float ballistic = ballistic0 * ballisticratio;
+    
+    scattered = scatterloss*scattered + transferredlight;
+    
+    write_imagef(lightmapout, (int4){x,y,z,0}, ballistic + scattered); 
+  }
+}
@@ -0,0 +1,122 @@
+package simbryo.synthoscopy.optics.illumination.impl.lightsheet.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import javax.vecmath.Vector4f;
+
+import org.junit.Test;
+
+import simbryo.synthoscopy.optics.illumination.impl.lightsheet.LightSheetRayPropagator;
+
+/**
+ * Light sheet ray propagator tests
+ *
+ * @author royer
+ */
+public class LightSheetRayPropagatorTests
+{
+
+  /**
+   * Tests that, without scattering, the light map is the ballistic light sheet
+   * profile, and that scattering attenuates the ballistic light along rays.
+   */
+  @Test
+  public void testPropagation()
+  {
+    int[] lDimensions = new int[]
+    { 32, 16, 24 };
+    int lVolume = 32 * 16 * 24;
+    float[] lLightMap = new float[lVolume];
+
+    Vector4f lPosition = new Vector4f(0.5f, 0.5f, 0.5f, 1);
+    Vector4f lAxis = new Vector4f(1, 0, 0, 1);
+    Vector4f lNormal = new Vector4f(0, 0, 1, 1);
+
+    LightSheetRayPropagator lPropagator = new LightSheetRayPropagator();
+    lPropagator.setLightSheet(lPosition, lAxis, lNormal);
+    lPropagator.setBeam(0.0005f, 1, 0.05f, 0.5f);
+    lPropagator.propagate(new float[lVolume],
+                          lDimensions,
+                          lLightMap,
+                          lDimensions);
+
+    for (int z = 0; z < 24; z++)
+      for (int y = 0; y < 16; y++)
+        for (int x = 0; x < 32; x++)
+          assertEquals(LightSheetRayPropagator.lightSheetFunction(0.0005f,
+                                                                  1,
+                                                                  0.05f,
+                                                                  0.5f,
+                                                                  lPosition,
+                                                                  lAxis,
+                                                                  lNormal,
+                                                                  (x + 0.5f)
+                                                                         / 32,
+                                                                  (y + 0.5f)
+                                                                              / 16,
+                                                                  (z + 0.5f)
+                                                                                   / 24),
+                       lLightMap[x + 32 * (y + 16 * z)],
+                       0);
+
+    float[] lPhantom = new float[lVolume];
+    Arrays.fill(lPhantom, 1);
+    float[] lScatteredLightMap = new float[lVolume];
+    lPropagator.propagate(lPhantom,
+                          lDimensions,
+                          lScatteredLightMap,
+                          lDimensions);
+
+    int lCenter = 32 * (8 + 16 * 12);
+    assertTrue(lScatteredLightMap[lCenter + 31] < lLightMap[lCenter
+                                                            + 31]);
+    assertEquals(lScatteredLightMap[lCenter], lLightMap[lCenter], 0.1f);
+  }
+
+  /**
+   * Tests that parallel and sequential propagations are identical, and that
+   * light sheets going backwards mirror light sheets going forward.
+   */
+  @Test
+  public void testParallelAndBackwards()
+  {
+    int[] lDimensions = new int[]
+    { 40, 32, 16 };
+    int lVolume = 40 * 32 * 16;
+
+    float[] lPhantom = new float[lVolume];
+    for (int i = 0; i < lVolume; i++)
+      lPhantom[i] = 0.5f;
+
+    LightSheetRayPropagator lPropagator = new LightSheetRayPropagator();
+    lPropagator.setBeam(0.0005f, 1, 0.05f, 0.5f);
+
+    float[] lParallel = new float[lVolume];
+    lPropagator.propagate(lPhantom, lDimensions, lParallel, lDimensions);
+
+    float[] lSequential = new float[lVolume];
+    lPropagator.setPool(null);
+    lPropagator.propagate(lPhantom,
+                          lDimensions,
+                          lSequential,
+                          lDimensions);
+    assertArrayEquals(lParallel, lSequential, 0);
+
+    float[] lBackwards = new float[lVolume];
+    lPropagator.setLightSheet(new Vector4f(0.5f, 0.5f, 0.5f, 1),
+                              new Vector4f(-1, 0, 0, 1),
+                              new Vector4f(0, 0, 1, 1));
+    lPropagator.propagate(lPhantom, lDimensions, lBackwards, lDimensions);
+
+    for (int r = 0; r < 32 * 16; r++)
+      for (int x = 0; x < 40; x++)
+        assertEquals(lParallel[40 * r + x],
+                     lBackwards[40 * r + 39 - x],
+                     1e-6f);
+  }
+
+}
@@ -0,0 +1,423 @@
+package simbryo.synthoscopy.phantom;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import coremem.ContiguousMemoryInterface;
+import simbryo.dynamics.tissue.TissueDynamicsInterface;
+import simbryo.particles.neighborhood.NeighborhoodGrid;
+import simbryo.synthoscopy.SynthoscopyBase;
+import simbryo.util.parallel.ParallelRange;
+
+/**
+ * Base class for phantom renderers running on the CPU, without OpenCL. The
+ * image is a float array (x fastest, then y, then z). As for OpenCL renderers,
+ * the stack is cut into tiles, one per cell of the neighborhood grid, that play
+ * the role of work groups: the particles of a tile are loaded once and then
+ * used for all voxels of the tile. Tiles are rendered in parallel on a
+ * fork-join pool.
+ *
+ * @author royer
+ */
+public abstract class CPUPhantomRendererBase extends
+                                             SynthoscopyBase<float[]>
+                                             implements
+                                             PhantomRendererInterface<float[]>
+{
+  /**
+   * Default tile size along each dimension, same as the largest work group
+   * size used by OpenCL renderers.
+   */
+  public static final int cDefaultTileSize = 8;
+
+  private final TissueDynamicsInterface mTissue;
+  protected boolean[] mPlaneAlreadyDrawnTable;
+
+  private volatile float mSignalIntensity = 1,
+      mNoiseOverSignalRatio = 0f;
+  private volatile int mStartZ, mEndZ;
+
+  protected final float[] mImage;
+  protected final int mTileSizeX, mTileSizeY, mTileSizeZ;
+
+  protected NeighborhoodGrid mNeighborhoodGrid;
+
+  private final PhantomChangeTracker mChangeTracker;
+  private volatile boolean mTrackTissueChanges = false;
+
+  private volatile ForkJoinPool mPool = ForkJoinPool.commonPool();
+
+  /**
+   * Instantiates a CPU phantom renderer for a given tissue dynamics, tile size
+   * and stack dimensions. Stack dimensions are rounded down to a multiple of
+   * the tile size.
+   *
+   * @param pMaxParticlesPerGridCell
+   *          max number of particles per cell
+   * @param pTissueDynamics
+   *          tissue dynamics object
+   * @param pTileSize
+   *          tile size along each dimension
+   * @param pStackDimensions
+   *          stack dimensions
+   */
+  public CPUPhantomRendererBase(int pMaxParticlesPerGridCell,
+                                final TissueDynamicsInterface pTissueDynamics,
+                                int pTileSize,
+                                final long... pStackDimensions)
+  {
+    super(adaptImageDimensionsToTileSize(pTileSize, pStackDimensions));
+    mTissue = pTissueDynamics;
+
+    final int lWidth = Math.toIntExact(getWidth());
+    final int lHeight = Math.toIntExact(getHeight());
+    final int lDepth = Math.toIntExact(getDepth());
+
+    mPlaneAlreadyDrawnTable = new boolean[lDepth];
+    mImage = new float[Math.multiplyExact(Math.multiplyExact(lWidth,
+                                                             lHeight),
+                                          lDepth)];
+
+    int[] lGridDimensions = new int[]
+    { Math.max(1, lWidth / pTileSize),
+      Math.max(1, lHeight / pTileSize),
+      Math.max(1, lDepth / pTileSize) };
+
+    mNeighborhoodGrid = new NeighborhoodGrid(pMaxParticlesPerGridCell,
+                                             lGridDimensions);
+    mNeighborhoodGrid.setParallel(true);
+
+    mTileSizeX = lWidth / lGridDimensions[0];
+    mTileSizeY = lHeight / lGridDimensions[1];
+    mTileSizeZ = lDepth / lGridDimensions[2];
+
+    mChangeTracker =
+                   new PhantomChangeTracker(Math.toIntExact(getDepth()),
+                                            lGridDimensions[2]);
+
+    setBeginZ(0);
+    setEndZ(lDepth - 1);
+
+    clear(false);
+  }
+
+  /**
+   * Rounds down the given image dimensions to a multiple of the tile size.
+   *
+   * @param pTileSize
+   *          tile size
+   * @param pImageDimensions
+   *          image dimensions
+   * @return possibly modified image dimensions
+   */
+  public static long[] adaptImageDimensionsToTileSize(int pTileSize,
+                                                      long... pImageDimensions)
+  {
+    long[] lNewDimensions = new long[pImageDimensions.length];
+
+    for (int i = 0; i < pImageDimensions.length; i++)
+      lNewDimensions[i] = Math.max(pTileSize,
+                                   (pImageDimensions[i] / pTileSize)
+                                              * pTileSize);
+
+    return lNewDimensions;
+  }
+
+  @Override
+  public TissueDynamicsInterface getTissue()
+  {
+    return mTissue;
+  }
+
+  /**
+   * Returns the fork-join pool used to render tiles.
+   *
+   * @return pool
+   */
+  public ForkJoinPool getPool()
+  {
+    return mPool;
+  }
+
+  /**
+   * Sets the fork-join pool used to render tiles, by default the common pool.
+   *
+   * @param pPool
+   *          pool, or null to render all tiles on the caller thread.
+   */
+  public void setPool(ForkJoinPool pPool)
+  {
+    mPool = pPool;
+  }
+
+  @Override
+  public float[] getImage()
+  {
+    return mImage;
+  }
+
+  @Override
+  public void copyTo(ContiguousMemoryInterface pMemory,
+                     boolean pBlocking)
+  {
+    pMemory.copyFrom(mImage);
+  }
+
+  @Override
+  public void clear(boolean pWaitToFinish)
+  {
+    Arrays.fill(mImage, 0);
+    super.clear(pWaitToFinish);
+    invalidateAll();
+  }
+
+  @Override
+  public void requestUpdate()
+  {
+    super.requestUpdate();
+    invalidateAll();
+  }
+
+  protected void invalidateAll()
+  {
+    Arrays.fill(mPlaneAlreadyDrawnTable, false);
+  }
+
+  /**
+   * Returns the change tracker used to invalidate only the z-slabs touched by
+   * tissue changes since the last rendering.
+   *
+   * @return change tracker
+   */
+  public PhantomChangeTracker getChangeTracker()
+  {
+    return mChangeTracker;
+  }
+
+  /**
+   * Returns true if tissue changes are tracked between renderings.
+   *
+   * @return true if tissue changes are tracked
+   */
+  public boolean isTrackTissueChanges()
+  {
+    return mTrackTissueChanges;
+  }
+
+  /**
+   * Sets whether tissue changes are tracked between renderings. When tracked,
+   * particle positions and radii are compared to those of the last rendering,
+   * and only the z-slabs touched by moved, new or removed particles are
+   * re-rendered. Planes that are not re-rendered keep the noise of their last
+   * rendering.
+   *
+   * @param pTrackTissueChanges
+   *          true to track tissue changes
+   */
+  public void setTrackTissueChanges(boolean pTrackTissueChanges)
+  {
+    mTrackTissueChanges = pTrackTissueChanges;
+    mChangeTracker.reset();
+  }
+
+  /**
+   * Invalidates the z-slabs touched by tissue changes since the last call, if
+   * tissue changes are tracked.
+   *
+   * @return true if the tissue changed
+   */
+  protected boolean invalidateChangedPlanes()
+  {
+    if (!mTrackTissueChanges)
+      return false;
+    return mChangeTracker.invalidateChangedPlanes(getTissue(),
+                                                  mPlaneAlreadyDrawnTable) != 0;
+  }
+
+  protected boolean isValid(int pZPlaneIndexBegin,
+                            int pZPlaneIndexEnd)
+  {
+    for (int i = pZPlaneIndexBegin; i < pZPlaneIndexEnd; i++)
+      if (!mPlaneAlreadyDrawnTable[i])
+        return false;
+    return true;
+  }
+
+  @Override
+  public void render(boolean pWaitToFinish)
+  {
+    render(getBeginZ(), getEndZ(), pWaitToFinish);
+  }
+
+  @Override
+  public void render(int pZPlaneIndexBegin,
+                     int pZPlaneIndexEnd,
+                     boolean pWaitToFinish)
+  {
+    renderAndCount(pZPlaneIndexBegin, pZPlaneIndexEnd);
+  }
+
+  /**
+   * Renders in a cache-aware manner. Rendering on the CPU is always blocking.
+   *
+   * @param pZPlaneIndexBegin
+   *          begin z index
+   * @param pZPlaneIndexEnd
+   *          end z index
+   * @return number of planes rendered
+   */
+  public int renderAndCount(int pZPlaneIndexBegin, int pZPlaneIndexEnd)
+  {
+    if (!isUpdateNeeded()
+        && isValid(pZPlaneIndexBegin, pZPlaneIndexEnd))
+      return 0;
+
+    int lCounter = 0;
+
+    int zi = pZPlaneIndexBegin;
+
+    while (zi < pZPlaneIndexEnd)
+    {
+      while (zi < pZPlaneIndexEnd && mPlaneAlreadyDrawnTable[zi])
+        zi++;
+
+      int zj = zi;
+      while (zj < pZPlaneIndexEnd && !mPlaneAlreadyDrawnTable[zj])
+        zj++;
+      renderInternal(zi, zj);
+
+      for (int zk = zi; zk < zj; zk++)
+      {
+        mPlaneAlreadyDrawnTable[zk] = true;
+        lCounter++;
+      }
+      zi = zj;
+    }
+
+    super.render(true);
+
+    return lCounter;
+  }
+
+  protected void renderInternal(int pZPlaneIndexBegin,
+                                int pZPlaneIndexEnd)
+  {
+    if (pZPlaneIndexEnd <= pZPlaneIndexBegin)
+      return;
+
+    // First we snap the rendering z bounds to the tile boundaries:
+    final int lTileZBegin = pZPlaneIndexBegin / mTileSizeZ;
+    final int lTileZEnd = Math.max(lTileZBegin + 1,
+                                   (pZPlaneIndexEnd + mTileSizeZ - 1)
+                                                    / mTileSizeZ);
+
+    final int[] lGridDimensions = mNeighborhoodGrid.getGridDimensions();
+    final int lTilesX = lGridDimensions[0];
+    final int lTilesXY = lTilesX * lGridDimensions[1];
+    final int lNumberOfTiles = lTilesXY * (lTileZEnd - lTileZBegin);
+    final int lTileIndexOffset = lTilesXY * lTileZBegin;
+
+    final ForkJoinPool lPool = mPool;
+    ParallelRange.forEach(lPool,
+                          0,
+                          lNumberOfTiles,
+                          ParallelRange.getNumberOfChunks(lPool,
+                                                          lNumberOfTiles,
+                                                          1),
+                          (c, b, e) -> {
+                            for (int t = b; t < e; t++)
+                            {
+                              final int lTileIndex = lTileIndexOffset
+                                                     + t;
+                              final int tz = lTileIndex / lTilesXY;
+                              final int txy = lTileIndex % lTilesXY;
+                              renderTile(txy % lTilesX,
+                                         txy / lTilesX,
+                                         tz);
+                            }
+                          });
+
+    final int lZEnd = Math.min(mPlaneAlreadyDrawnTable.length,
+                               lTileZEnd * mTileSizeZ);
+    for (int z = lTileZBegin * mTileSizeZ; z < lZEnd; z++)
+      mPlaneAlreadyDrawnTable[z] = true;
+  }
+
+  /**
+   * Renders a single tile. Tiles are rendered concurrently, implementations
+   * must only write the voxels of the given tile.
+   *
+   * @param pTileX
+   *          tile x index, i.e. grid cell x coordinate
+   * @param pTileY
+   *          tile y index, i.e. grid cell y coordinate
+   * @param pTileZ
+   *          tile z index, i.e. grid cell z coordinate
+   */
+  protected abstract void renderTile(int pTileX, int pTileY, int pTileZ);
+
+  @Override
+  public float getSignalIntensity()
+  {
+    return mSignalIntensity;
+  }
+
+  @Override
+  public void setSignalIntensity(float pSignalIntensity)
+  {
+    if (mSignalIntensity != pSignalIntensity)
+    {
+      mSignalIntensity = pSignalIntensity;
+      requestUpdate();
+    }
+  }
+
+  @Override
+  public float getNoiseOverSignalRatio()
+  {
+    return mNoiseOverSignalRatio;
+  }
+
+  @Override
+  public void setNoiseOverSignalRatio(float pNoiseOverSignalRatio)
+  {
+    if (mNoiseOverSignalRatio != pNoiseOverSignalRatio)
+    {
+      mNoiseOverSignalRatio = pNoiseOverSignalRatio;
+      requestUpdate();
+    }
+  }
+
+  @Override
+  public int getBeginZ()
+  {
+    return mStartZ;
+  }
+
+  @Override
+  public void setBeginZ(int pStartZ)
+  {
+    if (mStartZ != pStartZ)
+    {
+      mStartZ = pStartZ;
+      requestUpdate();
+    }
+  }
+
+  @Override
+  public int getEndZ()
+  {
+    return mEndZ;
+  }
+
+  @Override
+  public void setEndZ(int pEndZ)
+  {
+    if (mEndZ != pEndZ)
+    {
+      mEndZ = pEndZ;
+      requestUpdate();
+    }
+  }
+
+}
@@ -0,0 +1,189 @@
+package simbryo.synthoscopy.phantom;
+
+import java.util.Arrays;
+
+import simbryo.dynamics.tissue.TissueDynamicsInterface;
+
+/**
+ * Tracks changes of a tissue between phantom renderings. Particle positions and
+ * radii are compared to those of the last rendered snapshot, and only the
+ * z-slabs (rows of grid cells along z) touched by moved, resized, new or
+ * removed particles are invalidated, before and after the change. Particles
+ * that moved by less than a given tolerance are considered unchanged, their
+ * snapshot is kept so that small moves accumulate until they exceed the
+ * tolerance.
+ *
+ * @author royer
+ */
+public class PhantomChangeTracker
+{
+  private final static float cEpsilon = 1e-6f;
+
+  private final int mNumberOfPlanes;
+  private final int mNumberOfSlabs;
+  private final int mSlabThickness;
+
+  private volatile float mPositionTolerance = 0;
+
+  private float[] mPositions, mRadii;
+  private int mNumberOfParticles;
+  private int mDimension;
+
+  /**
+   * Instantiates a change tracker for a given number of z planes and z-slabs.
+   *
+   * @param pNumberOfPlanes
+   *          number of z planes (image depth)
+   * @param pNumberOfSlabs
+   *          number of z-slabs (grid dimension along z)
+   */
+  public PhantomChangeTracker(int pNumberOfPlanes, int pNumberOfSlabs)
+  {
+    super();
+    mNumberOfPlanes = pNumberOfPlanes;
+    mNumberOfSlabs = pNumberOfSlabs;
+    mSlabThickness = (pNumberOfPlanes + pNumberOfSlabs - 1)
+                     / pNumberOfSlabs;
+  }
+
+  /**
+   * Returns the position tolerance: particles that moved by less than this
+   * distance (along every coordinate, normalized units) since the last
+   * rendering are considered unchanged.
+   *
+   * @return position tolerance
+   */
+  public float getPositionTolerance()
+  {
+    return mPositionTolerance;
+  }
+
+  /**
+   * Sets the position tolerance, 0 by default.
+   *
+   * @param pPositionTolerance
+   *          position tolerance in normalized units
+   */
+  public void setPositionTolerance(float pPositionTolerance)
+  {
+    mPositionTolerance = pPositionTolerance;
+  }
+
+  /**
+   * Forgets the last snapshot, the next call to invalidateChangedPlanes will
+   * invalidate all planes.
+   */
+  public void reset()
+  {
+    mPositions = null;
+    mRadii = null;
+    mNumberOfParticles = 0;
+  }
+
+  /**
+   * Compares the tissue to the last snapshot, marks the planes of the z-slabs
+   * touched by changed particles as not drawn, and updates the snapshot. The
+   * first call, or the first call after a reset, invalidates all planes.
+   *
+   * @param pTissue
+   *          tissue
+   * @param pPlaneAlreadyDrawnTable
+   *          table of already drawn planes
+   * @return number of changed particles, or -1 if all planes were invalidated
+   */
+  public int invalidateChangedPlanes(TissueDynamicsInterface pTissue,
+                                     boolean[] pPlaneAlreadyDrawnTable)
+  {
+    final int lDimension = pTissue.getDimension();
+    final int lNumberOfParticles = pTissue.getNumberOfParticles();
+    final float[] lPositions = pTissue.getPositions().getCurrentArray();
+    final float[] lRadii = pTissue.getRadii().getCurrentArray();
+
+    if (mPositions == null || lDimension < 3 || mDimension != lDimension)
+    {
+      Arrays.fill(pPlaneAlreadyDrawnTable, false);
+
+      mDimension = lDimension;
+      mPositions = Arrays.copyOf(lPositions,
+                                 lDimension * lNumberOfParticles);
+      mRadii = Arrays.copyOf(lRadii, lNumberOfParticles);
+      mNumberOfParticles = lNumberOfParticles;
+      return -1;
+    }
+
+    if (mRadii.length < lNumberOfParticles)
+    {
+      mPositions = Arrays.copyOf(mPositions,
+                                 lDimension * lNumberOfParticles);
+      mRadii = Arrays.copyOf(mRadii, lNumberOfParticles);
+    }
+
+    final float[] lSnapshotPositions = mPositions;
+    final float[] lSnapshotRadii = mRadii;
+    final int lNumberOfSnapshotParticles = mNumberOfParticles;
+    final float lTolerance = mPositionTolerance;
+
+    int lCount = 0;
+    final int lMaxNumberOfParticles = Math.max(lNumberOfParticles,
+                                               lNumberOfSnapshotParticles);
+    for (int id = 0; id < lMaxNumberOfParticles; id++)
+    {
+      final boolean lOld = id < lNumberOfSnapshotParticles;
+      final boolean lNew = id < lNumberOfParticles;
+      final int i = id * lDimension;
+
+      if (lOld && lNew)
+      {
+        boolean lChanged = lSnapshotRadii[id] != lRadii[id];
+        for (int d = 0; d < lDimension && !lChanged; d++)
+          lChanged = Math.abs(lSnapshotPositions[i + d]
+                              - lPositions[i + d]) > lTolerance;
+        if (!lChanged)
+          continue;
+      }
+
+      lCount++;
+      if (lOld)
+        invalidateSlabs(pPlaneAlreadyDrawnTable,
+                        lSnapshotPositions[i + 2],
+                        lSnapshotRadii[id]);
+      if (lNew)
+      {
+        invalidateSlabs(pPlaneAlreadyDrawnTable,
+                        lPositions[i + 2],
+                        lRadii[id]);
+        System.arraycopy(lPositions,
+                         i,
+                         lSnapshotPositions,
+                         i,
+                         lDimension);
+        lSnapshotRadii[id] = lRadii[id];
+      }
+    }
+
+    mNumberOfParticles = lNumberOfParticles;
+    return lCount;
+  }
+
+  private void invalidateSlabs(boolean[] pPlaneAlreadyDrawnTable,
+                               float pZ,
+                               float pRadius)
+  {
+    final int lBeginSlab = getSlab(pZ - pRadius);
+    final int lEndSlab = getSlab(pZ + pRadius) + 1;
+
+    final int lBeginPlane = lBeginSlab * mSlabThickness;
+    final int lEndPlane = Math.min(mNumberOfPlanes,
+                                   lEndSlab * mSlabThickness);
+
+    Arrays.fill(pPlaneAlreadyDrawnTable, lBeginPlane, lEndPlane, false);
+  }
+
+  private int getSlab(float pZ)
+  {
+    // same cell coordinates as the neighborhood grid:
+    final int lSlab = (int) Math.floor(pZ * (mNumberOfSlabs - cEpsilon));
+    return Math.max(0, Math.min(mNumberOfSlabs - 1, lSlab));
+  }
+
+}
@@ -33,6 +33,9 @@ public abstract class PhantomRendererBase extends
 
   protected NeighborhoodGrid mNeighborhoodGrid;
 
+  private final PhantomChangeTracker mChangeTracker;
+  private volatile boolean mTrackTissueChanges = false;
+
   /**
    * Instantiates a Phantom renderer for a given OpenCL device, tissue dynamics,
    * and stack dimensions.
@@ -67,11 +70,16 @@ public abstract class PhantomRendererBase extends
 
     mNeighborhoodGrid = new NeighborhoodGrid(pMaxParticlesPerGridCell,
                                              lGridDimensions);
+    mNeighborhoodGrid.setParallel(true);
 
     mLocalSizeX = getWidth() / lGridDimensions[0];
     mLocalSizeY = getHeight() / lGridDimensions[1];
     mLocalSizeZ = getDepth() / lGridDimensions[2];
 
+    mChangeTracker =
+                   new PhantomChangeTracker(Math.toIntExact(getDepth()),
+                                            lGridDimensions[2]);
+
     setBeginZ(0);
     setEndZ((int) (getDepth() - 1));
 
@@ -103,6 +111,57 @@ public abstract class PhantomRendererBase extends
     Arrays.fill(mPlaneAlreadyDrawnTable, false);
   }
 
+  /**
+   * Returns the change tracker used to invalidate only the z-slabs touched by
+   * tissue changes since the last rendering.
+   *
+   * @return change tracker
+   */
+  public PhantomChangeTracker getChangeTracker()
+  {
+    return mChangeTracker;
+  }
+
+  /**
+   * Returns true if tissue changes are tracked between renderings.
+   *
+   * @return true if tissue changes are tracked
+   */
+  public boolean isTrackTissueChanges()
+  {
+    return mTrackTissueChanges;
+  }
+
+  /**
+   * Sets whether tissue changes are tracked between renderings. When tracked,
+   * particle positions and radii are compared to those of the last rendering,
+   * and only the z-slabs touched by moved, new or removed particles are
+   * re-rendered. Planes that are not re-rendered keep the noise of their last
+   * rendering.
+   *
+   * @param pTrackTissueChanges
+   *          true to track tissue changes
+   */
+  public void setTrackTissueChanges(boolean pTrackTissueChanges)
+  {
+    mTrackTissueChanges = pTrackTissueChanges;
+    mChangeTracker.reset();
+  }
+
+  /**
+   * Invalidates the z-slabs touched by tissue changes since the last call, if
+   * tissue changes are tracked.
+   *
+   * @return true if the tissue changed
+   */
+  protected boolean invalidateChangedPlanes()
+  {
+    if (!mTrackTissueChanges)
+      return false;
+    return mChangeTracker.invalidateChangedPlanes(getTissue(),
+                                                  mPlaneAlreadyDrawnTable) != 0;
+  }
+
   protected void invalidate(int pZ)
   {
     mPlaneAlreadyDrawnTable[pZ] = false;
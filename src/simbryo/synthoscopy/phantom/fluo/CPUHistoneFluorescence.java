@@ -0,0 +1,511 @@
+package simbryo.synthoscopy.phantom.fluo;
+
+import simbryo.dynamics.tissue.TissueDynamicsInterface;
+import simbryo.dynamics.tissue.cellprop.HasPolarity;
+import simbryo.synthoscopy.phantom.CPUPhantomRendererBase;
+import simbryo.textures.noise.FractalNoise;
+import simbryo.textures.noise.SimplexNoise;
+
+/**
+ * This renders histone fluorescence for the nuclei on the CPU. This is a
+ * direct port of the OpenCL kernel used by HistoneFluorescence: same nuclei
+ * shape, polarity-dependent eccentricity, roughness and texture, and same
+ * Perlin noise texture generation. The random number and fractal noise
+ * functions of the OpenCL library are reimplemented here, so noise patterns
+ * differ in detail from the OpenCL renderer, but not in their statistics.
+ *
+ * @author royer
+ */
+public abstract class CPUHistoneFluorescence extends
+                                             CPUPhantomRendererBase
+{
+  private static final int cNoiseDim = 32;
+  private static final float cInverseNoiseDim = 1.0f / cNoiseDim;
+
+  private final float[] mPerlinNoise;
+
+  private volatile float mNucleiRadius, mNucleiSharpness,
+      mNucleiRoughness, mNucleiTextureContrast;
+  private final boolean mHasPolarity;
+
+  /**
+   * Instantiates a CPU histone fluorescence renderer for a given tissue
+   * dynamics and stack dimensions.
+   *
+   * @param pTissueDynamics
+   *          tissue dynamics
+   * @param pStackDimensions
+   *          stack dimensions
+   */
+  public CPUHistoneFluorescence(TissueDynamicsInterface pTissueDynamics,
+                                long... pStackDimensions)
+  {
+    this(pTissueDynamics,
+         16,
+         0.004f,
+         0.95f,
+         0.5f,
+         0.75f,
+         1e-2f,
+         pStackDimensions);
+  }
+
+  /**
+   * Instantiates a CPU histone fluorescence renderer for a given tissue
+   * dynamics and stack dimensions.
+   *
+   * @param pTissueDynamics
+   *          tissue dynamics
+   * @param pMaxParticlesPerGridCell
+   *          max number of particles/nuclei/cells per tile.
+   * @param pNucleiRadius
+   *          nuclei radius
+   * @param pNucleiSharpness
+   *          nuclei sharpness
+   * @param pNucleiRoughness
+   *          nuclei roughness
+   * @param pNucleiTextureContrast
+   *          nuclei texture contrast
+   * @param pNoiseOverSignalRatio
+   *          noise over signal ratio
+   * @param pStackDimensions
+   *          stack dimensions
+   */
+  public CPUHistoneFluorescence(TissueDynamicsInterface pTissueDynamics,
+                                int pMaxParticlesPerGridCell,
+                                float pNucleiRadius,
+                                float pNucleiSharpness,
+                                float pNucleiRoughness,
+                                float pNucleiTextureContrast,
+                                float pNoiseOverSignalRatio,
+                                long... pStackDimensions)
+  {
+    super(pMaxParticlesPerGridCell,
+          pTissueDynamics,
+          cDefaultTileSize,
+          pStackDimensions);
+
+    mHasPolarity = pTissueDynamics instanceof HasPolarity;
+    mNucleiRadius = pNucleiRadius;
+    mNucleiSharpness = pNucleiSharpness;
+    mNucleiRoughness = pNucleiRoughness;
+    mNucleiTextureContrast = pNucleiTextureContrast;
+    setNoiseOverSignalRatio(pNoiseOverSignalRatio);
+
+    SimplexNoise lSimplexNoise = new SimplexNoise(3);
+    FractalNoise lFractalNoise = new FractalNoise(lSimplexNoise,
+                                                  1f,
+                                                  0.5f,
+                                                  0.25f,
+                                                  0.125f,
+                                                  0.0625f);
+
+    mPerlinNoise = lFractalNoise.generateTexture(cNoiseDim,
+                                                 cNoiseDim,
+                                                 cNoiseDim);
+  }
+
+  /**
+   * This function must be implemented by derived classes. It renders the
+   * background fluorescence at a given voxel.
+   *
+   * @param pX
+   *          voxel x coordinate
+   * @param pY
+   *          voxel y coordinate
+   * @param pZ
+   *          voxel z coordinate
+   * @param pWidth
+   *          image width
+   * @param pHeight
+   *          image height
+   * @param pDepth
+   *          image depth
+   * @param pTimeIndex
+   *          tissue time step index
+   * @return background fluorescence
+   */
+  public abstract float autofluo(float pX,
+                                 float pY,
+                                 float pZ,
+                                 float pWidth,
+                                 float pHeight,
+                                 float pDepth,
+                                 int pTimeIndex);
+
+  @Override
+  public void render(int pZPlaneIndexBegin,
+                     int pZPlaneIndexEnd,
+                     boolean pWaitToFinish)
+  {
+    final boolean lTissueChanged = invalidateChangedPlanes();
+    if (isUpdateNeeded() || lTissueChanged)
+      getTissue().updateNeighborhoodGrid(mNeighborhoodGrid);
+    super.render(pZPlaneIndexBegin, pZPlaneIndexEnd, pWaitToFinish);
+  }
+
+  @Override
+  protected void renderTile(int pTileX, int pTileY, int pTileZ)
+  {
+    final int lWidth = (int) getWidth();
+    final int lHeight = (int) getHeight();
+    final float lDimX = lWidth;
+    final float lDimY = lHeight;
+    final float lDimZ = getDepth();
+    final float lInverseAspectRatioY = lDimX / lDimY;
+    final float lInverseAspectRatioZ = lDimX / lDimZ;
+
+    final float[] lImage = mImage;
+    final float lIntensity = getSignalIntensity();
+    final float lNoiseRatio = getNoiseOverSignalRatio();
+    final int lTimeIndex = (int) getTissue().getTimeStepIndex();
+    final float lNucleiRadiusVoxels = getNucleiRadius() * lDimX;
+    final float lNucleiSharpness = getNucleiSharpness();
+    final float lNucleiRoughness = getNucleiRoughness();
+    final float lNucleiTextureContrast = getNucleiTextureContrast();
+
+    // Load the particles of this tile once, as the kernel does with local
+    // memory:
+    final int[] lGridDimensions = mNeighborhoodGrid.getGridDimensions();
+    final int lMaxParticlesPerGridCell =
+                                       mNeighborhoodGrid.getMaxParticlesPerGridCell();
+    final int lCellIndex = pTileX + lGridDimensions[0]
+                                    * (pTileY + lGridDimensions[1] * pTileZ);
+    final int[] lGridArray = mNeighborhoodGrid.getArray();
+
+    final float[] lPositions = getTissue().getPositions()
+                                          .getCurrentArray();
+    final float[] lPolarities = mHasPolarity ? ((HasPolarity) getTissue()).getPolarityProperty()
+                                                                         .getArray()
+                                                                         .getCurrentArray()
+                                             : null;
+
+    final float[] lLocalPositions = new float[3
+                                              * lMaxParticlesPerGridCell];
+    final float[] lLocalPolarities = new float[3
+                                               * lMaxParticlesPerGridCell];
+    final float[] lLocalNoiseOffsets =
+                                     new float[3 * lMaxParticlesPerGridCell];
+    int lNumberOfNeighbors = 0;
+    for (int k = 0; k < lMaxParticlesPerGridCell; k++)
+    {
+      final int lNeighbor = lGridArray[lCellIndex
+                                       * lMaxParticlesPerGridCell
+                                       + k];
+      if (lNeighbor < 0)
+        continue;
+
+      final int i = 3 * lNumberOfNeighbors;
+      lLocalPositions[i] = lPositions[3 * lNeighbor] * lDimX;
+      lLocalPositions[i + 1] = lPositions[3 * lNeighbor + 1] * lDimY;
+      lLocalPositions[i + 2] = lPositions[3 * lNeighbor + 2] * lDimZ;
+      if (lPolarities != null)
+        System.arraycopy(lPolarities,
+                         3 * lNeighbor,
+                         lLocalPolarities,
+                         i,
+                         3);
+      for (int d = 0; d < 3; d++)
+        lLocalNoiseOffsets[i + d] =
+                                  rngfloat1((int) ((2654435789L * (d + 1))
+                                                   ^ lNeighbor));
+      lNumberOfNeighbors++;
+    }
+
+    final int lBeginX = pTileX * mTileSizeX;
+    final int lBeginY = pTileY * mTileSizeY;
+    final int lBeginZ = pTileZ * mTileSizeZ;
+
+    for (int z = lBeginZ; z < lBeginZ + mTileSizeZ; z++)
+      for (int y = lBeginY; y < lBeginY + mTileSizeY; y++)
+        for (int x = lBeginX; x < lBeginX + mTileSizeX; x++)
+        {
+          float lValue = autofluo(x,
+                                  y,
+                                  z,
+                                  lDimX,
+                                  lDimY,
+                                  lDimZ,
+                                  lTimeIndex);
+          lValue += lNoiseRatio * rngfloat3(x + lTimeIndex,
+                                            y + lTimeIndex,
+                                            z + lTimeIndex);
+
+          for (int k = 0; k < lNumberOfNeighbors; k++)
+          {
+            final int i = 3 * k;
+            final float lRelX = x - lLocalPositions[i];
+            final float lRelY = (y - lLocalPositions[i + 1])
+                                * lInverseAspectRatioY;
+            final float lRelZ = (z - lLocalPositions[i + 2])
+                                * lInverseAspectRatioZ;
+
+            final float lLevelNoise =
+                                    2.0f * samplePerlinNoise(0.5f
+                                                             + lRelX
+                                                               * cInverseNoiseDim
+                                                             + lLocalNoiseOffsets[i],
+                                                             0.5f + lRelY
+                                                                   * cInverseNoiseDim
+                                                                   + lLocalNoiseOffsets[i + 1],
+                                                             0.5f + lRelZ
+                                                                   * cInverseNoiseDim
+                                                                   + lLocalNoiseOffsets[i + 2])
+                                      - 1.0f;
+
+            final float lLength = (float) Math.sqrt(lRelX * lRelX
+                                                    + lRelY * lRelY
+                                                    + lRelZ * lRelZ);
+            final float lCos = lLength == 0 ? 0
+                                            : Math.abs((lLocalPolarities[i]
+                                                        * lRelX
+                                                        + lLocalPolarities[i + 1]
+                                                          * lRelY
+                                                        + lLocalPolarities[i + 2]
+                                                          * lRelZ)
+                                                       / lLength);
+            final float lEccentricity = -(0.5f * lCos * lCos)
+                                        * lNucleiRadiusVoxels;
+
+            final float d = lLength + lEccentricity;
+            final float lNoisyD = d + lNucleiRoughness * lLevelNoise;
+
+            final float lLevel =
+                               1.0f - smoothstep(lNucleiRadiusVoxels,
+                                                 lNucleiRadiusVoxels
+                                                                      * (2.0f - lNucleiSharpness),
+                                                 lNoisyD);
+            lValue += (1.0f + lNucleiTextureContrast * lLevelNoise)
+                      * lLevel;
+          }
+
+          lImage[x + lWidth * (y + lHeight * z)] = lIntensity * lValue;
+        }
+  }
+
+  /**
+   * Samples the Perlin noise texture at normalized coordinates, with mirrored
+   * repeat addressing and nearest neighbor filtering.
+   *
+   * @param pX
+   *          normalized x coordinate
+   * @param pY
+   *          normalized y coordinate
+   * @param pZ
+   *          normalized z coordinate
+   * @return noise value within [0,1]
+   */
+  protected float samplePerlinNoise(float pX, float pY, float pZ)
+  {
+    return mPerlinNoise[mirroredRepeat(pX)
+                        + cNoiseDim * (mirroredRepeat(pY)
+                                       + cNoiseDim * mirroredRepeat(pZ))];
+  }
+
+  /**
+   * Fractal noise at given coordinates, sum of a number of octaves of the
+   * Perlin noise texture with halving amplitudes, one texel per coordinate
+   * unit for the first octave.
+   *
+   * @param pX
+   *          x coordinate
+   * @param pY
+   *          y coordinate
+   * @param pZ
+   *          z coordinate
+   * @param pNumberOfOctaves
+   *          number of octaves
+   * @return noise value within [0,1]
+   */
+  protected float fractalNoise(float pX,
+                               float pY,
+                               float pZ,
+                               int pNumberOfOctaves)
+  {
+    float lValue = 0, lTotalAmplitude = 0;
+    float lAmplitude = 1, lFrequency = cInverseNoiseDim;
+    for (int o = 0; o < pNumberOfOctaves; o++)
+    {
+      lValue += lAmplitude * samplePerlinNoise(pX * lFrequency,
+                                               pY * lFrequency,
+                                               pZ * lFrequency);
+      lTotalAmplitude += lAmplitude;
+      lAmplitude *= 0.5f;
+      lFrequency *= 2;
+    }
+    return lValue / lTotalAmplitude;
+  }
+
+  private static int mirroredRepeat(float pCoordinate)
+  {
+    final float lMirror = 2.0f * (float) Math.rint(0.5f * pCoordinate);
+    final float lFolded = Math.abs(pCoordinate - lMirror);
+    return Math.min((int) (lFolded * cNoiseDim), cNoiseDim - 1);
+  }
+
+  /**
+   * Hermite interpolation between 0 and 1 for x within [edge0, edge1], same as
+   * OpenCL's smoothstep.
+   *
+   * @param pEdge0
+   *          lower edge
+   * @param pEdge1
+   *          upper edge
+   * @param pX
+   *          value
+   * @return interpolated value
+   */
+  protected static float smoothstep(float pEdge0, float pEdge1, float pX)
+  {
+    final float t = Math.max(0,
+                             Math.min(1,
+                                      (pX - pEdge0) / (pEdge1 - pEdge0)));
+    return t * t * (3 - 2 * t);
+  }
+
+  /**
+   * Integer hash (Wang hash).
+   *
+   * @param pValue
+   *          value
+   * @return hashed value
+   */
+  protected static int hash(int pValue)
+  {
+    int x = (pValue ^ 61) ^ (pValue >>> 16);
+    x *= 9;
+    x ^= x >>> 4;
+    x *= 0x27d4eb2d;
+    x ^= x >>> 15;
+    return x;
+  }
+
+  /**
+   * Returns a pseudo-random value within [0,1) for a given integer.
+   *
+   * @param pValue
+   *          value
+   * @return random value within [0,1)
+   */
+  protected static float rngfloat1(int pValue)
+  {
+    return (hash(pValue) >>> 8) * 0x1.0p-24f;
+  }
+
+  /**
+   * Returns a pseudo-random value within [0,1) for three given integers.
+   *
+   * @param pX
+   *          first value
+   * @param pY
+   *          second value
+   * @param pZ
+   *          third value
+   * @return random value within [0,1)
+   */
+  protected static float rngfloat3(int pX, int pY, int pZ)
+  {
+    return rngfloat1(pX ^ hash(pY ^ hash(pZ)));
+  }
+
+  /**
+   * Returns nuclei radius
+   *
+   * @return radius
+   */
+  public float getNucleiRadius()
+  {
+    return mNucleiRadius;
+  }
+
+  /**
+   * Sets nuclei radius
+   *
+   * @param pNucleiRadius
+   *          nuclei radius
+   */
+  public void setNucleiRadius(float pNucleiRadius)
+  {
+    if (mNucleiRadius != pNucleiRadius)
+    {
+      mNucleiRadius = pNucleiRadius;
+      requestUpdate();
+    }
+  }
+
+  /**
+   * Return nuclei sharpness
+   *
+   * @return nuclei sharpness
+   */
+  public float getNucleiSharpness()
+  {
+    return mNucleiSharpness;
+  }
+
+  /**
+   * Sets nuclei sharpness
+   *
+   * @param pNucleiSharpness
+   *          nuclei sharpness
+   */
+  public void setNucleiSharpness(float pNucleiSharpness)
+  {
+    if (mNucleiSharpness != pNucleiSharpness)
+    {
+      mNucleiSharpness = pNucleiSharpness;
+      requestUpdate();
+    }
+  }
+
+  /**
+   * Returns nuclei roughness.
+   *
+   * @return nuclei roughness
+   */
+  public float getNucleiRoughness()
+  {
+    return mNucleiRoughness;
+  }
+
+  /**
+   * Sets nuclei roughness
+   *
+   * @param pNucleiRoughness
+   *          nuclei roughness
+   */
+  public void setNucleiRoughness(float pNucleiRoughness)
+  {
+    if (mNucleiRoughness != pNucleiRoughness)
+    {
+      mNucleiRoughness = pNucleiRoughness;
+      requestUpdate();
+    }
+  }
+
+  /**
+   * Return contrast of nuclei texture: min:0 max:1
+   *
+   * @return contrast of nuclei texture
+   */
+  public float getNucleiTextureContrast()
+  {
+    return mNucleiTextureContrast;
+  }
+
+  /**
+   * Sets contrast of nuclei texture: min:0 max:1
+   *
+   * @param pNucleiTextureContrast
+   *          new contrast of nuclei texture
+   */
+  public void setNucleiTextureContrast(float pNucleiTextureContrast)
+  {
+    if (mNucleiTextureContrast != pNucleiTextureContrast)
+    {
+      mNucleiTextureContrast = pNucleiTextureContrast;
+      requestUpdate();
+    }
+  }
+
+}
@@ -36,6 +36,7 @@ public abstract class HistoneFluorescence extends PhantomRendererBase
   private OffHeapMemory mNeighboorsMemory, mPositionsMemory,
       mPolaritiesMemory, mRadiiMemory;
   private ClearCLImage mPerlinNoiseImage;
+  private int mParticleBuffersCapacity;
 
   private float mNucleiRadius, mNucleiSharpness, mNucleiRoughness,
       mNucleiTextureContrast;
@@ -129,10 +130,8 @@ public abstract class HistoneFluorescence extends PhantomRendererBase
 
     mRenderKernel.setArgument("image", mImage);
     mRenderKernel.setArgument("neighboors", mNeighboorsBuffer);
-    mRenderKernel.setArgument("positions", mPositionsBuffer);
-    mRenderKernel.setArgument("polarities", mPolaritiesBuffer);
-    mRenderKernel.setArgument("radii", mRadiiBuffer);
     mRenderKernel.setArgument("perlin", mPerlinNoiseImage);
+    setParticleBuffersArguments();
 
   }
 
@@ -150,37 +149,70 @@ public abstract class HistoneFluorescence extends PhantomRendererBase
                                             NativeTypeEnum.Int,
                                             lNeighboorsArrayLength);
 
+    mNeighboorsMemory =
+                      OffHeapMemory.allocateInts(lNeighboorsArrayLength);
+
+    allocateParticleBuffers(lDimension,
+                            pTissueDynamics.getCapacity());
+  }
+
+  /**
+   * Allocates the per-particle buffers for a given capacity. The tissue's
+   * particle storage grows on demand, so these buffers are reallocated whenever
+   * the tissue's capacity changes.
+   * 
+   * @param pDimension
+   *          dimension
+   * @param pCapacity
+   *          capacity in number of particles
+   */
+  private void allocateParticleBuffers(final int pDimension,
+                                       final int pCapacity)
+  {
     mPositionsBuffer =
                      mContext.createBuffer(HostAccessType.WriteOnly,
                                            KernelAccessType.ReadOnly,
                                            NativeTypeEnum.Float,
-                                           lDimension * pTissueDynamics.getMaxNumberOfParticles());
+                                           pDimension * pCapacity);
 
     mPolaritiesBuffer =
                       mContext.createBuffer(HostAccessType.WriteOnly,
                                             KernelAccessType.ReadOnly,
                                             NativeTypeEnum.Float,
-                                            lDimension * pTissueDynamics.getMaxNumberOfParticles());
+                                            pDimension * pCapacity);
     mPolaritiesBuffer.fill((byte) 1, true);
 
     mRadiiBuffer =
                  mContext.createBuffer(HostAccessType.WriteOnly,
                                        KernelAccessType.ReadOnly,
                                        NativeTypeEnum.Float,
-                                       pTissueDynamics.getMaxNumberOfParticles());
+                                       pCapacity);
 
-    mNeighboorsMemory =
-                      OffHeapMemory.allocateInts(lNeighboorsArrayLength);
+    mPositionsMemory = OffHeapMemory.allocateFloats(pDimension
+                                                    * pCapacity);
+
+    mPolaritiesMemory = OffHeapMemory.allocateFloats(pDimension
+                                                     * pCapacity);
+    mRadiiMemory = OffHeapMemory.allocateFloats(pCapacity);
 
-    mPositionsMemory =
-                     OffHeapMemory.allocateFloats(lDimension
-                                                  * pTissueDynamics.getMaxNumberOfParticles());
+    mParticleBuffersCapacity = pCapacity;
+  }
 
-    mPolaritiesMemory =
-                      OffHeapMemory.allocateFloats(lDimension
-                                                   * pTissueDynamics.getMaxNumberOfParticles());
-    mRadiiMemory =
-                 OffHeapMemory.allocateFloats(pTissueDynamics.getMaxNumberOfParticles());
+  private void freeParticleBuffers()
+  {
+    mPositionsBuffer.close();
+    mPolaritiesBuffer.close();
+    mRadiiBuffer.close();
+    mPositionsMemory.free();
+    mPolaritiesMemory.free();
+    mRadiiMemory.free();
+  }
+
+  private void setParticleBuffersArguments()
+  {
+    mRenderKernel.setArgument("positions", mPositionsBuffer);
+    mRenderKernel.setArgument("polarities", mPolaritiesBuffer);
+    mRenderKernel.setArgument("radii", mRadiiBuffer);
   }
 
   protected void setupProgramAndKernel(final int pMaxParticlesPerGridCell) throws IOException
@@ -248,7 +280,14 @@ public abstract class HistoneFluorescence extends PhantomRendererBase
   {
 
     final int lDimension = getTissue().getDimension();
-    final int lNumberOfCells = getTissue().getMaxNumberOfParticles();
+    final int lNumberOfCells = getTissue().getNumberOfParticles();
+
+    if (mParticleBuffersCapacity != getTissue().getCapacity())
+    {
+      freeParticleBuffers();
+      allocateParticleBuffers(lDimension, getTissue().getCapacity());
+      setParticleBuffersArguments();
+    }
 
     getTissue().updateNeighborhoodGrid(mNeighborhoodGrid);
 
@@ -409,11 +448,14 @@ public abstract class HistoneFluorescence extends PhantomRendererBase
   }
 
   @Override
-  public void render(boolean pWaitToFinish)
+  public void render(int pZPlaneIndexBegin,
+                     int pZPlaneIndexEnd,
+                     boolean pWaitToFinish)
   {
-    if (isUpdateNeeded())
+    final boolean lTissueChanged = invalidateChangedPlanes();
+    if (isUpdateNeeded() || lTissueChanged)
       updateBuffers();
-    super.render(pWaitToFinish);
+    super.render(pZPlaneIndexBegin, pZPlaneIndexEnd, pWaitToFinish);
   }
 
   @Override
@@ -421,8 +463,7 @@ public abstract class HistoneFluorescence extends PhantomRendererBase
   {
     super.close();
     mNeighboorsBuffer.close();
-    mPositionsBuffer.close();
-    mRadiiBuffer.close();
+    freeParticleBuffers();
     mPerlinNoiseImage.close();
   }
 
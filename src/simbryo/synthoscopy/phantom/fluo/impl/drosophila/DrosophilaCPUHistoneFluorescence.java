@@ -0,0 +1,79 @@
+package simbryo.synthoscopy.phantom.fluo.impl.drosophila;
+
+import simbryo.dynamics.tissue.embryo.zoo.Drosophila;
+import simbryo.synthoscopy.phantom.fluo.CPUHistoneFluorescence;
+
+/**
+ * This renders Drosophila histone fluorescence (nuclei + yolk) on the CPU.
+ *
+ * @author royer
+ */
+public class DrosophilaCPUHistoneFluorescence extends
+                                              CPUHistoneFluorescence
+{
+
+  private final float mEllipsoidA, mEllipsoidB, mEllipsoidC,
+      mEllipsoidR;
+
+  /**
+   * Instanciates a Drosophila embryo histone fluorescence CPU renderer.
+   *
+   * @param pDrosophila
+   *          drosophila embryo dynamics
+   * @param pStackDimensions
+   *          stack dimensions
+   */
+  public DrosophilaCPUHistoneFluorescence(Drosophila pDrosophila,
+                                          long... pStackDimensions)
+  {
+    super(pDrosophila, pStackDimensions);
+    mEllipsoidA = pDrosophila.getEllipsoidA();
+    mEllipsoidB = pDrosophila.getEllipsoidB();
+    mEllipsoidC = pDrosophila.getEllipsoidC();
+    mEllipsoidR = pDrosophila.getEllipsoidR();
+  }
+
+  @Override
+  public float autofluo(float pX,
+                        float pY,
+                        float pZ,
+                        float pWidth,
+                        float pHeight,
+                        float pDepth,
+                        int pTimeIndex)
+  {
+    final float lNormX = pX / pWidth;
+    final float lNormY = pY / pHeight;
+    final float lNormZ = pZ / pDepth;
+    final float lScaledX = (lNormX - 0.5f) / mEllipsoidA;
+    final float lScaledY = (lNormY - 0.5f) / mEllipsoidB;
+    final float lScaledZ = (lNormZ - 0.5f) / mEllipsoidC;
+    final float lDistance = (float) Math.sqrt(lScaledX * lScaledX
+                                              + lScaledY * lScaledY
+                                              + lScaledZ * lScaledZ)
+                            - (mEllipsoidR + 2 * getNucleiRadius());
+
+    final float lInsideDistance = Math.max(0.0f, -lDistance);
+
+    final float lInsideMask = smoothstep(0.00f, 0.001f, lInsideDistance);
+
+    if (lInsideMask == 0.0f)
+      return 0.0f;
+
+    final float lNoiseValue = fractalNoise(250.0f * lNormX,
+                                           250.0f * lNormY,
+                                           250.0f * lNormZ,
+                                           6);
+
+    final float lAutoYolk = 0.07f
+                            + 0.8f * smoothstep(0.04f,
+                                                0.1f,
+                                                lInsideDistance)
+                              * (1 - 0.8f * smoothstep(0.1f,
+                                                       0.15f,
+                                                       lInsideDistance));
+
+    return lInsideMask * lAutoYolk * (0.3f + 0.7f * lNoiseValue);
+  }
+
+}
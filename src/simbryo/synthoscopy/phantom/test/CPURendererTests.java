@@ -0,0 +1,246 @@
+package simbryo.synthoscopy.phantom.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeNotNull;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import clearcl.ClearCL;
+import clearcl.ClearCLContext;
+import clearcl.ClearCLDevice;
+import clearcl.ClearCLProgram;
+import clearcl.backend.ClearCLBackendInterface;
+import clearcl.backend.ClearCLBackends;
+import coremem.offheap.OffHeapMemory;
+
+import org.junit.Test;
+
+import simbryo.dynamics.tissue.embryo.zoo.Drosophila;
+import simbryo.synthoscopy.phantom.fluo.CPUHistoneFluorescence;
+import simbryo.synthoscopy.phantom.fluo.HistoneFluorescence;
+import simbryo.synthoscopy.phantom.fluo.impl.drosophila.DrosophilaCPUHistoneFluorescence;
+
+/**
+ * Tests for the CPU phantom renderers
+ *
+ * @author royer
+ */
+public class CPURendererTests
+{
+
+  /**
+   * Tests the cache-aware rendering, that parallel and sequential renderings
+   * are identical, and that nuclei are visible.
+   */
+  @Test
+  public void testDrosophilaHistoneFluorescence()
+  {
+    Drosophila lDrosophila = new Drosophila(1L, 16, 16, 16, 16);
+    lDrosophila.simulationSteps(10);
+
+    DrosophilaCPUHistoneFluorescence lRenderer =
+                                               new DrosophilaCPUHistoneFluorescence(lDrosophila,
+                                                                                    64,
+                                                                                    64,
+                                                                                    100);
+    lRenderer.setNucleiRadius(0.05f);
+    assertEquals(96, lRenderer.getDepth());
+
+    // z ranges are snapped to tiles of 8 planes:
+    assertEquals(75, lRenderer.renderAndCount(0, 75));
+    assertEquals(16, lRenderer.renderAndCount(25, 96));
+    assertEquals(0, lRenderer.renderAndCount(0, 96));
+
+    float[] lParallelImage = lRenderer.getImage().clone();
+
+    lRenderer.setPool(null);
+    lRenderer.requestUpdate();
+    assertEquals(96, lRenderer.renderAndCount(0, 96));
+    assertArrayEquals(lParallelImage, lRenderer.getImage(), 0);
+
+    // nuclei centers are brighter than the background outside of the embryo:
+    float[] lPositions = lDrosophila.getPositions().getCurrentArray();
+    int x = (int) (lPositions[0] * 64);
+    int y = (int) (lPositions[1] * 64);
+    int z = (int) (lPositions[2] * 96);
+    float lNucleusValue = lParallelImage[x + 64 * (y + 64 * z)];
+    float lBackgroundValue = lParallelImage[0];
+    assertTrue(lNucleusValue > 0.5f);
+    assertTrue(lBackgroundValue < 0.05f);
+  }
+
+  /**
+   * Tests that when tissue changes are tracked, moving a single nucleus only
+   * re-renders the z-slabs it touches, and that the result is identical to a
+   * full re-rendering.
+   */
+  @Test
+  public void testIncrementalRendering()
+  {
+    Drosophila lDrosophila = new Drosophila(1L, 16, 16, 16, 16);
+    lDrosophila.simulationSteps(10);
+
+    final AtomicIntegerArray lRenderedSlabs = new AtomicIntegerArray(12);
+    DrosophilaCPUHistoneFluorescence lRenderer =
+                                               new DrosophilaCPUHistoneFluorescence(lDrosophila,
+                                                                                    64,
+                                                                                    64,
+                                                                                    96)
+                                               {
+                                                 @Override
+                                                 protected void renderTile(int pTileX,
+                                                                           int pTileY,
+                                                                           int pTileZ)
+                                                 {
+                                                   lRenderedSlabs.set(pTileZ,
+                                                                      1);
+                                                   super.renderTile(pTileX,
+                                                                    pTileY,
+                                                                    pTileZ);
+                                                 }
+                                               };
+    lRenderer.setNucleiRadius(0.05f);
+    lRenderer.setTrackTissueChanges(true);
+
+    lRenderer.render(0, 96, true);
+    assertEquals(12, countAndReset(lRenderedSlabs));
+
+    // nothing changed, nothing to render:
+    lRenderer.render(0, 96, true);
+    assertEquals(0, countAndReset(lRenderedSlabs));
+
+    // moving one nucleus along x only invalidates the slabs it touches:
+    float[] lPositions = lDrosophila.getPositions().getCurrentArray();
+    lPositions[0] += 0.01f;
+    lRenderer.render(0, 96, true);
+    int lNumberOfRenderedSlabs = countAndReset(lRenderedSlabs);
+    assertTrue(lNumberOfRenderedSlabs > 0);
+    assertTrue(lNumberOfRenderedSlabs < 12);
+
+    float[] lIncrementalImage = lRenderer.getImage().clone();
+    lRenderer.requestUpdate();
+    lRenderer.render(0, 96, true);
+    assertEquals(12, countAndReset(lRenderedSlabs));
+    assertArrayEquals(lIncrementalImage, lRenderer.getImage(), 0);
+  }
+
+  /**
+   * Tests that the CPU renderer matches the OpenCL renderer voxel by voxel, up
+   * to the precision of the relaxed OpenCL math. Noise, roughness and texture
+   * contrast are set to 0, and the background autofluorescence is replaced by
+   * 0 on both sides because each backend has its own fractal noise. The nuclei
+   * are smaller than the cells, so both neighborhood grids hold all nuclei that
+   * touch a voxel, whatever their tile sizes. Skipped when no OpenCL device is
+   * available.
+   *
+   * @throws IOException
+   *           NA
+   */
+  @Test
+  public void testCPUMatchesOpenCL() throws IOException
+  {
+    final float lTolerance = 0.02f;
+    final float lNucleiRadius = 0.05f;
+    final float lNucleiSharpness = 0.5f;
+
+    ClearCLBackendInterface lBestBackend = null;
+    try
+    {
+      lBestBackend = ClearCLBackends.getBestBackend();
+    }
+    catch (Throwable e)
+    {
+      // no OpenCL available
+    }
+    assumeNotNull(lBestBackend);
+
+    Drosophila lDrosophila = new Drosophila(1L, 16, 16, 16, 16);
+    lDrosophila.simulationSteps(10);
+
+    CPUHistoneFluorescence lCPURenderer =
+                                        new CPUHistoneFluorescence(lDrosophila,
+                                                                   16,
+                                                                   lNucleiRadius,
+                                                                   lNucleiSharpness,
+                                                                   0,
+                                                                   0,
+                                                                   0,
+                                                                   64,
+                                                                   64,
+                                                                   64)
+                                        {
+                                          @Override
+                                          public float autofluo(float pX,
+                                                                float pY,
+                                                                float pZ,
+                                                                float pWidth,
+                                                                float pHeight,
+                                                                float pDepth,
+                                                                int pTimeIndex)
+                                          {
+                                            return 0;
+                                          }
+                                        };
+    lCPURenderer.render(0, 64, true);
+    float[] lCPUImage = lCPURenderer.getImage();
+
+    try (ClearCL lClearCL = new ClearCL(lBestBackend);
+        ClearCLDevice lFastestGPUDevice =
+                                        lClearCL.getFastestGPUDeviceForImages())
+    {
+      assumeNotNull(lFastestGPUDevice);
+
+      try (ClearCLContext lContext = lFastestGPUDevice.createContext())
+      {
+        HistoneFluorescence lRenderer =
+                                      new HistoneFluorescence(lContext,
+                                                              lDrosophila,
+                                                              16,
+                                                              lNucleiRadius,
+                                                              lNucleiSharpness,
+                                                              0,
+                                                              0,
+                                                              0,
+                                                              64,
+                                                              64,
+                                                              64)
+                                      {
+                                        @Override
+                                        public void addAutoFluoFunctionSourceCode(ClearCLProgram pClearCLProgram)
+                                        {
+                                          pClearCLProgram.addSource("inline float autofluo(float3 dim, float3 voxelpos, "
+                                                                    + "sampler_t sampler, __read_only image3d_t perlin, "
+                                                                    + "int timeindex) { return 0.0f; }");
+                                        }
+                                      };
+        assertEquals(lCPURenderer.getWidth(), lRenderer.getWidth());
+        assertEquals(lCPURenderer.getHeight(), lRenderer.getHeight());
+        assertEquals(lCPURenderer.getDepth(), lRenderer.getDepth());
+
+        lRenderer.render(0, 64, true);
+
+        float[] lOpenCLImage = new float[lCPUImage.length];
+        OffHeapMemory lMemory =
+                              OffHeapMemory.allocateFloats(lCPUImage.length);
+        lRenderer.copyTo(lMemory, true);
+        lMemory.copyTo(lOpenCLImage);
+        lMemory.free();
+        lRenderer.close();
+
+        assertArrayEquals(lCPUImage, lOpenCLImage, lTolerance);
+      }
+    }
+  }
+
+  private static int countAndReset(AtomicIntegerArray pArray)
+  {
+    int lCount = 0;
+    for (int i = 0; i < pArray.length(); i++)
+      lCount += pArray.getAndSet(i, 0);
+    return lCount;
+  }
+
+}
@@ -1,6 +1,11 @@
 package simbryo.util;
 
+import java.io.IOException;
 import java.io.Serializable;
+import java.util.Arrays;
+
+import simbryo.util.checkpoint.CheckpointReader;
+import simbryo.util.checkpoint.CheckpointWriter;
 
 /**
  * Instances of this class implement a double-buffering scheme for float arrays.
@@ -40,6 +45,52 @@ public class DoubleBufferingFloatArray implements Serializable
     mWriteArray = new float[pLength];
   }
 
+  /**
+   * Returns the length of the arrays.
+   * 
+   * @return length of arrays
+   */
+  public int getLength()
+  {
+    return mReadArray.length;
+  }
+
+  /**
+   * Resizes the two arrays to a new length while preserving their contents. If
+   * the new length is smaller, the arrays are truncated, if it is larger, new
+   * entries are set to zero. Array references previously obtained from this
+   * object are no longer valid after a resize.
+   * 
+   * @param pLength
+   *          new length
+   */
+  public void resize(int pLength)
+  {
+    if (pLength == mReadArray.length)
+      return;
+    mReadArray = Arrays.copyOf(mReadArray, pLength);
+    mWriteArray = Arrays.copyOf(mWriteArray, pLength);
+  }
+
+  /**
+   * Makes sure that the arrays have at least a given length. Arrays grow by at
+   * least a factor two so that repeatedly adding entries has amortized constant
+   * cost.
+   * 
+   * @param pMinLength
+   *          minimal length
+   * @return true if the arrays were resized
+   */
+  public boolean ensureCapacity(int pMinLength)
+  {
+    final int lLength = mReadArray.length;
+    if (pMinLength <= lLength)
+      return false;
+    resize((int) Math.min(Integer.MAX_VALUE - 8,
+                          Math.max(pMinLength, 2L * lLength)));
+    return true;
+  }
+
   /**
    * Returns the read array.
    * 
@@ -167,6 +218,59 @@ public class DoubleBufferingFloatArray implements Serializable
       mWriteArray[i] = pValue * mReadArray[i];
   }
 
+  /**
+   * Permutes the entries of both read and write arrays. Entries are groups of
+   * pEntryLength consecutive floats, the new entry at index i is the old entry
+   * at index pNewToOld[i]. Entries beyond the given number of entries are left
+   * untouched.
+   * 
+   * @param pNewToOld
+   *          permutation: new index to old index
+   * @param pNumberOfEntries
+   *          number of entries to permute
+   * @param pEntryLength
+   *          number of floats per entry
+   */
+  public void permute(int[] pNewToOld,
+                      int pNumberOfEntries,
+                      int pEntryLength)
+  {
+    float[] lPermutedReadArray = new float[mReadArray.length];
+    permute(mReadArray,
+            lPermutedReadArray,
+            pNewToOld,
+            pNumberOfEntries,
+            pEntryLength);
+    permute(mWriteArray,
+            mReadArray,
+            pNewToOld,
+            pNumberOfEntries,
+            pEntryLength);
+    mWriteArray = mReadArray;
+    mReadArray = lPermutedReadArray;
+  }
+
+  private static void permute(float[] pSource,
+                              float[] pDestination,
+                              int[] pNewToOld,
+                              int pNumberOfEntries,
+                              int pEntryLength)
+  {
+    for (int i = 0; i < pNumberOfEntries; i++)
+      System.arraycopy(pSource,
+                       pNewToOld[i] * pEntryLength,
+                       pDestination,
+                       i * pEntryLength,
+                       pEntryLength);
+
+    final int lTailBegin = pNumberOfEntries * pEntryLength;
+    System.arraycopy(pSource,
+                     lTailBegin,
+                     pDestination,
+                     lTailBegin,
+                     pSource.length - lTailBegin);
+  }
+
   /**
    * Swap arrays.
    */
@@ -190,4 +294,40 @@ public class DoubleBufferingFloatArray implements Serializable
     System.arraycopy(getCurrentArray(), 0, pArrayCopy, 0, pLength);
   }
 
+  /**
+   * Writes the first entries of the current array to a checkpoint.
+   * 
+   * @param pCheckpointWriter
+   *          checkpoint writer
+   * @param pLength
+   *          number of entries to write
+   */
+  public void writeCheckpoint(CheckpointWriter pCheckpointWriter,
+                              int pLength)
+  {
+    pCheckpointWriter.writeFloats(getCurrentArray(), pLength);
+  }
+
+  /**
+   * Reads the first entries of both arrays from a checkpoint. The arrays must
+   * be large enough.
+   * 
+   * @param pCheckpointReader
+   *          checkpoint reader
+   * @param pLength
+   *          number of entries to read
+   * @throws IOException
+   *           if the checkpoint is truncated
+   */
+  public void readCheckpoint(CheckpointReader pCheckpointReader,
+                             int pLength) throws IOException
+  {
+    pCheckpointReader.readFloats(getCurrentArray(), pLength);
+    System.arraycopy(getCurrentArray(),
+                     0,
+                     getPreviousArray(),
+                     0,
+                     pLength);
+  }
+
 }
@@ -0,0 +1,133 @@
+package simbryo.util;
+
+/**
+ * Element-wise kernels over float arrays. Each kernel is a single flat loop
+ * with a constant stride and no data-dependent branches, which is the shape the
+ * JIT compiler (C2 superword optimization) turns into SIMD instructions. Loops
+ * nested over particles and then coordinates, as in 'for id, for d < dimension',
+ * are not vectorized because the inner trip count is tiny and unknown.
+ *
+ * @author royer
+ */
+public final class FloatArrayKernels
+{
+  private static final int cPatternTileRepeats = 16;
+
+  private FloatArrayKernels()
+  {
+  }
+
+  /**
+   * Computes dst[i] = a[i] + b[i] for i in [begin,end).
+   *
+   * @param pA
+   *          first operand
+   * @param pB
+   *          second operand
+   * @param pDestination
+   *          destination, can be the same array as one of the operands
+   * @param pBeginIndex
+   *          begin index (inclusive)
+   * @param pEndIndex
+   *          end index (exclusive)
+   */
+  public static void add(float[] pA,
+                         float[] pB,
+                         float[] pDestination,
+                         int pBeginIndex,
+                         int pEndIndex)
+  {
+    for (int i = pBeginIndex; i < pEndIndex; i++)
+      pDestination[i] = pA[i] + pB[i];
+  }
+
+  /**
+   * Computes dst[i] = a[i] + 0.5*(b[i] + c[i]) for i in [begin,end).
+   *
+   * @param pA
+   *          first operand
+   * @param pB
+   *          second operand
+   * @param pC
+   *          third operand
+   * @param pDestination
+   *          destination, can be the same array as one of the operands
+   * @param pBeginIndex
+   *          begin index (inclusive)
+   * @param pEndIndex
+   *          end index (exclusive)
+   */
+  public static void addAverage(float[] pA,
+                                float[] pB,
+                                float[] pC,
+                                float[] pDestination,
+                                int pBeginIndex,
+                                int pEndIndex)
+  {
+    for (int i = pBeginIndex; i < pEndIndex; i++)
+      pDestination[i] = pA[i] + 0.5f * (pB[i] + pC[i]);
+  }
+
+  /**
+   * Computes dst[i] = value * src[i] for i in [begin,end).
+   *
+   * @param pSource
+   *          source
+   * @param pDestination
+   *          destination, can be the same array as the source
+   * @param pValue
+   *          factor
+   * @param pBeginIndex
+   *          begin index (inclusive)
+   * @param pEndIndex
+   *          end index (exclusive)
+   */
+  public static void mult(float[] pSource,
+                          float[] pDestination,
+                          float pValue,
+                          int pBeginIndex,
+                          int pEndIndex)
+  {
+    for (int i = pBeginIndex; i < pEndIndex; i++)
+      pDestination[i] = pValue * pSource[i];
+  }
+
+  /**
+   * Adds a short periodic pattern to an array: dst[i] = src[i] +
+   * pattern[(i-begin) % pattern.length] for i in [begin,end). Typically used to
+   * add the same vector to every particle. The pattern is tiled into a longer
+   * buffer so that the inner loop runs over many elements without a modulo.
+   *
+   * @param pSource
+   *          source
+   * @param pPattern
+   *          pattern
+   * @param pDestination
+   *          destination, can be the same array as the source
+   * @param pBeginIndex
+   *          begin index (inclusive)
+   * @param pEndIndex
+   *          end index (exclusive)
+   */
+  public static void addPattern(float[] pSource,
+                                float[] pPattern,
+                                float[] pDestination,
+                                int pBeginIndex,
+                                int pEndIndex)
+  {
+    final int lPeriod = pPattern.length;
+    final int lTileLength = lPeriod * cPatternTileRepeats;
+    final float[] lTile = new float[lTileLength];
+    for (int j = 0; j < lTileLength; j++)
+      lTile[j] = pPattern[j % lPeriod];
+
+    int i = pBeginIndex;
+    for (; i + lTileLength <= pEndIndex; i += lTileLength)
+      for (int j = 0; j < lTileLength; j++)
+        pDestination[i + j] = pSource[i + j] + lTile[j];
+
+    for (int j = 0; i < pEndIndex; i++, j++)
+      pDestination[i] = pSource[i] + lTile[j];
+  }
+
+}
@@ -0,0 +1,20 @@
+package simbryo.util.checkpoint;
+
+/**
+ * Compression codecs for checkpoint payloads.
+ *
+ * @author royer
+ */
+public enum CheckpointCodec
+{
+ /**
+  * No compression, fastest to write and read.
+  */
+ None,
+
+ /**
+  * Deflate compression (fastest level), smaller files at some CPU cost.
+  */
+ Deflate;
+
+}
@@ -0,0 +1,119 @@
+package simbryo.util.checkpoint;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Checkpoint readers read back the binary payload of a checkpoint, in the
+ * order it was written by a checkpoint writer.
+ *
+ * @author royer
+ */
+public class CheckpointReader
+{
+  private final ByteBuffer mBuffer;
+  private final int mVersion;
+
+  /**
+   * Creates a checkpoint reader for a given payload and format version.
+   *
+   * @param pPayload
+   *          payload
+   * @param pVersion
+   *          format version of the checkpoint
+   */
+  public CheckpointReader(ByteBuffer pPayload, int pVersion)
+  {
+    super();
+    mBuffer = pPayload;
+    mVersion = pVersion;
+  }
+
+  /**
+   * Returns the format version of the checkpoint being read. Classes can use
+   * it to read checkpoints written by older versions.
+   *
+   * @return format version
+   */
+  public int getVersion()
+  {
+    return mVersion;
+  }
+
+  /**
+   * Reads an int.
+   *
+   * @return value
+   * @throws IOException
+   *           if the payload is truncated
+   */
+  public int readInt() throws IOException
+  {
+    ensureRemaining(Integer.BYTES);
+    return mBuffer.getInt();
+  }
+
+  /**
+   * Reads a long.
+   *
+   * @return value
+   * @throws IOException
+   *           if the payload is truncated
+   */
+  public long readLong() throws IOException
+  {
+    ensureRemaining(Long.BYTES);
+    return mBuffer.getLong();
+  }
+
+  /**
+   * Reads a float.
+   *
+   * @return value
+   * @throws IOException
+   *           if the payload is truncated
+   */
+  public float readFloat() throws IOException
+  {
+    ensureRemaining(Float.BYTES);
+    return mBuffer.getFloat();
+  }
+
+  /**
+   * Reads floats into the first elements of an array.
+   *
+   * @param pArray
+   *          array
+   * @param pLength
+   *          number of elements to read
+   * @throws IOException
+   *           if the payload is truncated
+   */
+  public void readFloats(float[] pArray, int pLength) throws IOException
+  {
+    ensureRemaining((long) pLength * Float.BYTES);
+    mBuffer.asFloatBuffer().get(pArray, 0, pLength);
+    mBuffer.position(mBuffer.position() + pLength * Float.BYTES);
+  }
+
+  /**
+   * Returns the number of bytes left to read.
+   *
+   * @return remaining bytes
+   */
+  public int getRemaining()
+  {
+    return mBuffer.remaining();
+  }
+
+  private void ensureRemaining(long pNumberOfBytes) throws IOException
+  {
+    if (mBuffer.remaining() < pNumberOfBytes)
+      throw new IOException("Truncated checkpoint: "
+                            + pNumberOfBytes
+                            + " bytes needed, "
+                            + mBuffer.remaining()
+                            + " left");
+  }
+
+}
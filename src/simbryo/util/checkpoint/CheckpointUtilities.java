@@ -0,0 +1,260 @@
+package simbryo.util.checkpoint;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Utility class to save and load checkpoints. A checkpoint file consists of a
+ * small header (magic number, format version, codec, class name, payload
+ * length) followed by the payload written by the checkpointed object,
+ * optionally compressed.
+ *
+ * @author royer
+ */
+public class CheckpointUtilities
+{
+  /**
+   * Current checkpoint format version.
+   */
+  public static final int cFormatVersion = 2;
+
+  static final ByteOrder cByteOrder = ByteOrder.LITTLE_ENDIAN;
+
+  private static final int cMagicNumber = 0x50434253; // 'SBCP'
+  private static final int cChunkSize = 1 << 16;
+
+  /**
+   * Saves a checkpoint of the given object into a file. The file is first
+   * written next to its final location and then moved, so that an existing
+   * checkpoint is never left half-written.
+   *
+   * @param pObject
+   *          object to checkpoint
+   * @param pFile
+   *          file to save to
+   * @param pCodec
+   *          compression codec
+   * @throws IOException
+   *           thrown if problem occurs while writing file
+   */
+  public static void saveToFile(CheckpointableInterface pObject,
+                                File pFile,
+                                CheckpointCodec pCodec) throws IOException
+  {
+    CheckpointWriter lCheckpointWriter = new CheckpointWriter();
+    pObject.writeCheckpoint(lCheckpointWriter);
+    ByteBuffer lPayload = lCheckpointWriter.getPayload();
+
+    byte[] lClassName = pObject.getClass()
+                               .getName()
+                               .getBytes(StandardCharsets.UTF_8);
+    ByteBuffer lHeader = ByteBuffer.allocate(4 + 4
+                                             + 1
+                                             + 2
+                                             + lClassName.length
+                                             + 4)
+                                   .order(cByteOrder);
+    lHeader.putInt(cMagicNumber);
+    lHeader.putInt(cFormatVersion);
+    lHeader.put((byte) pCodec.ordinal());
+    lHeader.putShort((short) lClassName.length);
+    lHeader.put(lClassName);
+    lHeader.putInt(lPayload.remaining());
+    lHeader.flip();
+
+    File lParentFile = pFile.getAbsoluteFile().getParentFile();
+    if (lParentFile != null)
+      lParentFile.mkdirs();
+
+    Path lTempPath = new File(pFile.getPath() + ".tmp").toPath();
+    try (FileChannel lFileChannel =
+                                  FileChannel.open(lTempPath,
+                                                   StandardOpenOption.CREATE,
+                                                   StandardOpenOption.WRITE,
+                                                   StandardOpenOption.TRUNCATE_EXISTING))
+    {
+      writeFully(lFileChannel, lHeader);
+      switch (pCodec)
+      {
+      case None:
+        writeFully(lFileChannel, lPayload);
+        break;
+      case Deflate:
+        deflate(lFileChannel, lPayload);
+        break;
+      }
+    }
+
+    try
+    {
+      Files.move(lTempPath,
+                 pFile.toPath(),
+                 StandardCopyOption.REPLACE_EXISTING,
+                 StandardCopyOption.ATOMIC_MOVE);
+    }
+    catch (AtomicMoveNotSupportedException e)
+    {
+      Files.move(lTempPath,
+                 pFile.toPath(),
+                 StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+
+  /**
+   * Restores the state of the given object from a checkpoint file. If the file
+   * does not exist, or was written for another class or by a newer format
+   * version, this method returns false and leaves the object untouched.
+   *
+   * @param pObject
+   *          object to restore, typically freshly constructed with the same
+   *          parameters as the checkpointed object
+   * @param pFile
+   *          file
+   * @return true if the object was restored, false otherwise.
+   * @throws IOException
+   *           thrown if problem occurs while reading file, or if the file is
+   *           corrupted
+   */
+  public static boolean loadFromFile(CheckpointableInterface pObject,
+                                     File pFile) throws IOException
+  {
+    if (!pFile.exists())
+      return false;
+
+    final ByteBuffer lFileBuffer;
+    try (FileChannel lFileChannel = FileChannel.open(pFile.toPath(),
+                                                     StandardOpenOption.READ))
+    {
+      final long lSize = lFileChannel.size();
+      if (lSize > Integer.MAX_VALUE - 8)
+        throw new IOException("Checkpoint file too large: " + lSize
+                              + " bytes");
+      lFileBuffer = ByteBuffer.allocate((int) lSize).order(cByteOrder);
+      while (lFileBuffer.hasRemaining())
+        if (lFileChannel.read(lFileBuffer) < 0)
+          break;
+      lFileBuffer.flip();
+    }
+
+    if (lFileBuffer.remaining() < 4 + 4 + 1 + 2
+        || lFileBuffer.getInt() != cMagicNumber)
+      return false;
+
+    final int lVersion = lFileBuffer.getInt();
+    if (lVersion > cFormatVersion)
+      return false;
+
+    final int lCodecIndex = lFileBuffer.get();
+    if (lCodecIndex < 0
+        || lCodecIndex >= CheckpointCodec.values().length)
+      return false;
+    final CheckpointCodec lCodec = CheckpointCodec.values()[lCodecIndex];
+
+    final int lClassNameLength = lFileBuffer.getShort() & 0xFFFF;
+    if (lFileBuffer.remaining() < lClassNameLength + 4)
+      return false;
+    byte[] lClassName = new byte[lClassNameLength];
+    lFileBuffer.get(lClassName);
+    if (!pObject.getClass()
+                .getName()
+                .equals(new String(lClassName, StandardCharsets.UTF_8)))
+      return false;
+
+    final int lPayloadLength = lFileBuffer.getInt();
+
+    final ByteBuffer lPayload;
+    switch (lCodec)
+    {
+    case Deflate:
+      lPayload = inflate(lFileBuffer, lPayloadLength);
+      break;
+    default:
+      if (lFileBuffer.remaining() != lPayloadLength)
+        throw new IOException("Truncated checkpoint: " + pFile);
+      lPayload = lFileBuffer.slice().order(cByteOrder);
+    }
+
+    pObject.readCheckpoint(new CheckpointReader(lPayload, lVersion));
+    return true;
+  }
+
+  private static void writeFully(FileChannel pFileChannel,
+                                 ByteBuffer pBuffer) throws IOException
+  {
+    while (pBuffer.hasRemaining())
+      pFileChannel.write(pBuffer);
+  }
+
+  private static void deflate(FileChannel pFileChannel,
+                              ByteBuffer pPayload) throws IOException
+  {
+    Deflater lDeflater = new Deflater(Deflater.BEST_SPEED);
+    try
+    {
+      lDeflater.setInput(pPayload.array(),
+                         pPayload.arrayOffset() + pPayload.position(),
+                         pPayload.remaining());
+      lDeflater.finish();
+
+      byte[] lChunk = new byte[cChunkSize];
+      while (!lDeflater.finished())
+      {
+        int lLength = lDeflater.deflate(lChunk);
+        writeFully(pFileChannel, ByteBuffer.wrap(lChunk, 0, lLength));
+      }
+    }
+    finally
+    {
+      lDeflater.end();
+    }
+  }
+
+  private static ByteBuffer inflate(ByteBuffer pCompressed,
+                                    int pPayloadLength) throws IOException
+  {
+    Inflater lInflater = new Inflater();
+    try
+    {
+      lInflater.setInput(pCompressed.array(),
+                         pCompressed.arrayOffset()
+                                              + pCompressed.position(),
+                         pCompressed.remaining());
+
+      byte[] lPayload = new byte[pPayloadLength];
+      int lLength = 0;
+      while (lLength < pPayloadLength)
+      {
+        int lInflated = lInflater.inflate(lPayload,
+                                          lLength,
+                                          pPayloadLength - lLength);
+        if (lInflated == 0 && (lInflater.finished()
+                               || lInflater.needsInput()
+                               || lInflater.needsDictionary()))
+          throw new IOException("Truncated checkpoint");
+        lLength += lInflated;
+      }
+      return ByteBuffer.wrap(lPayload).order(cByteOrder);
+    }
+    catch (DataFormatException e)
+    {
+      throw new IOException("Corrupted checkpoint", e);
+    }
+    finally
+    {
+      lInflater.end();
+    }
+  }
+
+}
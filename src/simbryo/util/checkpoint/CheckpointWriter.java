@@ -0,0 +1,108 @@
+package simbryo.util.checkpoint;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Checkpoint writers accumulate the binary payload of a checkpoint in memory.
+ * Float arrays are written in bulk, only the requested slice is written.
+ *
+ * @author royer
+ */
+public class CheckpointWriter
+{
+  private ByteBuffer mBuffer;
+
+  /**
+   * Creates a checkpoint writer.
+   */
+  public CheckpointWriter()
+  {
+    super();
+    mBuffer = ByteBuffer.allocate(1 << 16)
+                        .order(CheckpointUtilities.cByteOrder);
+  }
+
+  /**
+   * Writes an int.
+   *
+   * @param pValue
+   *          value
+   */
+  public void writeInt(int pValue)
+  {
+    ensureRemaining(Integer.BYTES);
+    mBuffer.putInt(pValue);
+  }
+
+  /**
+   * Writes a long.
+   *
+   * @param pValue
+   *          value
+   */
+  public void writeLong(long pValue)
+  {
+    ensureRemaining(Long.BYTES);
+    mBuffer.putLong(pValue);
+  }
+
+  /**
+   * Writes a float.
+   *
+   * @param pValue
+   *          value
+   */
+  public void writeFloat(float pValue)
+  {
+    ensureRemaining(Float.BYTES);
+    mBuffer.putFloat(pValue);
+  }
+
+  /**
+   * Writes the first elements of a float array.
+   *
+   * @param pArray
+   *          array
+   * @param pLength
+   *          number of elements to write
+   */
+  public void writeFloats(float[] pArray, int pLength)
+  {
+    ensureRemaining((long) pLength * Float.BYTES);
+    mBuffer.asFloatBuffer().put(pArray, 0, pLength);
+    mBuffer.position(mBuffer.position() + pLength * Float.BYTES);
+  }
+
+  /**
+   * Returns the payload written so far, as a buffer ready to be read.
+   *
+   * @return payload
+   */
+  public ByteBuffer getPayload()
+  {
+    ByteBuffer lPayload = mBuffer.duplicate().order(mBuffer.order());
+    lPayload.flip();
+    return lPayload;
+  }
+
+  private void ensureRemaining(long pNumberOfBytes)
+  {
+    if (mBuffer.remaining() >= pNumberOfBytes)
+      return;
+
+    final long lNewCapacity = Math.max(2L * mBuffer.capacity(),
+                                       mBuffer.position()
+                                                             + pNumberOfBytes);
+    if (lNewCapacity > Integer.MAX_VALUE - 8)
+      throw new IllegalStateException("Checkpoint payload too large: "
+                                      + lNewCapacity
+                                      + " bytes");
+
+    ByteBuffer lNewBuffer = ByteBuffer.allocate((int) lNewCapacity)
+                                      .order(mBuffer.order());
+    mBuffer.flip();
+    lNewBuffer.put(mBuffer);
+    mBuffer = lNewBuffer;
+  }
+
+}
@@ -0,0 +1,38 @@
+package simbryo.util.checkpoint;
+
+import java.io.IOException;
+
+/**
+ * Objects implementing this interface can write their state to a checkpoint
+ * and restore it from a checkpoint. Contrary to Java serialization, state is
+ * restored into an existing instance, typically freshly constructed with the
+ * same parameters as the instance that was checkpointed, so that only the
+ * state that evolves needs to be saved.
+ *
+ * @author royer
+ */
+public interface CheckpointableInterface
+{
+
+  /**
+   * Writes the state of this object to a checkpoint. Derived classes that
+   * override this method must call the super method first.
+   *
+   * @param pCheckpointWriter
+   *          checkpoint writer
+   */
+  void writeCheckpoint(CheckpointWriter pCheckpointWriter);
+
+  /**
+   * Restores the state of this object from a checkpoint, reading the same
+   * values in the same order as writeCheckpoint(...) wrote them. Derived
+   * classes that override this method must call the super method first.
+   *
+   * @param pCheckpointReader
+   *          checkpoint reader
+   * @throws IOException
+   *           if the checkpoint is not compatible with this object
+   */
+  void readCheckpoint(CheckpointReader pCheckpointReader) throws IOException;
+
+}
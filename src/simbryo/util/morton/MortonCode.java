@@ -0,0 +1,52 @@
+package simbryo.util.morton;
+
+/**
+ * Morton codes (also known as Z-order curve indices) interleave the bits of
+ * integer coordinates so that points that are close in space tend to have
+ * close codes. Sorting points by their Morton code is a cheap way to improve
+ * the memory locality of spatial data structures.
+ *
+ * @author royer
+ */
+public class MortonCode
+{
+
+  /**
+   * Returns the number of bits needed to represent coordinates strictly
+   * smaller than a given maximal value.
+   * 
+   * @param pMaxCoordinate
+   *          maximal coordinate (exclusive)
+   * @return number of bits
+   */
+  public static int getNumberOfBits(int pMaxCoordinate)
+  {
+    return 32 - Integer.numberOfLeadingZeros(Math.max(1,
+                                                      pMaxCoordinate - 1));
+  }
+
+  /**
+   * Encodes nD integer coordinates into a Morton code by interleaving the
+   * lowest pNumberOfBits bits of each coordinate. The total number of bits
+   * (dimension times bits per coordinate) must not exceed 63.
+   * 
+   * @param pNumberOfBits
+   *          number of bits per coordinate
+   * @param pCoordinates
+   *          non-negative integer coordinates
+   * @return Morton code
+   */
+  public static long encode(int pNumberOfBits, int... pCoordinates)
+  {
+    final int lDimension = pCoordinates.length;
+    long lCode = 0;
+    for (int b = 0; b < pNumberOfBits; b++)
+      for (int d = 0; d < lDimension; d++)
+      {
+        long lBit = (pCoordinates[d] >>> b) & 1L;
+        lCode |= lBit << (b * lDimension + d);
+      }
+    return lCode;
+  }
+
+}
@@ -0,0 +1,164 @@
+package simbryo.util.parallel;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Utility class to process a range of indices in parallel on a fork-join pool.
+ * The range is cut into a fixed number of contiguous chunks of (almost) equal
+ * size, the chunks are then recursively forked so that idle worker threads can
+ * steal them. Chunk boundaries only depend on the range and number of chunks,
+ * not on the scheduling.
+ *
+ * @author royer
+ */
+public class ParallelRange
+{
+
+  /**
+   * Returns a reasonable number of chunks for a given pool and range length:
+   * a few chunks per worker thread to help load balancing, but no chunk smaller
+   * than a given minimal size.
+   * 
+   * @param pPool
+   *          fork-join pool
+   * @param pLength
+   *          length of range
+   * @param pMinChunkSize
+   *          minimal chunk size
+   * @return number of chunks (at least 1)
+   */
+  public static int getNumberOfChunks(ForkJoinPool pPool,
+                                      int pLength,
+                                      int pMinChunkSize)
+  {
+    if (pPool == null || pLength <= 0)
+      return 1;
+    final int lMaxNumberOfChunks = 4 * pPool.getParallelism();
+    final int lNumberOfChunks = (pLength + pMinChunkSize - 1)
+                                / Math.max(1, pMinChunkSize);
+    return Math.max(1, Math.min(lMaxNumberOfChunks, lNumberOfChunks));
+  }
+
+  /**
+   * Returns the begin index of a given chunk.
+   * 
+   * @param pBeginIndex
+   *          range begin index
+   * @param pEndIndex
+   *          range end index
+   * @param pNumberOfChunks
+   *          number of chunks
+   * @param pChunkIndex
+   *          chunk index
+   * @return chunk begin index (inclusive)
+   */
+  public static int getChunkBegin(int pBeginIndex,
+                                  int pEndIndex,
+                                  int pNumberOfChunks,
+                                  int pChunkIndex)
+  {
+    final long lLength = pEndIndex - pBeginIndex;
+    return (int) (pBeginIndex + (lLength * pChunkIndex) / pNumberOfChunks);
+  }
+
+  /**
+   * Processes the range [pBeginIndex, pEndIndex) with a given closure, the
+   * range is cut in a given number of chunks that are processed in parallel on
+   * the given pool. If the pool is null or if there is only one chunk, the
+   * closure is called directly from the caller thread.
+   * 
+   * @param pPool
+   *          fork-join pool, can be null
+   * @param pBeginIndex
+   *          begin index (inclusive)
+   * @param pEndIndex
+   *          end index (exclusive)
+   * @param pNumberOfChunks
+   *          number of chunks
+   * @param pClosure
+   *          closure to apply to each chunk
+   */
+  public static void forEach(ForkJoinPool pPool,
+                             int pBeginIndex,
+                             int pEndIndex,
+                             int pNumberOfChunks,
+                             RangeClosureInterface pClosure)
+  {
+    if (pEndIndex <= pBeginIndex)
+      return;
+
+    if (pPool == null || pNumberOfChunks <= 1)
+    {
+      pClosure.apply(0, pBeginIndex, pEndIndex);
+      return;
+    }
+
+    ChunkAction lChunkAction = new ChunkAction(pBeginIndex,
+                                               pEndIndex,
+                                               pNumberOfChunks,
+                                               0,
+                                               pNumberOfChunks,
+                                               pClosure);
+
+    pPool.invoke(lChunkAction);
+  }
+
+  private static class ChunkAction extends RecursiveAction
+  {
+    private static final long serialVersionUID = 1L;
+
+    private final int mBeginIndex, mEndIndex, mNumberOfChunks;
+    private final int mFirstChunk, mLastChunk;
+    private final RangeClosureInterface mClosure;
+
+    ChunkAction(int pBeginIndex,
+                int pEndIndex,
+                int pNumberOfChunks,
+                int pFirstChunk,
+                int pLastChunk,
+                RangeClosureInterface pClosure)
+    {
+      mBeginIndex = pBeginIndex;
+      mEndIndex = pEndIndex;
+      mNumberOfChunks = pNumberOfChunks;
+      mFirstChunk = pFirstChunk;
+      mLastChunk = pLastChunk;
+      mClosure = pClosure;
+    }
+
+    @Override
+    protected void compute()
+    {
+      if (mLastChunk - mFirstChunk == 1)
+      {
+        int lChunkBegin = getChunkBegin(mBeginIndex,
+                                        mEndIndex,
+                                        mNumberOfChunks,
+                                        mFirstChunk);
+        int lChunkEnd = getChunkBegin(mBeginIndex,
+                                      mEndIndex,
+                                      mNumberOfChunks,
+                                      mFirstChunk + 1);
+        if (lChunkEnd > lChunkBegin)
+          mClosure.apply(mFirstChunk, lChunkBegin, lChunkEnd);
+        return;
+      }
+
+      int lMiddleChunk = (mFirstChunk + mLastChunk) >>> 1;
+      invokeAll(new ChunkAction(mBeginIndex,
+                                mEndIndex,
+                                mNumberOfChunks,
+                                mFirstChunk,
+                                lMiddleChunk,
+                                mClosure),
+                new ChunkAction(mBeginIndex,
+                                mEndIndex,
+                                mNumberOfChunks,
+                                lMiddleChunk,
+                                mLastChunk,
+                                mClosure));
+    }
+  }
+
+}
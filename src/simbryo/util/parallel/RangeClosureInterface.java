@@ -0,0 +1,25 @@
+package simbryo.util.parallel;
+
+/**
+ * Closures implementing this interface process a contiguous chunk of a range
+ * of indices (begin inclusive, end exclusive).
+ *
+ * @author royer
+ */
+public interface RangeClosureInterface
+{
+
+  /**
+   * Processes the chunk of indices [pBeginIndex, pEndIndex).
+   * 
+   * @param pChunkIndex
+   *          index of the chunk, chunks are numbered in increasing order of
+   *          their begin index.
+   * @param pBeginIndex
+   *          begin index (inclusive)
+   * @param pEndIndex
+   *          end index (exclusive)
+   */
+  void apply(int pChunkIndex, int pBeginIndex, int pEndIndex);
+
+}
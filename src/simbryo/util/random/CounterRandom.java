@@ -0,0 +1,170 @@
+package simbryo.util.random;
+
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counter-based pseudo-random number generator. Random numbers are not drawn
+ * from a sequential state but computed as a hash (SplitMix64 finalizer) of a
+ * seed, a pass index and a counter. A typical use is one key per pass over the
+ * particles, obtained from getKey(...), and a counter derived from the particle
+ * id and coordinate index, so that the numbers do not depend on the order in
+ * which particles are processed nor on how they are distributed over threads.
+ *
+ * @author royer
+ */
+public final class CounterRandom implements Serializable
+{
+  private static final long serialVersionUID = 1L;
+
+  private static final long cGamma = 0x9E3779B97F4A7C15L;
+  private static final double cDoubleUnit = 0x1.0p-53;
+
+  private static final AtomicLong cSeedGenerator =
+                                                 new AtomicLong(mix64(System.currentTimeMillis())
+                                                                ^ mix64(System.nanoTime()));
+
+  private final long mSeed;
+
+  /**
+   * Creates a counter-based random number generator with a given seed.
+   *
+   * @param pSeed
+   *          seed
+   */
+  public CounterRandom(long pSeed)
+  {
+    super();
+    mSeed = pSeed;
+  }
+
+  /**
+   * Returns a new seed, different for each call. Used when no seed is given
+   * explicitly, runs using such seeds are not reproducible.
+   *
+   * @return new seed
+   */
+  public static long newSeed()
+  {
+    return mix64(cSeedGenerator.getAndAdd(cGamma));
+  }
+
+  /**
+   * Returns the seed of this generator.
+   *
+   * @return seed
+   */
+  public long getSeed()
+  {
+    return mSeed;
+  }
+
+  /**
+   * Returns an independent generator for a given stream, for example one per
+   * ensemble member or per component.
+   *
+   * @param pStream
+   *          stream index
+   * @return generator for that stream
+   */
+  public CounterRandom split(long pStream)
+  {
+    return new CounterRandom(mix64(mSeed ^ mix64(pStream * cGamma
+                                                 + cGamma)));
+  }
+
+  /**
+   * Returns the key for a given pass index. All numbers drawn during a pass
+   * should use the same key and distinct counters.
+   *
+   * @param pPassIndex
+   *          pass index (e.g. time step index)
+   * @return key
+   */
+  public long getKey(long pPassIndex)
+  {
+    return mix64(mSeed + mix64((pPassIndex + 1) * cGamma));
+  }
+
+  /**
+   * Returns a uniformly distributed 64 bit value for a given key and counter.
+   *
+   * @param pKey
+   *          key
+   * @param pCounter
+   *          counter
+   * @return random long
+   */
+  public static long nextLong(long pKey, long pCounter)
+  {
+    return mix64(pKey + (pCounter + 1) * cGamma);
+  }
+
+  /**
+   * Returns a uniformly distributed value in [0,1) for a given key and
+   * counter.
+   *
+   * @param pKey
+   *          key
+   * @param pCounter
+   *          counter
+   * @return random double in [0,1)
+   */
+  public static double nextDouble(long pKey, long pCounter)
+  {
+    return (nextLong(pKey, pCounter) >>> 11) * cDoubleUnit;
+  }
+
+  /**
+   * Returns a uniformly distributed value in [min,max) for a given key and
+   * counter.
+   *
+   * @param pKey
+   *          key
+   * @param pCounter
+   *          counter
+   * @param pMin
+   *          min
+   * @param pMax
+   *          max
+   * @return random double in [min,max)
+   */
+  public static double nextDouble(long pKey,
+                                  long pCounter,
+                                  double pMin,
+                                  double pMax)
+  {
+    return pMin + nextDouble(pKey, pCounter) * (pMax - pMin);
+  }
+
+  /**
+   * Returns a uniformly distributed int in [min,max) for a given key and
+   * counter.
+   *
+   * @param pKey
+   *          key
+   * @param pCounter
+   *          counter
+   * @param pMin
+   *          min (inclusive)
+   * @param pMax
+   *          max (exclusive)
+   * @return random int in [min,max)
+   */
+  public static int nextInt(long pKey, long pCounter, int pMin, int pMax)
+  {
+    return pMin + (int) (nextDouble(pKey, pCounter) * (pMax - pMin));
+  }
+
+  /**
+   * SplitMix64 finalizer (variant 13 of Stafford's mixers), as used by
+   * java.util.SplittableRandom.
+   */
+  private static long mix64(long z)
+  {
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    return z ^ (z >>> 31);
+  }
+
+}